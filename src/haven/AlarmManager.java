@@ -1,8 +1,5 @@
 package haven;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -122,11 +119,7 @@ public class AlarmManager {
 				return;
 			}
 			try {
-				AudioInputStream in = AudioSystem.getAudioInputStream(file);
-				AudioFormat tgtFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100, 16, 2,4, 44100, false);
-				AudioInputStream pcmStream = AudioSystem.getAudioInputStream(tgtFormat, in);
-				Audio.CS klippi = new Audio.PCMClip(pcmStream, 2, 2);
-				((Audio.Mixer)Audio.player.stream).add(new Audio.VolAdjust(klippi, volume/50.0));
+				Audio.playfile(file, volume/50.0);
 			} catch(UnsupportedAudioFileException e) {
 				e.printStackTrace();
 			} catch(IOException e) {
@@ -57,7 +57,8 @@ public class Audio {
 
     public static class Mixer implements CS {
 	public final boolean cont;
-	private final Collection<CS> clips = new LinkedList<CS>();
+	private final List<CS> clips = new ArrayList<CS>();
+	private double[][] buf = {};
 
 	public Mixer(boolean continuous) {
 	    this.cont = continuous;
@@ -69,17 +70,19 @@ public class Audio {
 
 	public int get(double[][] dst, int ns) {
 	    int nch = dst.length;
-	    double[][] buf = new double[nch][ns];
+	    if((buf.length != nch) || ((nch > 0) && (buf[0].length < ns)))
+		buf = new double[nch][ns];
+	    double[][] buf = this.buf;
 	    int max = 0;
 	    synchronized(clips) {
-		clip: for(Iterator<CS> i = clips.iterator(); i.hasNext();) {
-		    CS cs = i.next();
+		clip: for(int i = 0; i < clips.size(); i++) {
+		    CS cs = clips.get(i);
 		    int left = ns;
 		    int boff = 0;
 		    while(left > 0) {
 			int ret = cs.get(buf, left);
 			if(ret < 0) {
-			    i.remove();
+			    clips.remove(i--);
 			    continue clip;
 			}
 			if(boff + ret > max) {
@@ -88,8 +91,9 @@ public class Audio {
 			    max = boff + ret;
 			}
 			for(int ch = 0; ch < nch; ch++) {
+			    double[] d = dst[ch], b = buf[ch];
 			    for(int sm = 0; sm < ret; sm++)
-				dst[ch][boff + sm] += buf[ch][sm];
+				d[boff + sm] += b[sm];
 			}
 			left -= ret;
 			boff += ret;
@@ -165,12 +169,14 @@ public class Audio {
 	public final int sch, sfmt, ssz;
 	public int size = -1;
 	private final byte[] dbuf = new byte[256];
+	private double[] dec;
 	private int head = 0, tail = 0;
 	private boolean eof = false;
 
 	public PCMClip(InputStream clip, int nch, int sfmt) {
 	    this.clip = clip;
 	    this.sch = nch;
+	    this.dec = new double[nch];
 	    switch(this.sfmt = sfmt) {
 	    case UN8:  ssz = 1; break;
 	    case SN8:  ssz = 1; break;
@@ -213,7 +219,7 @@ public class Audio {
 
 	public int get(double[][] dst, int ns) {
 	    int nch = dst.length;
-	    double[] dec = new double[sch];
+	    double[] dec = this.dec;
 	    for(int sm = 0; sm < ns; sm++) {
 		while(tail - head < ssz * sch) {
 		    if(head > 0) {
@@ -547,6 +553,7 @@ public class Audio {
 	public final CS stream;
 	private final int nch;
 	private volatile boolean reopen = false;
+	private double[][] val = {};
 
 	Player(CS stream) {
 	    super("Haven audio player");
@@ -557,7 +564,9 @@ public class Audio {
 
 	private int fillbuf(byte[] dst, int off, int len) {
 	    int ns = len / (2 * nch);
-	    double[][] val = new double[nch][ns];
+	    if((val.length != nch) || (val[0].length < ns))
+		val = new double[nch][ns];
+	    double[][] val = this.val;
 	    int left = ns, wr = 0;
 	    while(left > 0) {
 		int ret = stream.get(val, left);
@@ -694,6 +703,100 @@ public class Audio {
 	play(fromres(res));
     }
 
+    /* Fully decoded sound, for short clips played often enough that
+     * decoding them anew each time is wasteful. */
+    public static class Decoded {
+	public final float[][] data;
+	public final long mtime, fsize;
+
+	public Decoded(float[][] data, long mtime, long fsize) {
+	    this.data = data;
+	    this.mtime = mtime;
+	    this.fsize = fsize;
+	}
+
+	public int size() {
+	    return(data.length * data[0].length * 4);
+	}
+
+	public CS stream() {
+	    return(new CS() {
+		    int pos = 0;
+
+		    public int get(double[][] dst, int ns) {
+			int len = data[0].length;
+			if(pos >= len)
+			    return(-1);
+			int n = Math.min(ns, len - pos);
+			for(int ch = 0; ch < dst.length; ch++) {
+			    double[] d = dst[ch];
+			    float[] s = data[ch % data.length];
+			    for(int sm = 0; sm < n; sm++)
+				d[sm] = s[pos + sm];
+			}
+			pos += n;
+			return(n);
+		    }
+		});
+	}
+
+	public static Decoded decode(File file) throws IOException, UnsupportedAudioFileException {
+	    long mtime = file.lastModified(), fsize = file.length();
+	    byte[] raw;
+	    try(AudioInputStream in = AudioSystem.getAudioInputStream(file);
+		AudioInputStream pcm = AudioSystem.getAudioInputStream(fmt, in)) {
+		raw = pcm.readAllBytes();
+	    }
+	    int nch = fmt.getChannels(), ns = raw.length / (2 * nch);
+	    float[][] data = new float[nch][ns];
+	    for(int sm = 0, off = 0; sm < ns; sm++) {
+		for(int ch = 0; ch < nch; ch++, off += 2)
+		    data[ch][sm] = (short)((raw[off] & 0xff) | ((raw[off + 1] & 0xff) << 8)) * 0x1.0p-15f;
+	    }
+	    return(new Decoded(data, mtime, fsize));
+	}
+    }
+
+    public static final Config.Variable<Integer> sfxcache = Config.Variable.propi("haven.sfxcache", 16);
+    private static final Map<String, Decoded> decoded = new LinkedHashMap<>(16, 0.75f, true);
+    private static long decodedsz = 0;
+
+    /* Returns the decoded contents of a sound file, from a cache of
+     * recently played files kept within sfxcache MiB. Files are
+     * decoded anew only when they have changed on disk. */
+    public static Decoded decoded(File file) throws IOException, UnsupportedAudioFileException {
+	String key = file.getAbsolutePath();
+	synchronized(decoded) {
+	    Decoded ret = decoded.get(key);
+	    if((ret != null) && (ret.mtime == file.lastModified()) && (ret.fsize == file.length()))
+		return(ret);
+	}
+	Decoded ret = Decoded.decode(file);
+	synchronized(decoded) {
+	    Decoded prev = decoded.put(key, ret);
+	    if(prev != null)
+		decodedsz -= prev.size();
+	    decodedsz += ret.size();
+	    long max = (long)sfxcache.get() << 20;
+	    for(Iterator<Decoded> i = decoded.values().iterator(); (decodedsz > max) && i.hasNext();) {
+		Decoded old = i.next();
+		if(old == ret)
+		    continue;
+		decodedsz -= old.size();
+		i.remove();
+	    }
+	}
+	return(ret);
+    }
+
+    /* Plays a sound file at the given volume, through the decoded
+     * clip cache. */
+    public static CS playfile(File file, double vol) throws IOException, UnsupportedAudioFileException {
+	CS ret = new VolAdjust(decoded(file).stream(), vol);
+	play(ret);
+	return(ret);
+    }
+
     public static int bufsize() {
 	return(bufsize / fmt.getFrameSize());
     }
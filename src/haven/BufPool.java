@@ -0,0 +1,97 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.util.*;
+import java.nio.*;
+
+/* Direct byte buffers for the network path, kept in power-of-two
+ * size classes so that sending a packet does not allocate. Buffers
+ * taken must be given back once written, and must not be used after
+ * that. */
+public class BufPool {
+    public static final int MINSZ = 64;
+    private final List<ArrayDeque<ByteBuffer>> free;
+    private final int keep;
+    private long hits, misses;
+
+    public BufPool(int maxsz, int keep) {
+	int n = 0;
+	while((MINSZ << n) < maxsz)
+	    n++;
+	this.free = new ArrayList<>(n + 1);
+	for(int i = 0; i <= n; i++)
+	    free.add(new ArrayDeque<>());
+	this.keep = keep;
+    }
+
+    private static int sclass(int sz) {
+	int c = 0;
+	while((MINSZ << c) < sz)
+	    c++;
+	return(c);
+    }
+
+    public ByteBuffer take(int sz) {
+	int c = sclass(sz);
+	if(c >= free.size()) {
+	    synchronized(this) {
+		misses++;
+	    }
+	    return(ByteBuffer.allocate(sz));
+	}
+	synchronized(this) {
+	    ByteBuffer ret = free.get(c).poll();
+	    if(ret != null) {
+		hits++;
+		ret.clear();
+		return(ret);
+	    }
+	    misses++;
+	}
+	return(ByteBuffer.allocateDirect(MINSZ << c));
+    }
+
+    public void give(ByteBuffer buf) {
+	if(!buf.isDirect())
+	    return;
+	int c = sclass(buf.capacity());
+	if((c >= free.size()) || ((MINSZ << c) != buf.capacity()))
+	    return;
+	synchronized(this) {
+	    if(free.get(c).size() < keep)
+		free.get(c).push(buf);
+	}
+    }
+
+    public String stats() {
+	synchronized(this) {
+	    return(String.format("%d/%d", hits, hits + misses));
+	}
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/* Append-only on-disk log of a chat channel, with an inverted index
+ * of the words of the lines logged in this session, so that history
+ * no longer held in memory by the channel can still be searched and
+ * paged back in. The index maps each word to the ascending numbers
+ * of the lines it occurs in, and lines are read back from the file
+ * by offset. Only the last haven.chatlog.keep lines are indexed;
+ * older ones are forgotten half a window at a time, and are then
+ * only left in the file.
+ *
+ * Other clients may be logging to the same file, so lines are only
+ * ever appended, at the end of the file as found under an exclusive
+ * lock, and each line's length is recorded along with its offset. */
+public class ChatLog {
+    public static final Config.Variable<Boolean> enabled = Config.Variable.propb("haven.chatlog", true);
+    public static final Config.Variable<Integer> keep = Config.Variable.propi("haven.chatlog.keep", 100000);
+    public final Path path;
+    private final FileChannel fp;
+    private static final Map<Path, Object> plocks = new HashMap<>();
+    private final Object plock;
+    private final Map<String, Postings> index = new HashMap<>();
+    private long[] offsets = new long[64];
+    private int[] lens = new int[64];
+    /* Lines are numbered from the start of the session. The first
+     * entry of offsets and lens is that of line number base. */
+    private int base = 0, n = 0;
+
+    private static class Postings {
+	int[] ents = new int[4];
+	int n = 0;
+
+	void add(int ent) {
+	    if((n > 0) && (ents[n - 1] == ent))
+		return;
+	    if(n == ents.length)
+		ents = Arrays.copyOf(ents, n * 2);
+	    ents[n++] = ent;
+	}
+    }
+
+    public ChatLog(Path path) throws IOException {
+	Files.createDirectories(path.getParent());
+	this.path = path;
+	this.fp = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	synchronized(plocks) {
+	    this.plock = plocks.computeIfAbsent(path.toAbsolutePath(), k -> new Object());
+	}
+    }
+
+    private static String fname(String name) {
+	StringBuilder buf = new StringBuilder();
+	for(int i = 0; i < name.length(); i++) {
+	    char c = name.charAt(i);
+	    buf.append((Character.isLetterOrDigit(c) || (c == ' ') || (c == '-')) ? c : '_');
+	}
+	return(buf.toString());
+    }
+
+    /* Opens the log of a channel for a given account, or returns
+     * null if logging is disabled or the log cannot be opened. */
+    public static ChatLog open(String user, String channel) {
+	if(!enabled.get() || (user == null))
+	    return(null);
+	try {
+	    return(new ChatLog(Utils.path("Logs").resolve("Chat").resolve(fname(user)).resolve(fname(channel) + ".log")));
+	} catch(IOException e) {
+	    new Warning(e, "could not open chat log for " + channel).issue();
+	    return(null);
+	}
+    }
+
+    public static List<String> words(String text) {
+	List<String> ret = new ArrayList<>();
+	int s = -1;
+	for(int i = 0; i <= text.length(); i++) {
+	    boolean w = (i < text.length()) && Character.isLetterOrDigit(text.charAt(i));
+	    if(w && (s < 0)) {
+		s = i;
+	    } else if(!w && (s >= 0)) {
+		ret.add(text.substring(s, i).toLowerCase(Locale.ROOT));
+		s = -1;
+	    }
+	}
+	return(ret);
+    }
+
+    /* Logs a line, returning its number, or -1 if it could not be
+     * written. */
+    public synchronized int append(String line) {
+	line = line.replace('\n', ' ');
+	ByteBuffer data = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+	long off;
+	/* File locks are held by the whole process, so logs of the
+	 * same file in this process must also exclude each other. */
+	synchronized(plock) {
+	    try(FileLock lk = fp.lock()) {
+		off = fp.size();
+		for(long p = off; data.hasRemaining();)
+		    p += fp.write(data, p);
+	    } catch(IOException e) {
+		new Warning(e, "could not write chat log " + path).issue();
+		return(-1);
+	    }
+	}
+	if(n - base >= Math.max(keep.get(), 2))
+	    forget(keep.get() / 2);
+	if(n - base == offsets.length) {
+	    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+	    lens = Arrays.copyOf(lens, lens.length * 2);
+	}
+	int ent = n++;
+	offsets[ent - base] = off;
+	lens[ent - base] = data.limit();
+	for(String w : words(line))
+	    index.computeIfAbsent(w, k -> new Postings()).add(ent);
+	return(ent);
+    }
+
+    /* Forgets the oldest nf indexed lines. */
+    private void forget(int nf) {
+	int nb = base + nf;
+	System.arraycopy(offsets, nf, offsets, 0, n - nb);
+	System.arraycopy(lens, nf, lens, 0, n - nb);
+	base = nb;
+	for(Iterator<Postings> i = index.values().iterator(); i.hasNext();) {
+	    Postings p = i.next();
+	    int s = Arrays.binarySearch(p.ents, 0, p.n, nb);
+	    if(s < 0)
+		s = -s - 1;
+	    if(s == p.n) {
+		i.remove();
+	    } else if(s > 0) {
+		p.n -= s;
+		if(p.ents.length > p.n * 4)
+		    p.ents = Arrays.copyOfRange(p.ents, s, s + Math.max(p.n * 2, 4));
+		else
+		    System.arraycopy(p.ents, s, p.ents, 0, p.n);
+	    }
+	}
+    }
+
+    private String read(int ent) throws IOException {
+	long off = offsets[ent - base];
+	ByteBuffer buf = ByteBuffer.allocate(lens[ent - base]);
+	while(buf.hasRemaining()) {
+	    if(fp.read(buf, off + buf.position()) < 0)
+		throw(new EOFException());
+	}
+	return(new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8).trim());
+    }
+
+    /* Returns up to max of the indexed lines containing all the
+     * words of query, newest first. */
+    public synchronized List<String> search(String query, int max) {
+	List<String> words = words(query);
+	if(words.isEmpty())
+	    return(Collections.emptyList());
+	Postings[] lists = new Postings[words.size()];
+	for(int i = 0; i < lists.length; i++) {
+	    if((lists[i] = index.get(words.get(i))) == null)
+		return(Collections.emptyList());
+	}
+	Arrays.sort(lists, (a, b) -> a.n - b.n);
+	int[] pos = new int[lists.length];
+	for(int i = 1; i < lists.length; i++)
+	    pos[i] = lists[i].n - 1;
+	List<String> ret = new ArrayList<>();
+	/* Intersect from the newest end, driven by the shortest list. */
+	cand: for(int c = lists[0].n - 1; (c >= 0) && (ret.size() < max); c--) {
+	    int ent = lists[0].ents[c];
+	    for(int i = 1; i < lists.length; i++) {
+		while((pos[i] >= 0) && (lists[i].ents[pos[i]] > ent))
+		    pos[i]--;
+		if(pos[i] < 0)
+		    break cand;
+		if(lists[i].ents[pos[i]] != ent)
+		    continue cand;
+	    }
+	    try {
+		ret.add(read(ent));
+	    } catch(IOException e) {
+		new Warning(e, "could not read chat log " + path).issue();
+		break;
+	    }
+	}
+	return(ret);
+    }
+
+    /* Returns the lines numbered from from to to, exclusive, as far
+     * as they are still indexed. */
+    public synchronized List<String> lines(int from, int to) {
+	List<String> ret = new ArrayList<>();
+	for(int ent = Math.max(from, base); ent < Math.min(to, n); ent++) {
+	    try {
+		ret.add(read(ent));
+	    } catch(IOException e) {
+		new Warning(e, "could not read chat log " + path).issue();
+		return(Collections.emptyList());
+	    }
+	}
+	return(ret);
+    }
+
+    /* The number of the oldest line still indexed. */
+    public synchronized int first() {
+	return(base);
+    }
+
+    public synchronized int size() {
+	return(n);
+    }
+
+    public void close() {
+	try {
+	    fp.close();
+	} catch(IOException e) {
+	}
+    }
+}
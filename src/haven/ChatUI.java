@@ -155,11 +155,22 @@ public class ChatUI extends Widget {
     }
 
     public static abstract class Channel extends Widget {
+	public static final Config.Variable<Integer> keep = Config.Variable.propi("haven.chatkeep", 1000);
 	public final List<RenderedMessage> rmsgs = new ArrayList<>();
 	public int urgency = 0;
 	private final Scrollbar sb;
 	private final IButton cb;
 	private double dy;
+	/* Index of the first message in rmsgs. Messages more than
+	 * haven.chatkeep back are dropped once they are well above the
+	 * view, and are left only in the log. Scrolling up to the first
+	 * message in memory pages older lines back in from the log, as
+	 * plain text, starting at line number histend - 1. */
+	private int rbase = 0;
+	private ChatLog log;
+	private boolean logopen = false;
+	private int histend = -1;
+	private static final int PAGE = 50;
 
 	/* Deprecated? */
 	public final List<Message> msgs = new AbstractList<Message>() {
@@ -177,12 +188,16 @@ public class ChatUI extends Widget {
 	    public boolean mousedown(Channel chan, CharPos pos, Coord c, int btn) {return(false);}
 	    public boolean mouseup(Channel chan, CharPos pos, Coord c, int btn) {return(false);}
 	    public boolean clicked(Channel chan, CharPos pos, Coord c, int btn) {return(false);}
+	    /* The plain text to log and index the message as, if any. */
+	    public String logtext() {return(null);}
 	}
 
 	private RenderedMessage soldest = null, snewest = null;
 	public class RenderedMessage {
 	    public final Message msg;
 	    public final int idx;
+	    /* The line number of the message in the channel's log. */
+	    int lent = -1;
 	    private Indir<Text> data;
 	    private Text text;
 	    RenderedMessage snext = null, sprev = null;
@@ -238,12 +253,26 @@ public class ChatUI extends Widget {
 	    }
 
 	    private Coord sz = null;
+	    private int eh = -1;
 	    public int h() {
 		if(sz == null)
-		    sz = text().sz();
+		    eh = (sz = text().sz()).y;
 		return(sz.y);
 	    }
 
+	    /* The height of the message if it has been rendered at
+	     * its current width, or else an estimate, so that laying
+	     * out messages that are out of view does not require
+	     * rendering them. Drawing corrects the estimate once the
+	     * message is in view. */
+	    public int hint() {
+		if(sz != null)
+		    return(sz.y);
+		if(eh >= 0)
+		    return(eh);
+		return(lineh());
+	    }
+
 	    public void clear() {
 		if(text != null) {
 		    text.dispose();
@@ -259,13 +288,18 @@ public class ChatUI extends Widget {
 			((Disposable)data).dispose();
 		    data = null;
 		}
+		if(sz != null)
+		    eh = sz.y;
 		sz = null;
 	    }
 
 	    public void resize(int w) {
 		if(this.w != w) {
+		    int ow = this.w;
 		    this.w = w;
 		    invalidate();
+		    if((eh >= 0) && (ow > 0) && (w > 0))
+			eh = Math.max((eh * ow) / w, Math.min(eh, lineh()));
 		}
 	    }
 
@@ -277,6 +311,13 @@ public class ChatUI extends Widget {
 	    }
 	}
 
+	private static int lineh = -1;
+	private static int lineh() {
+	    if(lineh < 0)
+		lineh = fnd.render("W", UI.scale(100)).sz().y;
+	    return(lineh);
+	}
+
 	private void trimunseen() {
 	    double now = ui.lasttick;
 	    while(true) {
@@ -297,6 +338,8 @@ public class ChatUI extends Widget {
 		this.col = col;
 	    }
 
+	    public String logtext() {return(text);}
+
 	    @Deprecated
 	    public SimpleMessage(String text, Color col, int w) {this(text, col);}
 
@@ -308,6 +351,29 @@ public class ChatUI extends Widget {
 	    }
 	}
 
+	/* A message shown only locally, which is not logged. */
+	public static class LocalMessage extends SimpleMessage {
+	    public LocalMessage(String text, Color col) {
+		super(text, col);
+	    }
+
+	    public String logtext() {return(null);}
+	}
+
+	/* A line paged back in from the log, which already carries
+	 * its timestamp. */
+	public static class LoggedMessage extends Message {
+	    public final String text;
+
+	    public LoggedMessage(String text) {
+		this.text = text;
+	    }
+
+	    public Indir<Text> render(int w) {
+		return(() -> fnd.render(RichText.Parser.quote(text), w, TextAttribute.FOREGROUND, Color.LIGHT_GRAY));
+	    }
+	}
+
 	public Channel(boolean closable) {
 	    sb = add(new Scrollbar(0, 0, 0));
 	    if(closable)
@@ -317,20 +383,23 @@ public class ChatUI extends Widget {
 	}
 
 	public void append(Message msg, int urgency) {
+	    RenderedMessage rm;
 	    synchronized(rmsgs) {
-		RenderedMessage rm = new RenderedMessage(msg, rmsgs.size(), iw());
+		rm = new RenderedMessage(msg, rbase + rmsgs.size(), iw());
 		if(rmsgs.isEmpty()) {
 		    rm.y = 0;
 		} else {
 		    RenderedMessage lm = rmsgs.get(rmsgs.size() - 1);
-		    rm.y = lm.y + lm.h();
+		    rm.y = lm.y + lm.hint();
 		}
 		rmsgs.add(rm);
 		boolean b = sb.val >= sb.max;
-		sb.max = rm.y + rm.h() - ih();
+		sb.max = rm.y + rm.hint() - ih();
 		if(b)
 		    sb.val = sb.max;
+		trim();
 	    }
+	    rm.lent = log(msg);
 	    getparent(ChatUI.class).notify(this, msg, urgency);
 	    updurgency(Math.max(this.urgency, urgency));
 	}
@@ -339,6 +408,102 @@ public class ChatUI extends Widget {
 	    append(msg, 0);
 	}
 
+	private int log(Message msg) {
+	    if(!logopen && (ui != null) && (ui.sess != null)) {
+		log = ChatLog.open(ui.sess.username, name());
+		logopen = true;
+	    }
+	    String text;
+	    if((log != null) && ((text = msg.logtext()) != null))
+		return(log.append(text));
+	    return(-1);
+	}
+
+	/* Drops messages beyond haven.chatkeep, but only once they are
+	 * at least a screen above the view, so that what is being read
+	 * is neither dropped nor paged right back in. */
+	private void trim() {
+	    synchronized(rmsgs) {
+		int n = rmsgs.size() - keep.get();
+		if((n > keep.get() / 4) && (rmsgs.get(n).y <= sb.val - ih()))
+		    drop(n);
+	    }
+	}
+
+	/* Drops the oldest messages from memory. They remain in the
+	 * channel's log, where they can be searched for and from
+	 * where they are paged back in. */
+	private void drop(int n) {
+	    synchronized(rmsgs) {
+		int shift = rmsgs.get(n).y;
+		for(int i = 0; i < n; i++) {
+		    RenderedMessage rm = rmsgs.get(i);
+		    rm.invalidate();
+		    if(rm.lent >= 0)
+			histend = Math.max(histend, rm.lent + 1);
+		}
+		rmsgs.subList(0, n).clear();
+		rbase += n;
+		for(RenderedMessage rm : rmsgs)
+		    rm.y -= shift;
+		sb.max -= shift;
+		sb.val = Math.max(sb.val - shift, sb.min);
+		dy -= shift;
+		if((selstart != null) && (selstart.rm.idx < rbase))
+		    selorig = lasthit = selstart = selend = null;
+	    }
+	}
+
+	/* Reads older lines back in from the log once the view is
+	 * close to the top of what is in memory. */
+	private void pagein() {
+	    if((log == null) || (histend <= log.first()) || (sb.val > ih() / 2))
+		return;
+	    int from = Math.max(histend - PAGE, log.first());
+	    List<String> lines = log.lines(from, histend);
+	    synchronized(rmsgs) {
+		List<RenderedMessage> nw = new ArrayList<>(lines.size());
+		int y = 0;
+		for(int i = 0; i < lines.size(); i++) {
+		    RenderedMessage rm = new RenderedMessage(new LoggedMessage(lines.get(i)), rbase - lines.size() + i, iw());
+		    rm.lent = from + i;
+		    rm.y = y;
+		    y += rm.hint();
+		    nw.add(rm);
+		}
+		for(RenderedMessage rm : rmsgs)
+		    rm.y += y;
+		rmsgs.addAll(0, nw);
+		rbase -= nw.size();
+		sb.max += y;
+		sb.val += y;
+		dy += y;
+		histend = from;
+	    }
+	}
+
+	/* Searches the channel's log for lines containing all the
+	 * words in query, newest first. */
+	public List<String> search(String query, int max) {
+	    if(log == null)
+		return(Collections.emptyList());
+	    return(log.search(query, max));
+	}
+
+	/* Shows the results of a search in the channel itself. */
+	public void showsearch(String query, int max) {
+	    List<String> res = search(query, max);
+	    append(new LocalMessage(String.format("%d matches for \"%s\"%s", res.size(), query, (log == null) ? " (no log)" : ""), Color.GRAY));
+	    for(int i = res.size() - 1; i >= 0; i--)
+		append(new LocalMessage(res.get(i), Color.LIGHT_GRAY));
+	}
+
+	public void destroy() {
+	    super.destroy();
+	    if(log != null)
+		log.close();
+	}
+
 	public void append(String line, Color col) {
 	    append(new SimpleMessage(line, col));
 	}
@@ -370,7 +535,7 @@ public class ChatUI extends Widget {
 		    RenderedMessage rm = rmsgs.get(c);
 		    if(rm.y > y) {
 			b = c;
-		    } else if(rm.y + rm.h() < y) {
+		    } else if(rm.y + rm.hint() < y) {
 			t = c + 1;
 		    } else {
 			return(c);
@@ -398,11 +563,11 @@ public class ChatUI extends Widget {
 	    synchronized(rmsgs) {
 		mi = Math.min(mi, rmsgs.size() - 1);
 		RenderedMessage lm = rmsgs.get(mi++);
-		int y = lm.y + lm.h();
+		int y = lm.y + lm.hint();
 		while(mi < rmsgs.size()) {
 		    RenderedMessage rm = rmsgs.get(mi++);
 		    rm.y = y;
-		    y += rm.h();
+		    y += rm.hint();
 		}
 		boolean b = sb.val >= sb.max;
 		sb.max = y - ih();
@@ -434,6 +599,8 @@ public class ChatUI extends Widget {
 			}
 			if(rm.update())
 			    upd = true;
+			if(rm.hint() != rm.h())
+			    upd = true;
 			if((selstart != null) && (selend != null)) {
 			    if((rm.idx >= selstart.rm.idx) && (rm.idx <= selend.rm.idx))
 				drawsel(g, rm, rm.y - sy);
@@ -452,6 +619,8 @@ public class ChatUI extends Widget {
 
 	public void tick(double dt) {
 	    super.tick(dt);
+	    pagein();
+	    trim();
 	    double ty = sb.val;
 	    dy = ty + (Math.pow(2, -dt * 40) * (dy - ty));
 	}
@@ -469,7 +638,7 @@ public class ChatUI extends Widget {
 		if(!rmsgs.isEmpty()) {
 		    RenderedMessage lm = rmsgs.get(rmsgs.size() - 1);
 		    boolean b = sb.val >= sb.max;
-		    sb.max = lm.y + lm.h() - ih();
+		    sb.max = lm.y + lm.hint() - ih();
 		    if(b)
 			sb.val = sb.max;
 		}
@@ -621,8 +790,8 @@ public class ChatUI extends Widget {
 	protected void selected(CharPos start, CharPos end) {
 	    StringBuilder buf = new StringBuilder();
 	    synchronized(rmsgs) {
-		for(int mi = start.rm.idx; mi <= end.rm.idx; mi++) {
-		    RenderedMessage rm = rmsgs.get(mi);
+		for(int mi = Math.max(start.rm.idx, rbase); mi <= end.rm.idx; mi++) {
+		    RenderedMessage rm = rmsgs.get(mi - rbase);
 		    if(!(rm.text() instanceof RichText))
 			continue;
 		    RichText rt = (RichText)rm.text();
@@ -935,6 +1104,10 @@ public class ChatUI extends Widget {
 	    public boolean valid(Indir<Text> data) {
 		return(((Rendered)data).nm.equals(nm()));
 	    }
+
+	    public String logtext() {
+		return(String.format("[%s] %s: %s", timestamp, nm(), text));
+	    }
 	}
 
 	public class MyMessage extends SimpleMessage {
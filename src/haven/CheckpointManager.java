@@ -8,7 +8,6 @@ import java.awt.*;
 import java.io.File;
 import java.io.IOException;
 import java.sql.*;
-import java.sql.Connection;
 import java.util.List;
 import java.util.*;
 
@@ -17,7 +16,7 @@ import static haven.MCache.tilesz;
 
 
 public class CheckpointManager extends Window implements Runnable {
-    private static final String DATABASE = "jdbc:sqlite:saved_routes.db";
+    private static final Database db = Database.get("saved_routes.db");
     private static final int delayMs = 250;
     private final GameUI gui;
     private final boolean stop = false;
@@ -44,6 +43,8 @@ public class CheckpointManager extends Window implements Runnable {
     private Label routeRemoveLabel;
     private RouteList routeList;
     private final Text.Foundry savedRoutesTitleFoundry = new Text.Foundry(Text.sans, 14);
+    /* Follow-ups of database writes, run on the UI thread. */
+    private final Queue<Runnable> dbdone = new java.util.concurrent.ConcurrentLinkedQueue<>();
 
     static {
         try {
@@ -236,151 +237,143 @@ public class CheckpointManager extends Window implements Runnable {
         if(gui.map.player() == null){
             return;
         }
-        String selectSql = "SELECT * FROM routes WHERE id = ?";
-
-        try (Connection conn = DriverManager.getConnection(DATABASE)) {
-            try (PreparedStatement pstmt = conn.prepareStatement(selectSql)) {
-                pstmt.setInt(1, id);
-                ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) {
-                    String[] initialData = rs.getString("initial_point").split(";");
-                    long segmentId = Long.parseLong(initialData[0]);
-                    long gridId = Long.parseLong(initialData[1]);
-                    double xInitialOffset = Double.parseDouble(initialData[2]);
-                    double yInitialOffset = Double.parseDouble(initialData[3]);
-                    String[] arrayOfCheckpoints = rs.getString("route").split(";");
-                    Coord playerCoord = ui.gui.map.player().rc.floor(tilesz);
-                    MCache.Grid grid = ui.sess.glob.map.getgrid(playerCoord.div(cmaps));
-                    MapFile.GridInfo info = ui.gui.mapfile.file.gridinfo.get(grid.id);
-                    MapFile.Segment segment = ui.gui.mapfile.file.segments.get(info.seg);
-                    if (segment.id == segmentId) {
-                        Coord gridCoords = null;
-                        Coord curGridCoords = null;
-                        for (Map.Entry<Coord, Long> segGrid : segment.map.entrySet()) {
-                            if (segGrid.getValue() == gridId) {
-                                gridCoords = segGrid.getKey();
-                            }
-                            if (segGrid.getValue().equals(grid.id)) {
-                                curGridCoords = segGrid.getKey();
-                            }
-                        }
-                        if (gridCoords != null && curGridCoords != null) {
-                            double calcX = gridCoords.x - curGridCoords.x;
-                            double calcY = gridCoords.y - curGridCoords.y;
-
-
-                            List<Coord2d> loadedCoords = new ArrayList<>();
-                            Coord2d firstCoord = new Coord2d(calcX * 1100 + grid.gc.x * 1100 + xInitialOffset, calcY * 1100 + grid.gc.y * 1100 + yInitialOffset);
-                            loadedCoords.add(firstCoord);
-
-                            for (int i = 0; i < arrayOfCheckpoints.length; i++) {
-                                double checkpointX = Double.parseDouble(arrayOfCheckpoints[i].split(",")[0]);
-                                double checkpointY = Double.parseDouble(arrayOfCheckpoints[i].split(",")[1]);
-                                if(i == 0){
-                                    loadedCoords.add(firstCoord.add(checkpointX, checkpointY));
-                                } else {
-                                    Coord2d prev = loadedCoords.get(i);
-                                    loadedCoords.add(prev.add(checkpointX, checkpointY));
-                                }
-                            }
-                            checkpointList.removeAllItems();
-                            for(Coord2d coord : loadedCoords){
-                                addCoord(coord);
-                            }
+        String[] row;
+        try {
+            row = db.read(c -> {
+                try (ResultSet rs = c.query("SELECT initial_point, route FROM routes WHERE id = ?", id)) {
+                    return rs.next() ? new String[] {rs.getString("initial_point"), rs.getString("route")} : null;
+                }
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (row != null) {
+            String[] initialData = row[0].split(";");
+            long segmentId = Long.parseLong(initialData[0]);
+            long gridId = Long.parseLong(initialData[1]);
+            double xInitialOffset = Double.parseDouble(initialData[2]);
+            double yInitialOffset = Double.parseDouble(initialData[3]);
+            String[] arrayOfCheckpoints = row[1].split(";");
+            Coord playerCoord = ui.gui.map.player().rc.floor(tilesz);
+            MCache.Grid grid = ui.sess.glob.map.getgrid(playerCoord.div(cmaps));
+            MapFile.GridInfo info = ui.gui.mapfile.file.gridinfo.get(grid.id);
+            MapFile.Segment segment = ui.gui.mapfile.file.segments.get(info.seg);
+            if (segment.id == segmentId) {
+                Coord gridCoords = null;
+                Coord curGridCoords = null;
+                for (Map.Entry<Coord, Long> segGrid : segment.map.entrySet()) {
+                    if (segGrid.getValue() == gridId) {
+                        gridCoords = segGrid.getKey();
+                    }
+                    if (segGrid.getValue().equals(grid.id)) {
+                        curGridCoords = segGrid.getKey();
+                    }
+                }
+                if (gridCoords != null && curGridCoords != null) {
+                    double calcX = gridCoords.x - curGridCoords.x;
+                    double calcY = gridCoords.y - curGridCoords.y;
+
+
+                    List<Coord2d> loadedCoords = new ArrayList<>();
+                    Coord2d firstCoord = new Coord2d(calcX * 1100 + grid.gc.x * 1100 + xInitialOffset, calcY * 1100 + grid.gc.y * 1100 + yInitialOffset);
+                    loadedCoords.add(firstCoord);
+
+                    for (int i = 0; i < arrayOfCheckpoints.length; i++) {
+                        double checkpointX = Double.parseDouble(arrayOfCheckpoints[i].split(",")[0]);
+                        double checkpointY = Double.parseDouble(arrayOfCheckpoints[i].split(",")[1]);
+                        if(i == 0){
+                            loadedCoords.add(firstCoord.add(checkpointX, checkpointY));
                         } else {
-                            gui.error("Cannot import this route, grid with starting point is not present in your map data.");
+                            Coord2d prev = loadedCoords.get(i);
+                            loadedCoords.add(prev.add(checkpointX, checkpointY));
                         }
-                    } else {
-                        gui.error("Cannot import this route, you are in different map segment.");
                     }
+                    checkpointList.removeAllItems();
+                    for(Coord2d coord : loadedCoords){
+                        addCoord(coord);
+                    }
+                } else {
+                    gui.error("Cannot import this route, grid with starting point is not present in your map data.");
                 }
+            } else {
+                gui.error("Cannot import this route, you are in different map segment.");
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
     }
 
     private void deleteSelectedRoute(int id){
-        String deleteSql = "DELETE FROM routes WHERE id = ?";
-        try (Connection conn = DriverManager.getConnection(DATABASE)) {
-            try (PreparedStatement pstmt = conn.prepareStatement(deleteSql)) {
-                pstmt.setInt(1, id);
-                int affectedRows = pstmt.executeUpdate();
-                if (affectedRows == 0) {
-                    gui.error("No routes found with the given id.");
-                } else {
-                    gui.msg("Successfully removed the route.");
-                    selectFilterEntry.settext("");
-                    loadSavedRoutes();
-                }
+        db.write(c -> c.update("DELETE FROM routes WHERE id = ?", id)).whenComplete((affectedRows, e) -> dbdone.add(() -> {
+            if (e != null) {
+                e.printStackTrace();
+            } else if (affectedRows == 0) {
+                gui.error("No routes found with the given id.");
+            } else {
+                gui.msg("Successfully removed the route.");
+                selectFilterEntry.settext("");
+                loadSavedRoutes();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        }));
     }
 
     private void fixSelectedRoute(int id){
         if(gui.map.player() == null){
             return;
         }
-        String selectSql = "SELECT id, initial_point FROM routes WHERE id = ?";
-
-        try (Connection conn = DriverManager.getConnection(DATABASE)) {
-            try (PreparedStatement pstmt = conn.prepareStatement(selectSql)) {
-                pstmt.setInt(1, id);
-                ResultSet rs = pstmt.executeQuery();
-
-                if (rs.next()) {
-                    String[] initialPoint = rs.getString("initial_point").split(";");
-                    String xOffset = initialPoint[2];
-                    String yOffset = initialPoint[3];
-
-                    try {
-                        Coord playerCoord = ui.gui.map.player().rc.floor(tilesz);
-                        MCache.Grid obg = ui.sess.glob.map.getgrid(playerCoord.div(cmaps));
-                        MapFile.GridInfo info = ui.gui.mapfile.file.gridinfo.get(obg.id);
-
-                        String newInitialPoint = info.seg + ";" + obg.id + ";" + xOffset + ";" + yOffset;
+        String initialPointData;
+        try {
+            initialPointData = db.read(c -> {
+                try (ResultSet rs = c.query("SELECT initial_point FROM routes WHERE id = ?", id)) {
+                    return rs.next() ? rs.getString("initial_point") : null;
+                }
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return;
+        }
 
-                        String updateSql = "UPDATE routes SET initial_point = ? WHERE id = ?";
-                        try (PreparedStatement pstmtUpdate = conn.prepareStatement(updateSql)) {
-                            pstmtUpdate.setString(1, newInitialPoint);
-                            pstmtUpdate.setInt(2, id);
-                            int affectedRows = pstmtUpdate.executeUpdate();
+        if (initialPointData != null) {
+            String[] initialPoint = initialPointData.split(";");
+            String xOffset = initialPoint[2];
+            String yOffset = initialPoint[3];
 
-                            if (affectedRows == 0) {
-                                gui.error("Failed to update route.");
-                            } else {
-                                gui.msg("Successfully updated the route.");
-                            }
-                        }
-                    } catch (Loading ignored){}
+            try {
+                Coord playerCoord = ui.gui.map.player().rc.floor(tilesz);
+                MCache.Grid obg = ui.sess.glob.map.getgrid(playerCoord.div(cmaps));
+                MapFile.GridInfo info = ui.gui.mapfile.file.gridinfo.get(obg.id);
 
+                String newInitialPoint = info.seg + ";" + obg.id + ";" + xOffset + ";" + yOffset;
 
-                } else {
-                    gui.error("No route found with the given id.");
-                }
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+                db.write(c -> c.update("UPDATE routes SET initial_point = ? WHERE id = ?", newInitialPoint, id)).whenComplete((affectedRows, e) -> dbdone.add(() -> {
+                    if (e != null) {
+                        e.printStackTrace();
+                    } else if (affectedRows == 0) {
+                        gui.error("Failed to update route.");
+                    } else {
+                        gui.msg("Successfully updated the route.");
+                    }
+                }));
+            } catch (Loading ignored){}
+        } else {
+            gui.error("No route found with the given id.");
         }
     }
 
     private void loadSavedRoutes() {
-        String selectSql = "SELECT id, name, length FROM routes WHERE name like ? order by id";
-        try (Connection conn = DriverManager.getConnection(DATABASE)) {
-            try (PreparedStatement pstmt = conn.prepareStatement(selectSql)) {
-                pstmt.setString(1, "%" + selectFilter + "%");
-                ResultSet rs = pstmt.executeQuery();
-                routeList.removeAllItems();
-                while (rs.next()) {
-                    int id = rs.getInt("id");
-                    String name = rs.getString("name");
-                    double length = rs.getDouble("length");
-
-                    addRoute(id, name, length);
+        try {
+            db.read(c -> {
+                try (ResultSet rs = c.query("SELECT id, name, length FROM routes WHERE name like ? order by id", "%" + selectFilter + "%")) {
+                    routeList.removeAllItems();
+                    while (rs.next()) {
+                        int id = rs.getInt("id");
+                        String name = rs.getString("name");
+                        double length = rs.getDouble("length");
+
+                        addRoute(id, name, length);
+                    }
                 }
-            }
+                return null;
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -418,27 +411,18 @@ public class CheckpointManager extends Window implements Runnable {
                 route.append(xOffset).append(",").append(yOffset).append(";");
             }
 
-            try (Connection conn = DriverManager.getConnection(DATABASE)) {
-                try (PreparedStatement pstmt = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS)) {
-                    pstmt.setString(1, nameInput);
-                    pstmt.setString(2, String.valueOf(Math.floor(length)));
-                    pstmt.setString(3, stringInitialCoord);
-                    pstmt.setString(4, route.toString());
-                    pstmt.executeUpdate();
-                    ResultSet rs = pstmt.getGeneratedKeys();
-                    if (rs.next()) {
-                        gui.msg("New route saved.");
-                        routeNameInput.settext("");
-                        nameInput = "";
-                        selectFilterEntry.settext("");
-                        loadSavedRoutes();
-                    } else {
-                        throw new SQLException("Creating route failed, no ID obtained.");
-                    }
+            String name = nameInput, lengthValue = String.valueOf(Math.floor(length)), routeValue = route.toString();
+            db.write(c -> c.update(insertSql, name, lengthValue, stringInitialCoord, routeValue)).whenComplete((n, e) -> dbdone.add(() -> {
+                if (e == null) {
+                    gui.msg("New route saved.");
+                    routeNameInput.settext("");
+                    nameInput = "";
+                    selectFilterEntry.settext("");
+                    loadSavedRoutes();
+                } else {
+                    gui.error("Something went wrong with database while saving your route.");
                 }
-            } catch (SQLException e) {
-                gui.error("Something went wrong with database while saving your route.");
-            }
+            }));
         } catch (Loading e) {
             gui.error("You must be in the same or neighbouring grid with first checkpoint to save your route.");
         }
@@ -621,6 +605,14 @@ public class CheckpointManager extends Window implements Runnable {
         }
     }
 
+    @Override
+    public void tick(double dt) {
+        super.tick(dt);
+        Runnable r;
+        while ((r = dbdone.poll()) != null)
+            r.run();
+    }
+
     @Override
     public void wdgmsg(Widget sender, String msg, Object... args) {
         if ((sender == this) && (Objects.equals(msg, "close"))) {
@@ -709,34 +701,12 @@ public class CheckpointManager extends Window implements Runnable {
     }
 
     public static void createDatabaseIfNotExist() throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DATABASE)) {
-            if (conn != null) {
-                createSchemaElementIfNotExist(conn, "routes",
-                        "id INTEGER PRIMARY KEY, " +
-                                "name VARCHAR(255) NOT NULL, " +
-                                "length REAL, " +
-                                "initial_point TEXT, " +
-                                "route TEXT", "table");
-            }
-        }
-    }
-
-    private static void createSchemaElementIfNotExist(Connection conn, String name, String definitions, String type) throws SQLException {
-        if (!schemaElementExists(conn, name, type)) {
-            String sql = type.equals("table") ? "CREATE TABLE " + name + " (\n" + definitions + "\n);" : "CREATE INDEX " + name + " ON " + definitions + ";";
-            try (Statement stmt = conn.createStatement()) {
-                stmt.execute(sql);
-            }
-            System.out.println("A new " + type + " (" + name + ") has been created in the database.");
-        }
-    }
-
-    private static boolean schemaElementExists(Connection conn, String name, String type) throws SQLException {
-        String checkExistsQuery = "SELECT name FROM sqlite_master WHERE type='" + type + "' AND name='" + name + "';";
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(checkExistsQuery)) {
-            return rs.next();
-        }
+        db.schema("CREATE TABLE IF NOT EXISTS routes (" +
+                "id INTEGER PRIMARY KEY, " +
+                "name VARCHAR(255) NOT NULL, " +
+                "length REAL, " +
+                "initial_point TEXT, " +
+                "route TEXT)");
     }
 
     public static class CheckpointList extends Widget {
@@ -8,7 +8,7 @@ import java.util.List;
 import java.util.*;
 import java.util.stream.Collectors;
 
-public class CollisionBox extends SlottedNode implements Rendered {
+public class CollisionBox extends SlottedNode implements Rendered.Instancable {
 	private static final VertexArray.Layout LAYOUT = new VertexArray.Layout(new VertexArray.Layout.Input(Homo3D.vertex, new VectorFormat(3, NumberFormat.FLOAT32), 0, 0, 12));
 	public Model model;
 	private final Gob gob;
@@ -56,6 +56,18 @@ public class CollisionBox extends SlottedNode implements Rendered {
 		}
 	}
 
+	/* Boxes of the same resource share their model, and so are drawn
+	 * as instances of it in one call. */
+	@Override
+	public Object instanceid() {
+		return model;
+	}
+
+	@Override
+	public Rendered.Instanced instancify(InstanceBatch bat) {
+		return new InstancedModel(model, bat);
+	}
+
 	public void updateState() {
 		if(model != null && slots != null) {
 			//Pipe.Op newState = passable() ? (top ? PASSABLE_TOP : PASSABLE) : (top ? (issaGate ? CLOSEDGATE_TOP : SOLID_TOP) : (issaGate ? CLOSEDGATE : SOLID));
@@ -246,7 +258,7 @@ public class CollisionBox extends SlottedNode implements Rendered {
 							addLoopedVertices(vertices, polygon);
 						}
 						float[] data = convert(vertices);
-						VertexArray.Buffer vbo = new VertexArray.Buffer(data.length * 4, DataBuffer.Usage.STATIC, DataBuffer.Filler.of(data));
+						VertexArray.Buffer vbo = new VertexArray.Buffer(data.length * 4, DataBuffer.Usage.STATIC, DataBuffer.Filler.of(data)).shared();
 						VertexArray va = new VertexArray(LAYOUT, vbo);
 						model = new Model(Model.Mode.LINES, va, null);
 						model.bbox = new Model.BoundingBox(bboxa, bboxb);
@@ -262,7 +274,7 @@ public class CollisionBox extends SlottedNode implements Rendered {
 					}
 
 					float[] data = convert(vertices);
-					VertexArray.Buffer vbo = new VertexArray.Buffer(data.length * 4, DataBuffer.Usage.STATIC, DataBuffer.Filler.of(data));
+					VertexArray.Buffer vbo = new VertexArray.Buffer(data.length * 4, DataBuffer.Usage.STATIC, DataBuffer.Filler.of(data)).shared();
 					VertexArray va = new VertexArray(LAYOUT, vbo);
 
 					model = new Model(Model.Mode.LINES, va, null);
@@ -44,6 +44,8 @@ public class Connection {
     private Worker worker;
     private int tseq;
     private boolean alive = true;
+    private final BufPool txpool = new BufPool(65536, 16);
+    private long rxbytes, rxpackets, txbytes, txpackets, retx;
 
     public Connection(SocketAddress server, String username) {
 	this.server = server;
@@ -138,7 +140,7 @@ public class Connection {
 	return(alive && (worker != null));
     }
 
-    private final ByteBuffer recvbuf = ByteBuffer.allocate(65536);
+    private final ByteBuffer recvbuf = ByteBuffer.allocateDirect(65536);
     private PMessage recv() throws IOException {
 	recvbuf.clear();
 	int ret = sk.read(recvbuf);
@@ -148,6 +150,10 @@ public class Connection {
 	    return(null);
 	} else {
 	    recvbuf.flip();
+	    synchronized(this) {
+		rxbytes += ret;
+		rxpackets++;
+	    }
 	    byte type = recvbuf.get();
 	    byte[] buf = new byte[recvbuf.remaining()];
 	    recvbuf.get(buf);
@@ -156,6 +162,10 @@ public class Connection {
     }
 
     public void send(ByteBuffer msg) {
+	synchronized(this) {
+	    txbytes += msg.remaining();
+	    txpackets++;
+	}
 	try {
 	    sk.write(msg);
 	} catch(IOException e) {
@@ -166,11 +176,21 @@ public class Connection {
     }
 
     public void send(PMessage msg) {
-	ByteBuffer buf = ByteBuffer.allocate(msg.size() + 1);
-	buf.put((byte)msg.type);
-	msg.fin(buf);
-	buf.flip();
-	send(buf);
+	ByteBuffer buf = txpool.take(msg.size() + 1);
+	try {
+	    buf.put((byte)msg.type);
+	    msg.fin(buf);
+	    buf.flip();
+	    send(buf);
+	} finally {
+	    txpool.give(buf);
+	}
+    }
+
+    public String stats() {
+	synchronized(this) {
+	    return(String.format("RX %,d B/%,d, TX %,d B/%,d, Retx %d, Pool %s", rxbytes, rxpackets, txbytes, txpackets, retx, txpool.stats()));
+	}
     }
 
     public void close() {
@@ -278,7 +298,21 @@ public class Connection {
 	private short rseq, ackseq;
 	private double acktime = -1;
 	private byte[] fragbuf = null;
-	private int fragtype;
+	private int fragtype, fraglen;
+
+	/* Fragments are appended to a buffer that grows by doubling,
+	 * and the reassembled message is read straight out of it. */
+	private void fragadd(PMessage msg) {
+	    int len = msg.rem();
+	    if(fragbuf == null) {
+		fragbuf = new byte[Math.max(len * 4, 1024)];
+		fraglen = 0;
+	    } else if(fraglen + len > fragbuf.length) {
+		fragbuf = Arrays.copyOf(fragbuf, Math.max(fragbuf.length * 2, fraglen + len));
+	    }
+	    msg.bytes(fragbuf, fraglen, len);
+	    fraglen += len;
+	}
 
 	private void handlerel(PMessage msg) {
 	    if(msg.type == RMessage.RMSG_FRAGMENT) {
@@ -286,18 +320,15 @@ public class Connection {
 		if((head & 0x80) == 0) {
 		    if(fragbuf != null)
 			throw(new Session.MessageException("Got start fragment while still defragmenting", msg));
-		    fragbuf = msg.bytes();
+		    fragadd(msg);
 		    fragtype = head;
 		} else {
 		    if((head == 0x80) || (head == 0x81)) {
-			byte[] frag = msg.bytes();
-			byte[] curbuf = fragbuf;
-			byte[] newbuf = new byte[curbuf.length + frag.length];
-			System.arraycopy(curbuf, 0, newbuf, 0, curbuf.length);
-			System.arraycopy(frag, 0, newbuf, curbuf.length, frag.length);
-			fragbuf = newbuf;
+			if(fragbuf == null)
+			    throw(new Session.MessageException("Got continued fragment without a start fragment", msg));
+			fragadd(msg);
 			if(head == 0x81) {
-			    PMessage nmsg = new PMessage(fragtype, fragbuf);
+			    PMessage nmsg = new PMessage(fragtype, fragbuf, 0, fraglen);
 			    fragbuf = null;
 			    handlerel(nmsg);
 			}
@@ -408,11 +439,15 @@ public class Connection {
 		int seq = msg.uint16();
 		while(!msg.eom()) {
 		    int type = msg.uint8();
+		    /* Each packet is received into a buffer of its own,
+		     * so its messages can be sliced out of it. */
 		    RMessage rmsg;
 		    if((type & 0x80) != 0) {
-			rmsg = new RMessage(type & 0x7f, msg.bytes(msg.uint16()));
+			int len = msg.uint16();
+			rmsg = new RMessage(type & 0x7f, msg.rbuf, msg.slice(len), len);
 		    } else {
-			rmsg = new RMessage(type, msg.bytes());
+			int len = msg.rem();
+			rmsg = new RMessage(type, msg.rbuf, msg.slice(len), len);
 		    }
 		    rmsg.seq = seq++;
 		    gotrel(rmsg);
@@ -455,9 +490,22 @@ public class Connection {
 			txtime = 2.00;
 		    txtime = msg.last + txtime;
 		    if(now >= txtime) {
-			PMessage rmsg = new PMessage(Session.MSG_REL);
-			rmsg.adduint16(msg.seq).adduint8(msg.type).addbytes(msg.fin());
-			send(rmsg);
+			ByteBuffer buf = txpool.take(msg.size() + 4);
+			try {
+			    buf.put((byte)Session.MSG_REL);
+			    buf.put((byte)msg.seq).put((byte)(msg.seq >> 8));
+			    buf.put((byte)msg.type);
+			    msg.fin(buf);
+			    buf.flip();
+			    send(buf);
+			} finally {
+			    txpool.give(buf);
+			}
+			if(msg.retx > 0) {
+			    synchronized(Connection.this) {
+				retx++;
+			    }
+			}
 			msg.last = now;
 			msg.retx++;
 			lasttx = now;
@@ -0,0 +1,297 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.sql.*;
+import java.sql.Connection;
+
+/* A client-side SQLite database, shared by everything that uses the
+ * same file. Writes are queued to a single writer thread, which
+ * applies everything queued so far in one transaction, each write
+ * under a savepoint of its own so that one failing does not undo the
+ * others. Reads run on the calling thread over pooled connections,
+ * which WAL mode lets proceed while a write is in progress. */
+public class Database {
+    private static final Map<String, Database> open = new HashMap<>();
+    public static final int maxbatch = 256;
+    public final String file;
+    private final String url;
+    private final Queue<Write<?>> writes = new LinkedList<>();
+    private final Collection<Conn> idle = new ArrayList<>();
+    private Thread writer = null;
+
+    public interface Task<T> {
+	public T run(Conn c) throws SQLException;
+    }
+
+    /* A connection along with the statements prepared on it. The
+     * statements are kept for reuse and must not be closed by their
+     * users, but result sets must be. */
+    public static class Conn implements AutoCloseable {
+	public static final int maxstmts = 64;
+	public final Connection c;
+	private final Map<String, PreparedStatement> stmts = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+		    if(size() <= maxstmts)
+			return(false);
+		    try {
+			eldest.getValue().close();
+		    } catch(SQLException e) {
+		    }
+		    return(true);
+		}
+	    };
+
+	private Conn(Connection c) {
+	    this.c = c;
+	}
+
+	public PreparedStatement prep(String sql) throws SQLException {
+	    PreparedStatement ret = stmts.get(sql);
+	    if(ret == null) {
+		stmts.put(sql, ret = c.prepareStatement(sql));
+	    } else {
+		ret.clearParameters();
+		ret.clearBatch();
+	    }
+	    return(ret);
+	}
+
+	public PreparedStatement prep(String sql, Object... args) throws SQLException {
+	    PreparedStatement ret = prep(sql);
+	    for(int i = 0; i < args.length; i++)
+		ret.setObject(i + 1, args[i]);
+	    return(ret);
+	}
+
+	public ResultSet query(String sql, Object... args) throws SQLException {
+	    return(prep(sql, args).executeQuery());
+	}
+
+	public int update(String sql, Object... args) throws SQLException {
+	    return(prep(sql, args).executeUpdate());
+	}
+
+	/* The rowid of the last row inserted on this connection. */
+	public long lastid() throws SQLException {
+	    try(ResultSet rs = query("SELECT last_insert_rowid()")) {
+		if(!rs.next())
+		    throw(new SQLException("no rowid"));
+		return(rs.getLong(1));
+	    }
+	}
+
+	public void close() {
+	    try {
+		c.close();
+	    } catch(SQLException e) {
+	    }
+	}
+    }
+
+    private static class Write<T> {
+	final Task<T> task;
+	final CompletableFuture<T> res = new CompletableFuture<>();
+	T val;
+
+	Write(Task<T> task) {
+	    this.task = task;
+	}
+
+	void run(Conn c) throws SQLException {
+	    val = task.run(c);
+	}
+
+	void done() {
+	    res.complete(val);
+	}
+    }
+
+    private Database(String file) {
+	this.file = file;
+	this.url = "jdbc:sqlite:" + file;
+    }
+
+    public static Database get(String file) {
+	synchronized(open) {
+	    Database ret = open.get(file);
+	    if(ret == null)
+		open.put(file, ret = new Database(file));
+	    return(ret);
+	}
+    }
+
+    private Conn connect() throws SQLException {
+	Connection c = DriverManager.getConnection(url);
+	try(Statement st = c.createStatement()) {
+	    st.execute("PRAGMA journal_mode=WAL");
+	    st.execute("PRAGMA synchronous=NORMAL");
+	    st.execute("PRAGMA busy_timeout=5000");
+	} catch(SQLException e) {
+	    c.close();
+	    throw(e);
+	}
+	return(new Conn(c));
+    }
+
+    /* Runs a read-only task on the calling thread. */
+    public <T> T read(Task<T> task) throws SQLException {
+	Conn c;
+	synchronized(idle) {
+	    Iterator<Conn> i = idle.iterator();
+	    if(i.hasNext()) {
+		c = i.next();
+		i.remove();
+	    } else {
+		c = null;
+	    }
+	}
+	if(c == null)
+	    c = connect();
+	try {
+	    return(task.run(c));
+	} finally {
+	    synchronized(idle) {
+		idle.add(c);
+	    }
+	}
+    }
+
+    /* Queues a task to run on the writer thread. */
+    public <T> CompletableFuture<T> write(Task<T> task) {
+	Write<T> w = new Write<>(task);
+	synchronized(writes) {
+	    writes.add(w);
+	    writes.notifyAll();
+	    if(writer == null) {
+		writer = new HackThread(this::writeloop, "Database writer (" + file + ")");
+		writer.setDaemon(true);
+		writer.start();
+	    }
+	}
+	return(w.res);
+    }
+
+    /* Runs a task on the writer thread and waits for it, as for
+     * schema setup that later reads depend on. */
+    public <T> T writewait(Task<T> task) throws SQLException {
+	try {
+	    return(write(task).get());
+	} catch(ExecutionException e) {
+	    if(e.getCause() instanceof SQLException)
+		throw((SQLException)e.getCause());
+	    throw(new SQLException(e.getCause()));
+	} catch(InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw(new SQLException(e));
+	}
+    }
+
+    /* Creates tables and indices with CREATE ... IF NOT EXISTS
+     * statements. */
+    public void schema(String... sql) throws SQLException {
+	writewait(c -> {
+		try(Statement st = c.c.createStatement()) {
+		    for(String ln : sql)
+			st.execute(ln);
+		}
+		return(null);
+	    });
+    }
+
+    private void writeloop() {
+	Conn c = null;
+	try {
+	    while(true) {
+		List<Write<?>> batch = new ArrayList<>();
+		synchronized(writes) {
+		    long start = System.currentTimeMillis(), now = start;
+		    while(writes.isEmpty()) {
+			if(now - start >= 10000) {
+			    writer = null;
+			    return;
+			}
+			writes.wait(10000 - (now - start));
+			now = System.currentTimeMillis();
+		    }
+		    while(!writes.isEmpty() && (batch.size() < maxbatch))
+			batch.add(writes.remove());
+		}
+		try {
+		    if(c == null)
+			c = connect();
+		    c.c.setAutoCommit(false);
+		} catch(SQLException e) {
+		    for(Write<?> w : batch)
+			w.res.completeExceptionally(e);
+		    if(c != null)
+			c.close();
+		    c = null;
+		    continue;
+		}
+		List<Write<?>> done = new ArrayList<>();
+		for(Write<?> w : batch) {
+		    try {
+			Savepoint sp = c.c.setSavepoint();
+			try {
+			    w.run(c);
+			    c.c.releaseSavepoint(sp);
+			    done.add(w);
+			} catch(Throwable t) {
+			    c.c.rollback(sp);
+			    w.res.completeExceptionally(t);
+			}
+		    } catch(SQLException e) {
+			w.res.completeExceptionally(e);
+		    }
+		}
+		try {
+		    c.c.commit();
+		    for(Write<?> w : done)
+			w.done();
+		} catch(SQLException e) {
+		    for(Write<?> w : done)
+			w.res.completeExceptionally(e);
+		    c.close();
+		    c = null;
+		}
+	    }
+	} catch(InterruptedException e) {
+	    synchronized(writes) {
+		writer = null;
+		for(Write<?> w : writes)
+		    w.res.completeExceptionally(e);
+		writes.clear();
+	    }
+	} finally {
+	    if(c != null)
+		c.close();
+	}
+    }
+}
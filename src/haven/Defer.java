@@ -35,7 +35,7 @@ public class Defer extends ThreadGroup {
     private static final Map<ThreadGroup, Defer> groups = new WeakHashMap<ThreadGroup, Defer>();
     private final Queue<Future<?>> queue = new PrioQueue<Future<?>>();
     private final Collection<Thread> pool = new LinkedList<Thread>();
-    private final int maxthreads = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+    private final int maxthreads;
     private final AtomicInteger busy = new AtomicInteger(0);
     
     public interface Callable<T> {
@@ -136,6 +136,19 @@ public class Defer extends ThreadGroup {
 	    }
 	}
 
+	/* Like cancel, but only if the task has not started running,
+	 * so that work in progress is never thrown away. Returns
+	 * whether the task was cancelled. */
+	public boolean unqueue() {
+	    synchronized(this) {
+		if((running != null) || (state == "done"))
+		    return(false);
+		exc = new CancelledException();
+		chstate("done");
+		return(true);
+	    }
+	}
+
 	private void chstate(String nst) {
 	    synchronized(this) {
 		this.state = nst;
@@ -275,8 +288,13 @@ public class Defer extends ThreadGroup {
 	}
     }
 
+    public Defer(ThreadGroup parent, String name, int maxthreads) {
+	super(parent, name);
+	this.maxthreads = maxthreads;
+    }
+
     public Defer(ThreadGroup parent) {
-	super(parent, "DPC threads");
+	this(parent, "DPC threads", Math.max(2, Runtime.getRuntime().availableProcessors() - 1));
     }
 
     private void defer(final Future<?> f) {
@@ -29,9 +29,6 @@ package haven;
 import haven.render.*;
 import haven.sprites.CurrentTargetSprite;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
 import java.awt.*;
 import java.io.File;
 import java.text.DecimalFormat;
@@ -382,11 +379,7 @@ public class Fightsess extends Widget {
 			try {
 				File file = new File("Alarms/" + OptWnd.combatStartSoundFilename.buf.line() + ".wav");
 				if(file.exists()) {
-					AudioInputStream in = AudioSystem.getAudioInputStream(file);
-					AudioFormat tgtFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100, 16, 2, 4, 44100, false);
-					AudioInputStream pcmStream = AudioSystem.getAudioInputStream(tgtFormat, in);
-					Audio.CS klippi = new Audio.PCMClip(pcmStream, 2, 2);
-					((Audio.Mixer) Audio.player.stream).add(new Audio.VolAdjust(klippi, OptWnd.combatStartSoundVolumeSlider.val/50.0));
+					Audio.playfile(file, OptWnd.combatStartSoundVolumeSlider.val/50.0);
 				}
 			} catch(Exception ignored) {
 			}
@@ -28,9 +28,6 @@ package haven;
 
 import haven.sprites.AggroCircleSprite;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
 import java.awt.*;
 import java.io.File;
 import java.util.*;
@@ -486,11 +483,7 @@ public class Fightview extends Widget {
 						if(!file.exists()) {
 							return;
 						}
-						AudioInputStream in = AudioSystem.getAudioInputStream(file);
-						AudioFormat tgtFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100, 16, 2,4, 44100, false);
-						AudioInputStream pcmStream = AudioSystem.getAudioInputStream(tgtFormat, in);
-						Audio.CS klippi = new Audio.PCMClip(pcmStream, 2, 2);
-						((Audio.Mixer)Audio.player.stream).add(new Audio.VolAdjust(klippi, OptWnd.cleaveSoundVolumeSlider.val/50.0));
+						Audio.playfile(file, OptWnd.cleaveSoundVolumeSlider.val/50.0);
 					} catch(Exception e) {
 						e.printStackTrace();
 					}
@@ -500,11 +493,7 @@ public class Fightview extends Widget {
 						if(!file.exists()) {
 							return;
 						}
-						AudioInputStream in = AudioSystem.getAudioInputStream(file);
-						AudioFormat tgtFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100, 16, 2,4, 44100, false);
-						AudioInputStream pcmStream = AudioSystem.getAudioInputStream(tgtFormat, in);
-						Audio.CS klippi = new Audio.PCMClip(pcmStream, 2, 2);
-						((Audio.Mixer)Audio.player.stream).add(new Audio.VolAdjust(klippi, OptWnd.opkSoundVolumeSlider.val/50.0));
+						Audio.playfile(file, OptWnd.opkSoundVolumeSlider.val/50.0);
 					} catch(Exception e) {
 						e.printStackTrace();
 					}
@@ -30,7 +30,6 @@ import haven.automated.AutoFlowerRepeater;
 
 import java.awt.Color;
 import java.sql.*;
-import java.sql.Connection;
 import java.util.*;
 
 import static java.lang.Math.PI;
@@ -51,7 +50,7 @@ public class FlowerMenu extends Widget {
 
 
 	//AutoFlowerStuff
-	private static final String DATABASE = "jdbc:sqlite:static_data.db";
+	private static final Database db = Database.get("static_data.db");
 	public final String[] options;
 	public static Map<String, Boolean> autoChoose = new TreeMap<>();
 	private static String nextAutoSel;
@@ -378,80 +377,43 @@ public class FlowerMenu extends Widget {
 
 
 	public static void updateDbValue(String flowerMenuOptionName, boolean newValue) {
-		try (Connection conn = DriverManager.getConnection(DATABASE)) {
-			String updateSql = "UPDATE flower_menu_options SET auto_use = ? WHERE name = ?";
-			try (PreparedStatement updatePstmt = conn.prepareStatement(updateSql)) {
-				updatePstmt.setBoolean(1, newValue);
-				updatePstmt.setString(2, flowerMenuOptionName);
-				updatePstmt.executeUpdate();
-			}
-		} catch (SQLException e) {
-			System.out.println("Problem with updating flower menu option in the database.");
-		}
+		db.write(c -> c.update("UPDATE flower_menu_options SET auto_use = ? WHERE name = ?", newValue, flowerMenuOptionName))
+			.exceptionally(e -> {
+				System.out.println("Problem with updating flower menu option in the database.");
+				return null;
+			});
 	}
 
 	private static void checkAndInsertFlowerMenuOption(String flowerMenuOptionName) {
-		try (Connection conn = DriverManager.getConnection(DATABASE)) {
-			String checkSql = "SELECT count(*) FROM flower_menu_options WHERE name = ?";
-			try (PreparedStatement pstmt = conn.prepareStatement(checkSql)) {
-				pstmt.setString(1, flowerMenuOptionName);
-				ResultSet rs = pstmt.executeQuery();
-				if (rs.getInt(1) == 0) { // if record doesn't exist
-					String insertSql = "INSERT INTO flower_menu_options(name) VALUES(?)";
-					try (PreparedStatement insertPstmt = conn.prepareStatement(insertSql)) {
-						insertPstmt.setString(1, flowerMenuOptionName);
-						insertPstmt.executeUpdate();
-					}
-				}
-			}
-		} catch (SQLException ignored) {
-			System.out.println("Problem with inserting flower menu option to database.");
-		}
+		db.write(c -> c.update("INSERT OR IGNORE INTO flower_menu_options(name) VALUES(?)", flowerMenuOptionName))
+			.exceptionally(e -> {
+				System.out.println("Problem with inserting flower menu option to database.");
+				return null;
+			});
 	}
 
 	public static void fillAutoChooseMap() {
-		String sql = "SELECT name, auto_use FROM flower_menu_options order by name";
-		try (Connection conn = DriverManager.getConnection(DATABASE);
-			 PreparedStatement pstmt = conn.prepareStatement(sql)) {
-			ResultSet rs = pstmt.executeQuery();
-			while (rs.next()) {
-				String name = rs.getString("name");
-				boolean autoUse = rs.getBoolean("auto_use");
-				autoChoose.put(name, autoUse);
-			}
+		try {
+			db.read(c -> {
+				try (ResultSet rs = c.query("SELECT name, auto_use FROM flower_menu_options order by name")) {
+					while (rs.next()) {
+						String name = rs.getString("name");
+						boolean autoUse = rs.getBoolean("auto_use");
+						autoChoose.put(name, autoUse);
+					}
+				}
+				return null;
+			});
 		} catch (SQLException e) {
 			System.out.println("Problem with fetching flower menu options from database.");
 		}
 	}
 
 	public static void createDatabaseIfNotExist() throws SQLException {
-		try (Connection conn = DriverManager.getConnection(DATABASE)) {
-			if (conn != null) {
-				createSchemaElementIfNotExist(conn, "flower_menu_options",
-						"id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-								"name VARCHAR(255) UNIQUE NOT NULL, " +
-								"auto_use BOOLEAN DEFAULT FALSE NOT NULL",
-						"table");
-			}
-		}
-	}
-
-	private static void createSchemaElementIfNotExist(Connection conn, String name, String definitions, String type) throws SQLException {
-		if (!schemaElementExists(conn, name, type)) {
-			String sql = type.equals("table") ? "CREATE TABLE " + name + " (\n" + definitions + "\n);" : "CREATE INDEX " + name + " ON " + definitions + ";";
-			try (Statement stmt = conn.createStatement()) {
-				stmt.execute(sql);
-			}
-			System.out.println("A new " + type + " (" + name + ") has been created in the database.");
-		}
-	}
-
-	private static boolean schemaElementExists(Connection conn, String name, String type) throws SQLException {
-		String checkExistsQuery = "SELECT name FROM sqlite_master WHERE type='" + type + "' AND name='" + name + "';";
-		try (Statement stmt = conn.createStatement();
-			 ResultSet rs = stmt.executeQuery(checkExistsQuery)) {
-			return rs.next();
-		}
+		db.schema("CREATE TABLE IF NOT EXISTS flower_menu_options (" +
+				"id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+				"name VARCHAR(255) UNIQUE NOT NULL, " +
+				"auto_use BOOLEAN DEFAULT FALSE NOT NULL)");
 	}
 
 }
@@ -274,6 +274,16 @@ public class GItem extends AWidget implements ItemInfo.SpriteOwner, GSprite.Owne
 	return(res.get());
     }
 
+    /* Identifies the content of this item's info, so that items with
+     * identical raw info can share a rendered tooltip. Items with
+     * contents get none, since their info depends on the contents. */
+    public Object tipkey(Object... extra) {
+	ItemInfo.Raw raw = this.rawinfo;
+	if((raw == null) || (contents != null))
+	    return(null);
+	return(new TipCache.Key(ui.sess, res.get().name, raw.data, extra));
+    }
+
     public GSprite sprite() {
 	if(spr == null)
 	    throw(new Loading("Still waiting for sprite to be constructed"));
@@ -271,15 +271,18 @@ public interface GLPanel extends UIPanel, UI.Context {
 	    FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "State slots: %d", State.Slot.numslots());
 	    FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "GL progs: %d", buf.env.numprogs());
 	    FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "V-Mem: %s", buf.env.memstats());
+	    if(UICache.on)
+		FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "UI cache: %s", UICache.stats());
 	    MapView map = ui.root.findchild(MapView.class);
 	    if((map != null) && (map.back != null)) {
 		FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "Camera: %s", map.camstats());
 		FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "Mapview: %s", map.stats());
 		// FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "Click: Map: %s, Obj: %s", map.clmaplist.stats(), map.clobjlist.stats());
 	    }
-	    if(ui.sess != null)
-		FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "Async: L %s, D %s", ui.sess.glob.loader.stats(), Defer.gstats());
-	    else
+	    if(ui.sess != null) {
+		FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "Async: L %s, O %s, D %s", ui.sess.glob.loader.stats(), ui.sess.glob.oc.deltapool.stats(), Defer.gstats());
+		FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "Net: %s", ui.sess.conn.stats());
+	    } else
 		FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "Async: D %s", Defer.gstats());
 	    int rqd = Resource.local().qdepth() + Resource.remote().qdepth();
 	    if(rqd > 0)
@@ -2367,6 +2367,13 @@ public class GameUI extends ConsoleHost implements Console.Directory, UI.Message
 		    wdgmsg("afk");
 		}
 	    });
+	cmdmap.put("chatfind", new Console.Command() {
+		public void run(Console cons, String[] args) throws Exception {
+		    if((chat == null) || (chat.sel == null))
+			throw(new Exception("No chat channel selected"));
+		    chat.sel.showsearch(String.join(" ", Arrays.asList(args).subList(1, args.length)), 20);
+		}
+	    });
 	cmdmap.put("act", new Console.Command() {
 		public void run(Console cons, String[] args) {
 		    Object[] ad = new Object[args.length - 1];
@@ -0,0 +1,274 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.util.*;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.FontMetrics;
+import java.awt.image.BufferedImage;
+import java.nio.ShortBuffer;
+import haven.render.*;
+
+/* Draws short labels from a lazily filled glyph atlas, so that
+ * labels which change every frame (item counts, meter percentages)
+ * cost neither AWT rasterization nor texture uploads once their
+ * glyphs have been seen. Each glyph is stored as a stroke layer and
+ * a fill layer; all stroke quads of a string are drawn before its
+ * fill quads, which reproduces what rendering the whole string with
+ * Text.Foundry.renderstroked or renderstroked2 looks like. */
+public class GlyphAtlas {
+    public static final int STROKE = 0, OUTLINE = 1;
+    private static final int ATLW = 512, MAXLAYOUTS = 256;
+    private static final Map<Object, GlyphAtlas> atlases = new HashMap<>();
+    private static Model.Indices quadidx = null;
+    private static int nquadidx = 0;
+    public final Text.Foundry fnd;
+    public final Color col, stroke;
+    public final int mode;
+    private final Map<Character, Glyph> glyphs = new HashMap<>();
+    private final Map<String, Layout> layouts = new LinkedHashMap<String, Layout>(16, 0.75f, true) {
+	    protected boolean removeEldestEntry(Map.Entry<String, Layout> eldest) {
+		return(size() > MAXLAYOUTS);
+	    }
+	};
+    private BufferedImage img = TexI.mkbuf(Coord.of(ATLW, 64));
+    private int px = 0, py = 0, rowh = 0;
+    private TexI tex = null;
+    private boolean dirty = true;
+    private int gen = 0;
+
+    private static class Cell {
+	final int ax, ay, w, h, ox, oy;
+
+	Cell(int ax, int ay, int w, int h, int ox, int oy) {
+	    this.ax = ax; this.ay = ay; this.w = w; this.h = h;
+	    this.ox = ox; this.oy = oy;
+	}
+    }
+
+    private static class Glyph {
+	final Cell stroke, fill;
+	final int adv;
+
+	Glyph(Cell stroke, Cell fill, int adv) {
+	    this.stroke = stroke; this.fill = fill; this.adv = adv;
+	}
+    }
+
+    private static class Layout {
+	final int gen, nq;
+	final short[] data;
+	final Coord sz;
+
+	Layout(int gen, short[] data, Coord sz) {
+	    this.gen = gen;
+	    this.data = data;
+	    this.nq = data.length / 16;
+	    this.sz = sz;
+	}
+    }
+
+    public GlyphAtlas(Text.Foundry fnd, Color col, Color stroke, int mode) {
+	this.fnd = fnd;
+	this.col = col;
+	this.stroke = stroke;
+	this.mode = mode;
+    }
+
+    public static GlyphAtlas get(Text.Foundry fnd, Color col, Color stroke, int mode) {
+	List<Object> key = Arrays.asList(fnd, col, stroke, mode);
+	synchronized(atlases) {
+	    return(atlases.computeIfAbsent(key, k -> new GlyphAtlas(fnd, col, stroke, mode)));
+	}
+    }
+
+    private Cell place(BufferedImage gi, int ox, int oy) {
+	int w = gi.getWidth(), h = gi.getHeight();
+	if(px + w > ATLW) {
+	    px = 0;
+	    py += rowh;
+	    rowh = 0;
+	}
+	while(py + h > img.getHeight()) {
+	    BufferedImage nimg = TexI.mkbuf(Coord.of(ATLW, img.getHeight() * 2));
+	    Graphics g = nimg.getGraphics();
+	    g.drawImage(img, 0, 0, null);
+	    g.dispose();
+	    img = nimg;
+	}
+	Graphics g = img.getGraphics();
+	g.drawImage(gi, px, py, null);
+	g.dispose();
+	Cell ret = new Cell(px, py, w, h, ox, oy);
+	px += w + 1;
+	rowh = Math.max(rowh, h + 1);
+	dirty = true;
+	return(ret);
+    }
+
+    private Glyph rasterize(char c) {
+	String s = String.valueOf(c);
+	int adv = fnd.strsize(s).x;
+	BufferedImage si, fi;
+	int fo;
+	if(mode == OUTLINE) {
+	    fi = fnd.render(s, col).img;
+	    si = Utils.outline(fi, stroke, true);
+	    fo = 1;
+	} else {
+	    Coord sz = Coord.of(Math.max(adv, 1) + 2, fnd.height());
+	    si = TexI.mkbuf(sz);
+	    fi = TexI.mkbuf(sz);
+	    Graphics g = si.getGraphics();
+	    if(fnd.aa)
+		Utils.AA(g);
+	    g.setFont(fnd.font);
+	    FontMetrics m = g.getFontMetrics();
+	    int a = m.getAscent();
+	    g.setColor(stroke);
+	    g.drawString(s, 0, a);
+	    g.drawString(s, 2, a);
+	    g.drawString(s, 1, a - 1);
+	    g.drawString(s, 1, a + 1);
+	    g.dispose();
+	    g = fi.getGraphics();
+	    if(fnd.aa)
+		Utils.AA(g);
+	    g.setFont(fnd.font);
+	    g.setColor(col);
+	    g.drawString(s, 1, a);
+	    g.dispose();
+	    fo = 0;
+	}
+	return(new Glyph(place(si, 0, 0), place(fi, fo, fo), adv));
+    }
+
+    private Glyph glyph(char c) {
+	Glyph ret = glyphs.get(c);
+	if(ret == null)
+	    glyphs.put(c, ret = rasterize(c));
+	return(ret);
+    }
+
+    private static void quad(short[] buf, int off, Cell cell, int x, Coord tdim) {
+	short x1 = (short)(x + cell.ox), y1 = (short)cell.oy;
+	short x2 = (short)(x1 + cell.w), y2 = (short)(y1 + cell.h);
+	short tx1 = (short)((cell.ax * 65535) / tdim.x), tx2 = (short)(((cell.ax + cell.w) * 65535) / tdim.x);
+	short ty1 = (short)((cell.ay * 65535) / tdim.y), ty2 = (short)(((cell.ay + cell.h) * 65535) / tdim.y);
+	buf[off +  0] = x1; buf[off +  1] = y1; buf[off +  2] = tx1; buf[off +  3] = ty1;
+	buf[off +  4] = x1; buf[off +  5] = y2; buf[off +  6] = tx1; buf[off +  7] = ty2;
+	buf[off +  8] = x2; buf[off +  9] = y1; buf[off + 10] = tx2; buf[off + 11] = ty1;
+	buf[off + 12] = x2; buf[off + 13] = y2; buf[off + 14] = tx2; buf[off + 15] = ty2;
+    }
+
+    private Layout layout(String text) {
+	Layout ret = layouts.get(text);
+	if((ret != null) && (ret.gen == gen))
+	    return(ret);
+	Glyph[] gl = new Glyph[text.length()];
+	for(int i = 0; i < gl.length; i++)
+	    gl[i] = glyph(text.charAt(i));
+	if(dirty) {
+	    if(tex != null)
+		tex.dispose();
+	    tex = new TexI(img, false);
+	    img = TexI.mkbuf(Coord.of(ATLW, img.getHeight()));
+	    Graphics g = img.getGraphics();
+	    g.drawImage(tex.back, 0, 0, null);
+	    g.dispose();
+	    dirty = false;
+	    gen++;
+	}
+	short[] data = new short[gl.length * 2 * 16];
+	int x = 0, h = 0;
+	for(int i = 0; i < gl.length; i++) {
+	    quad(data, i * 16, gl[i].stroke, x, tex.tdim);
+	    quad(data, (gl.length + i) * 16, gl[i].fill, x, tex.tdim);
+	    h = Math.max(h, Math.max(gl[i].stroke.h, gl[i].fill.oy + gl[i].fill.h));
+	    x += gl[i].adv;
+	}
+	int w = (gl.length > 0) ? (x + 2) : 0;
+	layouts.put(text, ret = new Layout(gen, data, Coord.of(w, h)));
+	return(ret);
+    }
+
+    private static Model.Indices indices(int nq) {
+	synchronized(GlyphAtlas.class) {
+	    if(nq > nquadidx) {
+		int n = Math.max(nq, Math.max(nquadidx * 2, 64));
+		short[] idx = new short[n * 6];
+		for(int i = 0; i < n; i++) {
+		    int vo = i * 4, io = i * 6;
+		    idx[io + 0] = (short)(vo + 0); idx[io + 1] = (short)(vo + 1); idx[io + 2] = (short)(vo + 2);
+		    idx[io + 3] = (short)(vo + 1); idx[io + 4] = (short)(vo + 3); idx[io + 5] = (short)(vo + 2);
+		}
+		quadidx = new Model.Indices(idx.length, NumberFormat.UINT16, DataBuffer.Usage.STATIC, DataBuffer.Filler.of(idx));
+		nquadidx = n;
+	    }
+	    return(quadidx);
+	}
+    }
+
+    /* The size the string would have if rendered by the Foundry. */
+    public synchronized Coord sz(String text) {
+	return(layout(text).sz);
+    }
+
+    public synchronized void aprint(GOut g, Coord c, double ax, double ay, String text) {
+	Layout l = layout(text);
+	if(l.nq == 0)
+	    return;
+	Coord lc = c.add(g.tx);
+	lc.x -= (int)Math.round(l.sz.x * ax);
+	lc.y -= (int)Math.round(l.sz.y * ay);
+	if((lc.x + l.sz.x < g.ul.x) || (lc.y + l.sz.y < g.ul.y) || (lc.x >= g.br.x) || (lc.y >= g.br.y))
+	    return;
+	short[] data = l.data;
+	short ox = (short)lc.x, oy = (short)lc.y;
+	DataBuffer.Filler<VertexArray.Buffer> fill = (tgt, env) -> {
+	    FillBuffer buf = env.fillbuf(tgt);
+	    ShortBuffer sb = buf.push().asShortBuffer();
+	    for(int i = 0; i < data.length; i += 4) {
+		sb.put((short)(data[i] + ox));
+		sb.put((short)(data[i + 1] + oy));
+		sb.put(data[i + 2]);
+		sb.put(data[i + 3]);
+	    }
+	    return(buf);
+	};
+	g.out.draw1(g.state().copy().prep(tex.st()),
+		    new Model(Model.Mode.TRIANGLES,
+			      new VertexArray(FastText.vf, new VertexArray.Buffer(data.length * 2, DataBuffer.Usage.EPHEMERAL, fill)),
+			      indices(l.nq), 0, l.nq * 6));
+    }
+
+    public void print(GOut g, Coord c, String text) {
+	aprint(g, c, 0.0, 0.0, text);
+    }
+}
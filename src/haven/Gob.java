@@ -37,9 +37,6 @@ import haven.res.lib.svaj.GobSvaj;
 import haven.res.lib.tree.TreeScale;
 import haven.sprites.*;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.awt.*;
 import java.io.File;
@@ -58,6 +55,9 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
     public Coord2d rc;
     public double a;
     public boolean virtual = false;
+    /* Set by the map view for gobs that are off-screen or far from
+     * the player, which are then left in a static pose. */
+    public volatile boolean lod = false;
     int clprio = 0;
     public long id;
     public boolean removed = false;
@@ -771,6 +771,8 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
     public void ctick(double dt) {
 	Map<Class<? extends GAttrib>, GAttrib> attr = cloneattrs();
 	for(GAttrib a : attr.values()){
+		if(lod && (a instanceof Drawable))
+			continue;
 		if(a instanceof ResDrawable){
 			if(!disableThisGobAnimations || !disableGlobalGobAnimations){
 				a.ctick(dt);
@@ -838,6 +840,8 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
     }
 
     public void gtick(Render g) {
+	if(lod)
+	    return;
 	Drawable d = getattr(Drawable.class);
 	if(d != null)
 	    d.gtick(g);
@@ -996,6 +1000,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 		}
 	this.rc = c;
 	this.a = a;
+	glob.oc.index.moved(this);
     }
 
     public Placer placer() {
@@ -1069,7 +1074,10 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 			attr.put(ac, a);
 		}
 		if (ac == Drawable.class) {
-			if (a != prev) drawableUpdated();
+			if (a != prev) {
+				drawableUpdated();
+				glob.oc.index.touch(this);
+			}
 		}
 		if (prev != null)
 			prev.dispose();
@@ -2224,11 +2232,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 						try {
 							File file = new File("res/sfx/loftarAlarm.wav");
 							if (file.exists()) {
-								AudioInputStream in = AudioSystem.getAudioInputStream(file);
-								AudioFormat tgtFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100, 16, 2, 4, 44100, false);
-								AudioInputStream pcmStream = AudioSystem.getAudioInputStream(tgtFormat, in);
-								Audio.CS klippi = new Audio.PCMClip(pcmStream, 2, 2);
-								((Audio.Mixer) Audio.player.stream).add(new Audio.VolAdjust(klippi, 1));
+								Audio.playfile(file, 1);
 								alarmPlayed.add(id);
 							}
 						} catch (Exception ignored) {
@@ -2244,11 +2248,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 			try {
 				File file = new File("Alarms/" + line + ".wav");
 				if (file.exists()) {
-					AudioInputStream in = AudioSystem.getAudioInputStream(file);
-					AudioFormat tgtFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100, 16, 2, 4, 44100, false);
-					AudioInputStream pcmStream = AudioSystem.getAudioInputStream(tgtFormat, in);
-					Audio.CS klippi = new Audio.PCMClip(pcmStream, 2, 2);
-					((Audio.Mixer) Audio.player.stream).add(new Audio.VolAdjust(klippi, val / 50.0));
+					Audio.playfile(file, val / 50.0);
 					alarmPlayed.add(id);
 				}
 			} catch (Exception ignored) {
@@ -2641,11 +2641,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 							File file = new File("res/sfx/PlayerKnockedOut.wav");
 							if (file.exists()) {
 								try {
-									AudioInputStream in = AudioSystem.getAudioInputStream(file);
-									AudioFormat tgtFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100, 16, 2, 4, 44100, false);
-									AudioInputStream pcmStream = AudioSystem.getAudioInputStream(tgtFormat, in);
-									Audio.CS klippi = new Audio.PCMClip(pcmStream, 2, 2);
-									((Audio.Mixer) Audio.player.stream).add(new Audio.VolAdjust(klippi, 1));
+									Audio.playfile(file, 1);
 								} catch (UnsupportedAudioFileException e) {
 									e.printStackTrace();
 								} catch (IOException e) {
@@ -2662,11 +2658,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 							}
 							if (file != null && file.exists() && somethingJustDied) {
 								try {
-									AudioInputStream in = AudioSystem.getAudioInputStream(file);
-									AudioFormat tgtFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100, 16, 2, 4, 44100, false);
-									AudioInputStream pcmStream = AudioSystem.getAudioInputStream(tgtFormat, in);
-									Audio.CS klippi = new Audio.PCMClip(pcmStream, 2, 2);
-									((Audio.Mixer) Audio.player.stream).add(new Audio.VolAdjust(klippi, 1));
+									Audio.playfile(file, 1);
 								} catch (UnsupportedAudioFileException e) {
 									e.printStackTrace();
 								} catch (IOException e) {
@@ -0,0 +1,332 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+import java.util.function.*;
+
+/* Spatial and resource-name index over the gobs of an OCache. It is
+ * kept up to date by OCache as gobs come and go and by Gob.move(),
+ * under a lock of its own. Queries are made against immutable
+ * snapshots of which gobs are in which cell, rebuilt lazily whenever
+ * a gob has been added, removed or has crossed into another cell
+ * since the last one was made. Positions are read live from the gobs
+ * at query time, so movement within a cell costs nothing. Readers
+ * never take the OCache monitor and never see a half-applied
+ * update. */
+public class GobIndex {
+    public static final double CELL = 110;
+    private final Map<Long, Set<Gob>> cells = new HashMap<>();
+    private final Map<Gob, Entry> entries = new HashMap<>();
+    private int seq = 0;
+    private Snapshot last = null;
+
+    private static class Entry {
+	long cell;
+	String name;
+
+	Entry(long cell) {
+	    this.cell = cell;
+	}
+    }
+
+    private static long cell(int x, int y) {
+	return(((long)x << 32) | (y & 0xffffffffL));
+    }
+
+    private static long cell(Coord2d c) {
+	return(cell(Utils.floordiv(c.x, CELL), Utils.floordiv(c.y, CELL)));
+    }
+
+    public synchronized void add(Gob gob) {
+	if(entries.containsKey(gob))
+	    return;
+	Entry e = new Entry(cell(gob.rc));
+	entries.put(gob, e);
+	cells.computeIfAbsent(e.cell, k -> new HashSet<>()).add(gob);
+	seq++;
+    }
+
+    public synchronized void remove(Gob gob) {
+	Entry e = entries.remove(gob);
+	if(e == null)
+	    return;
+	unfile(gob, e.cell);
+	seq++;
+    }
+
+    private void unfile(Gob gob, long cell) {
+	Set<Gob> s = cells.get(cell);
+	if(s != null) {
+	    s.remove(gob);
+	    if(s.isEmpty())
+		cells.remove(cell);
+	}
+    }
+
+    public synchronized void moved(Gob gob) {
+	Entry e = entries.get(gob);
+	if(e == null)
+	    return;
+	long nc = cell(gob.rc);
+	if(nc != e.cell) {
+	    unfile(gob, e.cell);
+	    cells.computeIfAbsent(nc, k -> new HashSet<>()).add(gob);
+	    e.cell = nc;
+	    seq++;
+	}
+    }
+
+    /* Called when the resource of a gob may have changed. */
+    public synchronized void touch(Gob gob) {
+	Entry e = entries.get(gob);
+	if((e != null) && (e.name != null)) {
+	    e.name = null;
+	    seq++;
+	}
+    }
+
+    public synchronized void clear() {
+	cells.clear();
+	entries.clear();
+	seq++;
+    }
+
+    private boolean fresh(Snapshot s) {
+	/* Snapshots with gobs whose resources were still loading are
+	 * refreshed now and then to pick the names up. */
+	return((s != null) && (s.seq == seq) && !(s.partial && (Utils.rtime() - s.time > 0.25)));
+    }
+
+    public Snapshot snapshot() {
+	List<Gob> unnamed = new ArrayList<>();
+	synchronized(this) {
+	    if(fresh(last))
+		return(last);
+	    for(Map.Entry<Gob, Entry> ent : entries.entrySet()) {
+		if(ent.getValue().name == null)
+		    unnamed.add(ent.getKey());
+	    }
+	}
+	/* Resources are looked up outside of the index lock, so that
+	 * gob updates are not held up by it. */
+	Map<Gob, String> names = new HashMap<>();
+	for(Gob gob : unnamed) {
+	    try {
+		Resource res = gob.getres();
+		if(res != null)
+		    names.put(gob, res.name);
+	    } catch(Loading l) {
+	    }
+	}
+	synchronized(this) {
+	    for(Map.Entry<Gob, String> ent : names.entrySet()) {
+		Entry e = entries.get(ent.getKey());
+		if((e != null) && (e.name == null))
+		    e.name = ent.getValue();
+	    }
+	    if(!fresh(last) || !names.isEmpty())
+		last = new Snapshot(this);
+	    return(last);
+	}
+    }
+
+    public static class Snapshot {
+	private static final Gob[] nil = new Gob[0];
+	public final int seq;
+	private final double time;
+	private final boolean partial;
+	private final Gob[] all;
+	private final Map<Long, Gob[]> cells;
+	private final NavigableMap<String, Gob[]> names;
+	private final int cx0, cy0, cx1, cy1;
+
+	private Snapshot(GobIndex idx) {
+	    this.seq = idx.seq;
+	    this.time = Utils.rtime();
+	    Map<Long, Gob[]> cells = new HashMap<>(idx.cells.size() * 2);
+	    Map<String, List<Gob>> names = new HashMap<>();
+	    Gob[] all = new Gob[idx.entries.size()];
+	    boolean partial = false;
+	    int n = 0;
+	    int cx0 = Integer.MAX_VALUE, cy0 = Integer.MAX_VALUE, cx1 = Integer.MIN_VALUE, cy1 = Integer.MIN_VALUE;
+	    for(Map.Entry<Long, Set<Gob>> ce : idx.cells.entrySet()) {
+		long key = ce.getKey();
+		int cx = (int)(key >> 32), cy = (int)key;
+		cx0 = Math.min(cx0, cx); cy0 = Math.min(cy0, cy);
+		cx1 = Math.max(cx1, cx); cy1 = Math.max(cy1, cy);
+		Gob[] gobs = ce.getValue().toArray(new Gob[0]);
+		for(Gob gob : gobs) {
+		    all[n++] = gob;
+		    Entry e = idx.entries.get(gob);
+		    if(e.name == null) {
+			partial = true;
+			continue;
+		    }
+		    names.computeIfAbsent(e.name, k -> new ArrayList<>()).add(gob);
+		}
+		cells.put(key, gobs);
+	    }
+	    this.all = all;
+	    this.cells = cells;
+	    this.names = new TreeMap<>();
+	    for(Map.Entry<String, List<Gob>> ne : names.entrySet())
+		this.names.put(ne.getKey(), ne.getValue().toArray(new Gob[0]));
+	    this.partial = partial;
+	    this.cx0 = cx0; this.cy0 = cy0; this.cx1 = cx1; this.cy1 = cy1;
+	}
+
+	private Gob[] cell(int x, int y) {
+	    Gob[] ret = cells.get(GobIndex.cell(x, y));
+	    return((ret == null) ? nil : ret);
+	}
+
+	private static boolean test(Predicate<? super Gob> filter, Gob gob) {
+	    if(filter == null)
+		return(true);
+	    try {
+		return(filter.test(gob));
+	    } catch(Loading l) {
+		return(false);
+	    }
+	}
+
+	public List<Gob> all() {
+	    return(Collections.unmodifiableList(Arrays.asList(all)));
+	}
+
+	public int size() {
+	    return(all.length);
+	}
+
+	/* Gobs whose resource is known and named exactly so. */
+	public List<Gob> byres(String name) {
+	    Gob[] ret = names.get(name);
+	    return((ret == null) ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(ret)));
+	}
+
+	public List<Gob> byprefix(String prefix) {
+	    List<Gob> ret = new ArrayList<>();
+	    for(Gob[] gobs : names.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values())
+		ret.addAll(Arrays.asList(gobs));
+	    return(ret);
+	}
+
+	/* Gobs with a known resource whose name passes the test. */
+	public List<Gob> byname(Predicate<? super String> test) {
+	    List<Gob> ret = new ArrayList<>();
+	    for(Map.Entry<String, Gob[]> ent : names.entrySet()) {
+		if(test.test(ent.getKey()))
+		    ret.addAll(Arrays.asList(ent.getValue()));
+	    }
+	    return(ret);
+	}
+
+	public List<Gob> named() {
+	    return(byname(nm -> true));
+	}
+
+	public List<Gob> byres(Collection<String> names) {
+	    List<Gob> ret = new ArrayList<>();
+	    for(String name : names) {
+		Gob[] gobs = this.names.get(name);
+		if(gobs != null)
+		    ret.addAll(Arrays.asList(gobs));
+	    }
+	    return(ret);
+	}
+
+	/* Gobs strictly inside the given rectangle. */
+	public List<Gob> within(Coord2d ul, Coord2d br, Predicate<? super Gob> filter) {
+	    List<Gob> ret = new ArrayList<>();
+	    int x0 = Math.max(Utils.floordiv(ul.x, CELL), cx0), y0 = Math.max(Utils.floordiv(ul.y, CELL), cy0);
+	    int x1 = Math.min(Utils.floordiv(br.x, CELL), cx1), y1 = Math.min(Utils.floordiv(br.y, CELL), cy1);
+	    for(int y = y0; y <= y1; y++) {
+		for(int x = x0; x <= x1; x++) {
+		    for(Gob gob : cell(x, y)) {
+			Coord2d p = gob.rc;
+			if((p.x > ul.x) && (p.x < br.x) && (p.y > ul.y) && (p.y < br.y) && test(filter, gob))
+			    ret.add(gob);
+		    }
+		}
+	    }
+	    return(ret);
+	}
+
+	/* Gobs closer than the given distance, nearest first. */
+	public List<Gob> within(Coord2d pc, double r, Predicate<? super Gob> filter) {
+	    return(nearest(pc, Integer.MAX_VALUE, r, filter));
+	}
+
+	public Gob nearest(Coord2d pc, double maxdist, Predicate<? super Gob> filter) {
+	    List<Gob> ret = nearest(pc, 1, maxdist, filter);
+	    return(ret.isEmpty() ? null : ret.get(0));
+	}
+
+	/* The k gobs nearest to pc and closer than maxdist which pass
+	 * the filter, nearest first. Cells are visited in rings around
+	 * pc until no unvisited cell can hold anything nearer than the
+	 * k:th candidate found. */
+	public List<Gob> nearest(Coord2d pc, int k, double maxdist, Predicate<? super Gob> filter) {
+	    if((all.length == 0) || (k <= 0))
+		return(Collections.emptyList());
+	    List<Gob> found = new ArrayList<>();
+	    List<Double> dists = new ArrayList<>();
+	    int cx = Utils.floordiv(pc.x, CELL), cy = Utils.floordiv(pc.y, CELL);
+	    int maxr = Math.max(Math.max(cx - cx0, cx1 - cx), Math.max(cy - cy0, cy1 - cy));
+	    for(int r = 0; r <= maxr; r++) {
+		double lb = (r - 1) * CELL;
+		if((lb >= maxdist) || ((found.size() >= k) && (lb > dists.get(k - 1))))
+		    break;
+		for(int y = cy - r; y <= cy + r; y++) {
+		    boolean edge = (y == cy - r) || (y == cy + r);
+		    for(int x = cx - r; x <= cx + r; x += edge ? 1 : (2 * r)) {
+			for(Gob gob : cell(x, y)) {
+			    double d = gob.rc.dist(pc);
+			    if((d >= maxdist) || ((found.size() >= k) && (d >= dists.get(k - 1))))
+				continue;
+			    if(!test(filter, gob))
+				continue;
+			    int p = found.size();
+			    while((p > 0) && (dists.get(p - 1) > d))
+				p--;
+			    found.add(p, gob);
+			    dists.add(p, d);
+			    if(found.size() > k) {
+				found.remove(k);
+				dists.remove(k);
+			    }
+			}
+			if(r == 0)
+			    break;
+		    }
+		}
+	    }
+	    return(found);
+	}
+    }
+}
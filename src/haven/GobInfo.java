@@ -24,7 +24,7 @@ public abstract class GobInfo extends GAttrib implements RenderTree.Node, PView.
     @Override
     public void ctick(double dt) {
         synchronized (texLock) {
-            if(enabled() && dirty && tex == null) {
+            if(enabled() && !gob.lod && dirty && tex == null) {
                 tex = render();
                 dirty = false;
             }
@@ -35,7 +35,7 @@ public abstract class GobInfo extends GAttrib implements RenderTree.Node, PView.
     public void draw(GOut g, Pipe state) {
         if (GameUI.showUI){
             synchronized (texLock) {
-                if(enabled() && tex != null) {
+                if(enabled() && !gob.lod && tex != null) {
                     Coord3f c3d = Homo3D.obj2view2(pos, state, Area.sized(g.sz()));
                     if(c3d == null) {return;}
                     Coord sc = c3d.round2();
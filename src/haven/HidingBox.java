@@ -8,7 +8,7 @@ import java.util.List;
 import java.util.*;
 import java.util.stream.Collectors;
 
-public class HidingBox extends SlottedNode implements Rendered {
+public class HidingBox extends SlottedNode implements Rendered.Instancable {
 	private static final VertexArray.Layout LAYOUT = new VertexArray.Layout(new VertexArray.Layout.Input(Homo3D.vertex, new VectorFormat(3, NumberFormat.FLOAT32), 0, 0, 12));
 	private Model model;
 	private final Gob gob;
@@ -52,6 +52,16 @@ public class HidingBox extends SlottedNode implements Rendered {
 		}
 	}
 
+	@Override
+	public Object instanceid() {
+		return model;
+	}
+
+	@Override
+	public Rendered.Instanced instancify(InstanceBatch bat) {
+		return new InstancedModel(model, bat);
+	}
+
 	public void updateState() {
 		if(model != null && slots != null) {
 			Pipe.Op newState;
@@ -161,7 +171,7 @@ public class HidingBox extends SlottedNode implements Rendered {
 					}
 
 					float[] data = convert(vertices);
-					VertexArray.Buffer vbo = new VertexArray.Buffer(data.length * 4, DataBuffer.Usage.STATIC, DataBuffer.Filler.of(data));
+					VertexArray.Buffer vbo = new VertexArray.Buffer(data.length * 4, DataBuffer.Usage.STATIC, DataBuffer.Filler.of(data)).shared();
 					VertexArray va = new VertexArray(LAYOUT, vbo);
 
 					model = new Model(Model.Mode.LINES, va, null);
@@ -26,9 +26,6 @@
 
 package haven;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
 import java.awt.Color;
 import java.io.File;
 import java.util.*;
@@ -161,11 +158,7 @@ public void draw(GOut g) {
 						try {
 							File file = new File("Alarms/" + OptWnd.ponyPowerSoundFilename.buf.line() + ".wav");
 							if (file.exists()) {
-								AudioInputStream in = AudioSystem.getAudioInputStream(file);
-								AudioFormat tgtFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100, 16, 2, 4, 44100, false);
-								AudioInputStream pcmStream = AudioSystem.getAudioInputStream(tgtFormat, in);
-								Audio.CS klippi = new Audio.PCMClip(pcmStream, 2, 2);
-								((Audio.Mixer) Audio.player.stream).add(new Audio.VolAdjust(klippi, OptWnd.ponyPowerSoundVolumeSlider.val / 50.0));
+								Audio.playfile(file, OptWnd.ponyPowerSoundVolumeSlider.val / 50.0);
 							}
 						} catch (Exception ignored) {
 						}
@@ -183,11 +176,7 @@ public void draw(GOut g) {
 							try {
 								File file = new File("Alarms/" + OptWnd.lowEnergySoundFilename.buf.line() + ".wav");
 								if (file.exists()) {
-									AudioInputStream in = AudioSystem.getAudioInputStream(file);
-									AudioFormat tgtFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100, 16, 2, 4, 44100, false);
-									AudioInputStream pcmStream = AudioSystem.getAudioInputStream(tgtFormat, in);
-									Audio.CS klippi = new Audio.PCMClip(pcmStream, 2, 2);
-									((Audio.Mixer) Audio.player.stream).add(new Audio.VolAdjust(klippi, OptWnd.lowEnergySoundVolumeSlider.val / 50.0));
+									Audio.playfile(file, OptWnd.lowEnergySoundVolumeSlider.val / 50.0);
 								}
 							} catch (Exception ignored) {
 							}
@@ -205,11 +194,7 @@ public void draw(GOut g) {
 							try {
 								File file = new File("Alarms/" + OptWnd.lowEnergySoundFilename.buf.line() + ".wav");
 								if (file.exists()) {
-									AudioInputStream in = AudioSystem.getAudioInputStream(file);
-									AudioFormat tgtFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100, 16, 2, 4, 44100, false);
-									AudioInputStream pcmStream = AudioSystem.getAudioInputStream(tgtFormat, in);
-									Audio.CS klippi = new Audio.PCMClip(pcmStream, 2, 2);
-									((Audio.Mixer) Audio.player.stream).add(new Audio.VolAdjust(klippi, OptWnd.lowEnergySoundVolumeSlider.val / 50.0));
+									Audio.playfile(file, OptWnd.lowEnergySoundVolumeSlider.val / 50.0);
 								}
 							} catch (Exception ignored) {
 							}
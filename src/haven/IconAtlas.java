@@ -0,0 +1,214 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import haven.render.*;
+
+/* Packs small icon images into a single texture, so that a whole set
+ * of map icons, each with its own position, rotation and color, can
+ * be drawn with one draw call. Images are added lazily as they are
+ * first drawn, and the atlas is simply started over should it ever
+ * fill up. It is only started over while no batch has quads queued,
+ * since those refer to places in the current image; until then, new
+ * images are refused and have to be drawn on their own. */
+public class IconAtlas {
+    private static final int ATLW = 512, MAXH = 2048;
+    public static final VertexArray.Layout vf = new VertexArray.Layout(new VertexArray.Layout.Input(Ortho2D.pos, new VectorFormat(2, NumberFormat.FLOAT32), 0, 0, 20),
+								       new VertexArray.Layout.Input(ColorTex.texc, new VectorFormat(2, NumberFormat.FLOAT32), 0, 8, 20),
+								       new VertexArray.Layout.Input(VertexColor.color, new VectorFormat(4, NumberFormat.UNORM8), 0, 16, 20));
+    public static final IconAtlas global = new IconAtlas();
+    private final Map<TexI, Cell> cells = new WeakHashMap<>();
+    private final Set<Batch> queued = Collections.newSetFromMap(new WeakHashMap<>());
+    private BufferedImage img = TexI.mkbuf(Coord.of(ATLW, 64));
+    private int px = 0, py = 0, rowh = 0;
+    private TexI tex = null;
+    private boolean dirty = true;
+
+    private static class Cell {
+	final int ax, ay, w, h;
+
+	Cell(int ax, int ay, int w, int h) {
+	    this.ax = ax; this.ay = ay; this.w = w; this.h = h;
+	}
+    }
+
+    private Cell place(BufferedImage ii) {
+	int w = ii.getWidth(), h = ii.getHeight();
+	if((w > ATLW) || (h > MAXH))
+	    return(null);
+	if(px + w > ATLW) {
+	    px = 0;
+	    py += rowh;
+	    rowh = 0;
+	}
+	if(py + h > MAXH) {
+	    if(!queued.isEmpty())
+		return(null);
+	    cells.clear();
+	    img = TexI.mkbuf(Coord.of(ATLW, 64));
+	    px = py = rowh = 0;
+	}
+	while(py + h > img.getHeight()) {
+	    BufferedImage nimg = TexI.mkbuf(Coord.of(ATLW, img.getHeight() * 2));
+	    Graphics g = nimg.getGraphics();
+	    g.drawImage(img, 0, 0, null);
+	    g.dispose();
+	    img = nimg;
+	}
+	Graphics g = img.getGraphics();
+	g.drawImage(ii, px, py, null);
+	g.dispose();
+	Cell ret = new Cell(px, py, w, h);
+	px += w + 1;
+	rowh = Math.max(rowh, h + 1);
+	dirty = true;
+	return(ret);
+    }
+
+    private Cell cell(Tex t) {
+	if(!(t instanceof TexI))
+	    return(null);
+	TexI ti = (TexI)t;
+	Cell ret = cells.get(ti);
+	if(ret == null) {
+	    if((ret = place(ti.back)) == null)
+		return(null);
+	    cells.put(ti, ret);
+	}
+	return(ret);
+    }
+
+    private static class Quad {
+	final Cell cell;
+	final Coord c, cc;
+	final double a;
+	final Color col;
+
+	Quad(Cell cell, Coord c, Coord cc, double a, Color col) {
+	    this.cell = cell; this.c = c; this.cc = cc; this.a = a; this.col = col;
+	}
+    }
+
+    public class Batch {
+	private final List<Quad> quads = new ArrayList<>();
+
+	/* Adds tex to be drawn with its point cc at c, rotated by a
+	 * around it. Returns false if the texture cannot be put in
+	 * the atlas, in which case it has to be drawn on its own. */
+	public boolean add(Tex tex, Coord c, Coord cc, double a, Color col) {
+	    Cell cell;
+	    synchronized(IconAtlas.this) {
+		if((cell = cell(tex)) == null)
+		    return(false);
+		queued.add(this);
+	    }
+	    quads.add(new Quad(cell, c, cc, a, col));
+	    return(true);
+	}
+
+	public void draw(GOut g) {
+	    try {
+		if(!quads.isEmpty())
+		    draw0(g);
+	    } finally {
+		quads.clear();
+		synchronized(IconAtlas.this) {
+		    queued.remove(this);
+		}
+	    }
+	}
+
+	private void draw0(GOut g) {
+	    Area clip = Area.corn(Coord.of(g.ul.x, g.root().br.y - g.br.y), Coord.of(g.br.x, g.root().br.y - g.ul.y));
+	    if(!clip.positive())
+		return;
+	    TexI tex;
+	    Coord tdim;
+	    synchronized(IconAtlas.this) {
+		if(dirty) {
+		    if(IconAtlas.this.tex != null)
+			IconAtlas.this.tex.dispose();
+		    IconAtlas.this.tex = new TexI(img, false);
+		    BufferedImage nimg = TexI.mkbuf(Utils.imgsz(img));
+		    Graphics ig = nimg.getGraphics();
+		    ig.drawImage(img, 0, 0, null);
+		    ig.dispose();
+		    img = nimg;
+		    dirty = false;
+		}
+		tex = IconAtlas.this.tex;
+		tdim = tex.sz();
+	    }
+	    float[] vert = new float[quads.size() * 6 * 4];
+	    int[] vcol = new int[quads.size()];
+	    int n = 0;
+	    for(Quad q : quads) {
+		Cell cell = q.cell;
+		Coord c = q.c, cc = q.cc;
+		double a = q.a;
+		Color col = q.col;
+		float x = c.x + g.tx.x, y = c.y + g.tx.y;
+		float si = -(float)Math.sin(a), co = (float)Math.cos(a);
+		float l = -cc.x, u = -cc.y, r = cell.w - cc.x, b = cell.h - cc.y;
+		float tl = (float)cell.ax / tdim.x, tr = (float)(cell.ax + cell.w) / tdim.x;
+		float tu = (float)cell.ay / tdim.y, tb = (float)(cell.ay + cell.h) / tdim.y;
+		float[] cx = {x + (l * co) - (u * si), x + (r * co) - (u * si), x + (r * co) - (b * si), x + (l * co) - (b * si)};
+		float[] cy = {y + (l * si) + (u * co), y + (r * si) + (u * co), y + (r * si) + (b * co), y + (l * si) + (b * co)};
+		float[] tx = {tl, tr, tr, tl}, ty = {tu, tu, tb, tb};
+		int o = n * 24;
+		for(int i : new int[] {0, 1, 3, 1, 2, 3}) {
+		    vert[o++] = cx[i]; vert[o++] = cy[i];
+		    vert[o++] = tx[i]; vert[o++] = ty[i];
+		}
+		vcol[n++] = (col == null) ? -1 : ((col.getRed() << 24) | (col.getGreen() << 16) | (col.getBlue() << 8) | col.getAlpha());
+	    }
+	    int nq = n;
+	    DataBuffer.Filler<VertexArray.Buffer> fill = (tgt, env) -> {
+		FillBuffer buf = env.fillbuf(tgt);
+		ByteBuffer bb = buf.push();
+		for(int i = 0, vo = 0; i < nq; i++) {
+		    int col = vcol[i];
+		    for(int v = 0; v < 6; v++) {
+			bb.putFloat(vert[vo++]); bb.putFloat(vert[vo++]);
+			bb.putFloat(vert[vo++]); bb.putFloat(vert[vo++]);
+			bb.put((byte)(col >>> 24)); bb.put((byte)(col >>> 16)); bb.put((byte)(col >>> 8)); bb.put((byte)col);
+		    }
+		}
+		return(buf);
+	    };
+	    g.out.draw1(g.state().copy().prep(tex.st()).prep(VertexColor.instance).prep(new States.Scissor(clip)),
+			new Model(Model.Mode.TRIANGLES,
+				  new VertexArray(vf, new VertexArray.Buffer(nq * 6 * 20, DataBuffer.Usage.EPHEMERAL, fill)),
+				  null, 0, nq * 6));
+	}
+    }
+}
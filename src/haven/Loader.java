@@ -33,12 +33,22 @@ import haven.Waitable.Waiting;
 
 public class Loader {
     private final double timeout = 5.0;
-    private final int maxthreads = 4;
+    private final String name;
+    private final int maxthreads;
     private final Queue<Future<?>> queue = new LinkedList<>();
     private final Map<Future<?>, Waiting> loading = new IdentityHashMap<>();
     private final Collection<Thread> pool = new ArrayList<>();
     private final AtomicInteger busy = new AtomicInteger(0);
 
+    public Loader(String name, int maxthreads) {
+	this.name = name;
+	this.maxthreads = maxthreads;
+    }
+
+    public Loader() {
+	this("Loader thread", 4);
+    }
+
     public class Future<T> {
 	public final Supplier<T> task;
 	private final boolean capex;
@@ -213,7 +223,7 @@ public class Loader {
     private void check() {
 	synchronized(queue) {
 	    if((queue.size() > pool.size()) && (pool.size() < maxthreads)) {
-		Thread th = new HackThread(this::loop, "Loader thread");
+		Thread th = new HackThread(this::loop, name);
 		th.setDaemon(true);
 		th.start();
 		pool.add(th);
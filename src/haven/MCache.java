@@ -28,6 +28,7 @@ package haven;
 
 import java.util.*;
 import java.util.function.*;
+import java.util.concurrent.*;
 import java.lang.ref.*;
 import haven.render.*;
 
@@ -49,7 +50,16 @@ public class MCache implements MapSource {
     private Reference<Tiler>[] tiles = new Reference[16];
     private final Waitable.Queue gridwait = new Waitable.Queue();
     Map<Coord, Request> req = new HashMap<Coord, Request>();
-    Map<Coord, Grid> grids = new HashMap<Coord, Grid>();
+    /* Lookups in the grid table are lock-free. Structural changes
+     * are made while holding the table's monitor, which is also what
+     * gridwait is notified under. Mutable per-grid state is guarded
+     * by the grid itself. */
+    final Map<Coord, Grid> grids = new ConcurrentHashMap<Coord, Grid>();
+    public static final Config.Variable<Integer> meshthreads = Config.Variable.propi("haven.meshthreads", Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    /* Terrain meshes and flavor objects are built on a pool of their
+     * own, so that they do not queue up behind unrelated deferred
+     * work such as resource decoding. */
+    private final Defer meshpool = new Defer(Thread.currentThread().getThreadGroup(), "Terrain builders", meshthreads.get());
     Session sess;
     Set<Overlay> ols = new HashSet<Overlay>();
     public int olseq = 0, chseq = 0;
@@ -276,7 +286,7 @@ public class MCache implements MapSource {
 	public boolean ol[][];
 	public long id;
 	public int seq = -1;
-	public boolean removed = false;
+	public volatile boolean removed = false;
 	private int olseq = -1;
 	private final Cut cuts[];
 
@@ -321,7 +331,7 @@ public class MCache implements MapSource {
 	    public void rebuild() {
 		synchronized(this) {
 		    Defer.Future<T> prev = this.def;
-		    this.def = Defer.later(new Defer.Callable<T>() {
+		    this.def = meshpool.defer(new Defer.Callable<T>() {
 			    public T call() {return(build());}
 			    public String toString() {return(message());}
 			});
@@ -330,6 +340,20 @@ public class MCache implements MapSource {
 		}
 	    }
 
+	    /* Drops a queued first build that is no longer wanted, such
+	     * as for a cut that went out of view before it was built,
+	     * so that it does not hold up builds of cuts still in
+	     * view. A build that has already started is left to
+	     * finish. The next get() queues a dropped one again. */
+	    public void park() {
+		synchronized(this) {
+		    if((this.val == null) && (this.def != null) && this.def.unqueue()) {
+			this.def = null;
+			this.inited = false;
+		    }
+		}
+	    }
+
 	    public void dispose() {
 		synchronized(this) {
 		    inited = true;
@@ -388,6 +412,11 @@ public class MCache implements MapSource {
 		fo.rebuild();
 	    }
 
+	    public void park() {
+		mesh.park();
+		fo.park();
+	    }
+
 	    public void dispose() {
 		synchronized(this) {
 		    mesh.dispose();
@@ -531,7 +560,7 @@ public class MCache implements MapSource {
 	    return(geticut(cc).mesh.get());
 	}
 	
-	public RenderTree.Node getolcut(OverlayInfo id, Coord cc) {
+	public synchronized RenderTree.Node getolcut(OverlayInfo id, Coord cc) {
 	    int nseq = MCache.this.olseq;
 	    if(this.olseq != nseq) {
 		for(int i = 0; i < cutn.x * cutn.y; i++) {
@@ -556,7 +585,7 @@ public class MCache implements MapSource {
 	    return(cut.ols.get(id));
 	}
 	
-	public RenderTree.Node getololcut(OverlayInfo id, Coord cc) {
+	public synchronized RenderTree.Node getololcut(OverlayInfo id, Coord cc) {
 	    getolcut(id, cc);
 	    return(geticut(cc).olols.get(id));
 	}
@@ -606,7 +635,7 @@ public class MCache implements MapSource {
 	    }
 	}
 
-	public void dispose() {
+	public synchronized void dispose() {
 	    removed = true;
 	    for(Cut cut : cuts)
 		cut.dispose();
@@ -797,26 +826,17 @@ public class MCache implements MapSource {
     }
 
     public void ctick(double dt) {
-	Collection<Grid> copy;
-	synchronized(grids) {
-	    copy = new ArrayList<>(grids.values());
-	}
-	for(Grid g : copy)
+	for(Grid g : grids.values())
 	    g.tick(dt);
     }
 
 	public void invalidateAll() {
-		Collection<Grid> copy = new ArrayList<>(grids.values());
-		for (Grid gr : copy)
+		for (Grid gr : grids.values())
 			gr.invalidate();
 	}
 
     public void gtick(Render g) {
-	Collection<Grid> copy;
-	synchronized(grids) {
-	    copy = new ArrayList<>(grids.values());
-	}
-	for(Grid gr : copy)
+	for(Grid gr : grids.values())
 	    gr.gtick(g);
     }
 
@@ -853,15 +873,19 @@ public class MCache implements MapSource {
 	Grid ret = (ref == null) ? null : ref.get();
 	if((ret != null) && ret.gc.equals(gc) && !ret.removed)
 	    return(ret);
-	synchronized(grids) {
-	    ret = grids.get(gc);
-	    if(ret == null) {
-		request(gc);
-		throw(new LoadingMap(this, gc));
-	    }
-	    cached.set(new WeakReference<>(ret));
-	    return(ret);
+	ret = grids.get(gc);
+	if(ret == null) {
+	    request(gc);
+	    throw(new LoadingMap(this, gc));
 	}
+	cached.set(new WeakReference<>(ret));
+	return(ret);
+    }
+
+    /* Like getgrid, but neither requests nor waits for grids which
+     * are not loaded. */
+    public Grid findgrid(Coord gc) {
+	return(grids.get(gc));
     }
 
     public Grid getgridt(Coord tc) {
@@ -994,23 +1018,23 @@ public class MCache implements MapSource {
     public MapMesh getcut(Coord cc) {
 	return(getgrid(cc.div(cutn)).getcut(cc.mod(cutn)));
     }
+
+    public void parkcut(Coord cc) {
+	Grid g = grids.get(cc.div(cutn));
+	if(g != null)
+	    g.geticut(cc.mod(cutn)).park();
+    }
     
     public RenderTree.Node getfo(Coord cc) {
-	synchronized(grids) {
-	    return(getgrid(cc.div(cutn)).getfo(cc.mod(cutn)));
-	}
+	return(getgrid(cc.div(cutn)).getfo(cc.mod(cutn)));
     }
 
     public RenderTree.Node getolcut(OverlayInfo id, Coord cc) {
-	synchronized(grids) {
-	    return(getgrid(cc.div(cutn)).getolcut(id, cc.mod(cutn)));
-	}
+	return(getgrid(cc.div(cutn)).getolcut(id, cc.mod(cutn)));
     }
 
     public RenderTree.Node getololcut(OverlayInfo id, Coord cc) {
-	synchronized(grids) {
-	    return(getgrid(cc.div(cutn)).getololcut(id, cc.mod(cutn)));
-	}
+	return(getgrid(cc.div(cutn)).getololcut(id, cc.mod(cutn)));
     }
 
     public void mapdata2(Message msg) {
@@ -1019,9 +1043,17 @@ public class MCache implements MapSource {
 	    synchronized(req) {
 		if(req.containsKey(c)) {
 		    Grid g = grids.get(c);
-		    if(g == null)
-			grids.put(c, g = new Grid(c));
-		    g.fill(msg);
+		    if(g == null) {
+			/* Readers don't lock the table, so only publish
+			 * the grid once it has been filled. */
+			g = new Grid(c);
+			g.fill(msg);
+			grids.put(c, g);
+		    } else {
+			synchronized(g) {
+			    g.fill(msg);
+			}
+		    }
 		    req.remove(c);
 		    olseq++;
 		    chseq++;
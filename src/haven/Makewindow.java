@@ -106,8 +106,15 @@ public class Makewindow extends Widget {
 	    }
 	    return(ItemInfo.shorttip(info()));
 	}
+	public Object tipkey() {
+	    return(new TipCache.Key(ui.sess, res.get().name, rawinfo));
+	}
+
 	public BufferedImage longtip() {
-	    List<ItemInfo> info = info();
+	    return(longtip(info()));
+	}
+
+	public BufferedImage longtip(List<ItemInfo> info) {
 	    BufferedImage img;
 	    if(info.isEmpty()) {
 		Resource.Tooltip tt = res.get().layer(Resource.tooltip);
@@ -284,9 +291,9 @@ public class Makewindow extends Widget {
 //		return(stip);
 //	    } else {
 		if(ltip == null) {
-		    BufferedImage tip = spec.longtip();
-		    Tex tt = (tip == null) ? null : new TexI(tip);
-		    ltip = () -> tt;
+		    List<ItemInfo> info = spec.info();
+		    TipCache.Tip tip = TipCache.global.get(spec.tipkey(), new TipCache.State(ui, info), () -> spec.longtip(info));
+		    ltip = tip::get;
 		}
 		return(ltip);
 //	    }
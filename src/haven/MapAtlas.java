@@ -0,0 +1,295 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.nio.ByteBuffer;
+import haven.render.*;
+import haven.render.Texture2D.Sampler2D;
+import static haven.MCache.cmaps;
+
+/* Packs minimap grid and overlay images into a few large textures
+ * instead of one texture per image. Each page keeps a CPU-side copy
+ * of its pixels, so that updating part of a cell only uploads the
+ * rows that actually changed. Cells are kept in LRU order and
+ * evicted once the configured budget is exceeded, except for cells
+ * that have been drawn recently, so the budget is a soft one. */
+public class MapAtlas {
+    public static final Config.Variable<Integer> budget = Config.Variable.propi("haven.mapatlas", 64);
+    public static final MapAtlas global = new MapAtlas(cmaps, 1024, budget.get() << 20);
+    private static final VectorFormat fmt = new VectorFormat(4, NumberFormat.UNORM8);
+    private static final double recent = 1.0;
+    public final Coord csz;
+    public final int pagesz, percol, perpage, maxpages;
+    private final List<Page> pages = new ArrayList<>();
+    private final Map<Object, Cell> cells = new LinkedHashMap<>(16, 0.75f, true);
+    private int evicted = 0;
+
+    public MapAtlas(Coord csz, int pagesz, int budget) {
+	this.csz = csz;
+	this.pagesz = pagesz;
+	this.percol = pagesz / csz.x;
+	this.perpage = percol * (pagesz / csz.y);
+	this.maxpages = Math.max(budget / (pagesz * pagesz * 4), 1);
+    }
+
+    /* The part of a rendered image to put into a cell. If base is
+     * non-null, the patch was computed as a change to the cell
+     * contents identified by base, and is dropped if the cell no
+     * longer holds that. */
+    public static class Patch {
+	public final BufferedImage img;
+	public final Coord iul, cul, sz;
+	public final Object base;
+
+	public Patch(BufferedImage img, Coord iul, Coord cul, Coord sz, Object base) {
+	    this.img = img;
+	    this.iul = iul;
+	    this.cul = cul;
+	    this.sz = sz;
+	    this.base = base;
+	}
+
+	public Patch(BufferedImage img) {
+	    this(img, Coord.z, Coord.z, Utils.imgsz(img), null);
+	}
+    }
+
+    private class Page implements DataBuffer.PartFiller<DataBuffer> {
+	final byte[] data = new byte[pagesz * pagesz * 4];
+	final Cell[] slots = new Cell[perpage];
+	final Texture2D tex;
+	final TexRaw st;
+	int used = 0, dlo = pagesz, dhi = 0;
+
+	Page() {
+	    tex = new Texture2D(pagesz, pagesz, DataBuffer.Usage.STATIC, fmt, fmt, this);
+	    Sampler2D smp = new Sampler2D(tex);
+	    smp.magfilter(Texture.Filter.NEAREST).minfilter(Texture.Filter.NEAREST);
+	    st = new TexRaw(smp);
+	}
+
+	/* Texture2D takes its filler for the raw image type, so the
+	 * image is taken as a plain buffer here. */
+	public FillBuffer fill(DataBuffer tgt, Environment env, int from, int to) {
+	    Texture.Image<?> img = (Texture.Image<?>)tgt;
+	    if(img.level != 0)
+		return(null);
+	    FillBuffer buf = env.fillbuf(img, from, to);
+	    synchronized(MapAtlas.this) {
+		buf.pull(ByteBuffer.wrap(data, from, to - from));
+	    }
+	    return(buf);
+	}
+
+	void commit(Render out) {
+	    int lo, hi;
+	    synchronized(MapAtlas.this) {
+		if(dhi <= dlo)
+		    return;
+		lo = dlo; hi = dhi;
+		dlo = pagesz; dhi = 0;
+	    }
+	    int rowsz = pagesz * 4;
+	    out.update(tex.image(0), this, lo * rowsz, hi * rowsz);
+	}
+
+	void dispose() {
+	    st.back.dispose();
+	}
+    }
+
+    public class Cell implements Tex {
+	public final Object key;
+	private Page page;
+	private int slot;
+	private Coord ul;
+	private Object ver;
+	private Object src;
+	private double used;
+
+	private Cell(Object key) {
+	    this.key = key;
+	}
+
+	public Coord sz() {return(csz);}
+
+	/* The contents version of the cell, as given to put(). */
+	public Object version() {return(ver);}
+	/* The source data the cell was last rendered from. */
+	public Object source() {return(src);}
+
+	public void render(GOut g, float[] gc, float[] tc) {
+	    Page page;
+	    Coord ul;
+	    synchronized(MapAtlas.this) {
+		if((page = this.page) == null)
+		    return;
+		ul = this.ul;
+	    }
+	    page.commit(g.out);
+	    float[] ptc = {
+		tc[0] + ul.x, tc[1] + ul.y,
+		tc[2] + ul.x, tc[3] + ul.y,
+		tc[4] + ul.x, tc[5] + ul.y,
+		tc[6] + ul.x, tc[7] + ul.y,
+	    };
+	    page.st.render(g, gc, ptc);
+	}
+    }
+
+    /* Returns the cell for key and marks it as used, or null if it
+     * has not been filled or has been evicted. */
+    public synchronized Cell get(Object key) {
+	Cell ret = cells.get(key);
+	if(ret != null)
+	    ret.used = Utils.rtime();
+	return(ret);
+    }
+
+    private void free(Cell cell) {
+	cell.page.slots[cell.slot] = null;
+	cell.page.used--;
+	cell.page = null;
+	evicted++;
+    }
+
+    private void alloc(Cell cell) {
+	for(Page page : pages) {
+	    if(page.used < perpage) {
+		place(cell, page);
+		return;
+	    }
+	}
+	if(pages.size() >= maxpages) {
+	    double now = Utils.rtime();
+	    for(Iterator<Cell> i = cells.values().iterator(); i.hasNext();) {
+		Cell old = i.next();
+		if(old.used > now - recent)
+		    break;
+		i.remove();
+		Page page = old.page;
+		free(old);
+		place(cell, page);
+		return;
+	    }
+	}
+	Page page = new Page();
+	pages.add(page);
+	place(cell, page);
+    }
+
+    private void place(Cell cell, Page page) {
+	for(int i = 0; i < perpage; i++) {
+	    if(page.slots[i] == null) {
+		page.slots[i] = cell;
+		page.used++;
+		cell.page = page;
+		cell.slot = i;
+		cell.ul = Coord.of((i % percol) * csz.x, (i / percol) * csz.y);
+		return;
+	    }
+	}
+	throw(new AssertionError());
+    }
+
+    private void blit(Page page, Coord ul, Patch p) {
+	Coord sz = Coord.of(Math.min(p.sz.x, csz.x - p.cul.x), Math.min(p.sz.y, csz.y - p.cul.y));
+	if((sz.x <= 0) || (sz.y <= 0))
+	    return;
+	boolean direct = Utils.eq(TexI.detectfmt(p.img), fmt);
+	Raster src = p.img.getRaster();
+	int[] argb = direct ? null : new int[sz.x];
+	byte[] row = direct ? null : new byte[sz.x * 4];
+	for(int y = 0; y < sz.y; y++) {
+	    int off = (((ul.y + p.cul.y + y) * pagesz) + ul.x + p.cul.x) * 4;
+	    if(direct) {
+		row = (byte[])src.getDataElements(p.iul.x, p.iul.y + y, sz.x, 1, row);
+	    } else {
+		p.img.getRGB(p.iul.x, p.iul.y + y, sz.x, 1, argb, 0, sz.x);
+		for(int x = 0; x < sz.x; x++) {
+		    int c = argb[x];
+		    row[(x * 4) + 0] = (byte)(c >>> 16);
+		    row[(x * 4) + 1] = (byte)(c >>>  8);
+		    row[(x * 4) + 2] = (byte)(c >>>  0);
+		    row[(x * 4) + 3] = (byte)(c >>> 24);
+		}
+	    }
+	    System.arraycopy(row, 0, page.data, off, sz.x * 4);
+	}
+	page.dlo = Math.min(page.dlo, ul.y + p.cul.y);
+	page.dhi = Math.max(page.dhi, ul.y + p.cul.y + sz.y);
+    }
+
+    /* Stores a rendered patch into the cell for key, allocating
+     * the cell if needed. Returns the cell, or null if the patch
+     * was relative to contents the cell no longer has. */
+    public synchronized Cell put(Object key, Patch p, Object ver, Object src) {
+	Cell cell = cells.get(key);
+	if(p.base != null) {
+	    if((cell == null) || (cell.ver != p.base))
+		return(null);
+	}
+	if(cell == null) {
+	    cell = new Cell(key);
+	    alloc(cell);
+	    cells.put(key, cell);
+	}
+	blit(cell.page, cell.ul, p);
+	cell.ver = ver;
+	cell.src = src;
+	cell.used = Utils.rtime();
+	return(cell);
+    }
+
+    /* Evicts cells that have not been used recently from pages
+     * beyond the budget, and releases such pages once empty. */
+    public synchronized void trim() {
+	if(pages.size() <= maxpages)
+	    return;
+	double now = Utils.rtime();
+	for(Iterator<Cell> i = cells.values().iterator(); i.hasNext();) {
+	    Cell cell = i.next();
+	    if(cell.used > now - recent)
+		break;
+	    if(pages.indexOf(cell.page) >= maxpages) {
+		i.remove();
+		free(cell);
+	    }
+	}
+	for(int i = pages.size() - 1; i >= maxpages; i--) {
+	    if(pages.get(i).used == 0)
+		pages.remove(i).dispose();
+	}
+    }
+
+    public synchronized String stats() {
+	return(String.format("%d cells, %d/%d pages, %d evicted", cells.size(), pages.size(), maxpages, evicted));
+    }
+}
@@ -27,6 +27,7 @@
 package haven;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.locks.*;
 import java.util.function.Function;
 import java.io.*;
@@ -42,16 +43,23 @@ public class MapFile {
     public static boolean debug = false;
     public final ResCache store;
     public final String filename;
+    public final MapRegions regions;
     public final Collection<Long> knownsegs = new HashSet<>();
     public final Collection<Marker> markers = new ArrayList<>();
     public final Map<Long, SMarker> smarkers = new HashMap<>();
     public int markerseq = 0;
     public final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    public final ZoomBuilder zbuilder = new ZoomBuilder();
     private final Random rnd = new Random();
 
-    public MapFile(ResCache store, String filename) {
+    public MapFile(ResCache store, String filename, MapRegions regions) {
 	this.store = store;
 	this.filename = filename;
+	this.regions = regions;
+    }
+
+    public MapFile(ResCache store, String filename) {
+	this(store, filename, null);
     }
 
     private void checklock() {
@@ -88,7 +96,15 @@ public class MapFile {
     }
 
     public static MapFile load(ResCache store, String filename) throws IOException {
-	MapFile file = new MapFile(store, filename);
+	MapRegions regions = null;
+	if(MapRegions.enabled.get()) {
+	    try {
+		regions = MapRegions.open(store, filename);
+	    } catch(IOException e) {
+		warn(e, "could not open map regions, using the per-file layout: %s", e);
+	    }
+	}
+	MapFile file = new MapFile(store, filename, regions);
 	InputStream fp;
 	try {
 	    fp = file.sfetch("index");
@@ -112,9 +128,22 @@ public class MapFile {
 	} catch(Message.BinError e) {
 	    throw(new IOException(String.format("error when loading index: %s", e), e));
 	}
+	if((regions != null) && !regions.migrated())
+	    file.migrate();
 	return(file);
     }
 
+    private void migrate() {
+	Thread th = new HackThread(() -> {
+		try {
+		    regions.migrate(this);
+		} catch(InterruptedException e) {
+		}
+	    }, "Mapfile migration");
+	th.setDaemon(true);
+	th.start();
+    }
+
     private void save() {
 	checklock();
 	OutputStream fp;
@@ -152,6 +181,11 @@ public class MapFile {
 
     public final BackCache<Long, GridInfo> gridinfo = new BackCache<>(100, id -> {
 	    checklock();
+	    if(MapFile.this.regions != null) {
+		GridInfo info = MapFile.this.regions.gridinfo(id);
+		if(info != null)
+		    return(info);
+	    }
 	    InputStream fp;
 	    try {
 		fp = sfetch("gi-%x", id);
@@ -171,6 +205,10 @@ public class MapFile {
 	    }
 	}, (id, info) -> {
 	    checklock();
+	    if(MapFile.this.regions != null) {
+		MapFile.this.regions.putgridinfo(info);
+		return;
+	    }
 	    OutputStream fp;
 	    try {
 		fp = sstore("gi-%x", info.id);
@@ -459,38 +497,21 @@ public class MapFile {
 	public BufferedImage render(Coord off) {
 	    BufferedImage[] texes = new BufferedImage[tilesets.length];
 	    boolean[] cached = new boolean[tilesets.length];
-	    WritableRaster buf = PUtils.imgraster(cmaps);
-	    Coord c = new Coord();
-	    for(c.y = 0; c.y < cmaps.y; c.y++) {
-		for(c.x = 0; c.x < cmaps.x; c.x++) {
-		    int t = gettile(c);
-		    BufferedImage tex = tiletex(t, texes, cached);
-		    int rgb = 0;
-		    if(tex != null)
-			rgb = tex.getRGB(Utils.floormod(c.x + off.x, tex.getWidth()),
-					 Utils.floormod(c.y + off.y, tex.getHeight()));
-		    buf.setSample(c.x, c.y, 0, (rgb & 0x00ff0000) >>> 16);
-		    buf.setSample(c.x, c.y, 1, (rgb & 0x0000ff00) >>>  8);
-		    buf.setSample(c.x, c.y, 2, (rgb & 0x000000ff) >>>  0);
-		    buf.setSample(c.x, c.y, 3, (rgb & 0xff000000) >>> 24);
-		}
-	    }
-	    for(c.y = 1; c.y < cmaps.y - 1; c.y++) {
-		for(c.x = 1; c.x < cmaps.x - 1; c.x++) {
-		    int p = tilesets[gettile(c)].prio;
-		    if((tilesets[gettile(c.add(-1, 0))].prio > p) ||
-		       (tilesets[gettile(c.add( 1, 0))].prio > p) ||
-		       (tilesets[gettile(c.add(0, -1))].prio > p) ||
-		       (tilesets[gettile(c.add(0,  1))].prio > p))
-		    {
-			buf.setSample(c.x, c.y, 0, 0);
-			buf.setSample(c.x, c.y, 1, 0);
-			buf.setSample(c.x, c.y, 2, 0);
-			buf.setSample(c.x, c.y, 3, 255);
-		    }
+	    MapRaster.Texels[] pal = new MapRaster.Texels[tilesets.length];
+	    int kw = cmaps.x + 2;
+	    int[] prio = new int[kw * (cmaps.y + 2)];
+	    for(int y = 0, i = 0; y < cmaps.y; y++) {
+		for(int x = 0; x < cmaps.x; x++, i++) {
+		    int t = tiles[i];
+		    if(!cached[t])
+			pal[t] = MapRaster.texels(tiletex(t, texes, cached));
+		    prio[((y + 1) * kw) + x + 1] = tilesets[t].prio;
 		}
 	    }
-	    return(PUtils.rasterimg(buf));
+	    MapRaster buf = new MapRaster(cmaps);
+	    buf.fill(tiles, pal, off);
+	    buf.edges(prio, 1, 1, cmaps.x - 1, cmaps.y - 1);
+	    return(buf.image());
 	}
 
 	private static Color olcol(MCache.OverlayInfo olid) {
@@ -546,12 +567,59 @@ public class MapFile {
 	    }
 	}
 
+	/* Run-length coded variant of savetiles, read back by loadtiles
+	 * version 3. Tiles are already indices into the grid's own
+	 * tileset palette, and tend to come in long runs. */
+	public static void savetiles2(Message fp, TileInfo[] tilesets, int[] tiles) {
+	    fp.adduint16(tilesets.length);
+	    for(int i = 0; i < tilesets.length; i++) {
+		fp.addstring(tilesets[i].res.name);
+		fp.adduint16(tilesets[i].res.ver);
+		fp.adduint8(tilesets[i].prio);
+	    }
+	    int runs = 1;
+	    for(int i = 1; i < tiles.length; i++) {
+		if(tiles[i] != tiles[i - 1])
+		    runs++;
+	    }
+	    if(runs * 2 < tiles.length) {
+		fp.adduint8(1);
+		for(int i = 0; i < tiles.length;) {
+		    int s = i;
+		    while((i < tiles.length) && (tiles[i] == tiles[s]))
+			i++;
+		    fp.adduvarint(i - s - 1);
+		    fp.adduvarint(tiles[s]);
+		}
+	    } else {
+		fp.adduint8(0);
+		if(tilesets.length <= 256) {
+		    for(int tn : tiles)
+			fp.adduint8(tn);
+		} else {
+		    for(int tn : tiles)
+			fp.adduint16(tn);
+		}
+	    }
+	}
+
 	public static Pair<TileInfo[], int[]> loadtiles(Message fp, int ver) {
 	    TileInfo[] tilesets = new TileInfo[(ver >= 2) ? fp.uint16() : fp.uint8()];
 	    for(int i = 0; i < tilesets.length; i++)
 		tilesets[i] = new TileInfo(new Resource.Spec(Resource.remote(), fp.string(), fp.uint16()), fp.uint8());
 	    int[] tiles = new int[cmaps.x * cmaps.y];
-	    if(tilesets.length <= 256) {
+	    int fmt = (ver >= 3) ? fp.uint8() : 0;
+	    if(fmt == 1) {
+		for(int i = 0; i < tiles.length;) {
+		    int n = fp.uvarint() + 1, tn = fp.uvarint();
+		    if((n > tiles.length - i) || (tn >= tilesets.length))
+			throw(new Message.FormatError(String.format("Bad run-length tile data: %d of %d at %d", tn, n, i)));
+		    Arrays.fill(tiles, i, i + n, tn);
+		    i += n;
+		}
+	    } else if(fmt != 0) {
+		throw(new Message.FormatError("Unknown tile data format: " + fmt));
+	    } else if(tilesets.length <= 256) {
 		for(int i = 0; i < cmaps.x * cmaps.y; i++)
 		    tiles[i] = fp.uint8();
 	    } else {
@@ -561,6 +629,24 @@ public class MapFile {
 	    return(new Pair<>(tilesets, tiles));
 	}
 
+	private static float zquant(float[] zmap, float min) {
+	    float q = 0, E = 0.01f;
+	    for(float z : zmap) {
+		if(z > (min + E)) {
+		    if(q == 0)
+			q = z - min;
+		    else
+			q = Utils.gcd(q, z - min, E);
+		}
+	    }
+	    float iq = 1.0f / q;
+	    for(float z : zmap) {
+		if(Math.abs((Math.round((z - min) * iq) * q) + min - z) > E)
+		    return(0);
+	    }
+	    return(q);
+	}
+
 	public static void savez(Message fp, float[] zmap) {
 	    float min = zmap[0], max = zmap[0];
 	    for(float z : zmap) {
@@ -572,20 +658,10 @@ public class MapFile {
 		return;
 	    }
 	    quantize: {
-		float q = 0, E = 0.01f;
-		for(float z : zmap) {
-		    if(z > (min + E)) {
-			if(q == 0)
-			    q = z - min;
-			else
-			    q = Utils.gcd(q, z - min, E);
-		    }
-		}
+		float q = zquant(zmap, min);
+		if(q == 0)
+		    break quantize;
 		float iq = 1.0f / q;
-		for(float z : zmap) {
-		    if(Math.abs((Math.round((z - min) * iq) * q) + min - z) > E)
-			break quantize;
-		}
 		if(Math.round((max - min) * iq) > 0xffff) {
 		    break quantize;
 		} else if(Math.round((max - min) * iq) > 0xff) {
@@ -604,6 +680,45 @@ public class MapFile {
 		fp.addfloat32(z);
 	}
 
+	/* Variant of savez which codes quantized heights as the
+	 * zig-zag varint difference from a gradient prediction of the
+	 * left, upper and upper-left neighbors, which is small for
+	 * smooth terrain. */
+	public static void savez2(Message fp, float[] zmap) {
+	    float min = zmap[0], max = zmap[0];
+	    for(float z : zmap) {
+		min = Math.min(z, min); max = Math.max(z, max);
+	    }
+	    if(min == max) {
+		fp.adduint8(0);
+		fp.addfloat32(min);
+		return;
+	    }
+	    float q = zquant(zmap, min);
+	    if((q == 0) || (Math.round((max - min) / q) > 0xffff)) {
+		fp.adduint8(3);
+		for(float z : zmap)
+		    fp.addfloat32(z);
+		return;
+	    }
+	    float iq = 1.0f / q;
+	    int[] qz = new int[zmap.length];
+	    for(int i = 0; i < zmap.length; i++)
+		qz[i] = Math.round((zmap[i] - min) * iq);
+	    fp.adduint8(4).addfloat32(min).addfloat32(q);
+	    for(int i = 0; i < qz.length; i++)
+		fp.addvarint(qz[i] - zpred(qz, i));
+	}
+
+	private static int zpred(int[] qz, int i) {
+	    int x = i % cmaps.x;
+	    if(i < cmaps.x)
+		return((x > 0) ? qz[i - 1] : 0);
+	    if(x == 0)
+		return(qz[i - cmaps.x]);
+	    return(qz[i - 1] + qz[i - cmaps.x] - qz[i - cmaps.x - 1]);
+	}
+
 	public static float[] loadz(Message fp, String nm) {
 	    float[] ret = new float[cmaps.x * cmaps.y];
 	    int fmt = fp.uint8();
@@ -622,6 +737,13 @@ public class MapFile {
 	    } else if(fmt == 3) {
 		for(int i = 0; i < ret.length; i++)
 		    ret[i] = fp.float32();
+	    } else if(fmt == 4) {
+		float min = fp.float32(), q = fp.float32();
+		int[] qz = new int[ret.length];
+		for(int i = 0; i < ret.length; i++) {
+		    qz[i] = zpred(qz, i) + fp.varint();
+		    ret[i] = min + (qz[i] * q);
+		}
 	    } else {
 		throw(new Message.FormatError(String.format("Unknown grid z-map format for %s: %d", nm, fmt)));
 	    }
@@ -773,16 +895,23 @@ public class MapFile {
 	}
 
 	public void save(Message fp) {
-	    fp.adduint8(5);
+	    fp.adduint8(6);
 	    ZMessage z = new ZMessage(fp);
 	    z.addint64(id);
 	    z.addint64(mtime);
-	    savetiles(z, tilesets, tiles);
-	    savez(z, zmap);
+	    savetiles2(z, tilesets, tiles);
+	    savez2(z, zmap);
 	    saveols(z, ols);
 	    z.finish();
 	}
 
+	public void save(MapFile file, long seg) {
+	    if(file.regions != null)
+		file.regions.putgrid(seg, this);
+	    else
+		save(file);
+	}
+
 	public void save(MapFile file) {
 	    OutputStream fp;
 	    try {
@@ -796,6 +925,15 @@ public class MapFile {
 	}
 
 	public static Grid load(MapFile file, long id) {
+	    if(file.regions != null) {
+		MapRegions.MappedGrid mg = file.regions.grid(id);
+		if(mg != null)
+		    return(mg.grid(id));
+	    }
+	    return(loadres(file, id));
+	}
+
+	static Grid loadres(MapFile file, long id) {
 	    InputStream fp;
 	    try {
 		fp = file.sfetch("grid-%x", id);
@@ -805,13 +943,13 @@ public class MapFile {
 	    }
 	    try(StreamMessage data = new StreamMessage(fp)) {
 		int ver = data.uint8();
-		if((ver >= 1) && (ver <= 5)) {
+		if((ver >= 1) && (ver <= 6)) {
 		    ZMessage z = new ZMessage(data);
 		    long storedid = z.int64();
 		    if(storedid != id)
 			throw(new Message.FormatError(String.format("Grid ID mismatch: expected %s, got %s", id, storedid)));
 		    long mtime = (ver >= 2) ? z.int64() : System.currentTimeMillis();
-		    Pair<TileInfo[], int[]> tiles = loadtiles(z, (ver >= 5) ? 2 : 1);
+		    Pair<TileInfo[], int[]> tiles = loadtiles(z, (ver >= 6) ? 3 : (ver >= 5) ? 2 : 1);
 		    float[] zmap;
 		    if(ver >= 3)
 			zmap = loadz(z, String.format("%x", id));
@@ -1004,19 +1142,23 @@ public class MapFile {
 	}
 
 	public void save(Message fp) {
-	    fp.adduint8(4);
+	    fp.adduint8(5);
 	    ZMessage z = new ZMessage(fp);
 	    z.addint64(seg);
 	    z.addint32(lvl);
 	    z.addcoord(sc);
 	    z.addint64(mtime);
-	    savetiles(z, tilesets, tiles);
-	    savez(z, zmap);
+	    savetiles2(z, tilesets, tiles);
+	    savez2(z, zmap);
 	    saveols(z, ols);
 	    z.finish();
 	}
 
 	public void save(MapFile file) {
+	    if(file.regions != null) {
+		file.regions.putzgrid(this);
+		return;
+	    }
 	    OutputStream fp;
 	    try {
 		fp = file.sstore("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y);
@@ -1029,6 +1171,10 @@ public class MapFile {
 	}
 
 	public static ZoomGrid load(MapFile file, long seg, int lvl, Coord sc) {
+	    if(file.regions != null) {
+		MapRegions.MappedGrid mg = file.regions.zgrid(seg, lvl, sc);
+		return((mg == null) ? null : mg.zgrid(seg, lvl, sc));
+	    }
 	    InputStream fp;
 	    try {
 		fp = file.sfetch("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y);
@@ -1042,7 +1188,7 @@ public class MapFile {
 		if(data.eom())
 		    return(null);
 		int ver = data.uint8();
-		if((ver >= 1) && (ver <= 4)) {
+		if((ver >= 1) && (ver <= 5)) {
 		    ZMessage z = new ZMessage(data);
 		    long storedseg = z.int64();
 		    if(storedseg != seg)
@@ -1055,7 +1201,7 @@ public class MapFile {
 			throw(new Message.FormatError(String.format("Zoomgrid coord mismatch: expected %s, got %s", sc, storedsc)));
 
 		    long mtime = z.int64();
-		    Pair<TileInfo[], int[]> tiles = loadtiles(z, (ver >= 4) ? 2 : 1);
+		    Pair<TileInfo[], int[]> tiles = loadtiles(z, (ver >= 5) ? 3 : (ver >= 4) ? 2 : 1);
 		    float[] zmap;
 		    if(ver >= 2)
 			zmap = loadz(z, String.format("(%d, %d) in %x@d", sc.x, sc.y, seg, lvl));
@@ -1074,22 +1220,30 @@ public class MapFile {
 	    }
 	}
 
+	static boolean inval(MapFile file, long seg, int lvl, Coord sc) {
+	    if(file.regions != null)
+		return(file.regions.invalzgrid(seg, lvl, sc));
+	    try {
+		file.sfetch("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y).close();
+	    } catch(FileNotFoundException e) {
+		return(false);
+	    } catch(IOException e) {
+		warn(e, "error when invalidating zoomgrid (%d, %d) in %x@%d: %s", sc.x, sc.y, seg, lvl, e);
+		return(false);
+	    }
+	    try {
+		file.sstore("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y).close();
+	    } catch(IOException e) {
+		throw(new StreamMessage.IOError(e));
+	    }
+	    return(true);
+	}
+
 	public static int inval(MapFile file, long seg, Coord sc) {
 	    for(int lvl = 1; true; lvl++) {
 		sc = new Coord(sc.x & ~((1 << lvl) - 1), sc.y & ~((1 << lvl) - 1));
-		try {
-		    file.sfetch("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y).close();
-		} catch(FileNotFoundException e) {
+		if(!inval(file, seg, lvl, sc))
 		    return(lvl - 1);
-		} catch(IOException e) {
-		    warn(e, "error when invalidating zoomgrid (%d, %d) in %x@%d: %s", sc.x, sc.y, seg, lvl, e);
-		    return(lvl - 1);
-		}
-		try {
-		    file.sstore("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y).close();
-		} catch(IOException e) {
-		    throw(new StreamMessage.IOError(e));
-		}
 	    }
 	}
     }
@@ -1201,7 +1355,9 @@ public class MapFile {
 		this.loading = loading;
 	    }
 
-	    public ZoomGrid get() {
+	    /* Also updated from the zoom builder's worker threads, so
+	     * all state is accessed under the instance lock. */
+	    public synchronized ZoomGrid get() {
 		if(loading != null) {
 		    try {
 			loaded = loading.get(0);
@@ -1214,6 +1370,19 @@ public class MapFile {
 		}
 		return(loaded);
 	    }
+
+	    synchronized void built(ZoomGrid zg) {
+		if(zg == null) {
+		    /* Keep whatever was there, but don't take the failure
+		     * as the final word. */
+		    if(loading == null)
+			loading = loadzgrid(zc);
+		    return;
+		}
+		loaded = zg;
+		got = true;
+		loading = null;
+	    }
 	}
 
 	public Indir<Grid> grid(Coord gc) {
@@ -1238,23 +1407,24 @@ public class MapFile {
 	    }
 	}
 
-	private void include(long id, Coord sc) {
-	    map.put(sc, id);
-	    int zl = ZoomGrid.inval(MapFile.this, this.id, sc);
+	private boolean zcached(ZoomCoord zc) {
 	    synchronized(zcache) {
-		/* XXX? Not sure how nice it is to iterate through the
-		 * entire zcache to do invalidations, but I also don't
-		 * think it ought to tend to be enormously large.
-		 * Perhaps keep a hierarchical zcache per level, and
-		 * only iterate all the levels? */
-		for(Map.Entry<ZoomCoord, ByZCoord> ent : zcache.entrySet()) {
-		    ZoomCoord zc = ent.getKey();
-		    if((zc.c.x == (sc.x & ~((1 << zc.lvl) - 1))) && (zc.c.y == (sc.y & ~((1 << zc.lvl) - 1)))) {
-			ByZCoord zg = ent.getValue();
-			zg.loading = loadzgrid(zc);
-		    }
-		}
+		return(zcache.containsKey(zc));
 	    }
+	}
+
+	private void zbuilt(ZoomCoord zc, ZoomGrid zg) {
+	    ByZCoord cur;
+	    synchronized(zcache) {
+		cur = zcache.get(zc);
+	    }
+	    if(cur != null)
+		cur.built(zg);
+	}
+
+	private void include(long id, Coord sc) {
+	    map.put(sc, id);
+	    zbuilder.dirty(this.id, sc);
 	    ByCoord bc;
 	    synchronized(ccache) {
 		bc = ccache.get(sc);
@@ -1287,14 +1457,29 @@ public class MapFile {
 
 	private class GridMap {
 	    final Grid grid;
+	    final MapRegions.MappedGrid mapped;
+	    final TileInfo[] tilesets;
 	    final Coord gc;
 	    int[] tilemap = null;
 
-	    GridMap(Grid grid, Coord gc) {this.grid = grid; this.gc = gc;}
+	    GridMap(Grid grid, Coord gc) {this.grid = grid; this.mapped = null; this.tilesets = grid.tilesets; this.gc = gc;}
+	    GridMap(MapRegions.MappedGrid mapped, Coord gc) {this.grid = null; this.mapped = mapped; this.tilesets = mapped.tilesets; this.gc = gc;}
+
+	    int gettile(Coord c) {return((grid != null) ? grid.gettile(c) : mapped.gettile(c));}
+	    double getfz(Coord c) {return((grid != null) ? grid.getfz(c) : mapped.getfz(c));}
 	}
 
 	public void addgrid(Coord gc) {
 	    if(!grids.containsKey(gc)) {
+		MapRegions regions = seg.file().regions;
+		if(regions != null) {
+		    Long id = seg.map.get(gc);
+		    MapRegions.MappedGrid mg = (id == null) ? null : regions.grid(id);
+		    if(mg != null) {
+			grids.put(gc, new GridMap(mg, gc));
+			return;
+		    }
+		}
 		Grid grid = seg.grid(gc).get();
 		if(grid == null)
 		    grids.put(gc, null);
@@ -1327,9 +1512,8 @@ public class MapFile {
 	    for(GridMap gm : grids.values()) {
 		if(gm == null)
 		    continue;
-		Grid g = gm.grid;
 		Collection<String> order = new ArrayList<>();
-		List<TileInfo> gtiles = new ArrayList<>(Arrays.asList(g.tilesets));
+		List<TileInfo> gtiles = new ArrayList<>(Arrays.asList(gm.tilesets));
 		Collections.sort(gtiles, (a, b) -> (a.prio - b.prio));
 		for(TileInfo tinf : gtiles) {
 		    if(!vermap.containsKey(tinf.res.name) || (vermap.get(tinf.res.name).ver < tinf.res.ver))
@@ -1348,9 +1532,9 @@ public class MapFile {
 	    for(GridMap gm : grids.values()) {
 		if(gm == null)
 		    continue;
-		int[] xl = new int[gm.grid.tilesets.length];
+		int[] xl = new int[gm.tilesets.length];
 		for(int i = 0; i < xl.length; i++)
-		    xl[i] = idx.get(gm.grid.tilesets[i].res.name);
+		    xl[i] = idx.get(gm.tilesets[i].res.name);
 		gm.tilemap = xl;
 	    }
 	    this.nsets = nsets;
@@ -1376,7 +1560,7 @@ public class MapFile {
 		return(-1);
 	    if(gm.tilemap == null)
 		throw(new IllegalStateException("Not finalized"));
-	    return(gm.tilemap[gm.grid.gettile(tc.sub(ul))]);
+	    return(gm.tilemap[gm.gettile(tc.sub(ul))]);
 	}
 
 	public double getfz(Coord tc) {
@@ -1385,7 +1569,7 @@ public class MapFile {
 	    GridMap gm = getgrid(gc);
 	    if(gm == null)
 		return(0);
-	    return(gm.grid.getfz(tc.sub(ul)));
+	    return(gm.getfz(tc.sub(ul)));
 	}
 
 	public Tileset tileset(int n) {
@@ -1530,7 +1714,7 @@ public class MapFile {
 			prev = Grid.load(MapFile.this, sg.id);
 		    if(prev != null)
 			sg = sg.mergeprev(prev);
-		    sg.save(MapFile.this);
+		    sg.save(MapFile.this, seg.id);
 		    seg.include(sg, info.sc);
 		}
 		if(seg.id != mseg) {
@@ -1556,7 +1740,7 @@ public class MapFile {
 		for(MCache.Grid g : missing) {
 		    Grid sg = Grid.from(map, g);
 		    Coord sc = g.gc.add(moff);
-		    sg.save(MapFile.this);
+		    sg.save(MapFile.this, seg.id);
 		    seg.include(sg, sc);
 		    gridinfo.put(g.id, new GridInfo(g.id, seg.id, sc));
 		}
@@ -1584,6 +1768,154 @@ public class MapFile {
 	if(debug) Debug.log.printf("mapfile: update completed\n");
     }
 
+    public static interface ZoomListener {
+	/* Called from builder threads; done == total when idle. */
+	public void zoomprog(int done, int total);
+    }
+
+    private static ForkJoinPool workers = null;
+    private static ForkJoinPool workers() {
+	synchronized(MapFile.class) {
+	    if(workers == null)
+		workers = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+	    return(workers);
+	}
+    }
+
+    /* Rebuilds the zoom levels above changed grids in the
+     * background. Changed grid coordinates are only collected by
+     * Segment.include; the builder thread then invalidates the
+     * affected zoomgrids once per batch, and rebuilds those that
+     * were stored or are being displayed, one level at a time
+     * bottom-up, with all grids of a level built in parallel on the
+     * shared worker pool. */
+    public class ZoomBuilder {
+	private final Map<Long, Set<Coord>> pending = new HashMap<>();
+	private final Collection<ZoomListener> listeners = new java.util.concurrent.CopyOnWriteArrayList<>();
+	private Thread th = null;
+	private int done, total;
+
+	public void add(ZoomListener l) {listeners.add(l);}
+	public void remove(ZoomListener l) {listeners.remove(l);}
+
+	private void notify(int done, int total) {
+	    for(ZoomListener l : listeners)
+		l.zoomprog(done, total);
+	}
+
+	void dirty(long seg, Coord sc) {
+	    synchronized(this) {
+		pending.computeIfAbsent(seg, k -> new HashSet<>()).add(sc);
+		if(th == null) {
+		    th = new HackThread(this::run, "Mapfile zoom builder");
+		    th.setDaemon(true);
+		    th.start();
+		}
+	    }
+	}
+
+	private List<List<ZoomCoord>> inval(Segment seg, Collection<Coord> dirty) {
+	    List<List<ZoomCoord>> ret = new ArrayList<>();
+	    Collection<Coord> cur = dirty;
+	    for(int lvl = 1; !cur.isEmpty(); lvl++) {
+		Collection<Coord> next = new HashSet<>();
+		for(Coord sc : cur)
+		    next.add(new Coord(sc.x & ~((1 << lvl) - 1), sc.y & ~((1 << lvl) - 1)));
+		List<ZoomCoord> build = new ArrayList<>();
+		for(Iterator<Coord> i = next.iterator(); i.hasNext();) {
+		    Coord zsc = i.next();
+		    ZoomCoord zc = new ZoomCoord(lvl, zsc);
+		    boolean stored = ZoomGrid.inval(MapFile.this, seg.id, lvl, zsc);
+		    if(stored || seg.zcached(zc))
+			build.add(zc);
+		    else
+			i.remove();
+		}
+		if(!build.isEmpty())
+		    ret.add(build);
+		cur = next;
+	    }
+	    return(ret);
+	}
+
+	private void build(Segment seg, ZoomCoord zc) {
+	    ZoomGrid zg;
+	    lock.readLock().lock();
+	    try {
+		zg = ZoomGrid.from(MapFile.this, seg, zc.lvl, zc.c);
+	    } catch(RuntimeException e) {
+		warn(e, "error when building zoomgrid %s in %x: %s", zc, seg.id, e);
+		zg = null;
+	    } finally {
+		lock.readLock().unlock();
+	    }
+	    seg.zbuilt(zc, zg);
+	    int done, total;
+	    synchronized(this) {
+		done = ++this.done;
+		total = this.total;
+	    }
+	    notify(done, total);
+	}
+
+	private void run() {
+	    try {
+		while(true) {
+		    Map<Long, Set<Coord>> batch;
+		    synchronized(this) {
+			if(pending.isEmpty()) {
+			    done = total = 0;
+			    notify(0, 0);
+			    th = null;
+			    break;
+			}
+			batch = new HashMap<>(pending);
+			pending.clear();
+		    }
+		    for(Map.Entry<Long, Set<Coord>> ent : batch.entrySet()) {
+			Segment seg;
+			List<List<ZoomCoord>> levels;
+			lock.readLock().lock();
+			try {
+			    seg = segments.get(ent.getKey());
+			    if(seg == null)
+				continue;
+			    levels = inval(seg, ent.getValue());
+			} finally {
+			    lock.readLock().unlock();
+			}
+			synchronized(this) {
+			    for(List<ZoomCoord> lvl : levels)
+				total += lvl.size();
+			}
+			for(List<ZoomCoord> lvl : levels) {
+			    Collection<Callable<Object>> tasks = new ArrayList<>(lvl.size());
+			    for(ZoomCoord zc : lvl)
+				tasks.add(Executors.callable(() -> build(seg, zc)));
+			    workers().invokeAll(tasks);
+			}
+		    }
+		}
+	    } finally {
+		/* Clear th last, so that the idle notification cannot
+		 * overtake the progress of a newly started builder. */
+		synchronized(this) {
+		    if(th == Thread.currentThread()) {
+			done = total = 0;
+			notify(0, 0);
+			th = null;
+		    }
+		}
+	    }
+	}
+
+	public boolean busy() {
+	    synchronized(this) {
+		return(th != null);
+	    }
+	}
+    }
+
     public static interface ExportFilter {
 	public boolean includeseg(long id);
 	public boolean includegrid(Segment seg, Coord sc, long id);
@@ -1627,6 +1959,85 @@ public class MapFile {
     public static interface ExportStatus {
 	public default void grid(int cs, int ns, int cg, int ng) {}
 	public default void mark(int cm, int nm) {}
+	public default void stats(PipeStats st) {}
+    }
+
+    /* Throughput and per-stage timing of an export or import. Stage
+     * times are summed over all threads working in that stage, so
+     * the parallel stage may well exceed the elapsed time. */
+    public static class PipeStats {
+	public final String[] stages;
+	private final long[] stime;
+	private final long start = System.nanoTime();
+	private long bytes;
+	private int items;
+
+	public PipeStats(String... stages) {
+	    this.stages = stages;
+	    this.stime = new long[stages.length];
+	}
+
+	synchronized void add(int stage, long t) {stime[stage] += t;}
+	synchronized void item(long bytes) {this.items++; this.bytes += bytes;}
+
+	public synchronized double stage(int stage) {return(stime[stage] * 1e-9);}
+	public synchronized long bytes() {return(bytes);}
+	public synchronized int items() {return(items);}
+	public double elapsed() {return((System.nanoTime() - start) * 1e-9);}
+	public double rate() {return(items() / Math.max(elapsed(), 1e-3));}
+	public double brate() {return(bytes() / Math.max(elapsed(), 1e-3));}
+
+	public String toString() {
+	    StringBuilder buf = new StringBuilder();
+	    buf.append(String.format("%,d grids, %,d bytes in %.1fs (%.1f grids/s)", items(), bytes(), elapsed(), rate()));
+	    for(int i = 0; i < stages.length; i++)
+		buf.append(String.format(", %s %.1fs", stages[i], stage(i)));
+	    return(buf.toString());
+	}
+    }
+
+    /* Number of grids that may be in flight between the stages of
+     * an export or import, which bounds their memory use. */
+    private static final int PIPEDEPTH = 64;
+
+    private static <T> T pipeget(ForkJoinTask<T> f) throws InterruptedException {
+	try {
+	    return(f.get());
+	} catch(ExecutionException e) {
+	    if(e.getCause() instanceof RuntimeException)
+		throw((RuntimeException)e.getCause());
+	    if(e.getCause() instanceof Error)
+		throw((Error)e.getCause());
+	    throw(new RuntimeException(e.getCause()));
+	}
+    }
+
+    private byte[] exportgrid(long segid, Coord sc, long id, PipeStats st) {
+	long t0 = System.nanoTime();
+	Grid grid = Grid.load(this, id);
+	long t1 = System.nanoTime();
+	st.add(0, t1 - t0);
+	if(grid == null) {
+	    /* This /should/ never happen, but for unknown
+	     * reasons (crashes? reboots?) some grids can be
+	     * included but missing. It's not like they'll be
+	     * coming back by any other means, however, so
+	     * just ignore them here. */
+	    return(null);
+	}
+	MessageBuf buf = new MessageBuf();
+	buf.adduint8(4);
+	buf.addint64(id);
+	buf.addint64(segid);
+	buf.addint64(grid.mtime);
+	buf.addcoord(sc);
+	buf.addint32(cmaps.x * cmaps.y);
+	DataGrid.savetiles(buf, grid.tilesets, grid.tiles);
+	DataGrid.savez(buf, grid.zmap);
+	DataGrid.saveols(buf, grid.ols);
+	byte[] ret = buf.fin();
+	st.add(1, System.nanoTime() - t1);
+	return(ret);
     }
 
     private static final byte[] EXPORT_SIG = "Haven Mapfile 1".getBytes(Utils.ascii);
@@ -1634,53 +2045,45 @@ public class MapFile {
 	if(prog == null) prog = new ExportStatus() {};
 	out.addbytes(EXPORT_SIG);
 	ZMessage zout = new ZMessage(out);
+	PipeStats st = new PipeStats("load", "encode", "write");
+	Deque<ForkJoinTask<byte[]>> window = new ArrayDeque<>();
 	Collection<Long> segbuf = locked((Collection<Long> c) -> new ArrayList<>(c), lock.readLock()).apply(knownsegs);
 	int nseg = 0;
-	for(Long sid : segbuf) {
-	    if(!filter.includeseg(sid))
-		continue;
-	    Segment seg;
-	    Collection<Pair<Coord, Long>> gridbuf = new ArrayList<>();
-	    lock.readLock().lock();
-	    try {
-		seg = segments.get(sid);
-		for(Map.Entry<Coord, Long> gd : seg.map.entrySet()) {
-		    if(filter.includegrid(seg, gd.getKey(), gd.getValue()))
-			gridbuf.add(new Pair<>(gd.getKey(), gd.getValue()));
-		}
-	    } finally {
-		lock.readLock().unlock();
-	    }
-	    int ngrid = 0;
-	    for(Pair<Coord, Long> gd : gridbuf) {
-		prog.grid(nseg, segbuf.size(), ngrid++, gridbuf.size());
-		Grid grid = Grid.load(this, gd.b);
-		if(grid == null) {
-		    /* This /should/ never happen, but for unknown
-		     * reasons (crashes? reboots?) some grids can be
-		     * included but missing. It's not like they'll be
-		     * coming back by any other means, however, so
-		     * just ignore them here. */
+	try {
+	    for(Long sid : segbuf) {
+		if(!filter.includeseg(sid))
 		    continue;
+		Segment seg;
+		Collection<Pair<Coord, Long>> gridbuf = new ArrayList<>();
+		lock.readLock().lock();
+		try {
+		    seg = segments.get(sid);
+		    for(Map.Entry<Coord, Long> gd : seg.map.entrySet()) {
+			if(filter.includegrid(seg, gd.getKey(), gd.getValue()))
+			    gridbuf.add(new Pair<>(gd.getKey(), gd.getValue()));
+		    }
+		} finally {
+		    lock.readLock().unlock();
+		}
+		int ngrid = 0;
+		long segid = seg.id;
+		for(Pair<Coord, Long> gd : gridbuf) {
+		    prog.grid(nseg, segbuf.size(), ngrid++, gridbuf.size());
+		    window.add(workers().submit(() -> exportgrid(segid, gd.a, gd.b, st)));
+		    while(window.size() >= PIPEDEPTH)
+			exportwrite(zout, pipeget(window.remove()), st, prog);
+		    Utils.checkirq();
 		}
-		MessageBuf buf = new MessageBuf();
-		buf.adduint8(4);
-		buf.addint64(gd.b);
-		buf.addint64(seg.id);
-		buf.addint64(grid.mtime);
-		buf.addcoord(gd.a);
-		buf.addint32(cmaps.x * cmaps.y);
-		DataGrid.savetiles(buf, grid.tilesets, grid.tiles);
-		DataGrid.savez(buf, grid.zmap);
-		DataGrid.saveols(buf, grid.ols);
-		byte[] od = buf.fin();
-		zout.addstring("grid");
-		zout.addint32(od.length);
-		zout.addbytes(od);
-		Utils.checkirq();
-	    }
-	    nseg++;
+		nseg++;
+	    }
+	    while(!window.isEmpty())
+		exportwrite(zout, pipeget(window.remove()), st, prog);
+	} finally {
+	    for(ForkJoinTask<byte[]> f : window)
+		f.cancel(false);
 	}
+	prog.stats(st);
+	if(debug) Debug.log.printf("mapfile: export: %s\n", st);
 	Collection<Marker> markbuf = locked((Collection<Marker> c) -> new ArrayList<>(c), lock.readLock()).apply(markers);
 	int nmark = 0;
 	for(Marker mark : markbuf) {
@@ -1698,6 +2101,19 @@ public class MapFile {
 	zout.finish();
     }
 
+    private static void exportwrite(Message zout, byte[] od, PipeStats st, ExportStatus prog) {
+	if(od == null)
+	    return;
+	long t0 = System.nanoTime();
+	zout.addstring("grid");
+	zout.addint32(od.length);
+	zout.addbytes(od);
+	st.add(2, System.nanoTime() - t0);
+	st.item(od.length);
+	if((st.items() % PIPEDEPTH) == 0)
+	    prog.stats(st);
+    }
+
     public void export(OutputStream out, ExportFilter filter, ExportStatus prog) throws InterruptedException {
 	StreamMessage msg = new StreamMessage(null, out);
 	export(msg, filter, prog);
@@ -1820,8 +2236,7 @@ public class MapFile {
 	    return(chseg(ret));
 	}
 
-	void importgrid(Message data) {
-	    ImportedGrid grid = new ImportedGrid(data);
+	void importgrid(ImportedGrid grid) {
 	    ImportedSegment seg = segs.get(grid.segid);
 	    if(seg == null) {
 		segs.put(grid.segid, seg = new ImportedSegment());
@@ -1847,7 +2262,6 @@ public class MapFile {
 		lock.writeLock().lock();
 		try {
 		    Grid rgrid = grid.togrid();
-		    rgrid.save(MapFile.this);
 		    if(seg.noff == null) {
 			if(info == null) {
 			    rseg = chseg(new Segment(seg.nseg = grid.gid));
@@ -1876,6 +2290,7 @@ public class MapFile {
 			    rseg = curseg = nseg;
 			}
 		    }
+		    rgrid.save(MapFile.this, rseg.id);
 		    Coord nc = grid.sc.add(seg.noff);
 		    if(info == null) {
 			rseg.include(rgrid, nc);
@@ -1915,45 +2330,132 @@ public class MapFile {
 	    }
 	}
 
-	void reimport(Message data) throws InterruptedException {
-	    if(!Arrays.equals(EXPORT_SIG, data.bytes(EXPORT_SIG.length)))
-		throw(new Message.FormatError("Invalid map file format"));
-	    data = new ZMessage(data);
+	/* Stages of the import pipeline: the reader thread splits
+	 * the stream into raw records, grid records are decoded in
+	 * parallel on the worker pool, and the calling thread commits
+	 * them in file order. Decoding is waited for outside of the
+	 * write lock, which importgrid only takes for the one grid it
+	 * is committing, so map readers are never held up for longer
+	 * than that. The record queue is bounded, so memory use does
+	 * not depend on the file size. */
+	class Record {
+	    final String type;
+	    final byte[] data;
+	    final ForkJoinTask<ImportedGrid> grid;
+	    final Throwable err;
+
+	    Record(String type, byte[] data, ForkJoinTask<ImportedGrid> grid, Throwable err) {
+		this.type = type; this.data = data; this.grid = grid; this.err = err;
+	    }
+	}
+	final Record eof = new Record(null, null, null, null);
+
+	private ImportedGrid decode(byte[] data, PipeStats st) {
+	    long t0 = System.nanoTime();
 	    try {
-		while(!data.eom()) {
+		return(new ImportedGrid(new MessageBuf(data)));
+	    } finally {
+		st.add(1, System.nanoTime() - t0);
+	    }
+	}
+
+	private void read(Message data, BlockingQueue<Record> queue, PipeStats st) throws InterruptedException {
+	    try {
+		while(true) {
+		    long t0 = System.nanoTime();
+		    if(data.eom())
+			break;
 		    String type = data.string();
-		    int len = data.int32();
-		    Message lay = new LimitMessage(data, len);
-		    if(type.equals("grid")) {
-			try {
-			    importgrid(lay);
-			} catch(RuntimeException exc) {
-			    filter.handleerror(exc, "grid");
-			}
-		    } else if(type.equals("mark")) {
-			try {
-			    importmark(lay);
-			} catch(RuntimeException exc) {
-			    filter.handleerror(exc, "mark");
-			}
+		    byte[] rec = data.bytes(data.int32());
+		    st.add(0, System.nanoTime() - t0);
+		    if(type.equals("grid"))
+			queue.put(new Record(type, rec, workers().submit(() -> decode(rec, st)), null));
+		    else
+			queue.put(new Record(type, rec, null, null));
+		}
+		queue.put(eof);
+	    } catch(RuntimeException | Error e) {
+		queue.put(new Record(null, null, null, e));
+	    }
+	}
+
+	private void commit(Record rec, PipeStats st) throws InterruptedException {
+	    if(rec.type.equals("grid")) {
+		ImportedGrid grid;
+		try {
+		    grid = pipeget(rec.grid);
+		} catch(RuntimeException exc) {
+		    filter.handleerror(exc, "grid");
+		    return;
+		}
+		long t0 = System.nanoTime();
+		try {
+		    importgrid(grid);
+		} catch(RuntimeException exc) {
+		    filter.handleerror(exc, "grid");
+		}
+		st.add(2, System.nanoTime() - t0);
+		st.item(rec.data.length);
+	    } else if(rec.type.equals("mark")) {
+		try {
+		    importmark(new MessageBuf(rec.data));
+		} catch(RuntimeException exc) {
+		    filter.handleerror(exc, "mark");
+		}
+	    }
+	}
+
+	void reimport(Message data, ExportStatus prog) throws InterruptedException {
+	    if(!Arrays.equals(EXPORT_SIG, data.bytes(EXPORT_SIG.length)))
+		throw(new Message.FormatError("Invalid map file format"));
+	    Message zdata = new ZMessage(data);
+	    PipeStats st = new PipeStats("read", "decode", "write");
+	    BlockingQueue<Record> queue = new ArrayBlockingQueue<>(PIPEDEPTH);
+	    Thread reader = new HackThread(() -> {
+		    try {
+			read(zdata, queue, st);
+		    } catch(InterruptedException e) {
 		    }
-		    lay.skip();
+		}, "Mapfile import reader");
+	    reader.setDaemon(true);
+	    reader.start();
+	    try {
+		while(true) {
+		    Record rec = queue.take();
+		    if(rec == eof)
+			break;
+		    if(rec.err instanceof Error)
+			throw((Error)rec.err);
+		    if(rec.err != null)
+			throw((RuntimeException)rec.err);
+		    commit(rec, st);
+		    prog.stats(st);
 		    Utils.checkirq();
 		}
-	    } catch(InterruptedException e) {
+	    } finally {
+		reader.interrupt();
 		flush();
-		throw(e);
 	    }
-	    flush();
+	    prog.stats(st);
+	    if(debug) Debug.log.printf("mapfile: import: %s\n", st);
 	}
     }
 
+    public void reimport(Message data, ImportFilter filter, ExportStatus prog) throws InterruptedException {
+	if(prog == null) prog = new ExportStatus() {};
+	new Importer(filter).reimport(data, prog);
+    }
+
     public void reimport(Message data, ImportFilter filter) throws InterruptedException {
-	new Importer(filter).reimport(data);
+	reimport(data, filter, null);
+    }
+
+    public void reimport(InputStream fp, ImportFilter filter, ExportStatus prog) throws InterruptedException {
+	reimport(new StreamMessage(fp, null), filter, prog);
     }
 
     public void reimport(InputStream fp, ImportFilter filter) throws InterruptedException {
-	reimport(new StreamMessage(fp, null), filter);
+	reimport(fp, filter, null);
     }
 
     private static final Coord[] inout = new Coord[] {
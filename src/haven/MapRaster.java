@@ -0,0 +1,175 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+import java.util.stream.IntStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+
+/* Map image drawing on primitive arrays. Tile textures are converted
+ * to ARGB arrays once and kept for as long as the images themselves
+ * are, and output is written straight into the byte raster that
+ * TexI.mkbuf would create, rather than through setRGB and Color
+ * objects. Results are meant to be pixel-identical to the per-pixel
+ * code this replaced. Large images are filled in parallel bands of
+ * rows. */
+public class MapRaster {
+    /* Edge keys that could not be determined, which stop the
+     * neighbour test for that pixel. */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+    private static final int parthresh = 4 * MCache.cmaps.x * MCache.cmaps.y, bandh = 32;
+    private static final Map<BufferedImage, Texels> texcache = new WeakHashMap<>();
+    public final int w, h;
+    public final WritableRaster raster;
+    public final byte[] data;
+
+    public MapRaster(Coord sz) {
+	this.w = sz.x;
+	this.h = sz.y;
+	this.raster = PUtils.imgraster(sz);
+	this.data = ((DataBufferByte)raster.getDataBuffer()).getData();
+    }
+
+    public BufferedImage image() {
+	return(PUtils.rasterimg(raster));
+    }
+
+    public static class Texels {
+	public final int w, h;
+	public final int[] argb;
+
+	public Texels(BufferedImage img) {
+	    this.w = img.getWidth();
+	    this.h = img.getHeight();
+	    this.argb = img.getRGB(0, 0, w, h, null, 0, w);
+	}
+    }
+
+    public static Texels texels(BufferedImage img) {
+	if(img == null)
+	    return(null);
+	synchronized(texcache) {
+	    Texels ret = texcache.get(img);
+	    if(ret == null)
+		texcache.put(img, ret = new Texels(img));
+	    return(ret);
+	}
+    }
+
+    public int get(int x, int y) {
+	int o = ((y * w) + x) << 2;
+	return(((data[o + 3] & 0xff) << 24) | ((data[o] & 0xff) << 16) | ((data[o + 1] & 0xff) << 8) | (data[o + 2] & 0xff));
+    }
+
+    public void set(int x, int y, int argb) {
+	int o = ((y * w) + x) << 2;
+	data[o    ] = (byte)(argb >>> 16);
+	data[o + 1] = (byte)(argb >>>  8);
+	data[o + 2] = (byte) argb;
+	data[o + 3] = (byte)(argb >>> 24);
+    }
+
+    private interface Rows {
+	public void run(int y0, int y1);
+    }
+
+    private void rows(int y0, int y1, Rows f) {
+	if((w * (y1 - y0)) < parthresh) {
+	    f.run(y0, y1);
+	} else {
+	    int nb = (y1 - y0 + bandh - 1) / bandh;
+	    IntStream.range(0, nb).parallel().forEach(b -> f.run(y0 + (b * bandh), Math.min(y0 + ((b + 1) * bandh), y1)));
+	}
+    }
+
+    /* Fills every pixel with the texel of its tile's texture, with
+     * textures repeating from image offset off. Tiles with a negative
+     * ID or no texture are left transparent. */
+    public void fill(int[] tiles, Texels[] pal, Coord off) {
+	rows(0, h, (y0, y1) -> {
+		for(int y = y0; y < y1; y++) {
+		    for(int x = 0, i = y * w, o = i << 2; x < w; x++, i++, o += 4) {
+			int t = tiles[i];
+			Texels tex = (t < 0) ? null : pal[t];
+			int rgb = 0;
+			if(tex != null)
+			    rgb = tex.argb[Utils.floormod(x + off.x, tex.w) + (Utils.floormod(y + off.y, tex.h) * tex.w)];
+			data[o    ] = (byte)(rgb >>> 16);
+			data[o + 1] = (byte)(rgb >>>  8);
+			data[o + 2] = (byte) rgb;
+			data[o + 3] = (byte)(rgb >>> 24);
+		    }
+		}
+	    });
+    }
+
+    /* Marks a broken ridge at (x, y): the pixel itself goes black and
+     * its eight neighbours are darkened by a tenth, all made opaque.
+     * This reads back what it writes, so calls must be made in the
+     * same order as the previous per-pixel code made them. */
+    public void ridge(int cx, int cy) {
+	for(int y = cy - 1; y <= cy + 1; y++) {
+	    for(int x = cx - 1, o = ((y * w) + x) << 2; x <= cx + 1; x++, o += 4) {
+		if((x == cx) && (y == cy)) {
+		    data[o] = data[o + 1] = data[o + 2] = 0;
+		} else {
+		    data[o    ] = (byte)(((data[o    ] & 0xff) * 230) / 255);
+		    data[o + 1] = (byte)(((data[o + 1] & 0xff) * 230) / 255);
+		    data[o + 2] = (byte)(((data[o + 2] & 0xff) * 230) / 255);
+		}
+		data[o + 3] = (byte)255;
+	    }
+	}
+    }
+
+    /* Blackens the pixels in [x0, x1) x [y0, y1) that have a left,
+     * right, upper or lower neighbour, tested in that order, with a
+     * greater key than their own. Keys are given with a one-pixel
+     * border, at stride w + 2. */
+    public void edges(int[] keys, int x0, int y0, int x1, int y1) {
+	int kw = w + 2;
+	int[] dk = {-1, 1, -kw, kw};
+	rows(y0, y1, (ya, yb) -> {
+		for(int y = ya; y < yb; y++) {
+		    for(int x = x0, k = ((y + 1) * kw) + x0 + 1; x < x1; x++, k++) {
+			int t = keys[k];
+			for(int d : dk) {
+			    int n = keys[k + d];
+			    if(n == UNKNOWN)
+				break;
+			    if(n > t) {
+				set(x, y, 0xff000000);
+				break;
+			    }
+			}
+		    }
+		}
+	    });
+    }
+}
@@ -0,0 +1,873 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.nio.channels.*;
+import haven.MapFile.TileInfo;
+import haven.MapFile.Overlay;
+import haven.MapFile.ZoomCoord;
+import static haven.MCache.cmaps;
+import static haven.Utils.pj;
+import static java.nio.file.StandardOpenOption.*;
+
+/*
+ * Alternative backing store for MapFile grid data. Instead of one
+ * cache file per grid and zoom-grid, each segment gets one
+ * append-only region file, with a sidecar index of record offsets.
+ * Records are never compressed and are aligned so that tile and
+ * z-map arrays can be used directly out of the file mapping.
+ *
+ * Region files are mapped in chunks of CHUNK bytes, and no record
+ * ever straddles a chunk boundary; the writer leaves a zero-filled
+ * gap instead, which the scanner skips over.
+ *
+ * Writers append at the end they have cached, so a directory must
+ * only ever be open once. It is locked for the lifetime of the
+ * process, and open() hands out the same instance for as long as
+ * the process runs, however many times the map file is loaded.
+ */
+public class MapRegions {
+    public static final Config.Variable<Boolean> enabled = Config.Variable.propb("haven.mapregions", false);
+    private static final int MAGIC = 0x47524d48;
+    private static final int HEADSZ = 40, IDXSZ = 40;
+    private static final long CHUNK = 1L << 28;
+    private static final int REC_GRID = 1, REC_ZGRID = 2, REC_ZKILL = 3;
+    private static final long MINDEAD = 16L << 20;
+    private static final ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+    public final Path dir;
+    private final Map<Long, Region> regions = new HashMap<>();
+    private final Map<Long, Region> gridloc = new HashMap<>();
+    private final Map<Long, MapFile.GridInfo> gridinfo = new HashMap<>();
+    private static final Map<Path, MapRegions> open = new HashMap<>();
+    private final FileChannel lockf;
+    private FileChannel gilog;
+    private long gilines;
+    private long seq = 0;
+    private boolean migrating;
+
+    private MapRegions(Path dir) throws IOException {
+	this.dir = dir;
+	Files.createDirectories(dir);
+	lockf = FileChannel.open(pj(dir, "lock"), WRITE, CREATE);
+	try {
+	    try {
+		if(lockf.tryLock() == null)
+		    throw(new IOException("map regions in use by another process: " + dir));
+	    } catch(OverlappingFileLockException e) {
+		throw(new IOException("map regions already open: " + dir));
+	    }
+	    gilog = FileChannel.open(pj(dir, "gridinfo"), READ, WRITE, CREATE);
+	    loadgridinfo();
+	    scan();
+	} catch(IOException | RuntimeException e) {
+	    for(Region reg : regions.values())
+		reg.cur.close();
+	    if(gilog != null)
+		gilog.close();
+	    lockf.close();
+	    throw(e);
+	}
+    }
+
+    private void scan() throws IOException {
+	Map<Long, Integer> gens = new HashMap<>();
+	List<Path> stale = new ArrayList<>();
+	try(DirectoryStream<Path> ls = Files.newDirectoryStream(dir)) {
+	    for(Path p : ls) {
+		String nm = p.getFileName().toString();
+		if(nm.endsWith(".tmp")) {
+		    /* Left behind by an interrupted compaction. */
+		    stale.add(p);
+		    continue;
+		}
+		if(!nm.endsWith(".reg"))
+		    continue;
+		String base = nm.substring(0, nm.length() - 4);
+		int dash = base.indexOf('-');
+		long seg;
+		int gen;
+		try {
+		    seg = Long.parseUnsignedLong((dash < 0) ? base : base.substring(0, dash), 16);
+		    gen = (dash < 0) ? 0 : Integer.parseInt(base.substring(dash + 1));
+		} catch(NumberFormatException e) {
+		    continue;
+		}
+		Integer prev = gens.get(seg);
+		if(prev != null) {
+		    /* A generation that was compacted away while it
+		     * could not be deleted. */
+		    int old = Math.min(prev, gen);
+		    stale.add(regpath(seg, old));
+		    stale.add(idxpath(seg, old));
+		    gen = Math.max(prev, gen);
+		}
+		gens.put(seg, gen);
+	    }
+	}
+	for(Path p : stale) {
+	    try {
+		Files.deleteIfExists(p);
+	    } catch(IOException e) {
+		MapFile.warn(e, "could not remove stale map region file %s: %s", p, e);
+	    }
+	}
+	for(Map.Entry<Long, Integer> gen : gens.entrySet())
+	    regions.put(gen.getKey(), new Region(gen.getKey(), gen.getValue()));
+    }
+
+    private static String keyhash(String key) {
+	long h = 0;
+	for(char c : key.toCharArray())
+	    h = (h * 31) + c;
+	return(String.format("%016x", h));
+    }
+
+    /* The directory is keyed on the identity of the cache rather
+     * than on the store object, so that switching between the
+     * per-file and the packed cache finds the same regions. Throws
+     * if another process has the directory open, in which case the
+     * caller is to use the per-file layout instead. */
+    public static MapRegions open(ResCache store, String filename) throws IOException {
+	String id;
+	if(store instanceof HashDirCache)
+	    id = ((HashDirCache)store).id.toString();
+	else if(store instanceof PackCache)
+	    id = ((PackCache)store).id.toString();
+	else
+	    id = store.toString();
+	Path base = pj(HashDirCache.findbase(), "map-regions");
+	Path dir = pj(base, keyhash(id + "/" + filename)).toAbsolutePath().normalize();
+	synchronized(open) {
+	    MapRegions ret = open.get(dir);
+	    if(ret == null) {
+		migratedir(base, dir, id, filename);
+		open.put(dir, ret = new MapRegions(dir));
+	    }
+	    return(ret);
+	}
+    }
+
+    private static void migratedir(Path base, Path dir, String id, String filename) throws IOException {
+	if(!Files.exists(dir)) {
+	    /* Directories used to be keyed on the toString() of the
+	     * store, which differs between the two layouts. */
+	    for(String old : new String[] {"HashDirCache(" + id + ")", "PackCache(" + id + ")"}) {
+		Path prev = pj(base, keyhash(old + "/" + filename));
+		if(Files.isDirectory(prev)) {
+		    Files.move(prev, dir);
+		    break;
+		}
+	    }
+	}
+    }
+
+    private Path regpath(long seg, int gen) {
+	return(pj(dir, (gen == 0) ? String.format("%016x.reg", seg) : String.format("%016x-%d.reg", seg, gen)));
+    }
+
+    private Path idxpath(long seg, int gen) {
+	return(pj(dir, (gen == 0) ? String.format("%016x.idx", seg) : String.format("%016x-%d.idx", seg, gen)));
+    }
+
+    private static Path tmppath(Path p) {
+	return(p.resolveSibling(p.getFileName() + ".tmp"));
+    }
+    private static int align(int v, int a) {
+	return((v + a - 1) & ~(a - 1));
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int off, int len) {
+	ByteBuffer ret = buf.duplicate();
+	ret.position(off).limit(off + len);
+	return(ret.slice().order(order));
+    }
+
+    private static void readfully(FileChannel fp, ByteBuffer buf, long pos) throws IOException {
+	while(buf.hasRemaining()) {
+	    int rv = fp.read(buf, pos);
+	    if(rv < 0)
+		throw(new EOFException());
+	    pos += rv;
+	}
+	buf.flip();
+    }
+
+    private static void writefully(FileChannel fp, ByteBuffer buf, long pos) throws IOException {
+	while(buf.hasRemaining())
+	    pos += fp.write(buf, pos);
+    }
+
+    private static class Entry {
+	final Gen file;
+	final long off, seq;
+	final int len;
+
+	Entry(Gen file, long off, int len, long seq) {
+	    this.file = file; this.off = off; this.len = len; this.seq = seq;
+	}
+
+	long size() {
+	    return(HEADSZ + align(len, 8));
+	}
+    }
+
+    /* One generation of the record and index files of a region. A
+     * region moves on to a new generation whenever it is
+     * compacted. */
+    private static class Gen {
+	final int no;
+	final Path rpath, ipath;
+	final FileChannel fp, ifp;
+	private final List<MappedByteBuffer> chunks = new ArrayList<>();
+	long size, isize;
+
+	Gen(int no, Path rpath, Path ipath) throws IOException {
+	    this.no = no;
+	    this.rpath = rpath;
+	    this.ipath = ipath;
+	    this.fp = FileChannel.open(rpath, READ, WRITE, CREATE);
+	    try {
+		this.ifp = FileChannel.open(ipath, READ, WRITE, CREATE);
+	    } catch(IOException e) {
+		fp.close();
+		throw(e);
+	    }
+	}
+
+	synchronized ByteBuffer chunk(int cn, long need) throws IOException {
+	    MappedByteBuffer cur = (cn < chunks.size()) ? chunks.get(cn) : null;
+	    long base = cn * CHUNK;
+	    if((cur == null) || (base + cur.capacity() < need)) {
+		cur = fp.map(FileChannel.MapMode.READ_ONLY, base, Math.min(CHUNK, size - base));
+		while(chunks.size() <= cn)
+		    chunks.add(null);
+		chunks.set(cn, cur);
+	    }
+	    return(cur);
+	}
+
+	void close() throws IOException {
+	    try {
+		fp.close();
+	    } finally {
+		ifp.close();
+	    }
+	}
+
+	/* Maps whatever is not mapped yet, so that entries already
+	 * handed out stay readable, and removes the files. */
+	void retire() {
+	    try {
+		for(long base = 0; base < size; base += CHUNK)
+		    chunk((int)(base / CHUNK), Math.min(base + CHUNK, size));
+		close();
+	    } catch(IOException e) {
+		MapFile.warn(e, "could not retire map region file %s: %s", rpath, e);
+		return;
+	    }
+	    try {
+		Files.deleteIfExists(rpath);
+		Files.deleteIfExists(ipath);
+	    } catch(IOException e) {
+		/* Windows will not delete a file that is still
+		 * mapped. It is removed at the next startup
+		 * instead, as an older generation. */
+	    }
+	}
+    }
+
+    public class Region {
+	public final long seg;
+	private final Map<Long, Entry> grids = new HashMap<>();
+	private final Map<ZoomCoord, Entry> zgrids = new HashMap<>();
+	private Gen cur;
+	/* Bytes of records that have since been superseded, guarded
+	 * by the MapRegions lock. */
+	private long dead;
+
+	Region(long seg, int gen) throws IOException {
+	    this.seg = seg;
+	    this.cur = new Gen(gen, regpath(seg, gen), idxpath(seg, gen));
+	    long rsz = cur.fp.size();
+	    long end = recover(readidx(rsz), rsz);
+	    if(end < rsz)
+		cur.fp.truncate(end);
+	    cur.size = end;
+	}
+
+	private long readidx(long rsz) throws IOException {
+	    long n = cur.ifp.size() / IDXSZ;
+	    ByteBuffer buf = ByteBuffer.allocate((int)(n * IDXSZ)).order(order);
+	    readfully(cur.ifp, buf, 0);
+	    long end = 0;
+	    for(long i = 0; i < n; i++) {
+		int kind = buf.get(), lvl = buf.get();
+		buf.getShort();
+		Coord sc = new Coord(buf.getInt(), buf.getInt());
+		long id = buf.getLong(), seq = buf.getLong(), off = buf.getLong();
+		int len = buf.getInt();
+		if(off + HEADSZ + len > rsz) {
+		    /* The region write never made it to disk. */
+		    n = i;
+		    break;
+		}
+		index(kind, lvl, sc, id, new Entry(cur, off, len, seq));
+		end = Math.max(end, off + HEADSZ + align(len, 8));
+	    }
+	    cur.isize = n * IDXSZ;
+	    cur.ifp.truncate(cur.isize);
+	    return(end);
+	}
+
+	private long recover(long off, long rsz) throws IOException {
+	    ByteBuffer head = ByteBuffer.allocate(HEADSZ).order(order);
+	    while(off < rsz) {
+		if((CHUNK - (off % CHUNK)) < HEADSZ) {
+		    off = ((off / CHUNK) + 1) * CHUNK;
+		    continue;
+		}
+		if(off + HEADSZ > rsz)
+		    break;
+		head.clear();
+		readfully(cur.fp, head, off);
+		int magic = head.getInt();
+		if((magic == 0) && ((off % CHUNK) != 0)) {
+		    off = ((off / CHUNK) + 1) * CHUNK;
+		    continue;
+		}
+		if(magic != MAGIC)
+		    break;
+		int kind = head.get(), lvl = head.get();
+		head.getShort();
+		Coord sc = new Coord(head.getInt(), head.getInt());
+		long id = head.getLong(), seq = head.getLong();
+		int len = head.getInt();
+		if(off + HEADSZ + len > rsz)
+		    break;
+		Entry e = new Entry(cur, off, len, seq);
+		writeidx(cur, kind, lvl, sc, id, e);
+		index(kind, lvl, sc, id, e);
+		off += HEADSZ + align(len, 8);
+	    }
+	    return(Math.min(off, rsz));
+	}
+
+	private void index(int kind, int lvl, Coord sc, long id, Entry e) {
+	    synchronized(MapRegions.this) {
+		seq = Math.max(seq, e.seq + 1);
+		Entry old;
+		switch(kind) {
+		case REC_GRID:
+		    old = grids.put(id, e);
+		    Region prev = gridloc.get(id);
+		    if(prev == this) {
+			dead += old.size();
+		    } else if((prev == null) || (prev.grids.get(id).seq < e.seq)) {
+			/* Any copy in another region is dead from here
+			 * on, as was any old copy here already. */
+			if(prev != null)
+			    prev.dead += prev.grids.get(id).size();
+			gridloc.put(id, this);
+		    } else {
+			dead += e.size();
+		    }
+		    break;
+		case REC_ZGRID:
+		    old = zgrids.put(new ZoomCoord(lvl, sc), e);
+		    if(old != null)
+			dead += old.size();
+		    break;
+		case REC_ZKILL:
+		    old = zgrids.remove(new ZoomCoord(lvl, sc));
+		    if(old != null)
+			dead += old.size();
+		    dead += e.size();
+		    break;
+		}
+	    }
+	}
+
+	private void writeidx(Gen g, int kind, int lvl, Coord sc, long id, Entry e) throws IOException {
+	    ByteBuffer buf = ByteBuffer.allocate(IDXSZ).order(order);
+	    buf.put((byte)kind).put((byte)lvl).putShort((short)0);
+	    buf.putInt(sc.x).putInt(sc.y);
+	    buf.putLong(id).putLong(e.seq).putLong(e.off).putInt(e.len);
+	    buf.flip();
+	    writefully(g.ifp, buf, g.isize);
+	    g.isize += IDXSZ;
+	}
+
+	/* Called with the region locked. */
+	private Entry write(Gen g, ByteBuffer rec, int kind, int lvl, Coord sc, long id, long rseq, int len) throws IOException {
+	    long off = g.size;
+	    if((off / CHUNK) != ((off + HEADSZ + len - 1) / CHUNK))
+		off = ((off / CHUNK) + 1) * CHUNK;
+	    writefully(g.fp, rec, off);
+	    Entry e = new Entry(g, off, len, rseq);
+	    writeidx(g, kind, lvl, sc, id, e);
+	    g.size = off + HEADSZ + align(len, 8);
+	    return(e);
+	}
+
+	synchronized Entry append(int kind, int lvl, Coord sc, long id, ByteBuffer data) throws IOException {
+	    int len = data.remaining();
+	    if(HEADSZ + len > CHUNK)
+		throw(new IOException("map region record too large: " + len));
+	    long rseq;
+	    synchronized(MapRegions.this) {
+		rseq = seq++;
+	    }
+	    ByteBuffer buf = ByteBuffer.allocate(HEADSZ + align(len, 8)).order(order);
+	    buf.putInt(MAGIC).put((byte)kind).put((byte)lvl).putShort((short)0);
+	    buf.putInt(sc.x).putInt(sc.y);
+	    buf.putLong(id).putLong(rseq).putInt(len).putInt(0);
+	    buf.put(data);
+	    buf.clear();
+	    Entry e = write(cur, buf, kind, lvl, sc, id, rseq, len);
+	    index(kind, lvl, sc, id, e);
+	    boolean compact;
+	    synchronized(MapRegions.this) {
+		compact = (dead >= MINDEAD) && (dead * 2 > cur.size);
+	    }
+	    if(compact)
+		compact();
+	    return(e);
+	}
+
+	/* Called with the region locked, so that nothing is appended
+	 * meanwhile. Copies the live records, in their original order,
+	 * into the next generation of files and switches over to it.
+	 * Readers never lock the region, and entries of the old
+	 * generation stay readable through its mappings for as long
+	 * as they are in use. */
+	private void compact() {
+	    Gen old = cur;
+	    int no = old.no + 1;
+	    List<Entry> keep = new ArrayList<>();
+	    synchronized(MapRegions.this) {
+		for(Map.Entry<Long, Entry> ent : grids.entrySet()) {
+		    if(gridloc.get(ent.getKey()) == this)
+			keep.add(ent.getValue());
+		}
+		keep.addAll(zgrids.values());
+	    }
+	    keep.sort(Comparator.comparingLong(e -> e.off));
+	    Path rtmp = tmppath(regpath(seg, no)), itmp = tmppath(idxpath(seg, no));
+	    List<Entry> copied = new ArrayList<>(keep.size());
+	    List<Object> keys = new ArrayList<>(keep.size());
+	    Gen ng;
+	    try {
+		Gen tg = new Gen(no, rtmp, itmp);
+		try {
+		    tg.fp.truncate(0);
+		    tg.ifp.truncate(0);
+		    for(Entry e : keep) {
+			ByteBuffer rec = ByteBuffer.allocate((int)e.size()).order(order);
+			readfully(old.fp, rec, e.off);
+			int kind = rec.get(4), lvl = rec.get(5);
+			Coord sc = new Coord(rec.getInt(8), rec.getInt(12));
+			long id = rec.getLong(16);
+			copied.add(write(tg, rec, kind, lvl, sc, id, e.seq, e.len));
+			keys.add((kind == REC_GRID) ? (Object)id : (Object)new ZoomCoord(lvl, sc));
+		    }
+		    tg.fp.force(true);
+		    tg.ifp.force(true);
+		} finally {
+		    tg.close();
+		}
+		Files.move(itmp, idxpath(seg, no), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(rtmp, regpath(seg, no), StandardCopyOption.REPLACE_EXISTING);
+		ng = new Gen(no, regpath(seg, no), idxpath(seg, no));
+		ng.size = tg.size;
+		ng.isize = tg.isize;
+	    } catch(IOException e) {
+		MapFile.warn(e, "could not compact map region %x: %s", seg, e);
+		try {
+		    Files.deleteIfExists(rtmp);
+		    Files.deleteIfExists(itmp);
+		} catch(IOException e2) {
+		}
+		return;
+	    }
+	    synchronized(MapRegions.this) {
+		grids.clear();
+		zgrids.clear();
+		dead = 0;
+		for(int i = 0; i < copied.size(); i++) {
+		    Entry te = copied.get(i);
+		    Entry ne = new Entry(ng, te.off, te.len, te.seq);
+		    Object key = keys.get(i);
+		    if(key instanceof ZoomCoord) {
+			zgrids.put((ZoomCoord)key, ne);
+		    } else {
+			grids.put((Long)key, ne);
+			/* Moved to another segment since the snapshot
+			 * above. */
+			if(gridloc.get(key) != this)
+			    dead += ne.size();
+		    }
+		}
+		cur = ng;
+	    }
+	    old.retire();
+	    if(MapFile.debug) Debug.log.printf("mapfile: compacted region %x from %,d to %,d bytes\n", seg, old.size, ng.size);
+	}
+
+	ByteBuffer data(Entry e) throws IOException {
+	    ByteBuffer chunk = e.file.chunk((int)(e.off / CHUNK), e.off + HEADSZ + e.len);
+	    return(slice(chunk, (int)(e.off % CHUNK) + HEADSZ, e.len));
+	}
+
+	public int ngrids() {
+	    synchronized(MapRegions.this) {
+		return(grids.size());
+	    }
+	}
+    }
+
+    private Region region(long seg) throws IOException {
+	synchronized(this) {
+	    Region ret = regions.get(seg);
+	    if(ret == null)
+		regions.put(seg, ret = new Region(seg, 0));
+	    return(ret);
+	}
+    }
+
+    /* A grid record as it lies in the region mapping. The tile and
+     * z-map accessors read straight from the mapped file, so only
+     * the tileset and overlay tables are decoded. */
+    public static class MappedGrid {
+	public final long mtime;
+	public final TileInfo[] tilesets;
+	public final Collection<Overlay> ols = new ArrayList<>();
+	private final int tsz;
+	private final ByteBuffer tiles;
+	private final FloatBuffer zmap;
+
+	MappedGrid(ByteBuffer data) {
+	    this.mtime = data.getLong(0);
+	    this.tsz = data.getInt(8);
+	    int ml = data.getInt(12);
+	    byte[] mb = new byte[ml];
+	    slice(data, 16, ml).get(mb);
+	    Message meta = new MessageBuf(mb);
+	    this.tilesets = new TileInfo[meta.uint16()];
+	    for(int i = 0; i < tilesets.length; i++)
+		tilesets[i] = new TileInfo(new Resource.Spec(Resource.remote(), meta.string(), meta.uint16()), meta.uint8());
+	    MapFile.DataGrid.loadols(ols, meta, "region");
+	    int n = cmaps.x * cmaps.y;
+	    int toff = align(16 + ml, 4), zoff = align(toff + (n * tsz), 4);
+	    this.tiles = slice(data, toff, n * tsz);
+	    this.zmap = slice(data, zoff, n * 4).asFloatBuffer();
+	}
+
+	static ByteBuffer encode(MapFile.DataGrid g) {
+	    MessageBuf meta = new MessageBuf();
+	    meta.adduint16(g.tilesets.length);
+	    for(TileInfo ti : g.tilesets) {
+		meta.addstring(ti.res.name);
+		meta.adduint16(ti.res.ver);
+		meta.adduint8(ti.prio);
+	    }
+	    MapFile.DataGrid.saveols(meta, g.ols);
+	    byte[] mb = meta.fin();
+	    int n = cmaps.x * cmaps.y;
+	    int tsz = (g.tilesets.length <= 256) ? 1 : 2;
+	    int toff = align(16 + mb.length, 4), zoff = align(toff + (n * tsz), 4);
+	    ByteBuffer buf = ByteBuffer.allocate(zoff + (n * 4)).order(order);
+	    buf.putLong(0, g.mtime).putInt(8, tsz).putInt(12, mb.length);
+	    slice(buf, 16, mb.length).put(mb);
+	    if(tsz == 1) {
+		for(int i = 0; i < n; i++)
+		    buf.put(toff + i, (byte)g.tiles[i]);
+	    } else {
+		for(int i = 0; i < n; i++)
+		    buf.putShort(toff + (i * 2), (short)g.tiles[i]);
+	    }
+	    slice(buf, zoff, n * 4).asFloatBuffer().put(g.zmap);
+	    return(buf);
+	}
+
+	public int gettile(int idx) {
+	    return((tsz == 1) ? (tiles.get(idx) & 0xff) : (tiles.getShort(idx * 2) & 0xffff));
+	}
+
+	public int gettile(Coord c) {
+	    return(gettile(c.x + (c.y * cmaps.x)));
+	}
+
+	public float getz(int idx) {
+	    return(zmap.get(idx));
+	}
+
+	public double getfz(Coord c) {
+	    return(zmap.get(c.x + (c.y * cmaps.x)));
+	}
+
+	/* Read-only views of the mapped data. The tile buffer holds
+	 * one or two bytes per tile, as given by tilesize(). */
+	public ByteBuffer tiles() {return(tiles.asReadOnlyBuffer().order(order));}
+	public FloatBuffer zmap() {return(zmap.asReadOnlyBuffer());}
+	public int tilesize() {return(tsz);}
+
+	private int[] tilearray() {
+	    int[] ret = new int[cmaps.x * cmaps.y];
+	    for(int i = 0; i < ret.length; i++)
+		ret[i] = gettile(i);
+	    return(ret);
+	}
+
+	private float[] zarray() {
+	    float[] ret = new float[cmaps.x * cmaps.y];
+	    zmap.get(0, ret);
+	    return(ret);
+	}
+
+	public MapFile.Grid grid(long id) {
+	    MapFile.Grid ret = new MapFile.Grid(id, tilesets, tilearray(), zarray(), mtime);
+	    ret.ols.addAll(ols);
+	    return(ret);
+	}
+
+	public MapFile.ZoomGrid zgrid(long seg, int lvl, Coord sc) {
+	    MapFile.ZoomGrid ret = new MapFile.ZoomGrid(seg, lvl, sc, tilesets, tilearray(), zarray(), mtime);
+	    ret.ols.addAll(ols);
+	    return(ret);
+	}
+    }
+
+    public boolean hasgrid(long id) {
+	synchronized(this) {
+	    return(gridloc.containsKey(id));
+	}
+    }
+
+    public MappedGrid grid(long id) {
+	Region reg;
+	Entry e;
+	synchronized(this) {
+	    if((reg = gridloc.get(id)) == null)
+		return(null);
+	    e = reg.grids.get(id);
+	}
+	try {
+	    return(new MappedGrid(reg.data(e)));
+	} catch(IOException | Message.BinError e2) {
+	    MapFile.warn(e2, "error when reading grid %x from region %x: %s", id, reg.seg, e2);
+	    return(null);
+	}
+    }
+
+    public void putgrid(long seg, MapFile.Grid grid) {
+	try {
+	    region(seg).append(REC_GRID, 0, Coord.z, grid.id, MappedGrid.encode(grid));
+	} catch(IOException e) {
+	    throw(new StreamMessage.IOError(e));
+	}
+    }
+
+    public MappedGrid zgrid(long seg, int lvl, Coord sc) {
+	Region reg;
+	Entry e;
+	synchronized(this) {
+	    if((reg = regions.get(seg)) == null)
+		return(null);
+	    if((e = reg.zgrids.get(new ZoomCoord(lvl, sc))) == null)
+		return(null);
+	}
+	try {
+	    return(new MappedGrid(reg.data(e)));
+	} catch(IOException | Message.BinError e2) {
+	    MapFile.warn(e2, "error when reading zoomgrid (%d, %d) in %x@%d: %s", sc.x, sc.y, seg, lvl, e2);
+	    return(null);
+	}
+    }
+
+    public void putzgrid(MapFile.ZoomGrid zg) {
+	try {
+	    region(zg.seg).append(REC_ZGRID, zg.lvl, zg.sc, 0, MappedGrid.encode(zg));
+	} catch(IOException e) {
+	    throw(new StreamMessage.IOError(e));
+	}
+    }
+
+    public boolean invalzgrid(long seg, int lvl, Coord sc) {
+	Region reg;
+	synchronized(this) {
+	    if(((reg = regions.get(seg)) == null) || !reg.zgrids.containsKey(new ZoomCoord(lvl, sc)))
+		return(false);
+	}
+	try {
+	    reg.append(REC_ZKILL, lvl, sc, 0, ByteBuffer.allocate(0));
+	} catch(IOException e) {
+	    throw(new StreamMessage.IOError(e));
+	}
+	return(true);
+    }
+
+    private void loadgridinfo() throws IOException {
+	long n = gilog.size() / 24;
+	ByteBuffer buf = ByteBuffer.allocate((int)(n * 24)).order(order);
+	readfully(gilog, buf, 0);
+	for(long i = 0; i < n; i++) {
+	    long id = buf.getLong(), seg = buf.getLong();
+	    Coord sc = new Coord(buf.getInt(), buf.getInt());
+	    gridinfo.put(id, new MapFile.GridInfo(id, seg, sc));
+	}
+	gilog.truncate(n * 24);
+	gilines = n;
+	if(gilines > (gridinfo.size() * 2) + 1024)
+	    compactgridinfo();
+    }
+
+    private static ByteBuffer girec(MapFile.GridInfo info) {
+	ByteBuffer buf = ByteBuffer.allocate(24).order(order);
+	buf.putLong(info.id).putLong(info.seg).putInt(info.sc.x).putInt(info.sc.y);
+	buf.flip();
+	return(buf);
+    }
+
+    /* Called with the regions locked. Rewrites the gridinfo log
+     * with only the latest record of each grid. If the new log
+     * cannot be moved into place, the old one is reopened and
+     * simply goes on growing. */
+    private void compactgridinfo() throws IOException {
+	Path path = pj(dir, "gridinfo"), tmp = tmppath(path);
+	try(FileChannel out = FileChannel.open(tmp, WRITE, CREATE, TRUNCATE_EXISTING)) {
+	    ByteBuffer buf = ByteBuffer.allocate(gridinfo.size() * 24).order(order);
+	    for(MapFile.GridInfo info : gridinfo.values())
+		buf.put(girec(info));
+	    buf.flip();
+	    writefully(out, buf, 0);
+	    out.force(true);
+	}
+	boolean moved = false;
+	gilog.close();
+	try {
+	    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+	    moved = true;
+	} finally {
+	    gilog = FileChannel.open(path, READ, WRITE, CREATE);
+	}
+	if(moved)
+	    gilines = gridinfo.size();
+    }
+
+    public MapFile.GridInfo gridinfo(long id) {
+	synchronized(this) {
+	    return(gridinfo.get(id));
+	}
+    }
+
+    public void putgridinfo(MapFile.GridInfo info) {
+	ByteBuffer buf = girec(info);
+	synchronized(this) {
+	    try {
+		writefully(gilog, buf, gilog.size());
+		gilines++;
+		gridinfo.put(info.id, info);
+		if(gilines > (gridinfo.size() * 2) + 1024)
+		    compactgridinfo();
+	    } catch(IOException e) {
+		throw(new StreamMessage.IOError(e));
+	    }
+	}
+    }
+
+    public boolean migrated() {
+	return(Files.exists(pj(dir, "migrated")));
+    }
+
+    /* Copy all grids of the given file over from its ResCache
+     * layout. Zoom-grids are not copied, since they are rebuilt on
+     * demand anyway. */
+    public void migrate(MapFile file) throws InterruptedException {
+	/* The same regions may be handed to a map file loaded again
+	 * while the first migration is still running. */
+	synchronized(this) {
+	    if(migrating)
+		return;
+	    migrating = true;
+	}
+	try {
+	    migrate0(file);
+	} finally {
+	    synchronized(this) {
+		migrating = false;
+	    }
+	}
+    }
+
+    private void migrate0(MapFile file) throws InterruptedException {
+	Collection<Long> segs;
+	file.lock.readLock().lock();
+	try {
+	    segs = new ArrayList<>(file.knownsegs);
+	} finally {
+	    file.lock.readLock().unlock();
+	}
+	int ng = 0;
+	for(long sid : segs) {
+	    file.lock.readLock().lock();
+	    try {
+		MapFile.Segment seg = file.segments.get(sid);
+		if(seg == null)
+		    continue;
+		for(Map.Entry<Coord, Long> gd : seg.map.entrySet()) {
+		    long id = gd.getValue();
+		    if(gridinfo(id) == null)
+			putgridinfo(new MapFile.GridInfo(id, seg.id, gd.getKey()));
+		    if(hasgrid(id))
+			continue;
+		    MapFile.Grid grid = MapFile.Grid.loadres(file, id);
+		    if(grid != null) {
+			putgrid(seg.id, grid);
+			ng++;
+		    }
+		}
+	    } finally {
+		file.lock.readLock().unlock();
+	    }
+	    Utils.checkirq();
+	}
+	try {
+	    Files.write(pj(dir, "migrated"), new byte[0]);
+	} catch(IOException e) {
+	    throw(new StreamMessage.IOError(e));
+	}
+	if(MapFile.debug) Debug.log.printf("mapfile: migrated %d grids into %s\n", ng, dir);
+    }
+
+    public String toString() {
+	return("MapRegions(" + dir + ")");
+    }
+}
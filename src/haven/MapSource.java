@@ -26,7 +26,6 @@
 
 package haven;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 
 public interface MapSource {
@@ -54,53 +53,54 @@ public interface MapSource {
 
     public static BufferedImage drawmap(MapSource m, Area a) {
 	Coord sz = a.sz();
-	BufferedImage[] texes = new BufferedImage[256];
-	BufferedImage buf = TexI.mkbuf(sz);
-	Coord c = new Coord();
-	for(c.y = 0; c.y < sz.y; c.y++) {
-	    for(c.x = 0; c.x < sz.x; c.x++) {
-		int t = m.gettile(a.ul.add(c));
-		if(t < 0) {
-		    buf.setRGB(c.x, c.y, 0);
+	boolean edges = !OptWnd.disableMapTileTransition.a;
+	/* Tile IDs with a one-tile border for the edge pass, which is
+	 * only fetched when that pass is going to be run. */
+	int kw = sz.x + 2, max = -1;
+	int[] keys = new int[kw * (sz.y + 2)], tiles = new int[sz.x * sz.y];
+	Coord tc = new Coord();
+	for(int y = -1; y <= sz.y; y++) {
+	    for(int x = -1; x <= sz.x; x++) {
+		boolean in = (x >= 0) && (y >= 0) && (x < sz.x) && (y < sz.y);
+		if(!in && !edges)
 		    continue;
+		tc.x = a.ul.x + x; tc.y = a.ul.y + y;
+		int t = m.gettile(tc);
+		keys[((y + 1) * kw) + x + 1] = t;
+		if(in) {
+		    tiles[(y * sz.x) + x] = t;
+		    max = Math.max(max, t);
 		}
-		BufferedImage tex = tileimg(m, texes, t);
-		int rgb = 0;
-		if(tex != null)
-		    rgb = tex.getRGB(Utils.floormod(c.x + a.ul.x, tex.getWidth()),
-				     Utils.floormod(c.y + a.ul.y, tex.getHeight()));
-		buf.setRGB(c.x, c.y, rgb);
 	    }
 	}
-	for(c.y = 1; c.y < sz.y - 1; c.y++) {
-	    for(c.x = 1; c.x < sz.x - 1; c.x++) {
-		int t = m.gettile(a.ul.add(c));
+	BufferedImage[] texes = new BufferedImage[max + 1];
+	MapRaster.Texels[] pal = new MapRaster.Texels[max + 1];
+	boolean[] seen = new boolean[max + 1];
+	for(int t : tiles) {
+	    if((t >= 0) && !seen[t]) {
+		seen[t] = true;
+		pal[t] = MapRaster.texels(tileimg(m, texes, t));
+	    }
+	}
+	MapRaster buf = new MapRaster(sz);
+	buf.fill(tiles, pal, a.ul);
+	Boolean[] ridge = new Boolean[max + 1];
+	for(int y = 1; y < sz.y - 1; y++) {
+	    for(int x = 1; x < sz.x - 1; x++) {
+		int t = tiles[(y * sz.x) + x];
 		if(t < 0)
 		    continue;
-		Tiler tl = m.tiler(t);
-		if(tl instanceof haven.resutil.Ridges.RidgeTile) {
-		    if(haven.resutil.Ridges.brokenp(m, a.ul.add(c))) {
-			for(int y = c.y - 1; y <= c.y + 1; y++) {
-			    for(int x = c.x - 1; x <= c.x + 1; x++) {
-				Color cc = new Color(buf.getRGB(x, y));
-				buf.setRGB(x, y, Utils.blendcol(cc, Color.BLACK, ((x == c.x) && (y == c.y))?1:0.1).getRGB());
-			    }
-			}
-		    }
+		if(ridge[t] == null)
+		    ridge[t] = m.tiler(t) instanceof haven.resutil.Ridges.RidgeTile;
+		if(ridge[t]) {
+		    tc.x = a.ul.x + x; tc.y = a.ul.y + y;
+		    if(haven.resutil.Ridges.brokenp(m, tc))
+			buf.ridge(x, y);
 		}
 	    }
 	}
-	if(!OptWnd.disableMapTileTransition.a)
-	for(c.y = 0; c.y < sz.y; c.y++) {
-	    for(c.x = 0; c.x < sz.x; c.x++) {
-		int t = m.gettile(a.ul.add(c));
-		if((m.gettile(a.ul.add(c).add(-1, 0)) > t) ||
-		   (m.gettile(a.ul.add(c).add( 1, 0)) > t) ||
-		   (m.gettile(a.ul.add(c).add(0, -1)) > t) ||
-		   (m.gettile(a.ul.add(c).add(0,  1)) > t))
-		    buf.setRGB(c.x, c.y, Color.BLACK.getRGB());
-	    }
-	}
-	return(buf);
+	if(edges)
+	    buf.edges(keys, 0, 0, sz.x, sz.y);
+	return(buf.image());
     }
 }
@@ -30,6 +30,7 @@ import haven.MCache.OverlayInfo;
 import haven.automated.MiningSafetyAssistant;
 import haven.automated.helpers.AreaSelectCallback;
 import haven.automated.pathfinder.PFListener;
+import haven.automated.pathfinder.NavGraph;
 import haven.automated.pathfinder.Pathfinder;
 import haven.render.*;
 import haven.render.sl.Type;
@@ -50,6 +51,8 @@ import static haven.OCache.posres;
 
 public class MapView extends PView implements DTarget, Console.Directory, PFListener {
     public static boolean clickdb = false;
+    public static final Config.Variable<Boolean> gobcull = Config.Variable.propb("haven.gobcull", true);
+    public static final Config.Variable<Integer> goblod = Config.Variable.propi("haven.goblod", 40);
     public long plgob = -1;
     public Coord2d cc;
     public final Glob glob;
@@ -79,6 +82,7 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 
 	public Pathfinder pf;
 	public Thread pfthread;
+	private NavGraph navgraph;
 	public CheckpointManager checkpointManager;
 	public Thread checkpointManagerThread;
 
@@ -803,6 +807,12 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
     }
 
     public void dispose() {
+	synchronized(this) {
+	    if(navgraph != null) {
+		navgraph.dispose();
+		navgraph = null;
+	    }
+	}
 	gobs.slot.remove();
 	clmaplist.dispose();
 	clobjlist.dispose();
@@ -836,6 +846,9 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 	final OCache oc = glob.oc;
 	final Map<Gob, Loader.Future<?>> adding = new HashMap<>();
 	final Map<Gob, RenderTree.Slot> current = new HashMap<>();
+	/* Gobs kept out of the render tree for being off-screen, and
+	 * those drawn at reduced detail for being far away. */
+	final Set<Gob> culled = new HashSet<>(), far = new HashSet<>();
 	RenderTree.Slot slot;
 
 	private void addgob(Gob ob) {
@@ -888,6 +901,12 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 		for(Loader.Future<?> task : tasks)
 		    task.restart();
 		current.clear();
+		for(Gob ob : culled)
+		    ob.lod = false;
+		for(Gob ob : far)
+		    ob.lod = false;
+		culled.clear();
+		far.clear();
 	    }
 	}
 
@@ -902,6 +921,9 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 	public void removed(Gob ob) {
 	    RenderTree.Slot slot;
 	    synchronized(this) {
+		culled.remove(ob);
+		far.remove(ob);
+		ob.lod = false;
 		slot = current.remove(ob);
 		if(slot == null) {
 		    Loader.Future<?> t = adding.remove(ob);
@@ -919,6 +941,98 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 	    }
 	}
 
+	private boolean onscreen(Gob ob, float margin) {
+	    if((ob.id == plgob) || (ob.getattr(Following.class) != null))
+		return(true);
+	    HomoCoord4f c;
+	    try {
+		c = clipxf(ob.getc(), false);
+	    } catch(Loading l) {
+		return(true);
+	    }
+	    float lim = c.w * (1 + margin);
+	    return((c.w > 0) && (Math.abs(c.x) <= lim) && (Math.abs(c.y) <= lim));
+	}
+
+	/* Gobs outside the view frustum are taken out of the render
+	 * tree altogether, so that neither their drawables nor their
+	 * overlays are ticked or drawn, and are put back once they
+	 * come into view again. Gobs beyond the LOD distance are left
+	 * in a static pose without labels. Both tests use a wider
+	 * margin for leaving than for entering, so that gobs at the
+	 * edge do not flicker in and out. */
+	void cull(Coord2d cc) {
+	    boolean cull = gobcull.get();
+	    double lodd = goblod.get() * tilesz.x;
+	    Collection<RenderTree.Slot> hide = new ArrayList<>();
+	    synchronized(this) {
+		if(slot == null)
+		    return;
+		for(Iterator<Map.Entry<Gob, RenderTree.Slot>> i = current.entrySet().iterator(); i.hasNext();) {
+		    Map.Entry<Gob, RenderTree.Slot> ent = i.next();
+		    Gob ob = ent.getKey();
+		    if(cull && !onscreen(ob, 0.5f)) {
+			i.remove();
+			culled.add(ob);
+			hide.add(ent.getValue());
+		    }
+		}
+		for(Iterator<Gob> i = culled.iterator(); i.hasNext();) {
+		    Gob ob = i.next();
+		    if(!cull || onscreen(ob, 0.25f)) {
+			i.remove();
+			adding.put(ob, glob.loader.defer(() -> addgob(ob), null));
+		    }
+		}
+		for(Gob ob : current.keySet())
+		    lod(ob, cc, lodd);
+		for(Gob ob : adding.keySet())
+		    lod(ob, cc, lodd);
+		for(Gob ob : culled)
+		    ob.lod = true;
+	    }
+	    for(RenderTree.Slot s : hide) {
+		try {
+		    s.remove();
+		} catch(RenderTree.SlotRemoved e) {
+		}
+	    }
+	}
+
+	private void lod(Gob ob, Coord2d cc, double lodd) {
+	    boolean was = far.contains(ob);
+	    if((lodd > 0) && (ob.id != plgob) && (ob.rc.dist(cc) > lodd * (was ? 0.9 : 1.1))) {
+		if(!was)
+		    far.add(ob);
+		ob.lod = true;
+	    } else {
+		if(was)
+		    far.remove(ob);
+		ob.lod = false;
+	    }
+	}
+
+	public String stats() {
+	    synchronized(this) {
+		return(String.format("%d, culled %d, far %d", current.size() + adding.size() + culled.size(), culled.size(), far.size()));
+	    }
+	}
+
+	/* Resources that keep gobs near the view from being shown are
+	 * fetched ahead of those only wanted for gobs farther off. */
+	void boostnear(Coord2d cc, double range, int prio) {
+	    Collection<Loading> near = new ArrayList<>();
+	    synchronized(this) {
+		for(Map.Entry<Gob, Loader.Future<?>> ent : adding.entrySet()) {
+		    Loading l = ent.getValue().lastload();
+		    if((l != null) && (ent.getKey().rc.dist(cc) < range))
+			near.add(l);
+		}
+	    }
+	    for(Loading l : near)
+		l.boostprio(prio);
+	}
+
 	public Loading loading() {
 	    synchronized(this) {
 		if(adding.isEmpty())
@@ -936,10 +1050,24 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
     private class MapRaster extends RenderTree.Node.Track1 {
 	final MCache map = glob.map;
 	Area area;
+	Coord ccut;
+	Coord2d lastcc, heading;
 	Loading lastload = new Loading("Initializing map...");
 
+	/* Cuts are built nearest first, and ahead of the direction of
+	 * travel before those behind it, so that fast movement does
+	 * not leave holes in the terrain in front of the camera. */
+	int prio(Coord cc) {
+	    int d = Math.max(Math.abs(cc.x - ccut.x), Math.abs(cc.y - ccut.y));
+	    int prio = 5 + Math.max(view + 1 - d, 0);
+	    if((heading != null) && (((cc.x - ccut.x) * heading.x) + ((cc.y - ccut.y) * heading.y) > 0))
+		prio++;
+	    return(prio);
+	}
+
 	abstract class Grid<T> extends RenderTree.Node.Track1 {
 	    final Map<Coord, Pair<T, RenderTree.Slot>> cuts = new HashMap<>();
+	    final Set<Coord> pending = new HashSet<>();
 	    final boolean position;
 	    Loading lastload = new Loading("Initializing map...");
 
@@ -951,6 +1079,7 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 
 	    abstract T getcut(Coord cc);
 	    RenderTree.Node produce(T cut) {return((RenderTree.Node)cut);}
+	    void park(Coord cc) {}
 
 	    void tick() {
 		if(slot == null)
@@ -970,12 +1099,21 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 			    if(cur != null)
 				cur.b.remove();
 			}
+			pending.remove(cc);
 		    } catch(Loading l) {
-			l.boostprio(5);
+			l.boostprio(prio(cc));
+			pending.add(cc);
 			curload = l;
 		    }
 		}
 		this.lastload = curload;
+		for(Iterator<Coord> i = pending.iterator(); i.hasNext();) {
+		    Coord cc = i.next();
+		    if(!area.contains(cc)) {
+			park(cc);
+			i.remove();
+		    }
+		}
 		for(Iterator<Map.Entry<Coord, Pair<T, RenderTree.Slot>>> i = cuts.entrySet().iterator(); i.hasNext();) {
 		    Map.Entry<Coord, Pair<T, RenderTree.Slot>> ent = i.next();
 		    if(!area.contains(ent.getKey())) {
@@ -995,7 +1133,11 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 	    /* XXX: Should be taken out of the main rendering
 	     * loop. Probably not a big deal, but still. */
 	    try {
-		Coord cc = new Coord2d(getcc()).floor(tilesz).div(MCache.cutsz);
+		Coord2d pc = new Coord2d(getcc());
+		Coord cc = pc.floor(tilesz).div(MCache.cutsz);
+		heading = ((lastcc != null) && (pc.dist(lastcc) > 0.5)) ? pc.sub(lastcc) : null;
+		lastcc = pc;
+		ccut = cc;
 		area = new Area(cc.sub(view, view), cc.add(view, view).add(1, 1));
 		lastload = null;
 	    } catch(Loading l) {
@@ -1017,6 +1159,9 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 		MapMesh getcut(Coord cc) {
 		    return(map.getcut(cc));
 		}
+		void park(Coord cc) {
+		    map.parkcut(cc);
+		}
 	    };
 	final Grid flavobjs = new Grid<RenderTree.Node>(false) {
 		RenderTree.Node getcut(Coord cc) {
@@ -1246,7 +1391,7 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
     }
 
     public String stats() {
-	String ret = String.format("Tree %s", tree.stats());
+	String ret = String.format("Tree %s, Gobs %s", tree.stats(), gobs.stats());
 	if(back != null)
 	    ret = String.format("%s, Inst %s, Draw %s", ret, instancer.stats(), back.stats());
 	return(ret);
@@ -1972,9 +2117,17 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 	}
     }
 
+    private double cullt = 0;
     public void tick(double dt) {
 	super.tick(dt);
 	checkload();
+	if(cc != null) {
+	    gobs.boostnear(cc, MCache.cutsz.x * tilesz.x * (view + 1), 4);
+	    if((cullt -= dt) <= 0) {
+		gobs.cull(cc);
+		cullt = 0.2;
+	    }
+	}
 	camload = null;
 	try {
 	    if((shake = shake * Math.pow(100, -dt)) < 0.01)
@@ -2972,6 +3125,12 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 		camera.snap(Direction.EAST);
 	}
 
+	public synchronized NavGraph navgraph() {
+		if (navgraph == null)
+			navgraph = new NavGraph(glob.map, glob.oc);
+		return navgraph;
+	}
+
 	public void pfDone(final Pathfinder thread) {
 		if (haven.automated.pathfinder.Map.DEBUG_TIMINGS)
 			System.out.println("-= PF DONE =-");
@@ -3005,7 +3164,9 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 		Gob player = player();
 		if (player == null)
 			return;
+		Coord goal = null;
 		if (mc.dist(player.rc.floor()) > 11 * MAX_TILE_RANGE) {
+			goal = mc;
 			Coord between = mc.sub(player.rc.floor());
 			double mul = 11 * MAX_TILE_RANGE / mc.dist(player.rc.floor());
 			mc = player.rc.floor().add(between.mul(mul));
@@ -3025,7 +3186,10 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 			if (gcx < 0 || gcx >= haven.automated.pathfinder.Map.sz || gcy < 0 || gcy >= haven.automated.pathfinder.Map.sz)
 				return;
 
-			pf = new Pathfinder(this, new Coord(gcx, gcy), action);
+			if (goal != null)
+				pf = new Pathfinder(this, new Coord2d(goal), action);
+			else
+				pf = new Pathfinder(this, new Coord(gcx, gcy), action);
 			pf.addListener(this);
 			pfthread = new Thread(pf, "Pathfinder");
 			pfthread.start();
@@ -67,6 +67,10 @@ public class MapWnd extends Window implements Console.Directory {
     private int markerseq = -1;
     private boolean domark = false;
     private final Collection<Runnable> deferred = new LinkedList<>();
+    private volatile int zdone, ztotal;
+    private final MapFile.ZoomListener zlistener = (done, total) -> {zdone = done; ztotal = total;};
+    private Text zprog = null;
+    private int zprogv = -1;
 	private Coord bigmapc = Utils.getprefc("bigmapc", new Coord(0,0));
 	private Coord smallmapc = Utils.getprefc("smallmapc", new Coord(0,100));
 	private Coord bigmapsz = Utils.getprefc("bigmapsz", new Coord(980,550));
@@ -92,6 +96,7 @@ public class MapWnd extends Window implements Console.Directory {
 	this.player = new MapLocator(mv);
 	viewf = add(new ViewFrame());
 	view = viewf.add(new View(file));
+	file.zbuilder.add(zlistener);
 	recenter();
 	toolbarTop = add(new Widget(Coord.z));
 	toolbarTop.add(new Img(Resource.loadtex("gfx/hud/mmap/topfgwdg")) {
@@ -462,6 +467,8 @@ public class MapWnd extends Window implements Console.Directory {
 	    g.frect(Coord.z, sz);
 	    g.chcolor();
 	    super.draw(g);
+	    if(zprog != null)
+		g.aimage(zprog.tex(), new Coord(UI.scale(5), sz.y - UI.scale(5)), 0, 1);
 	}
 
 	public Resource getcurs(Coord c) {
@@ -479,6 +486,12 @@ public class MapWnd extends Window implements Console.Directory {
 
     public void tick(double dt) {
 	super.tick(dt);
+	int zdone = this.zdone, ztotal = this.ztotal;
+	int zv = (zdone < ztotal) ? ((zdone * 100) / ztotal) : -1;
+	if(zv != zprogv) {
+	    zprog = (zv < 0) ? null : Text.render(String.format("Building zoom levels: %d%%", zv));
+	    zprogv = zv;
+	}
 	synchronized(deferred) {
 	    for(Iterator<Runnable> i = deferred.iterator(); i.hasNext();) {
 		Runnable task = i.next();
@@ -517,6 +530,11 @@ public class MapWnd extends Window implements Console.Directory {
 	}
     }
 
+    public void destroy() {
+	file.zbuilder.remove(zlistener);
+	super.destroy();
+    }
+
     public static abstract class MarkerType implements Comparable<MarkerType> {
 	public static final int iconsz = UI.scale(20);
 	private static final HashedSet<MarkerType> types = new HashedSet<>(Hash.eq);
@@ -974,10 +992,12 @@ public class MapWnd extends Window implements Console.Directory {
     public static class ExportWindow extends Window implements MapFile.ExportStatus {
 	private Thread th;
 	private volatile String prog = "Exporting map...";
+	private volatile String rate = null;
+	MapFile.PipeStats stats = null;
 
 	public ExportWindow() {
-	    super(UI.scale(new Coord(300, 65)), "Exporting map...", true);
-	    adda(new Button(UI.scale(100), "Cancel", false, this::cancel), csz().x / 2, UI.scale(40), 0.5, 0.0);
+	    super(UI.scale(new Coord(300, 80)), "Exporting map...", true);
+	    adda(new Button(UI.scale(100), "Cancel", false, this::cancel), csz().x / 2, UI.scale(55), 0.5, 0.0);
 	}
 
 	public void run(Thread th) {
@@ -986,6 +1006,8 @@ public class MapWnd extends Window implements Console.Directory {
 
 	public void cdraw(GOut g) {
 	    g.text(prog, UI.scale(new Coord(10, 10)));
+	    if(rate != null)
+		g.text(rate, UI.scale(new Coord(10, 28)));
 	}
 
 	public void cancel() {
@@ -1004,16 +1026,23 @@ public class MapWnd extends Window implements Console.Directory {
 	public void mark(int cm, int nm) {
 	    this.prog = String.format("Exporting marker", cm, nm);
 	}
+
+	public void stats(MapFile.PipeStats st) {
+	    this.stats = st;
+	    this.rate = String.format("%,.0f grids/s, %.1f MB/s", st.rate(), st.brate() / (1 << 20));
+	}
     }
 
-    public static class ImportWindow extends Window {
+    public static class ImportWindow extends Window implements MapFile.ExportStatus {
 	private Thread th;
 	private volatile String prog = "Initializing";
+	private volatile String rate = null;
 	private double sprog = -1;
+	MapFile.PipeStats stats = null;
 
 	public ImportWindow() {
-	    super(UI.scale(new Coord(300, 65)), "Importing map...", true);
-	    adda(new Button(UI.scale(100), "Cancel", false, this::cancel), csz().x / 2, UI.scale(40), 0.5, 0.0);
+	    super(UI.scale(new Coord(300, 80)), "Importing map...", true);
+	    adda(new Button(UI.scale(100), "Cancel", false, this::cancel), csz().x / 2, UI.scale(55), 0.5, 0.0);
 	}
 
 	public void run(Thread th) {
@@ -1027,6 +1056,8 @@ public class MapWnd extends Window implements Console.Directory {
 	    else
 		prog = prog + "...";
 	    g.text(prog, UI.scale(new Coord(10, 10)));
+	    if(rate != null)
+		g.text(rate, UI.scale(new Coord(10, 28)));
 	}
 
 	public void cancel() {
@@ -1046,6 +1077,11 @@ public class MapWnd extends Window implements Console.Directory {
 	public void sprog(double sprog) {
 	    this.sprog = sprog;
 	}
+
+	public void stats(MapFile.PipeStats st) {
+	    this.stats = st;
+	    this.rate = String.format("%,.0f grids/s, %.1f MB/s", st.rate(), st.brate() / (1 << 20));
+	}
     }
 
     public void exportmap(Path path) {
@@ -1059,6 +1095,8 @@ public class MapWnd extends Window implements Console.Directory {
 			    file.export(out, MapFile.ExportFilter.all, prog);
 			}
 			complete = true;
+			if(prog.stats != null)
+			    Debug.log.printf("mapfile: exported %s\n", prog.stats);
 		    } finally {
 			if(!complete)
 			    Files.deleteIfExists(path);
@@ -1089,10 +1127,12 @@ public class MapWnd extends Window implements Console.Directory {
 			    }
 			}
 			prog.prog("Validating map data");
-			file.reimport(new Updater(new BufferedInputStream(Channels.newInputStream(fp))), MapFile.ImportFilter.readonly);
+			file.reimport(new Updater(new BufferedInputStream(Channels.newInputStream(fp))), MapFile.ImportFilter.readonly, prog);
 			prog.prog("Importing map data");
 			fp.position(0);
-			file.reimport(new Updater(new BufferedInputStream(Channels.newInputStream(fp))), MapFile.ImportFilter.all);
+			file.reimport(new Updater(new BufferedInputStream(Channels.newInputStream(fp))), MapFile.ImportFilter.all, prog);
+			if(prog.stats != null)
+			    Debug.log.printf("mapfile: imported %s\n", prog.stats);
 		    }
 		} catch(InterruptedException e) {
 		} catch(Exception e) {
@@ -150,6 +150,21 @@ public abstract class Message {
 	int off = rget(8);
 	return(Utils.int64d(rbuf, off));
     }
+    public int uvarint() {
+	int ret = 0;
+	for(int sh = 0; ; sh += 7) {
+	    int b = uint8();
+	    ret |= (b & 0x7f) << sh;
+	    if((b & 0x80) == 0)
+		return(ret);
+	    if(sh >= 28)
+		throw(new FormatError("Malformed varint").msg(this));
+	}
+    }
+    public int varint() {
+	int v = uvarint();
+	return((v >>> 1) ^ -(v & 1));
+    }
     public String string() {
 	int l = 0;
 	while(true) {
@@ -393,6 +408,16 @@ public abstract class Message {
 	Utils.int64e(num, wbuf, off);
 	return(this);
     }
+    public Message adduvarint(int num) {
+	while((num & ~0x7f) != 0) {
+	    adduint8((num & 0x7f) | 0x80);
+	    num >>>= 7;
+	}
+	return(adduint8(num));
+    }
+    public Message addvarint(int num) {
+	return(adduvarint((num << 1) ^ (num >> 31)));
+    }
     public Message addstring2(String str) {
 	addbytes(str.getBytes(Utils.utf8));
 	return(this);
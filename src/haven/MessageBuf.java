@@ -98,6 +98,17 @@ public class MessageBuf extends Message implements java.io.Serializable {
 	return(rt - rh);
     }
 
+    /* Skips the next len bytes and returns their offset in rbuf, so
+     * that they can be read as a message of their own sharing this
+     * one's buffer instead of being copied out of it. */
+    public int slice(int len) {
+	if(len > rt - rh)
+	    throw(new EOF("Required " + len + " bytes, got only " + (rt - rh)).msg(this));
+	int ret = rh;
+	rh += len;
+	return(ret);
+    }
+
     public void rewind() {
 	rh = oh;
     }
@@ -139,8 +150,8 @@ public class MessageBuf extends Message implements java.io.Serializable {
     }
 
 	public int peekrbuf(int i) {
-		if (rbuf.length - 1 < i)
+		if (rt - oh - 1 < i)
 			return -1;
-		return rbuf[i];
+		return rbuf[oh + i];
 	}
 }
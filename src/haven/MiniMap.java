@@ -29,6 +29,7 @@ package haven;
 import java.util.*;
 import java.util.function.*;
 import java.awt.Color;
+import java.awt.image.BufferedImage;
 import haven.MapFile.Segment;
 import haven.MapFile.DataGrid;
 import haven.MapFile.GridInfo;
@@ -51,6 +52,7 @@ public class MiniMap extends Widget {
     public Location sessloc;
     public GobIcon.Settings iconconf;
     public List<DisplayIcon> icons = Collections.emptyList();
+    private final IconAtlas.Batch iconbatch = IconAtlas.global.new Batch();
     protected Locator setloc;
     protected boolean follow;
     protected float zoomlevel = 1;
@@ -115,18 +117,12 @@ public class MiniMap extends Widget {
 	public Location locate(MapFile file) {
 	    MCache map = sess.glob.map;
 	    if(lastgrid != null) {
-		synchronized(map.grids) {
-		    if(map.grids.get(lastgrid.gc) == lastgrid)
-			return(lastloc);
-		}
+		if(map.grids.get(lastgrid.gc) == lastgrid)
+		    return(lastloc);
 		lastgrid = null;
 		lastloc = null;
 	    }
-	    Collection<MCache.Grid> grids = new ArrayList<>();
-	    synchronized(map.grids) {
-		grids.addAll(map.grids.values());
-	    }
-	    for(MCache.Grid grid : grids) {
+	    for(MCache.Grid grid : map.grids.values()) {
 		GridInfo info = file.gridinfo.get(grid.id);
 		if(info == null)
 		    continue;
@@ -306,8 +302,12 @@ public class MiniMap extends Widget {
 		this.sc = p2c(this.rc);
 	}
 
+	public Tex icontex() {
+	    return(gob != null && gob.getres() != null && !gob.getres().name.equals("gfx/borka/body") && gob.knocked == Boolean.TRUE ? img.graytex : img.tex);
+	}
+
 	public void draw(GOut g, DisplayIcon disp) {
-		Tex icontex = disp.gob != null && gob.getres() != null && !gob.getres().name.equals("gfx/borka/body") && disp.gob.knocked == Boolean.TRUE ? img.graytex : img.tex;
+		Tex icontex = disp.icontex();
 	    if(col != null)
 		g.chcolor(col);
 	    else
@@ -316,6 +316,16 @@ public class MiniMap extends Widget {
 		g.image(icontex, sc.sub(img.cc));
 	    else
 		g.rotimage(icontex, sc, img.cc, -ang + img.ao);
+	    drawnotify(g);
+	}
+
+	/* Queues the icon itself for drawing as part of bat, returning
+	 * false if it has to be drawn with draw() instead. */
+	public boolean batch(IconAtlas.Batch bat) {
+	    return(bat.add(icontex(), sc, img.cc, img.rot ? (-ang + img.ao) : 0, col));
+	}
+
+	public void drawnotify(GOut g) {
 	    if(notify) {
 		double t = (Utils.rtime() - stime) * 1.0;
 		if(t > 1) {
@@ -326,7 +336,7 @@ public class MiniMap extends Widget {
 		    g.usestate(new ColorMask(notifcol));
 		    g.chcolor(255, 255, 255, (int)Math.round(255 * a));
 		    if(!img.rot)
-			g.image(icontex, sc.sub(img.cc.mul(f)), img.tex.sz().mul(f));
+			g.image(icontex(), sc.sub(img.cc.mul(f)), img.tex.sz().mul(f));
 		    g.defstate();
 		}
 	    }
@@ -423,6 +433,7 @@ public class MiniMap extends Widget {
 	public final MapFile file;
 	public final Segment seg;
 	public final Coord sc;
+	public final int lvl;
 	public final Area mapext;
 	public final Indir<? extends DataGrid> gref;
 	private DataGrid cgrid = null;
@@ -433,71 +444,120 @@ public class MiniMap extends Widget {
 	    this.file = seg.file();
 	    this.seg = seg;
 	    this.sc = sc;
+	    this.lvl = lvl;
 	    this.gref = gref;
 	    mapext = Area.sized(sc.mul(cmaps.mul(1 << lvl)), cmaps.mul(1 << lvl));
 	}
 
+	/* Images are kept in the shared map atlas rather than as
+	 * textures of their own, keyed so that grids scrolled out of
+	 * and back into view can reuse what was already rendered. The
+	 * source is handed the cell's current contents, so that it may
+	 * render only what has changed. */
 	class CachedImage {
-	    final Function<DataGrid, Defer.Future<Tex>> src;
-	    DataGrid cgrid;
-	    Defer.Future<Tex> next;
-	    Tex img;
+	    final Object key;
+	    final BiFunction<DataGrid, MapAtlas.Cell, Defer.Future<MapAtlas.Patch>> src;
+	    Defer.Future<MapAtlas.Patch> next;
+	    Object nver;
 
-	    CachedImage(Function<DataGrid, Defer.Future<Tex>> src) {
+	    CachedImage(Object tag, BiFunction<DataGrid, MapAtlas.Cell, Defer.Future<MapAtlas.Patch>> src) {
+		this.key = Arrays.asList(file, seg.id, lvl, sc, tag);
 		this.src = src;
 	    }
 
 	    public Tex get() {
 		DataGrid grid = gref.get();
-		if(grid != cgrid || !valid()) {
-		    if(next != null)
-			next.cancel();
-		    next = getNext(grid);
-		    cgrid = grid;
+		Object ver = version(grid);
+		MapAtlas.Cell cell = MapAtlas.global.get(key);
+		if((next != null) && !Utils.eq(nver, ver)) {
+		    next.cancel();
+		    next = null;
+		}
+		if((next == null) && ((cell == null) || !Utils.eq(cell.version(), ver))) {
+		    next = src.apply(grid, cell);
+		    nver = ver;
 		}
 		if(next != null) {
 		    try {
-			img = next.get();
+			MapAtlas.Cell ncell = MapAtlas.global.put(key, next.get(), ver, grid);
+			if(ncell != null)
+			    cell = ncell;
+			next = null;
 		    } catch(Loading l) {}
 		}
-		return(img);
+		return(cell);
 	    }
-		protected Defer.Future<Tex> getNext(DataGrid grid) {
-			return src.apply(grid);
-		}
 
-		protected boolean valid() {return true;}
+		protected Object version(DataGrid grid) {
+			return grid;
+		}
 	}
 
 	class CachedTileOverlay extends MiniMap.DisplayGrid.CachedImage {
-		private long seq = 0;
-		CachedTileOverlay(Function<MapFile.DataGrid, Defer.Future<Tex>> src) {
-			super(src);
+		CachedTileOverlay(Object tag, BiFunction<MapFile.DataGrid, MapAtlas.Cell, Defer.Future<MapAtlas.Patch>> src) {
+			super(tag, src);
 		}
 
 		@Override
-		protected boolean valid() {
-			return this.seq == TileHighlight.seq;
+		protected Object version(DataGrid grid) {
+			return Arrays.asList(grid, TileHighlight.seq);
 		}
+	}
 
-		@Override
-		protected Defer.Future<Tex> getNext(DataGrid grid) {
-			this.seq = TileHighlight.seq;
-			return super.getNext(grid);
+	/* The tile area of a grid that differs between two versions of
+	 * it, or null if they are identical. Tiles are compared by
+	 * tileset rather than by index, since each grid has its own
+	 * tileset palette. */
+	private static Area changed(DataGrid from, DataGrid to) {
+	    int[] remap = new int[from.tilesets.length];
+	    for(int i = 0; i < remap.length; i++) {
+		remap[i] = -1;
+		for(int o = 0; o < to.tilesets.length; o++) {
+		    MapFile.TileInfo a = from.tilesets[i], b = to.tilesets[o];
+		    if(a.res.name.equals(b.res.name) && (a.res.ver == b.res.ver) && (a.prio == b.prio)) {
+			remap[i] = o;
+			break;
+		    }
 		}
+	    }
+	    int x1 = cmaps.x, y1 = cmaps.y, x2 = 0, y2 = 0;
+	    for(int y = 0, i = 0; y < cmaps.y; y++) {
+		for(int x = 0; x < cmaps.x; x++, i++) {
+		    if((remap[from.tiles[i]] != to.tiles[i]) || (Float.compare(from.zmap[i], to.zmap[i]) != 0)) {
+			x1 = Math.min(x1, x); y1 = Math.min(y1, y);
+			x2 = Math.max(x2, x + 1); y2 = Math.max(y2, y + 1);
+		    }
+		}
+	    }
+	    if((x1 >= x2) || (y1 >= y2))
+		return(null);
+	    return(Area.corn(Coord.of(x1, y1), Coord.of(x2, y2)));
 	}
 
 	private CachedImage img_c;
 	public Tex img() {
 	    if(img_c == null) {
-		img_c = new CachedImage(grid -> {
+		img_c = new CachedImage("map", (grid, cell) -> {
 			if(grid instanceof MapFile.ZoomGrid) {
-			    return(Defer.later(() -> new TexI(grid.render(sc.mul(cmaps)))));
+			    return(Defer.later(() -> new MapAtlas.Patch(grid.render(sc.mul(cmaps)))));
 			} else {
-			    return(Defer.later(new Defer.Callable<Tex>() {
+			    /* Ridge and transition edges reach two tiles out
+			     * from a changed tile, and need another two tiles
+			     * of context to be drawn the same as they would
+			     * be as part of the whole grid. */
+			    Object base = (cell == null) ? null : cell.version();
+			    DataGrid prev = (cell == null) ? null : (DataGrid)cell.source();
+			    return(Defer.later(new Defer.Callable<MapAtlas.Patch>() {
 				    MapFile.View view = new MapFile.View(seg);
 
-				    public TexI call() {
+				    public MapAtlas.Patch call() {
+					Area part = Area.sized(cmaps);
+					if((prev != null) && !(prev instanceof MapFile.ZoomGrid)) {
+					    Area ch = changed(prev, grid);
+					    if(ch == null)
+						return(new MapAtlas.Patch(TexI.mkbuf(Coord.of(1, 1)), Coord.z, Coord.z, Coord.z, base));
+					    part = ch.margin(2).overlap(part);
+					}
 					try(Locked lk = new Locked(file.lock.readLock())) {
 					    for(int y = -1; y <= 1; y++) {
 						for(int x = -1; x <= 1; x++) {
@@ -505,7 +565,10 @@ public class MiniMap extends Widget {
 						}
 					    }
 					    view.fin();
-					    return(new TexI(MapSource.drawmap(view, Area.sized(sc.mul(cmaps), cmaps))));
+					    if(part.equals(Area.sized(cmaps)))
+						return(new MapAtlas.Patch(MapSource.drawmap(view, Area.sized(sc.mul(cmaps), cmaps))));
+					    BufferedImage buf = MapSource.drawmap(view, part.margin(2).xl(sc.mul(cmaps)));
+					    return(new MapAtlas.Patch(buf, Coord.of(2, 2), part.ul, part.sz(), base));
 					}
 				    }
 				}));
@@ -520,7 +583,7 @@ public class MiniMap extends Widget {
 	    CachedImage ret;
 	    synchronized(olimg_c) {
 		if((ret = olimg_c.get(tag)) == null)
-		    olimg_c.put(tag, ret = new CachedImage(grid -> Defer.later(() -> new TexI(grid.olrender(sc.mul(cmaps), tag)))));
+		    olimg_c.put(tag, ret = new CachedImage(tag, (grid, cell) -> Defer.later(() -> new MapAtlas.Patch(grid.olrender(sc.mul(cmaps), tag)))));
 	    }
 	    return(ret.get());
 	}
@@ -529,7 +592,7 @@ public class MiniMap extends Widget {
 			CachedImage ret;
 			synchronized(olimg_c) {
 				if((ret = olimg_c.get(TileHighlight.TAG)) == null)
-					olimg_c.put(TileHighlight.TAG, ret = new CachedTileOverlay(grid -> Defer.later(() -> new TexI(TileHighlight.olrender(grid)))));
+					olimg_c.put(TileHighlight.TAG, ret = new CachedTileOverlay(TileHighlight.TAG, (grid, cell) -> Defer.later(() -> new MapAtlas.Patch(TileHighlight.olrender(grid)))));
 			}
 			return(ret.get());
 		}
@@ -630,6 +693,7 @@ public class MiniMap extends Widget {
 
 	public void drawmap(GOut g) {
 		Coord hsz = sz.div(2);
+		MapAtlas.global.trim();
 		for(Coord c : dgext) {
 			Coord ul;
 			ul = UI.scale(c.mul(cmaps)).mul(dlvl).div(zoomlevel).sub(dloc.tc.div(scalef())).add(hsz);
@@ -668,26 +732,23 @@ public class MiniMap extends Widget {
 		pmap.put(disp.gob, disp);
 	}
 	List<DisplayIcon> ret = new ArrayList<>();
-	OCache oc = ui.sess.glob.oc;
-	synchronized(oc) {
-	    for(Gob gob : oc) {
-		try {
-		    GobIcon icon = gob.getattr(GobIcon.class);
-		    if(icon != null) {
-			GobIcon.Setting conf = iconconf.get(icon.res.get());
-			if((conf != null) && conf.show) {
-			    DisplayIcon disp = pmap.remove(gob);
-			    if(disp == null)
-				disp = new DisplayIcon(icon, conf);
-			    disp.update(gob.rc, gob.a);
-			    KinInfo kin = gob.getattr(KinInfo.class);
-			    if((kin != null) && (kin.group < BuddyWnd.gc.length))
-				disp.col = BuddyWnd.gc[kin.group];
-			    ret.add(disp);
-			}
+	for(Gob gob : ui.sess.glob.oc.index.snapshot().all()) {
+	    try {
+		GobIcon icon = gob.getattr(GobIcon.class);
+		if(icon != null) {
+		    GobIcon.Setting conf = iconconf.get(icon.res.get());
+		    if((conf != null) && conf.show) {
+			DisplayIcon disp = pmap.remove(gob);
+			if(disp == null)
+			    disp = new DisplayIcon(icon, conf);
+			disp.update(gob.rc, gob.a);
+			KinInfo kin = gob.getattr(KinInfo.class);
+			if((kin != null) && (kin.group < BuddyWnd.gc.length))
+			    disp.col = BuddyWnd.gc[kin.group];
+			ret.add(disp);
 		    }
-		} catch(Loading l) {}
-	    }
+		}
+	    } catch(Loading l) {}
 	}
 	for(DisplayIcon disp : pmap.values()) {
 	    if(disp.force())
@@ -702,10 +763,28 @@ public class MiniMap extends Widget {
     public void drawicons(GOut g) {
 	if((sessloc == null) /*|| (dloc.seg != sessloc.seg)*/)
 	    return;
+	/* Icons are drawn as one batch from the icon atlas, with the
+	 * rare ones that do not fit it and any notification effects
+	 * drawn on their own afterwards. */
+	List<DisplayIcon> single = null;
+	g.chcolor();
 	for(DisplayIcon disp : icons) {
 	    if((disp.sc == null) || filter(disp))
 		continue;
-	    disp.draw(g, disp);
+	    if(!disp.batch(iconbatch)) {
+		if(single == null)
+		    single = new ArrayList<>();
+		single.add(disp);
+	    }
+	}
+	iconbatch.draw(g);
+	for(DisplayIcon disp : icons) {
+	    if((disp.sc == null) || filter(disp))
+		continue;
+	    if((single != null) && single.contains(disp))
+		disp.draw(g, disp);
+	    else
+		disp.drawnotify(g);
 	}
 	g.chcolor();
     }
@@ -773,6 +852,10 @@ public class MiniMap extends Widget {
 	drawInvalidWarning(g);
     }
 
+    public boolean animated() {
+	return(true);
+    }
+
     public void draw(GOut g) {
 	Location loc = this.curloc;
 	if(loc == null)
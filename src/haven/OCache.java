@@ -64,7 +64,13 @@ public class OCache implements Iterable<Gob> {
     private Collection<Collection<Gob>> local = new LinkedList<Collection<Gob>>();
     private HashMultiMap<Long, Gob> objs = new HashMultiMap<Long, Gob>();
     private Glob glob;
+    public static final Config.Variable<Integer> deltathreads = Config.Variable.propi("haven.deltathreads", 2);
+    /* Object deltas are applied on a pool of their own, so that gobs
+     * waiting on resources neither hold up nor are held up by the
+     * rest of the loader work. */
+    public final Loader deltapool = new Loader("Object delta applier", deltathreads.get());
     private final Collection<ChangeCallback> cbs = new WeakList<ChangeCallback>();
+    public final GobIndex index = new GobIndex();
 
     public interface ChangeCallback {
 	public void added(Gob ob);
@@ -105,6 +111,7 @@ public class OCache implements Iterable<Gob> {
 			synchronized (this) {
 				cbs = new ArrayList<>(this.cbs);
 				objs.put(ob.id, ob);
+				index.add(ob);
 			}
 			for (ChangeCallback cb : cbs)
 				cb.added(ob);
@@ -119,6 +126,8 @@ public class OCache implements Iterable<Gob> {
 	    old = objs.remove(ob.id, ob);
 	    if((old != null) && (old != ob))
 		throw(new RuntimeException(String.format("object %d removed wrong object", ob.id)));
+	    if(old != null)
+		index.remove(old);
 	    cbs = new ArrayList<>(this.cbs);
 	}
 	if(old != null) {
@@ -193,6 +202,8 @@ public class OCache implements Iterable<Gob> {
 	synchronized(this) {
 	    cbs = new ArrayList<>(this.cbs);
 	    local.add(gob);
+	    for(Gob g : gob)
+		index.add(g);
 	}
 	for(Gob g : gob) {
 	    synchronized(g) {
@@ -207,6 +218,8 @@ public class OCache implements Iterable<Gob> {
 	synchronized(this) {
 	    cbs = new ArrayList<>(this.cbs);
 	    local.remove(gob);
+	    for(Gob g : gob)
+		index.remove(g);
 	}
 	for(Gob g : gob) {
 	    synchronized(g) {
@@ -352,7 +365,7 @@ public class OCache implements Iterable<Gob> {
 
     public class GobInfo {
 	public final long id;
-	public final LinkedList<AttrDelta> pending = new LinkedList<>();
+	public final Deque<AttrDelta> pending = new ArrayDeque<>();
 	public int frame;
 	public boolean nremoved, added, gremoved, virtual;
 	public Gob gob;
@@ -363,14 +376,21 @@ public class OCache implements Iterable<Gob> {
 	    this.frame = frame;
 	}
 
+	/* Deltas are applied in order by at most one task per gob at a
+	 * time. A delta whose resource is still loading throws Loading
+	 * out of here, which parks the task on that resource's
+	 * completion; the delta stays at the head of the queue until
+	 * then. The GobInfo lock is only ever held briefly, so that the
+	 * connection thread can always queue new deltas without
+	 * waiting on the gob itself. */
 	private void apply() {
+	    Gob rem = null;
 	    main: {
 		synchronized(this) {
 		    if(nremoved && (!added || gremoved))
 			break main;
 		    if(nremoved && added && !gremoved) {
-			remove(gob);
-			gob.updated();
+			rem = gob;
 			gremoved = true;
 			gob = null;
 			break main;
@@ -409,6 +429,10 @@ public class OCache implements Iterable<Gob> {
 		}
 		gob.updated();
 	    }
+	    if(rem != null) {
+		remove(rem);
+		rem.updated();
+	    }
 	    synchronized(this) {
 		applier = null;
 		checkdirty(false);
@@ -419,7 +443,7 @@ public class OCache implements Iterable<Gob> {
 	    synchronized(this) {
 		if(applier == null) {
 		    if(nremoved ? (added && !gremoved) : (!added || !pending.isEmpty())) {
-			applier = glob.loader.defer(this::apply, null);
+			applier = deltapool.defer(this::apply, null);
 		    }
 		} else if(interrupt) {
 		    applier.restart();
@@ -431,17 +455,20 @@ public class OCache implements Iterable<Gob> {
     private final Map<Long, GobInfo> netinfo = new HashMap<>();
 
     private GobInfo netremove(long id, int frame) {
+	GobInfo ng;
 	synchronized(netinfo) {
-	    GobInfo ng = netinfo.get(id);
-	    if((ng == null) || (ng.frame > frame))
+	    ng = netinfo.get(id);
+	}
+	if(ng == null)
+	    return(null);
+	synchronized(ng) {
+	    if(ng.frame > frame)
 		return(null);
-	    synchronized(ng) {
-		/* XXX: Clean up removed objects */
-		ng.nremoved = true;
-		ng.checkdirty(true);
-	    }
-	    return(ng);
+	    /* XXX: Clean up removed objects */
+	    ng.nremoved = true;
+	    ng.checkdirty(true);
 	}
+	return(ng);
     }
 
     private GobInfo netget(long id, int frame) {
@@ -497,22 +524,22 @@ public class OCache implements Iterable<Gob> {
 	}
     }
 
+    /* Only ever called from the connection thread, which is what
+     * orders the net* lookups against each other. */
     public GobInfo receive(ObjDelta delta) {
 	if(delta.rem)
 	    return(netremove(delta.id, delta.frame - 1));
-	synchronized(netinfo) {
-	    if(delta.initframe > 0)
-		netremove(delta.id, delta.initframe - 1);
-	    GobInfo ng = netget(delta.id, delta.frame);
-	    if(ng != null) {
-		synchronized(ng) {
-		    ng.frame = delta.frame;
-		    ng.virtual = ((delta.fl & 2) != 0);
-		    ng.pending.addAll(delta.attrs);
-		    ng.checkdirty(false);
-		}
+	if(delta.initframe > 0)
+	    netremove(delta.id, delta.initframe - 1);
+	GobInfo ng = netget(delta.id, delta.frame);
+	if(ng != null) {
+	    synchronized(ng) {
+		ng.frame = delta.frame;
+		ng.virtual = ((delta.fl & 2) != 0);
+		ng.pending.addAll(delta.attrs);
+		ng.checkdirty(false);
 	    }
-	    return(ng);
 	}
+	return(ng);
     }
 }
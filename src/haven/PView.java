@@ -317,6 +317,10 @@ public abstract class PView extends Widget {
 	ticklist.gtick(out);
     }
 
+    public boolean animated() {
+	return(true);
+    }
+
     public void draw(GOut g) {
 	if((back == null) || !g.out.env().compatible(back)) {
 	    if(env != null) {
@@ -0,0 +1,613 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.nio.channels.*;
+import java.net.*;
+import static haven.Utils.pj;
+
+/* A resource cache kept in a few large pack files plus one index,
+ * instead of one file per cached name. The index is an append-only
+ * log of puts and deletions, read in one go at startup, and
+ * rewritten in LRU order whenever it has accumulated
+ * more dead records than live ones. Entries beyond the size cap are
+ * evicted least recently used first, and packs that have become
+ * mostly garbage are compacted in the background by moving their
+ * live entries to the current pack. The index is rewritten before
+ * compacted packs are deleted, so that it never refers to a pack
+ * file that does not exist.
+ *
+ * Only names under the EVICTABLE prefixes are ever evicted, since
+ * the same store also holds things that cannot be downloaded again,
+ * such as the map file and icon settings. Those are kept regardless
+ * of the cap, and only count towards it.
+ *
+ * Names missing from the packs are looked up in the HashDirCache
+ * for the same ID and imported, so that an existing cache is
+ * migrated as it is used. Since the packs can only have one writer,
+ * the cache directory is locked for the lifetime of the process, and
+ * creation fails if another client already holds it. */
+public class PackCache implements ResCache {
+    public static final Config.Variable<Boolean> enabled = Config.Variable.propb("haven.packcache", false);
+    public static final Config.Variable<Integer> maxsize = Config.Variable.propi("haven.packcache.max", 1024);
+    private static final int PACKSZ = 64 << 20;
+    private static final byte OP_PUT = 1, OP_DEL = 2;
+    private static final String MAGIC = "Haven pack cache 1";
+    private static final String[] EVICTABLE = {"res/"};
+    public final URI id;
+    private final Path dir;
+    private final ResCache legacy;
+    private final long max;
+    private final FileChannel lockf;
+    private final Map<Integer, Pack> packs = new HashMap<>();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /* The evictable subset of the names in entries, in LRU order. */
+    private final LinkedHashMap<String, Boolean> lru = new LinkedHashMap<>(16, 0.75f, true);
+    private FileChannel index;
+    private Pack cur;
+    private int nextseq;
+    private long live;
+    private int idxdead;
+    private boolean compacting;
+
+    private class Pack {
+	final int seq;
+	final Path path;
+	final FileChannel ch;
+	long size, used;
+	int refs;
+	boolean retired;
+
+	Pack(int seq, boolean create) throws IOException {
+	    this.seq = seq;
+	    this.path = pj(dir, String.format("pack-%d", seq));
+	    if(create)
+		this.ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+	    else
+		this.ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	    this.size = ch.size();
+	}
+
+	/* Called with the cache locked. */
+	void release() {
+	    if((--refs == 0) && retired)
+		destroy();
+	}
+
+	void destroy() {
+	    try {
+		ch.close();
+		Files.deleteIfExists(path);
+	    } catch(IOException e) {
+		new Warning(e, "could not remove " + path).issue();
+	    }
+	}
+    }
+
+    private static class Entry {
+	final Pack pack;
+	final long off;
+	final int len;
+	boolean dead;
+
+	Entry(Pack pack, long off, int len) {
+	    this.pack = pack;
+	    this.off = off;
+	    this.len = len;
+	}
+    }
+
+    private PackCache(URI id, ResCache legacy, Path dir, long max) throws IOException {
+	this.id = id;
+	this.legacy = legacy;
+	this.dir = dir;
+	this.max = max;
+	Files.createDirectories(dir);
+	lockf = FileChannel.open(pj(dir, "lock"), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+	try {
+	    try {
+		if(lockf.tryLock() == null)
+		    throw(new IOException("pack cache in use by another process: " + dir));
+	    } catch(OverlappingFileLockException e) {
+		throw(new IOException("pack cache already open: " + dir));
+	    }
+	    load();
+	} catch(IOException | RuntimeException e) {
+	    lockf.close();
+	    throw(e);
+	}
+    }
+
+    private Pack getpack(int seq) throws IOException {
+	Pack ret = packs.get(seq);
+	if(ret == null)
+	    packs.put(seq, ret = new Pack(seq, true));
+	return(ret);
+    }
+
+    /* Like getpack, but never creates a pack, returning null for one
+     * whose file is missing. */
+    private Pack oldpack(int seq) throws IOException {
+	Pack ret = packs.get(seq);
+	if(ret == null) {
+	    try {
+		ret = new Pack(seq, false);
+	    } catch(NoSuchFileException e) {
+		return(null);
+	    }
+	    packs.put(seq, ret);
+	}
+	return(ret);
+    }
+
+    private static String getstr(ByteBuffer buf) {
+	byte[] b = new byte[buf.getShort() & 0xffff];
+	buf.get(b);
+	return(new String(b, Utils.utf8));
+    }
+
+    private void load() throws IOException {
+	Path ipath = pj(dir, "index");
+	index = FileChannel.open(ipath, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+	long good = 0;
+	boolean skipped = false;
+	if(index.size() > 0) {
+	    /* Read rather than mapped, since Windows will not let
+	     * the file be replaced while a mapping of it is alive. */
+	    ByteBuffer buf = ByteBuffer.allocate((int)index.size());
+	    readfully(buf, index);
+	    buf.flip();
+	    buf.order(ByteOrder.LITTLE_ENDIAN);
+	    try {
+		if(getstr(buf).equals(MAGIC) && getstr(buf).equals(id.toString())) {
+		    good = buf.position();
+		    while(buf.hasRemaining()) {
+			byte op = buf.get();
+			String name = getstr(buf);
+			if(op == OP_PUT) {
+			    int seq = buf.getInt();
+			    long off = buf.getLong();
+			    int len = buf.getInt();
+			    nextseq = Math.max(nextseq, seq + 1);
+			    Pack p = oldpack(seq);
+			    if((p == null) || (off + len > p.size)) {
+				/* The data is gone, so whatever the name
+				 * referred to before is stale as well. */
+				drop(entries.remove(name));
+				lru.remove(name);
+				skipped = true;
+			    } else {
+				Entry e = new Entry(p, off, len);
+				p.used += len;
+				live += len;
+				drop(entries.put(name, e));
+				if(evictable(name))
+				    lru.put(name, true);
+			    }
+			} else if(op == OP_DEL) {
+			    drop(entries.remove(name));
+			    lru.remove(name);
+			} else {
+			    break;
+			}
+			good = buf.position();
+		    }
+		}
+	    } catch(BufferUnderflowException e) {
+		/* A partially written record at the end, most likely
+		 * from being killed in the middle of a store. */
+	    }
+	}
+	try(DirectoryStream<Path> ls = Files.newDirectoryStream(dir, "pack-*")) {
+	    for(Path p : ls) {
+		int seq;
+		try {
+		    seq = Integer.parseInt(p.getFileName().toString().substring(5));
+		} catch(NumberFormatException e) {
+		    continue;
+		}
+		if(!packs.containsKey(seq))
+		    Files.deleteIfExists(p);
+		nextseq = Math.max(nextseq, seq + 1);
+	    }
+	}
+	if((good == 0) || skipped) {
+	    /* Also done after skipping records, since a pack created
+	     * later under the same number would make them valid
+	     * again with someone else's data. */
+	    rewriteindex();
+	} else {
+	    index.truncate(good);
+	    index.position(good);
+	    if(idxdead > entries.size())
+		rewriteindex();
+	}
+	for(Pack p : packs.values()) {
+	    if((p.size < PACKSZ) && ((cur == null) || (p.seq > cur.seq)))
+		cur = p;
+	}
+    }
+
+    private static boolean evictable(String name) {
+	for(String pfx : EVICTABLE) {
+	    if(name.startsWith(pfx))
+		return(true);
+	}
+	return(false);
+    }
+
+    private void drop(Entry e) {
+	if(e == null)
+	    return;
+	e.dead = true;
+	e.pack.used -= e.len;
+	live -= e.len;
+	idxdead++;
+    }
+
+    private static void putstr(ByteBuffer buf, String str) {
+	byte[] b = str.getBytes(Utils.utf8);
+	buf.putShort((short)b.length);
+	buf.put(b);
+    }
+
+    private static void writefully(FileChannel ch, ByteBuffer buf, long off) throws IOException {
+	while(buf.hasRemaining())
+	    off += ch.write(buf, off);
+    }
+
+    private static void readfully(ByteBuffer buf, FileChannel ch) throws IOException {
+	long off = 0;
+	while(buf.hasRemaining()) {
+	    int r = ch.read(buf, off);
+	    if(r < 0)
+		throw(new EOFException());
+	    off += r;
+	}
+    }
+
+    private static void writefully(FileChannel ch, ByteBuffer buf) throws IOException {
+	while(buf.hasRemaining())
+	    ch.write(buf);
+    }
+
+    private static ByteBuffer record(byte op, String name, Entry e) {
+	ByteBuffer buf = ByteBuffer.allocate(1 + 2 + (name.length() * 3) + 16);
+	buf.order(ByteOrder.LITTLE_ENDIAN);
+	buf.put(op);
+	putstr(buf, name);
+	if(e != null)
+	    buf.putInt(e.pack.seq).putLong(e.off).putInt(e.len);
+	buf.flip();
+	return(buf);
+    }
+
+    private void logput(String name, Entry e) throws IOException {
+	writefully(index, record(OP_PUT, name, e));
+    }
+
+    private void logdel(String name) throws IOException {
+	writefully(index, record(OP_DEL, name, null));
+    }
+
+    private void rewriteindex() throws IOException {
+	Path ipath = pj(dir, "index"), tmp = pj(dir, "index.new");
+	try(FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+	    ByteBuffer head = ByteBuffer.allocate(4 + ((MAGIC.length() + id.toString().length()) * 3));
+	    head.order(ByteOrder.LITTLE_ENDIAN);
+	    putstr(head, MAGIC);
+	    putstr(head, id.toString());
+	    head.flip();
+	    writefully(out, head);
+	    for(Map.Entry<String, Entry> ent : entries.entrySet())
+		writefully(out, record(OP_PUT, ent.getKey(), ent.getValue()));
+	}
+	/* Some platforms cannot replace a file that is held open. If
+	 * the move fails, the old index is still in place and is
+	 * reopened so that later writes keep being logged to it. */
+	boolean moved = false;
+	index.close();
+	try {
+	    try {
+		Files.move(tmp, ipath, StandardCopyOption.ATOMIC_MOVE);
+	    } catch(AtomicMoveNotSupportedException e) {
+		Files.move(tmp, ipath, StandardCopyOption.REPLACE_EXISTING);
+	    }
+	    moved = true;
+	} finally {
+	    index = FileChannel.open(ipath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	    index.position(index.size());
+	}
+	if(moved)
+	    idxdead = 0;
+    }
+
+    /* Called with the cache locked. */
+    private Entry append(byte[] data, int off, int len) throws IOException {
+	if((cur == null) || ((cur.size > 0) && (cur.size + len > PACKSZ)))
+	    cur = getpack(nextseq++);
+	Entry e = new Entry(cur, cur.size, len);
+	writefully(cur.ch, ByteBuffer.wrap(data, off, len), cur.size);
+	cur.size += len;
+	cur.used += len;
+	live += len;
+	return(e);
+    }
+
+    private void put(String name, byte[] data, int len) throws IOException {
+	synchronized(this) {
+	    Entry e = append(data, 0, len);
+	    logput(name, e);
+	    drop(entries.put(name, e));
+	    if(evictable(name))
+		lru.put(name, true);
+	    evict();
+	}
+	checkcompact();
+    }
+
+    /* Called with the cache locked. */
+    private void evict() throws IOException {
+	for(Iterator<String> i = lru.keySet().iterator(); (live > max) && i.hasNext();) {
+	    String name = i.next();
+	    i.remove();
+	    logdel(name);
+	    drop(entries.remove(name));
+	}
+    }
+
+    private void checkcompact() {
+	synchronized(this) {
+	    if(compacting || (victim() == null))
+		return;
+	    compacting = true;
+	}
+	Thread th = new HackThread(this::compact, "Pack cache compactor");
+	th.setDaemon(true);
+	th.start();
+    }
+
+    /* Called with the cache locked. */
+    private Pack victim() {
+	Pack ret = null;
+	for(Pack p : packs.values()) {
+	    if((p != cur) && (p.used < p.size / 2) && ((ret == null) || (p.used < ret.used)))
+		ret = p;
+	}
+	return(ret);
+    }
+
+    private void compact() {
+	List<Pack> done = new ArrayList<>();
+	try {
+	    while(true) {
+		Pack victim;
+		List<Map.Entry<String, Entry>> moving = new ArrayList<>();
+		List<Entry> old = new ArrayList<>();
+		synchronized(this) {
+		    if((victim = victim()) == null) {
+			/* Nothing is appended to a pack other than
+			 * the current one, so no live entry refers to
+			 * the emptied packs anymore. Drop their records
+			 * from the index before the files go away. */
+			if(!done.isEmpty() || (idxdead > entries.size()))
+			    rewriteindex();
+			for(Pack p : done) {
+			    p.retired = true;
+			    if(p.refs == 0)
+				p.destroy();
+			}
+			break;
+		    }
+		    for(Map.Entry<String, Entry> ent : entries.entrySet()) {
+			if(ent.getValue().pack == victim) {
+			    moving.add(ent);
+			    old.add(ent.getValue());
+			}
+		    }
+		    victim.refs++;
+		}
+		try {
+		    /* Entries are read without the lock held, so that
+		     * fetches are only held up for the writes. An
+		     * entry replaced or evicted in the meantime is
+		     * marked dead and simply left behind. The map
+		     * entry itself may by then hold a replacement, so
+		     * the old entry is the one remembered above. */
+		    for(int i = 0; i < moving.size(); i++) {
+			Map.Entry<String, Entry> ent = moving.get(i);
+			Entry e = old.get(i);
+			byte[] data = new byte[e.len];
+			int n = 0;
+			while(n < e.len) {
+			    int r = victim.ch.read(ByteBuffer.wrap(data, n, e.len - n), e.off + n);
+			    if(r < 0)
+				throw(new EOFException());
+			    n += r;
+			}
+			synchronized(this) {
+			    if(e.dead)
+				continue;
+			    Entry ne = append(data, 0, e.len);
+			    logput(ent.getKey(), ne);
+			    ent.setValue(ne);
+			    drop(e);
+			}
+		    }
+		    synchronized(this) {
+			/* Kept until the index has been rewritten at
+			 * the end. Until then, the records moving its
+			 * entries override the old ones on replay. */
+			packs.remove(victim.seq);
+			done.add(victim);
+		    }
+		} finally {
+		    synchronized(this) {
+			victim.release();
+		    }
+		}
+	    }
+	} catch(IOException e) {
+	    new Warning(e, "pack cache compaction failed").issue();
+	    synchronized(this) {
+		/* The index may still name the emptied packs, so
+		 * keep them around. Holding only dead entries, they
+		 * are the first victims of the next compaction. */
+		for(Pack p : done) {
+		    if(!p.retired)
+			packs.put(p.seq, p);
+		}
+	    }
+	} finally {
+	    synchronized(this) {
+		compacting = false;
+	    }
+	}
+    }
+
+    private class EntryStream extends InputStream {
+	private final Entry e;
+	private long pos = 0;
+	private boolean closed = false;
+
+	EntryStream(Entry e) {
+	    this.e = e;
+	}
+
+	public int read() throws IOException {
+	    byte[] b = new byte[1];
+	    return((read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff));
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+	    if(closed)
+		throw(new IOException("stream closed"));
+	    if(len == 0)
+		return(0);
+	    len = (int)Math.min(len, e.len - pos);
+	    if(len <= 0)
+		return(-1);
+	    int r = e.pack.ch.read(ByteBuffer.wrap(b, off, len), e.off + pos);
+	    if(r < 0)
+		throw(new EOFException());
+	    pos += r;
+	    return(r);
+	}
+
+	public int available() {
+	    return((int)(e.len - pos));
+	}
+
+	public void close() {
+	    synchronized(PackCache.this) {
+		if(!closed) {
+		    closed = true;
+		    e.pack.release();
+		}
+	    }
+	}
+    }
+
+    public InputStream fetch(String name) throws IOException {
+	Entry e;
+	synchronized(this) {
+	    if((e = entries.get(name)) != null) {
+		e.pack.refs++;
+		lru.get(name);
+	    }
+	}
+	if(e != null)
+	    return(new EntryStream(e));
+	if(legacy != null) {
+	    byte[] data;
+	    try(InputStream in = legacy.fetch(name)) {
+		data = Utils.readall(in);
+	    }
+	    put(name, data, data.length);
+	    return(new ByteArrayInputStream(data));
+	}
+	throw(new FileNotFoundException(name));
+    }
+
+    public OutputStream store(String name) {
+	return(new ByteArrayOutputStream() {
+		private boolean closed = false;
+
+		public void close() throws IOException {
+		    if(!closed) {
+			closed = true;
+			put(name, buf, count);
+		    }
+		}
+	    });
+    }
+
+    public void remove(String name) throws IOException {
+	synchronized(this) {
+	    Entry e = entries.remove(name);
+	    if(e == null)
+		throw(new FileNotFoundException(name));
+	    lru.remove(name);
+	    logdel(name);
+	    drop(e);
+	}
+	checkcompact();
+    }
+
+    public String stats() {
+	synchronized(this) {
+	    long size = 0;
+	    for(Pack p : packs.values())
+		size += p.size;
+	    return(String.format("%d entries, %,d/%,d bytes live in %d packs", entries.size(), live, size, packs.size()));
+	}
+    }
+
+    public String toString() {
+	return("PackCache(" + id + ")");
+    }
+
+    public static PackCache create() {
+	HashDirCache legacy = HashDirCache.create();
+	if(legacy == null)
+	    return(null);
+	long h = 0;
+	for(char c : legacy.id.toString().toCharArray())
+	    h = (h * 31) + c;
+	try {
+	    return(new PackCache(legacy.id, legacy, pj(HashDirCache.findbase(), "packs", String.format("%016x", h)), maxsize.get() * (1L << 20)));
+	} catch(IOException e) {
+	    new Warning(e, "could not open pack cache, using the per-file cache").issue();
+	    return(null);
+	}
+    }
+}
@@ -37,6 +37,11 @@ public interface ResCache {
     
     public static class StupidJavaCodeContainer {
 	private static ResCache makeglobal() {
+	    if(PackCache.enabled.get()) {
+		ResCache ret = PackCache.create();
+		if(ret != null)
+		    return(ret);
+	    }
 	    return(HashDirCache.create());
 	}
     }
@@ -44,6 +44,7 @@ import java.awt.image.BufferedImage;
 public class Resource implements Serializable {
     public static final Config.Variable<URI> resurl = Config.Variable.propu("haven.resurl", "");
     public static final Config.Variable<Path> resdir = Config.Variable.propp("haven.resdir", System.getenv("HAFEN_RESDIR"));
+    public static final Config.Variable<Integer> resloaders = Config.Variable.propi("haven.resloaders", 4);
     private static ResCache prscache;
     public static ThreadGroup loadergroup = null;
     private static Map<String, LayerFactory<?>> ltypes = new TreeMap<String, LayerFactory<?>>();
@@ -98,6 +99,8 @@ public class Resource implements Serializable {
 	public Spec(Pool pool, String name, int ver) {
 	    super(name, ver);
 	    this.pool = pool;
+	    if(pool != null)
+		pool.prefetch(name, ver);
 	}
 
 	public Spec(Pool pool, String name) {
@@ -475,6 +478,9 @@ public class Resource implements Serializable {
 	private final PrioQueue<Queued> queue = new PrioQueue<Queued>();
 	private final Map<String, Queued> queued = new HashMap<String, Queued>();
 	private final Pool parent;
+	/* The resource being decoded by the current loader thread, if
+	 * any. Loads started from its layers are its dependencies. */
+	private static final ThreadLocal<Queued> decoding = new ThreadLocal<>();
 
 	public Pool(Pool parent, ResSource... sources) {
 	    this.parent = parent;
@@ -567,6 +573,16 @@ public class Resource implements Serializable {
 	}
 
 	private void handle(Queued res) {
+	    decoding.set(res);
+	    try {
+		fetch(res);
+	    } finally {
+		decoding.remove();
+	    }
+	    res.done();
+	}
+
+	private void fetch(Queued res) {
 	    for(ResSource src : sources) {
 		try(InputStream in = src.get(res.name)) {
 		    res.found = true;
@@ -592,11 +608,38 @@ public class Resource implements Serializable {
 		    res.error = error;
 		}
 	    }
-	    res.done();
+	}
+
+	/* Dependencies are requested at no lower a priority than the
+	 * resource that asked for them, so that whatever is waiting
+	 * for it does not then wait behind background loads. */
+	private static int depprio(int prio) {
+	    Queued from = decoding.get();
+	    if((from != null) && (from.prio > prio))
+		return(from.prio);
+	    return(prio);
+	}
+
+	/* Queues a resource that the resource being decoded only refers
+	 * to by name, such as by a Spec, so that it is fetched in the
+	 * background rather than when it is first used. Elsewhere, it
+	 * does nothing. */
+	public void prefetch(String name, int ver) {
+	    Queued from = decoding.get();
+	    if(from == null)
+		return;
+	    decoding.remove();
+	    try {
+		load(name, ver, from.prio - 1);
+	    } catch(RuntimeException e) {
+	    } finally {
+		decoding.set(from);
+	    }
 	}
 
 	public Named load(String name, int ver, int prio) {
 	    Queued ret;
+	    prio = depprio(prio);
 	    synchronized(cache) {
 		Resource cur = cache.get(name);
 		if(cur != null) {
@@ -828,6 +871,7 @@ public class Resource implements Serializable {
 	    synchronized(Resource.class) {
 		if(_remote == null) {
 		    Pool remote = new Pool(local(), new JarSource("res-preload"));
+		    remote.nloaders = resloaders.get();
 		    if(prscache != null)
 			remote.add(new CacheSource(prscache));
 		    _remote = remote;;
@@ -109,6 +109,7 @@ public class Session implements Resource.Resolver {
 	private int resver;
 	private Reference<Ref> ind;
 	private int prio = -6;
+	private boolean used = false;
 
 	private CachedRes(int id) {
 	    resid = id;
@@ -124,6 +125,7 @@ public class Session implements Resource.Resolver {
 			    if(resnm == null)
 				throw(new LoadingIndir(CachedRes.this));
 			    res = Resource.remote().load(resnm, resver, prio).get();
+			    used = true;
 			}
 		    }
 		}
@@ -252,6 +254,7 @@ public class Session implements Resource.Resolver {
 		    closed = true;
 		    uimsgs.notifyAll();
 		}
+		savewarm();
 	    }
 
 	    public void handle(PMessage msg) {
@@ -271,10 +274,48 @@ public class Session implements Resource.Resolver {
 	this.conn = new Connection(server, username);
 	this.username = username;
 	this.glob = new Glob(this);
+	loadwarm();
 	conn.add(conncb);
 	conn.connect(cookie, args);
     }
 
+    /* The resources used during the last session of a user are
+     * queued as soon as the next one starts, rather than one by one
+     * as the server first refers to them. */
+    private String warmname() {
+	return("tmp/warm/" + username);
+    }
+
+    private void loadwarm() {
+	if((ResCache.global == null) || (username == null))
+	    return;
+	try(InputStream fp = ResCache.global.fetch(warmname())) {
+	    Resource.loadlist(Resource.remote(), fp, -4);
+	} catch(IOException e) {
+	}
+    }
+
+    private void savewarm() {
+	if((ResCache.global == null) || (username == null))
+	    return;
+	Collection<String> used = new ArrayList<>();
+	synchronized(rescache) {
+	    for(CachedRes res : rescache.values()) {
+		synchronized(res) {
+		    if(res.used)
+			used.add(res.resnm + ":" + res.resver);
+		}
+	    }
+	}
+	if(used.isEmpty())
+	    return;
+	try(Writer w = new OutputStreamWriter(ResCache.global.store(warmname()), "UTF-8")) {
+	    for(String ln : used)
+		w.write(ln + "\n");
+	} catch(IOException e) {
+	}
+    }
+
     public void close() {
 	conn.close();
     }
@@ -111,6 +111,11 @@ public class TextEntry extends Widget implements ReadLine.Owner {
 	    tcache.tex().dispose();
 	    tcache = null;
 	}
+	dirty();
+    }
+
+    public boolean animated() {
+	return(hasfocus);
     }
 
     public void draw(GOut g) {
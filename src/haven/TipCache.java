@@ -0,0 +1,208 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.util.*;
+import java.awt.image.BufferedImage;
+
+/* Renders tooltip images on the Defer pool instead of the UI thread.
+ * A tip shows a placeholder until its image is ready. Tips can be
+ * shared through a content key, so that items whose raw info data
+ * are identical (same resource, quality and so on) render their
+ * tooltip once; concurrent requests for a key that is still being
+ * rendered get the same pending tip. Tips dropped from the cache
+ * have their textures disposed; a widget still showing one simply
+ * has it uploaded again on its next draw. */
+public class TipCache {
+    public static final TipCache global = new TipCache(256, 30.0);
+    private static Tex placeholder = null;
+    public final int max;
+    public final double ttl;
+    private final Map<Object, Tip> cache;
+
+    public TipCache(int max, double ttl) {
+	this.max = max;
+	this.ttl = ttl;
+	this.cache = new LinkedHashMap<Object, Tip>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<Object, Tip> eldest) {
+		    if(size() > TipCache.this.max) {
+			eldest.getValue().dispose();
+			return(true);
+		    }
+		    return(false);
+		}
+	    };
+    }
+
+    public static Tex placeholder() {
+	synchronized(TipCache.class) {
+	    if(placeholder == null)
+		placeholder = new TexI(Text.render("...").img);
+	    return(placeholder);
+	}
+    }
+
+    /* The UI state that tip renderers consult, captured on the UI
+     * thread when a tip is requested, since the rendering itself
+     * runs on a Defer worker and must not read widgets. */
+    public static class State {
+	private static final ThreadLocal<State> current = new ThreadLocal<>();
+	public final boolean modshift;
+	public final List<ItemInfo> lastinfo;
+	public final double[] cons;
+	public final String study;
+
+	public State(UI ui, List<ItemInfo> info) {
+	    this.modshift = ui.modshift;
+	    this.lastinfo = (ui.lasttip instanceof ItemInfo.InfoTip) ? ((ItemInfo.InfoTip)ui.lasttip).info() : null;
+	    double[] cons = null;
+	    if((ui.gui != null) && (ui.gui.chrwdg != null)) {
+		List<CharWnd.Constipations.El> els = ui.gui.chrwdg.cons.els;
+		cons = new double[els.size()];
+		int i = 0;
+		for(CharWnd.Constipations.El el : els)
+		    cons[i++] = el.a;
+	    }
+	    this.cons = cons;
+	    String study = null;
+	    if(info != null) {
+		haven.resutil.Curiosity ci = ItemInfo.find(haven.resutil.Curiosity.class, info);
+		if(ci != null)
+		    study = ci.remainingTip().b;
+	    }
+	    this.study = study;
+	}
+
+	/* The state a tip is being rendered with, or null when not
+	 * called from a tip render. */
+	public static State current() {
+	    return(current.get());
+	}
+
+	/* The render state if rendering a tip, otherwise a fresh
+	 * capture, which is then only valid on the UI thread. */
+	public static State get(UI ui) {
+	    State ret = current.get();
+	    if((ret == null) && (ui != null))
+		ret = new State(ui, null);
+	    return(ret);
+	}
+    }
+
+    public static class Tip implements Indir<Tex> {
+	public final double ctime = Utils.rtime();
+	private final Defer.Future<BufferedImage> img;
+	private Tex tex = null;
+	private boolean done = false;
+
+	public Tip(State state, Defer.Callable<BufferedImage> render) {
+	    this.img = Defer.later(() -> {
+		    State prev = State.current.get();
+		    State.current.set(state);
+		    try {
+			return(render.call());
+		    } finally {
+			State.current.set(prev);
+		    }
+		});
+	}
+
+	public boolean ready() {
+	    return(done || img.done());
+	}
+
+	public Tex get() {
+	    synchronized(this) {
+		if(!done) {
+		    if(!img.done(10))
+			return(placeholder());
+		    try {
+			BufferedImage img = this.img.get();
+			tex = (img == null) ? null : new TexI(img);
+		    } catch(Defer.DeferredException e) {
+			new Warning(e.getCause(), "could not render tooltip").issue();
+		    }
+		    done = true;
+		}
+		return(tex);
+	    }
+	}
+
+	public void dispose() {
+	    synchronized(this) {
+		if(tex != null)
+		    tex.dispose();
+	    }
+	}
+    }
+
+    /* Key whose identity is the deep content of its parts, which is
+     * suitable for ItemInfo.Raw data. */
+    public static class Key {
+	private final Object[] parts;
+	private final int hash;
+
+	public Key(Object... parts) {
+	    this.parts = parts;
+	    this.hash = Arrays.deepHashCode(parts);
+	}
+
+	public int hashCode() {
+	    return(hash);
+	}
+
+	public boolean equals(Object o) {
+	    return((o instanceof Key) && (((Key)o).hash == hash) && Arrays.deepEquals(((Key)o).parts, parts));
+	}
+    }
+
+    /* Returns the tip for the given key, starting to render it with
+     * the given state if there is none or the cached one has
+     * expired. A null key gives an unshared tip. */
+    public Tip get(Object key, State state, Defer.Callable<BufferedImage> render) {
+	if(key == null)
+	    return(new Tip(state, render));
+	synchronized(cache) {
+	    Tip ret = cache.get(key);
+	    if((ret == null) || ((Utils.rtime() - ret.ctime > ttl) && ret.ready())) {
+		if(ret != null)
+		    ret.dispose();
+		cache.put(key, ret = new Tip(state, render));
+	    }
+	    return(ret);
+	}
+    }
+
+    public void clear() {
+	synchronized(cache) {
+	    for(Tip tip : cache.values())
+		tip.dispose();
+	    cache.clear();
+	}
+    }
+}
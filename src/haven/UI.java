@@ -51,6 +51,7 @@ public class UI {
     public Object lasttip;
     public double lastevent, lasttick;
     public Widget mouseon;
+    boolean retaining, retainskip;
     public Console cons = new WidgetConsole();
     private Collection<AfterDraw> afterdraws = new LinkedList<AfterDraw>();
 	public WeakReference<FightWnd> fightwnd;
@@ -231,6 +232,8 @@ public class UI {
     }
 
     public void draw(GOut g) {
+	if(UICache.on)
+	    UICache.frame();
 	root.draw(g);
 	synchronized(afterdraws) {
 	    for(AfterDraw ad : afterdraws)
@@ -383,6 +386,49 @@ public class UI {
 	}
     }
 
+    public boolean grabbed(Widget wdg) {
+	for(Grab g : mousegrab) {
+	    if(g.wdg.hasparent(wdg))
+		return(true);
+	}
+	return(false);
+    }
+
+    /* Input can change the look of any widget that receives it, so
+     * retained subtrees that might be involved are invalidated
+     * before dispatching. */
+    private void touch(Widget w, Coord c) {
+	for(Widget wdg = w.child; wdg != null; wdg = wdg.next) {
+	    if(!wdg.visible)
+		continue;
+	    Coord cc = w.xlate(wdg.c, true);
+	    if(c.isect(cc, wdg.sz)) {
+		if(wdg.rcache != null)
+		    wdg.rcache.dirty = true;
+		touch(wdg, c.sub(cc));
+	    }
+	}
+    }
+
+    private void mousetouch(Coord c) {
+	if(!UICache.on)
+	    return;
+	touch(root, c);
+	for(Grab g : mousegrab)
+	    g.wdg.dirty();
+    }
+
+    private void keytouch() {
+	if(!UICache.on)
+	    return;
+	Widget f = root;
+	while(f.focused != null)
+	    f = f.focused;
+	f.dirty();
+	for(Grab g : keygrab)
+	    g.wdg.dirty();
+    }
+
     public void destroy(Widget wdg) {
 	removeid(wdg);
 	wdg.reqdestroy();
@@ -414,6 +460,7 @@ public class UI {
 	if(wdg != null) {
 	    synchronized(this) {
 		wdg.uimsg(msg.intern(), args);
+		wdg.dirty();
 	    }
 	} else {
 	    throw(new UIException("Uimsg to non-existent widget " + id, msg, args));
@@ -462,6 +509,7 @@ public class UI {
 
     public void keydown(KeyEvent ev) {
 	setmods(ev);
+	keytouch();
 		if (ev.getKeyCode() == KeyEvent.VK_ESCAPE && gui != null) {
 			if (gui.autoFlowerRepeaterScriptThread != null) {
 				gui.autoFlowerRepeaterScriptThread.interrupt();
@@ -483,6 +531,7 @@ public class UI {
 	
     public void keyup(KeyEvent ev) {
 	setmods(ev);
+	keytouch();
 	for(Grab g : c(keygrab)) {
 	    if(g.wdg.keyup(ev))
 		return;
@@ -511,6 +560,7 @@ public class UI {
 
     public void mousedown(MouseEvent ev, Coord c, int button) {
 	setmods(ev);
+	mousetouch(c);
 	lcc = mc = c;
 	for(Grab g : c(mousegrab)) {
 	    if(g.wdg.mousedown(wdgxlate(c, g.wdg), button))
@@ -521,6 +571,7 @@ public class UI {
 	
     public void mouseup(MouseEvent ev, Coord c, int button) {
 	setmods(ev);
+	mousetouch(c);
 	mc = c;
 	for(Grab g : c(mousegrab)) {
 	    if(g.wdg.mouseup(wdgxlate(c, g.wdg), button))
@@ -531,6 +582,8 @@ public class UI {
 	
     public void mousemove(MouseEvent ev, Coord c) {
 	setmods(ev);
+	mousetouch(mc);
+	mousetouch(c);
 	mc = c;
 	root.mousemove(c);
     }
@@ -545,6 +598,7 @@ public class UI {
 	
     public void mousewheel(MouseEvent ev, Coord c, int amount) {
 	setmods(ev);
+	mousetouch(c);
 	lcc = mc = c;
 	for(Grab g : c(mousegrab)) {
 	    if(g.wdg.mousewheel(wdgxlate(c, g.wdg), amount))
@@ -0,0 +1,188 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.awt.Color;
+import haven.render.*;
+import haven.render.Texture2D.Sampler2D;
+
+/* Retained rendering of widget subtrees. A widget that reports
+ * itself as retained is drawn into an offscreen texture of its own
+ * size, which is then composited into its parent on every frame
+ * until something marks it dirty through Widget.dirty(). Children
+ * that report themselves as animated are left out of the cached
+ * image and drawn live on top of it instead. Since not every widget
+ * calls dirty() when its appearance changes, caches are also
+ * refreshed once they are older than maxage. */
+public class UICache implements Disposable {
+    public static final Config.Variable<Boolean> enabled = Config.Variable.propb("haven.uicache", false);
+    public static final Config.Variable<Double> maxage = Config.Variable.propf("haven.uicache.maxage", 1.0);
+    public static boolean on = enabled.get(), debug = false;
+    private static final VectorFormat fmt = new VectorFormat(4, NumberFormat.UNORM8);
+    /* Contents are accumulated with premultiplied alpha, since the
+     * buffer starts out transparent rather than on top of whatever
+     * the widget would normally be drawn over. */
+    private static final Pipe.Op rblend = FragColor.blend(new BlendMode(BlendMode.Function.ADD, BlendMode.Factor.SRC_ALPHA, BlendMode.Factor.INV_SRC_ALPHA,
+									 BlendMode.Function.ADD, BlendMode.Factor.ONE, BlendMode.Factor.INV_SRC_ALPHA));
+    private static final Pipe.Op cblend = FragColor.blend(new BlendMode(BlendMode.Factor.ONE, BlendMode.Factor.INV_SRC_ALPHA));
+    private static final Color dbgredrawn = new Color(255, 0, 0), dbgcached = new Color(0, 255, 0, 128), dbglive = new Color(255, 255, 0);
+    private static int ncached, nredrawn, lcached, lredrawn;
+    private static long vmem;
+    public final Widget wdg;
+    private Texture2D tex;
+    private Sampler2D smp;
+    private TexRaw img;
+    private double rtime;
+    private boolean live;
+    boolean dirty = true;
+
+    private UICache(Widget wdg) {
+	this.wdg = wdg;
+    }
+
+    private boolean stale(double now) {
+	if(dirty || (tex == null) || !tex.sz().equals(wdg.sz))
+	    return(true);
+	if(now - rtime > maxage.get())
+	    return(true);
+	return(wdg.ui.grabbed(wdg));
+    }
+
+    private void render(GOut g, double now) {
+	if((tex == null) || !tex.sz().equals(wdg.sz)) {
+	    dispose();
+	    tex = new Texture2D(wdg.sz, DataBuffer.Usage.STATIC, fmt, null);
+	    smp = tex.sampler();
+	    smp.minfilter(Texture.Filter.NEAREST).magfilter(Texture.Filter.NEAREST);
+	    smp.swrap(Texture.Wrapping.CLAMP).twrap(Texture.Wrapping.CLAMP);
+	    img = new TexRaw(smp, true);
+	    synchronized(UICache.class) {
+		vmem += (long)wdg.sz.x * wdg.sz.y * 4;
+	    }
+	}
+	Pipe st = new BufPipe();
+	Area area = Area.sized(Coord.z, wdg.sz);
+	st.prep(new FrameInfo()).prep(new States.Viewport(area)).prep(new Ortho2D(area));
+	st.prep(new FragColor<>(tex.image(0))).prep(rblend);
+	g.out.clear(st, FragColor.fragcol, FColor.BLACK_T);
+	UI ui = wdg.ui;
+	boolean pskip = ui.retainskip;
+	ui.retaining = true;
+	ui.retainskip = false;
+	try {
+	    wdg.draw(new GOut(g.out, st, wdg.sz));
+	    live = ui.retainskip;
+	} finally {
+	    ui.retaining = false;
+	    ui.retainskip = pskip;
+	}
+	dirty = false;
+	rtime = now;
+	nredrawn++;
+    }
+
+    private static void drawlive(Widget w, GOut g) {
+	for(Widget ch = w.child; ch != null; ch = ch.next) {
+	    if(!ch.visible)
+		continue;
+	    GOut g2 = g.reclip(w.xlate(ch.c, true), ch.sz);
+	    if(ch.animated()) {
+		ch.draw(g2);
+		if(debug) {
+		    g2.chcolor(dbglive);
+		    g2.rect(Coord.z, ch.sz);
+		    g2.chcolor();
+		}
+	    } else {
+		drawlive(ch, g2);
+	    }
+	}
+    }
+
+    public static void draw(Widget wdg, GOut g) {
+	if((wdg.sz.x <= 0) || (wdg.sz.y <= 0)) {
+	    wdg.draw(g);
+	    return;
+	}
+	UICache c = wdg.rcache;
+	if(c == null)
+	    c = wdg.rcache = new UICache(wdg);
+	double now = Utils.rtime();
+	boolean redrawn = false;
+	if(c.stale(now)) {
+	    c.render(g, now);
+	    redrawn = true;
+	} else {
+	    ncached++;
+	}
+	g.state().prep(cblend);
+	g.image(c.img, Coord.z);
+	g.defstate();
+	if(c.live)
+	    drawlive(wdg, g);
+	if(debug) {
+	    g.chcolor(redrawn ? dbgredrawn : dbgcached);
+	    g.rect(Coord.z, wdg.sz);
+	    g.chcolor();
+	}
+    }
+
+    public static void frame() {
+	lcached = ncached;
+	lredrawn = nredrawn;
+	ncached = nredrawn = 0;
+    }
+
+    public static String stats() {
+	return(String.format("%d cached, %d redrawn, %,d bytes", lcached, lredrawn, vmem));
+    }
+
+    public void dispose() {
+	if(tex != null) {
+	    synchronized(UICache.class) {
+		vmem -= (long)tex.w * tex.h * 4;
+	    }
+	    tex.dispose();
+	    tex = null;
+	    smp = null;
+	    img = null;
+	}
+    }
+
+    static {
+	Console.setscmd("uicache", new Console.Command() {
+		public void run(Console cons, String[] args) {
+		    on = Utils.parsebool(args[1]);
+		}
+	    });
+	Console.setscmd("uicachedebug", new Console.Command() {
+		public void run(Console cons, String[] args) {
+		    debug = Utils.parsebool(args[1]);
+		}
+	    });
+    }
+}
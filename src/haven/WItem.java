@@ -47,6 +47,8 @@ public class WItem extends Widget implements DTarget {
     private Message csdt = Message.nil;
 	public static final Text.Foundry quantityFoundry = new Text.Foundry(Text.dfont, 9);
 	private static final Color quantityColor = new Color(255, 255, 255, 255);
+	private static final GlyphAtlas quantityText = GlyphAtlas.get(quantityFoundry, quantityColor, Color.BLACK, GlyphAtlas.OUTLINE);
+	private static final GlyphAtlas meterText = GlyphAtlas.get(Text.std, Color.WHITE, Color.BLACK, GlyphAtlas.STROKE);
 	public static final Coord TEXT_PADD_BOT = new Coord(1, 2);
 	private boolean holdingShift = false;
 	private short delayCounter = 0;
@@ -64,26 +66,28 @@ public class WItem extends Widget implements DTarget {
 
     public class ItemTip implements Indir<Tex>, ItemInfo.InfoTip {
 	private final List<ItemInfo> info;
-	private final TexI tex;
+	private final TipCache.Tip tip;
 
-	public ItemTip(List<ItemInfo> info, BufferedImage img) {
+	public ItemTip(List<ItemInfo> info, TipCache.Tip tip) {
 	    this.info = info;
-	    if(img == null)
-		throw(new Loading());
-	    tex = new TexI(img);
+	    this.tip = tip;
 	}
 
 	public GItem item() {return(item);}
 	public List<ItemInfo> info() {return(info);}
-	public Tex get() {return(tex);}
+	public Tex get() {return(tip.get());}
     }
 
     public class ShortTip extends ItemTip {
-	public ShortTip(List<ItemInfo> info) {super(info, ItemInfo.shorttip(info));}
+	public ShortTip(List<ItemInfo> info) {
+	    super(info, TipCache.global.get(item.tipkey("short"), new TipCache.State(ui, info), () -> ItemInfo.shorttip(info)));
+	}
     }
 
     public class LongTip extends ItemTip {
-	public LongTip(List<ItemInfo> info) {super(info, ItemInfo.longtip(info));}
+	public LongTip(List<ItemInfo> info, boolean shift) {
+	    super(info, TipCache.global.get(item.tipkey("long", shift, cachedTipValue), new TipCache.State(ui, info), () -> ItemInfo.longtip(info)));
+	}
     }
 
     private double hoverstart; //ND: Skip this crap
@@ -123,7 +127,7 @@ public class WItem extends Widget implements DTarget {
 			longtip = null;
 		}
 		if(longtip == null)
-		    longtip = new LongTip(info);
+		    longtip = new LongTip(info, holdingShift);
 		return(longtip);
 //	    }
 	} catch(Loading e) {
@@ -316,35 +320,16 @@ public class WItem extends Widget implements DTarget {
     }
 
 	private void drawnum(GOut g, Coord sz) {
-		Tex tex;
-		if(item.num >= 0) {
-			tex = quantityFoundry.renderstroked2(Integer.toString(item.num), quantityColor, Color.BLACK).tex();
-		} else {
-			tex = chainattr(heurnum);
-		}
-
-		if(tex != null) {
-			g.aimage(tex, TEXT_PADD_BOT.add(sz), 1, 1);
-		}
-	}
-	@SafeVarargs //Ender: actually, method just assumes you'll feed it correctly typed var args
-	private static Tex chainattr(AttrCache<Tex> ...attrs){
-		for(AttrCache<Tex> attr : attrs){
-			Tex tex = attr.get();
-			if(tex != null){
-				return tex;
-			}
-		}
-		return null;
+		String num = (item.num >= 0) ? Integer.toString(item.num) : heurnum.get();
+		if(num != null)
+			quantityText.aprint(g, TEXT_PADD_BOT.add(sz), 1, 1, num);
 	}
 	private void drawmeter(GOut g, Coord sz) {
 		double meter = meter();
 		if(meter > 0) {
 			Tex studyTime = getStudyTime();
 			if(studyTime == null) {
-				Tex tex = Text.renderstroked(String.format("%d%%", Math.round(100 * meter))).tex();
-				g.aimage(tex, sz.div(2), 0.5, 0.5);
-				tex.dispose();
+				meterText.aprint(g, sz.div(2), 0.5, 0.5, String.format("%d%%", Math.round(100 * meter)));
 			}
 			// ND: This following commented code is the curio circle overlay. I removed it and added the actual time at the bottom.
 //			g.chcolor(255, 255, 255, 64);
@@ -368,9 +353,7 @@ public class WItem extends Widget implements DTarget {
 			Coord half = sz.div(2);
 			g.prect(half, half.inv(), half, meter * Math.PI * 2);
 			g.chcolor();
-			Tex tex = Text.renderstroked(String.format("%d%%", Math.round(100 * meter))).tex();
-			g.aimage(tex, sz.div(2), 0.5, 0.5);
-			tex.dispose();
+			meterText.aprint(g, sz.div(2), 0.5, 0.5, String.format("%d%%", Math.round(100 * meter)));
 		}
 	}
 
@@ -422,11 +405,7 @@ public class WItem extends Widget implements DTarget {
 	}
 
 	public final AttrCache<Pair<String, String>> study = new AttrCache<Pair<String, String>>(this::info, AttrCache.map1(Curiosity.class, curio -> curio::remainingTip));
-	public final AttrCache<Tex> heurnum = new AttrCache<Tex>(this::info, AttrCache.cache(info -> {
-		String num = ItemInfo.getCount(info);
-		if(num == null) return null;
-		return quantityFoundry.renderstroked2(num, quantityColor, Color.BLACK).tex();
-	}));
+	public final AttrCache<String> heurnum = new AttrCache<String>(this::info, AttrCache.cache(ItemInfo::getCount));
 
     public boolean mousedown(Coord c, int btn) {
 	boolean inv = parent instanceof Inventory;
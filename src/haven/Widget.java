@@ -48,6 +48,7 @@ public class Widget {
     public KeyMatch gkey;
     public KeyBinding kb_gkey;
     private Widget prevtt;
+    UICache rcache;
     static Map<String, Factory> types = new TreeMap<String, Factory>();
 
 
@@ -423,6 +424,7 @@ public class Widget {
 
     public void link() {
 	Widget prev;
+	parent.dirty();
 	for(prev = parent.lchild; (prev != null) && (prev.z > this.z); prev = prev.prev);
 	if(prev != null) {
 	    if((this.next = prev.next) != null)
@@ -441,6 +443,7 @@ public class Widget {
     
     public void linkfirst() {
 	Widget next;
+	parent.dirty();
 	for(next = parent.child; (next != null) && (next.z < this.z); next = next.next);
 	if(next != null) {
 	    if((this.prev = next.prev) != null)
@@ -458,6 +461,7 @@ public class Widget {
     }
 	
     public void unlink() {
+	parent.dirty();
 	if(next != null)
 	    next.prev = prev;
 	if(prev != null)
@@ -518,6 +522,10 @@ public class Widget {
 	for(Widget ch = child; ch != null; ch = ch.next)
 	    ch.rdispose();
 	dispose();
+	if(rcache != null) {
+	    rcache.dispose();
+	    rcache = null;
+	}
     }
 
     public void remove() {
@@ -725,6 +733,8 @@ public class Widget {
 	 * classes, but alas, this is Java. */
 	anims.addAll(nanims);
 	nanims.clear();
+	if(!anims.isEmpty())
+	    dirty();
 	for(Iterator<Anim> i = anims.iterator(); i.hasNext();) {
 	    Anim anim = i.next();
 	    if(anim.tick(dt))
@@ -745,19 +755,48 @@ public class Widget {
 	    next = wdg.next;
 	    if(!wdg.visible)
 		continue;
+	    if((ui != null) && ui.retaining && wdg.animated()) {
+		ui.retainskip = true;
+		continue;
+	    }
 	    Coord cc = xlate(wdg.c, true);
 	    GOut g2;
 	    if(strict)
 		g2 = g.reclip(cc, wdg.sz);
 	    else
 		g2 = g.reclipl(cc, wdg.sz);
-	    wdg.draw(g2);
+	    if((ui != null) && !ui.retaining && wdg.retained())
+		UICache.draw(wdg, g2);
+	    else
+		wdg.draw(g2);
 	}
     }
     
     public void draw(GOut g) {
 	draw(g, true);
     }
+
+    /* Whether this widget should be drawn through a UICache of its
+     * own rather than directly every frame. */
+    public boolean retained() {
+	return(false);
+    }
+
+    /* Whether this widget changes too often to be worth caching, in
+     * which case it is drawn live on top of a retained ancestor. */
+    public boolean animated() {
+	return(false);
+    }
+
+    /* Invalidates the cached image of any retained widget containing
+     * this one. Widgets that change their looks other than through
+     * uimsg, input or child changes should call this. */
+    public void dirty() {
+	for(Widget w = this; w != null; w = w.parent) {
+	    if(w.rcache != null)
+		w.rcache.dirty = true;
+	}
+    }
 	
     public boolean checkhit(Coord c) {
 	return(true);
@@ -985,12 +1024,15 @@ public class Widget {
     
     public void move(Coord c) {
 	this.c = c;
+	if(parent != null)
+	    parent.dirty();
     }
 
     public void resize(Coord sz) {
 	if(Utils.eq(this.sz, sz))
 	    return;
 	this.sz = sz;
+	dirty();
 	for(Widget ch = child; ch != null; ch = ch.next)
 	    ch.presize();
 	if(parent != null)
@@ -1438,14 +1480,18 @@ public class Widget {
 
     public void hide() {
 	visible = false;
-	if(parent != null)
+	if(parent != null) {
 	    parent.delfocusable(this);
+	    parent.dirty();
+	}
     }
 
     public void show() {
 	visible = true;
-	if(parent != null)
+	if(parent != null) {
 	    parent.newfocusable(this);
+	    parent.dirty();
+	}
     }
 
     public boolean show(boolean show) {
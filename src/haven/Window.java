@@ -498,6 +498,10 @@ public class Window extends Widget implements DTarget {
 	}
     }
 
+    public boolean retained() {
+	return(UICache.on);
+    }
+
     public boolean mousehover(Coord c, boolean hovering) {
 	super.mousehover(c, hovering);
 	return(hovering);
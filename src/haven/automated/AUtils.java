@@ -51,33 +51,11 @@ public class AUtils {
     }
 
     public static ArrayList<Gob> getGobType(String gobName, GameUI gui) {
-        ArrayList<Gob> gobs = new ArrayList<>();
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                try {
-                    if (gob.getres() != null && gob.getres().name.startsWith(gobName)) {
-                        gobs.add(gob);
-                    }
-                } catch (Loading ignored) {
-                }
-            }
-        }
-        return gobs;
+        return new ArrayList<>(gui.map.glob.oc.index.snapshot().byprefix(gobName));
     }
 
     public static ArrayList<Gob> getGobFromTypeArray(List<String> gobNames, GameUI gui) {
-        ArrayList<Gob> gobs = new ArrayList<>();
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                try {
-                    if (gob.getres() != null && gobNames.contains(gob.getres().name)) {
-                        gobs.add(gob);
-                    }
-                } catch (Loading ignored) {
-                }
-            }
-        }
-        return gobs;
+        return new ArrayList<>(gui.map.glob.oc.index.snapshot().byres(new LinkedHashSet<>(gobNames)));
     }
 
     public static String getTileName(Coord coord, MCache mcache) {
@@ -119,21 +97,10 @@ public class AUtils {
     }
 
     public static ArrayList<Gob> getGobsInSelectionStartingWith(String name, Coord start, Coord end, GameUI gui) {
-        ArrayList<Gob> selected = new ArrayList<>();
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                if (gob.rc.x > start.x && gob.rc.x < end.x && gob.rc.y > start.y && gob.rc.y < end.y) {
-                    try {
-                        Resource res = gob.getres();
-                        if (res != null && res.name.startsWith(name)) {
-                            selected.add(gob);
-                        }
-                    } catch (Loading l) {
-                    }
-                }
-            }
-        }
-        return selected;
+        return new ArrayList<>(gui.map.glob.oc.index.snapshot().within(new Coord2d(start), new Coord2d(end), gob -> {
+            Resource res = gob.getres();
+            return res != null && res.name.startsWith(name);
+        }));
     }
 
 
@@ -141,16 +108,9 @@ public class AUtils {
         ArrayList<Gob> plantsInArea = new ArrayList<>();
         List<String> plants = Arrays.asList("gfx/terobjs/plants/wine", "gfx/terobjs/plants/pepper", "gfx/terobjs/plants/hops", "gfx/terobjs/plants/peas", "gfx/terobjs/plants/cucumber");
 
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                if (gob.rc.x > start.x && gob.rc.x < end.x && gob.rc.y > start.y && gob.rc.y < end.y) {
-                    try {
-                        Resource res = gob.getres();
-                        if (res != null && plants.contains(res.name)) {
-                            plantsInArea.add(gob);
-                        }
-                    } catch (Loading l) {}
-                }
+        for (Gob gob : gui.map.glob.oc.index.snapshot().byres(plants)) {
+            if (gob.rc.x > start.x && gob.rc.x < end.x && gob.rc.y > start.y && gob.rc.y < end.y) {
+                plantsInArea.add(gob);
             }
         }
         return plantsInArea;
@@ -160,32 +120,28 @@ public class AUtils {
 
     public static Map<Gob, Integer> getGobsInSelectedArea(Coord start, Coord end, GameUI gui) {
         Map<Gob, Integer> gobsInArea = new HashMap<>();
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                if (gob.rc.x > start.x && gob.rc.x < end.x && gob.rc.y > start.y && gob.rc.y < end.y) {
-                    try {
-                        Resource res = gob.getres();
-                        if (res != null) {
-                            String name = res.name;
-                            if(name.contains("borka/body")){
-                                continue;
-                            }
-                            Gob existingGob = null;
-                            for (Gob keyGob : gobsInArea.keySet()) {
-                                if (keyGob.getres().name.equals(name)) {
-                                    existingGob = keyGob;
-                                    break;
-                                }
-                            }
-                            if (existingGob != null) {
-                                gobsInArea.put(existingGob, gobsInArea.get(existingGob) + 1);
-                            } else {
-                                gobsInArea.put(gob, 1);
-                            }
+        for (Gob gob : gui.map.glob.oc.index.snapshot().within(new Coord2d(start), new Coord2d(end), null)) {
+            try {
+                Resource res = gob.getres();
+                if (res != null) {
+                    String name = res.name;
+                    if(name.contains("borka/body")){
+                        continue;
+                    }
+                    Gob existingGob = null;
+                    for (Gob keyGob : gobsInArea.keySet()) {
+                        if (keyGob.getres().name.equals(name)) {
+                            existingGob = keyGob;
+                            break;
                         }
-                    } catch (Loading ignored) {}
+                    }
+                    if (existingGob != null) {
+                        gobsInArea.put(existingGob, gobsInArea.get(existingGob) + 1);
+                    } else {
+                        gobsInArea.put(gob, 1);
+                    }
                 }
-            }
+            } catch (Loading ignored) {}
         }
         return gobsInArea;
     }
@@ -199,21 +155,13 @@ public class AUtils {
         double minDist = Double.MAX_VALUE;
         Coord2d player = gui.map.player().rc;
 
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                if (gob.rc.x > start.x && gob.rc.x < end.x && gob.rc.y > start.y && gob.rc.y < end.y) {
-                    try {
-                        Resource res = gob.getres();
-                        if (res != null && res.name.equals(name)) {
-                            int stage = AUtils.getDrawState(gob);
-                            double dist = player.dist(gob.rc);
-                            if(dist < minDist && (stage >= stageP)) {
-                                minDist = dist;
-                                closestGob = gob;
-                            }
-                        }
-                    } catch (Loading l) {
-                    }
+        for (Gob gob : gui.map.glob.oc.index.snapshot().byres(name)) {
+            if (gob.rc.x > start.x && gob.rc.x < end.x && gob.rc.y > start.y && gob.rc.y < end.y) {
+                int stage = AUtils.getDrawState(gob);
+                double dist = player.dist(gob.rc);
+                if(dist < minDist && (stage >= stageP)) {
+                    minDist = dist;
+                    closestGob = gob;
                 }
             }
         }
@@ -231,17 +179,9 @@ public class AUtils {
 
     public static Gob getGobNearPlayer(String name, GameUI gui) {
         Coord playerCoord = gui.map.player().rc.floor();
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                if (gob.rc.x > playerCoord.x - 55 && gob.rc.x < playerCoord.x + 55 && gob.rc.y > playerCoord.y - 55 && gob.rc.y < playerCoord.y + 55) {
-                    try {
-                        Resource res = gob.getres();
-                        if (res != null && res.name.equals(name)) {
-                            return gob;
-                        }
-                    } catch (Loading l) {
-                    }
-                }
+        for (Gob gob : gui.map.glob.oc.index.snapshot().byres(name)) {
+            if (gob.rc.x > playerCoord.x - 55 && gob.rc.x < playerCoord.x + 55 && gob.rc.y > playerCoord.y - 55 && gob.rc.y < playerCoord.y + 55) {
+                return gob;
             }
         }
         return null;
@@ -271,35 +211,12 @@ public class AUtils {
     }
 
     public static ArrayList<Gob> getAllGobs(GameUI gui) {
-        ArrayList<Gob> gobs = new ArrayList<>();
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                try {
-                    Resource res = gob.getres();
-                    if (res != null) {
-                        gobs.add(gob);
-                    }
-                } catch (Loading l) {
-                }
-            }
-        }
-        return gobs;
+        return new ArrayList<>(gui.map.glob.oc.index.snapshot().named());
     }
 
     public static ArrayList<Gob> getAllSupports(GameUI gui) {
-        ArrayList<Gob> supports = new ArrayList<>();
         Set<String> types = new HashSet<>(Arrays.asList("gfx/terobjs/ladder", "gfx/terobjs/minesupport", "gfx/terobjs/column", "gfx/terobjs/minebeam"));
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                try {
-                    Resource res = gob.getres();
-                    if (res != null && types.contains(res.name)) {
-                        supports.add(gob);
-                    }
-                } catch (Loading ignored) {}
-            }
-        }
-        return supports;
+        return new ArrayList<>(gui.map.glob.oc.index.snapshot().byres(types));
     }
 
 
@@ -375,57 +292,20 @@ public class AUtils {
 
 
     public static ArrayList<Gob> getGobs(String name, GameUI gui) {
-        ArrayList<Gob> gobs = new ArrayList<>();
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                try {
-                    Resource res = gob.getres();
-                    if (res != null && res.name.equals(name)) {
-                        gobs.add(gob);
-                    }
-                } catch (Loading l) {
-                }
-            }
-        }
-        return gobs;
+        return new ArrayList<>(gui.map.glob.oc.index.snapshot().byres(name));
     }
 
     public static Gob getClosestSupport(GameUI gui) {
         Set<String> supports = new HashSet<>(Arrays.asList("gfx/terobjs/ladder", "gfx/terobjs/minesupport", "gfx/terobjs/column", "gfx/terobjs/minebeam"));
         Coord2d player = gui.map.player().rc;
-        Gob closestGob = null;
-        double closestDistance  = 10000;
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                try {
-                    Resource res = gob.getres();
-                    if (res != null && supports.contains(res.name)) {
-                        double currentDistance = gob.rc.dist(player);
-                        if(currentDistance < closestDistance){
-                            closestGob = gob;
-                            closestDistance = currentDistance;
-                        }
-                    }
-                } catch (Loading ignored) {}
-            }
-        }
-        return closestGob;
+        return gui.map.glob.oc.index.snapshot().nearest(player, 10000, gob -> {
+            Resource res = gob.getres();
+            return res != null && supports.contains(res.name);
+        });
     }
 
     public static ArrayList<Gob> getGobsPartial(String name, GameUI gui) {
-        ArrayList<Gob> gobs = new ArrayList<>();
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                try {
-                    Resource res = gob.getres();
-                    if (res != null && res.name.contains(name)) {
-                        gobs.add(gob);
-                    }
-                } catch (Loading l) {
-                }
-            }
-        }
-        return gobs;
+        return new ArrayList<>(gui.map.glob.oc.index.snapshot().byname(nm -> nm.contains(name)));
     }
 
     public static Gob closestGob(List<Gob> gobs, Coord c) {
@@ -518,52 +398,36 @@ public class AUtils {
 
     }
     };
+    private static boolean hasComposite(Gob gob, String mod) {
+        for (GAttrib g : gob.attr.values()) {
+            if (g instanceof Composite) {
+                Composite c = (Composite) g;
+                for (Composited.MD item : c.comp.cmod) {
+                    if (item.mod.get().basename().equals(mod))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public static HashMap<Long, Gob> getAllAttackableMap(GameUI gui) {
         HashMap<Long, Gob> gobs = new HashMap<>();
         if (gui.map.plgob == -1) {
             return gobs;
         }
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                if (gob.getres() != null && gob.getres().name != null){
-                    if (gob.id != gui.map.plgob) {
-                        if (potentialAggroTargets.contains(gob.getres().name)){
-                            gobs.put(gob.id, gob);
-                        } else if (gob.getres().name.equals("gfx/kritter/cattle/cattle")) { // ND: Special case for Aurochs
-                            for (GAttrib g : gob.attr.values()) {
-                                if (g instanceof Drawable) {
-                                    if (g instanceof Composite) {
-                                        Composite c = (Composite) g;
-                                        if (c.comp.cmod.size() > 0) {
-                                            for (Composited.MD item : c.comp.cmod) {
-                                                if (item.mod.get().basename().equals("aurochs")){
-                                                    gobs.put(gob.id, gob);
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        } else if (gob.getres().name.equals("gfx/kritter/sheep/sheep")) { // ND: Special case for Mouflon
-                            for (GAttrib g : gob.attr.values()) {
-                                if (g instanceof Drawable) {
-                                    if (g instanceof Composite) {
-                                        Composite c = (Composite) g;
-                                        if (c.comp.cmod.size() > 0) {
-                                            for (Composited.MD item : c.comp.cmod) {
-                                                if (item.mod.get().basename().equals("mouflon")){
-                                                    gobs.put(gob.id, gob);
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-
-                    }
-                }
-            }
+        GobIndex.Snapshot idx = gui.map.glob.oc.index.snapshot();
+        for (Gob gob : idx.byres(potentialAggroTargets)) {
+            if (gob.id != gui.map.plgob)
+                gobs.put(gob.id, gob);
+        }
+        for (Gob gob : idx.byres("gfx/kritter/cattle/cattle")) { // ND: Special case for Aurochs
+            if (gob.id != gui.map.plgob && hasComposite(gob, "aurochs"))
+                gobs.put(gob.id, gob);
+        }
+        for (Gob gob : idx.byres("gfx/kritter/sheep/sheep")) { // ND: Special case for Mouflon
+            if (gob.id != gui.map.plgob && hasComposite(gob, "mouflon"))
+                gobs.put(gob.id, gob);
         }
         return gobs;
     }
@@ -573,16 +437,9 @@ public class AUtils {
         if (gui.map.plgob == -1) {
             return gobs;
         }
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                if (gob.getres() != null && gob.getres().name != null){
-                    if (gob.id != gui.map.plgob) {
-                        if (gob.getres().name.equals("gfx/borka/body")){
-                            gobs.put(gob.id, gob);
-                        }
-                    }
-                }
-            }
+        for (Gob gob : gui.map.glob.oc.index.snapshot().byres("gfx/borka/body")) {
+            if (gob.id != gui.map.plgob)
+                gobs.put(gob.id, gob);
         }
         return gobs;
     }
@@ -6,6 +6,7 @@ import haven.Gob;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static haven.automated.AUtils.attackGob;
@@ -52,25 +53,8 @@ public class AggroNearestTarget implements Runnable {
 
     private void attackNearestNonAttackedAnimal(HashSet<Long> fightgobs, HashMap<Long, Gob> allAttackableMap, Gob player) {
         //If we are fighting animals, try to attack second closest animal
-        Gob closestEnemy = null;
-        OUTER_LOOP: for (Gob gob : allAttackableMap.values()) {
-            //if friend, skip it... skip it
-            if (isPlayer(gob) && gob.isFriend())
-                continue;
-            if (gob.getres().name.equals("gfx/kritter/horse/horse") && gob.occupants.size() > 0){ // ND: Wild horse special case. Tamed horses are never attacked anyway
-                for (Gob occupant : gob.occupants) {
-                    if (occupant.isFriend() || occupant.isMe()){
-                        continue OUTER_LOOP;
-                    }
-                }
-            }
-            if (!fightgobs.contains(gob.id)) {
-                if ((closestEnemy == null || gob.rc.dist(player.rc) < closestEnemy.rc.dist(player.rc))
-                        && (gob.knocked == null || (gob.knocked != null && !gob.knocked))) { // ND: Retarded workaround that I need to add, just like in Gob.java
-                    closestEnemy = gob;
-                }
-            }
-        }
+        Gob closestEnemy = nearest(player, gob -> allAttackableMap.containsKey(gob.id) && !fightgobs.contains(gob.id)
+                && !(isPlayer(gob) && gob.isFriend()) && !isRiddenByFriend(gob));
 
         if (closestEnemy != null) {
             AUtils.attackGob(gui, closestEnemy);
@@ -79,16 +63,9 @@ public class AggroNearestTarget implements Runnable {
     }
 
     private void attackNearestNonAttackedPlayer(HashMap<Long, Gob> allAttackableMap, HashSet<Long> aggrodplayers, Gob player) {
-        Gob closestEnemy = null;
-        for (Gob gob : allAttackableMap.values()) {
-            //if gob is an enemy player and not already aggroed
-            if (isPlayer(gob) && !aggrodplayers.contains(gob.id) && !gob.isFriend()) {
-                if ((closestEnemy == null || gob.rc.dist(player.rc) < closestEnemy.rc.dist(player.rc))
-                        && (gob.knocked == null || (gob.knocked != null && !gob.knocked))) { // ND: Retarded workaround that I need to add, just like in Gob.java
-                    closestEnemy = gob;
-                }
-            }
-        }
+        //if gob is an enemy player and not already aggroed
+        Gob closestEnemy = nearest(player, gob -> allAttackableMap.containsKey(gob.id) && isPlayer(gob)
+                && !aggrodplayers.contains(gob.id) && !gob.isFriend());
 
         if (closestEnemy != null) {
             AUtils.attackGob(gui, closestEnemy);
@@ -102,17 +79,7 @@ public class AggroNearestTarget implements Runnable {
             return false;
         HashMap<Long, Gob> allAttackableMap = AUtils.getAllAttackablePlayersMap(gui);
 
-        Gob closestEnemy = null;
-        for (Gob gob : allAttackableMap.values()) {
-            if (isPlayer(gob) && gob.isFriend()) {
-                continue;
-            }
-            //if gob is an enemy player and not already aggroed
-            if ((closestEnemy == null || gob.rc.dist(player.rc) < closestEnemy.rc.dist(player.rc))
-                    && (gob.knocked == null || (gob.knocked != null && !gob.knocked))) { // ND: Retarded workaround that I need to add, just like in Gob.java
-                closestEnemy = gob;
-            }
-        }
+        Gob closestEnemy = nearest(player, gob -> allAttackableMap.containsKey(gob.id) && !(isPlayer(gob) && gob.isFriend()));
 
         if (closestEnemy != null) {
             AUtils.attackGob(gui, closestEnemy);
@@ -129,31 +96,33 @@ public class AggroNearestTarget implements Runnable {
 
         //If theres no last attacked gob:
         // try and find the closest animal or player to attack
-        Gob closestEnemy = null;
-        OUTER_LOOP: for (Gob gob : allAttackableMap.values()) {
-            if (isPlayer(gob) && gob.isFriend()) {
-                continue;
-            }
-            if (gob.getres().name.equals("gfx/kritter/horse/horse") && gob.occupants.size() > 0){ // ND: Wild horse special case. Tamed horses are never attacked anyway
-                for (Gob occupant : gob.occupants) {
-                    if (occupant.isFriend() || occupant.isMe()){
-                        continue OUTER_LOOP;
-                    }
-                }
-            }
-            //if gob is an enemy player and not already aggroed
-            if ((closestEnemy == null || gob.rc.dist(player.rc) < closestEnemy.rc.dist(player.rc))
-                    && (gob.knocked == null || (gob.knocked != null && !gob.knocked))) { // ND: Retarded workaround that I need to add, just like in Gob.java
-                closestEnemy = gob;
-            }
-        }
-        
+        Gob closestEnemy = nearest(player, gob -> allAttackableMap.containsKey(gob.id)
+                && !(isPlayer(gob) && gob.isFriend()) && !isRiddenByFriend(gob));
+
         if (closestEnemy != null) {
             AUtils.attackGob(gui, closestEnemy);
             return;
         }
     }
 
+    /* Nearest gob to the player passing the filter, skipping knocked
+     * out ones, taken from the spatial index rather than by measuring
+     * every candidate. */
+    private Gob nearest(Gob player, Predicate<Gob> filter) {
+        return gui.map.glob.oc.index.snapshot().nearest(player.rc, Double.POSITIVE_INFINITY,
+                gob -> !Boolean.TRUE.equals(gob.knocked) && filter.test(gob)); // ND: Retarded workaround that I need to add, just like in Gob.java
+    }
+
+    private boolean isRiddenByFriend(Gob gob) {
+        if (gob.getres() != null && gob.getres().name.equals("gfx/kritter/horse/horse") && gob.occupants.size() > 0) { // ND: Wild horse special case. Tamed horses are never attacked anyway
+            for (Gob occupant : gob.occupants) {
+                if (occupant.isFriend() || occupant.isMe())
+                    return true;
+            }
+        }
+        return false;
+    }
+
     private boolean isPlayer(Gob gob){
         return gob.getres() != null && gob.getres().name != null && gob.getres().name.equals("gfx/borka/body");
     }
@@ -23,10 +23,8 @@ public class GobSearcher extends Window {
     }
 
     public void updateOverlays() {
-        synchronized (gui.ui.sess.glob.oc) {
-            for (Gob gob : gui.ui.sess.glob.oc) {
-                gob.setGobSearchOverlay();
-            }
+        for (Gob gob : gui.ui.sess.glob.oc.index.snapshot().all()) {
+            gob.setGobSearchOverlay();
         }
     }
 
@@ -49,34 +49,31 @@ public class InteractWithNearestObject implements Runnable {
         Gob player = gui.map.player();
         if (player == null)
             return; //player is null, possibly taking a road, don't bother trying to do all of the below.
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                double distFromPlayer = gob.rc.dist(gui.map.player().rc);
-                if (gob.id == gui.map.plgob || distFromPlayer >= maxDistance)
-                    continue;
-                Resource res = null;
+        for (Gob gob : gui.map.glob.oc.index.snapshot().within(player.rc, maxDistance, null)) {
+            if (gob.id == gui.map.plgob)
+                continue;
+            Resource res = null;
+            try {
+                res = gob.getres();
+            } catch (Loading l) {
+            }
+            if (res != null) {
+                //Open nearby gates, but not visitor gates, since you dont often open/close them
+                boolean isGate = gates.contains(res.basename());
                 try {
-                    res = gob.getres();
-                } catch (Loading l) {
-                }
-                if (res != null) {
-                    //Open nearby gates, but not visitor gates, since you dont often open/close them
-                    boolean isGate = gates.contains(res.basename());
-                    try {
-                        if (isGate) {
-                            for (Gob.Overlay ol : gob.ols) {
-                                String oname = gui.map.glob.sess.getres(Utils.uint16d(ol.sdt.rbuf, 0)).get().basename();
-                                if (oname.equals("visflag"))
-                                    isGate = false;
-                            }
-                        }
-                    } catch (NullPointerException ignored) {}
-                    if (isGate || res.name.startsWith("gfx/terobjs/herbs") || otherPickableObjects.contains(res.basename()) || Arrays.stream(Gob.CRITTERAURA_PATHS).anyMatch(res.name::matches) || res.name.matches(".*(rabbit|bunny)$")) {
-                        if (distFromPlayer < maxDistance && (theObject == null || distFromPlayer < theObject.rc.dist(gui.map.player().rc))) {
-                            theObject = gob;
-                            if (res.name.startsWith("gfx/terobjs/herbs")) FlowerMenu.setNextSelection("Pick"); // ND: Set the flower menu option to "pick" only for these particular ones.
+                    if (isGate) {
+                        for (Gob.Overlay ol : gob.ols) {
+                            String oname = gui.map.glob.sess.getres(Utils.uint16d(ol.sdt.rbuf, 0)).get().basename();
+                            if (oname.equals("visflag"))
+                                isGate = false;
                         }
                     }
+                } catch (NullPointerException ignored) {}
+                if (isGate || res.name.startsWith("gfx/terobjs/herbs") || otherPickableObjects.contains(res.basename()) || Arrays.stream(Gob.CRITTERAURA_PATHS).anyMatch(res.name::matches) || res.name.matches(".*(rabbit|bunny)$")) {
+                    // The query returns gobs nearest first, so the first match is the one to take.
+                    theObject = gob;
+                    if (res.name.startsWith("gfx/terobjs/herbs")) FlowerMenu.setNextSelection("Pick"); // ND: Set the flower menu option to "pick" only for these particular ones.
+                    break;
                 }
             }
         }
@@ -6,8 +6,8 @@ import haven.Label;
 import haven.Window;
 
 import java.awt.*;
-import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static haven.OCache.posres;
@@ -30,9 +30,6 @@ public class MiningSafetyAssistant extends Window implements Runnable {
     public Dropbox<Integer> sweeperDurationDropbox;
 
 
-    ArrayList<Gob> supports = new ArrayList<>();
-    ArrayList<Gob> looseRocks = new ArrayList<>();
-    private int counter = 0;
 
     public MiningSafetyAssistant(GameUI gui) {
         super(UI.scale(new Coord(220, 180)), "Mining Safety Assistant");
@@ -248,31 +245,11 @@ public class MiningSafetyAssistant extends Window implements Runnable {
     @Override
     public void run() {
         while (!stop) {
-            if (counter == 0 && (stopMiningWhenOutsideSupport || stopMiningFifty || stopMiningTwentyFive)) {
-                supports = AUtils.getAllSupports(gui);
-            }
             if(gui.map.player() != null){
                 if (stopMiningWhenOutsideSupport && (gui.map.player().getPoses().contains("pickan") || gui.map.player().getPoses().contains("gfx/borka/choppan"))) {
                     Gob player = gui.map.player();
                     Coord2d minedTile = new Coord2d(player.rc.x + (Math.cos(player.a) * 13.75), player.rc.y + Math.sin(player.a) * 13.75);
-                    Set<Gob> gobsInRange = new HashSet<>();
-                    for (Gob support : supports) {
-                        String res = support.getres().name;
-                        if (res.equals("gfx/terobjs/ladder") || res.equals("gfx/terobjs/minesupport")) {
-                            if (support.rc.dist(minedTile) <= 100) {
-                                gobsInRange.add(support);
-                            }
-                        } else if (res.equals("gfx/terobjs/column")) {
-                            if (support.rc.dist(minedTile) <= 125) {
-                                gobsInRange.add(support);
-                            }
-                        } else if (res.equals("gfx/terobjs/minebeam")) {
-                            if (support.rc.dist(minedTile) <= 150) {
-                                gobsInRange.add(support);
-                            }
-                        }
-                    }
-                    if (gobsInRange.size() < 1) {
+                    if (supportsCovering(gui, minedTile).isEmpty()) {
                         ui.root.wdgmsg("gk", 27);
                         gui.error("Trying to mine outside supports.");
                     }
@@ -281,75 +258,37 @@ public class MiningSafetyAssistant extends Window implements Runnable {
                 if (stopMiningLooseRock && (gui.map.player().getPoses().contains("pickan") || gui.map.player().getPoses().contains("gfx/borka/choppan"))) {
                     Gob player = gui.map.player();
                     Coord2d minedTile = new Coord2d(player.rc.x + (Math.cos(player.a) * 13.75), player.rc.y + Math.sin(player.a) * 13.75);
-                    if (counter == 0) {
-                        looseRocks = AUtils.getGobs("gfx/terobjs/looserock", gui);
-                    }
+                    List<Gob> looseRocks = gui.map.glob.oc.index.snapshot().within(minedTile, Math.nextUp(125.0), gob -> {
+                        Resource res = gob.getres();
+                        return res != null && res.name.equals("gfx/terobjs/looserock");
+                    });
                     for (Gob looseRock : looseRocks) {
-                        if (looseRock.rc.dist(minedTile) <= 125) {
-                            looseRock.highlight(Color.red);
-                            ui.root.wdgmsg("gk", 27);
-                            gui.error("Loose rock is too close to mine safely.");
-                        }
+                        looseRock.highlight(Color.red);
+                        ui.root.wdgmsg("gk", 27);
+                        gui.error("Loose rock is too close to mine safely.");
                     }
                 }
 
                 if ((stopMiningFifty || stopMiningTwentyFive) && (gui.map.player().getPoses().contains("pickan") || gui.map.player().getPoses().contains("gfx/borka/choppan"))) {
                     Gob player = gui.map.player();
                     Coord2d minedTile = new Coord2d(player.rc.x + (Math.cos(player.a) * 13.75), player.rc.y + Math.sin(player.a) * 13.75);
-                    for (Gob support : supports) {
-                        String res = support.getres().name;
-                        if (res.equals("gfx/terobjs/ladder") || res.equals("gfx/terobjs/minesupport")) {
-                            if (support.rc.dist(minedTile) <= 100) {
-                                if (support.getattr(GobHealth.class) != null) {
-                                    if (support.getattr(GobHealth.class).hp <= 0.5 && stopMiningFifty) {
-                                        ui.root.wdgmsg("gk", 27);
-                                        gui.error("Support nearby below 50%..");
-                                        support.highlight(Color.red);
-                                    } else if (support.getattr(GobHealth.class).hp <= 0.25 && stopMiningTwentyFive) {
-                                        ui.root.wdgmsg("gk", 27);
-                                        gui.error("Support nearby below 25%..");
-                                        support.highlight(Color.red);
-                                    }
-                                }
-                            }
-                        } else if (res.equals("gfx/terobjs/column")) {
-                            if (support.rc.dist(minedTile) <= 125) {
-                                if (support.getattr(GobHealth.class) != null) {
-                                    if (support.getattr(GobHealth.class).hp <= 0.5 && stopMiningFifty) {
-                                        ui.root.wdgmsg("gk", 27);
-                                        gui.error("Support nearby below 50%..");
-                                        support.highlight(Color.red);
-                                    } else if (support.getattr(GobHealth.class).hp <= 0.25 && stopMiningTwentyFive) {
-                                        ui.root.wdgmsg("gk", 27);
-                                        gui.error("Support nearby below 25%..");
-                                        support.highlight(Color.red);
-                                    }
-                                }
-                            }
-                        } else if (res.equals("gfx/terobjs/minebeam")) {
-                            if (support.rc.dist(minedTile) <= 150) {
-                                if (support.getattr(GobHealth.class) != null) {
-                                    if (support.getattr(GobHealth.class).hp <= 0.5 && stopMiningFifty) {
-                                        ui.root.wdgmsg("gk", 27);
-                                        gui.error("Support nearby below 50%..");
-                                        support.highlight(Color.red);
-                                    } else if (support.getattr(GobHealth.class).hp <= 0.25 && stopMiningTwentyFive) {
-                                        ui.root.wdgmsg("gk", 27);
-                                        gui.error("Support nearby below 25%..");
-                                        support.highlight(Color.red);
-                                    }
-                                }
+                    for (Gob support : supportsCovering(gui, minedTile)) {
+                        GobHealth health = support.getattr(GobHealth.class);
+                        if (health != null) {
+                            if (health.hp <= 0.5 && stopMiningFifty) {
+                                ui.root.wdgmsg("gk", 27);
+                                gui.error("Support nearby below 50%..");
+                                support.highlight(Color.red);
+                            } else if (health.hp <= 0.25 && stopMiningTwentyFive) {
+                                ui.root.wdgmsg("gk", 27);
+                                gui.error("Support nearby below 25%..");
+                                support.highlight(Color.red);
                             }
                         }
-
                     }
                 }
             }
 
-            counter++;
-            if (counter > 10) {
-                counter = 0;
-            }
             try {
                 Thread.sleep(200);
             } catch (InterruptedException ignored) {
@@ -357,6 +296,29 @@ public class MiningSafetyAssistant extends Window implements Runnable {
         }
     }
 
+    /* How far a support of the given kind holds up the roof, or zero
+     * for anything that isn't a support. */
+    private static double supportRange(Gob gob) {
+        Resource res = gob.getres();
+        if (res == null)
+            return 0;
+        switch (res.name) {
+            case "gfx/terobjs/ladder":
+            case "gfx/terobjs/minesupport":
+                return 100;
+            case "gfx/terobjs/column":
+                return 125;
+            case "gfx/terobjs/minebeam":
+                return 150;
+            default:
+                return 0;
+        }
+    }
+
+    private static List<Gob> supportsCovering(GameUI gui, Coord2d tile) {
+        return gui.map.glob.oc.index.snapshot().within(tile, Math.nextUp(150.0), gob -> gob.rc.dist(tile) <= supportRange(gob));
+    }
+
     public static boolean isAreaInSupportRange(Coord one, Coord two, GameUI gui) {
         Coord northWestCoord = new Coord(Math.min(one.x, two.x) * 11, Math.min(one.y, two.y) * 11);
         Set<Coord2d> tiles = new HashSet<>();
@@ -367,26 +329,8 @@ public class MiningSafetyAssistant extends Window implements Runnable {
                 tiles.add(new Coord2d(northWestCoord.x + (x * 11) + 5.5, northWestCoord.y + (y * 11) + 5.5));
             }
         }
-        ArrayList<Gob> supportsStatic = AUtils.getAllSupports(gui);
         for (Coord2d tile : tiles) {
-            int inRange = 0;
-            for (Gob support : supportsStatic) {
-                String res = support.getres().name;
-                if (res.equals("gfx/terobjs/ladder") || res.equals("gfx/terobjs/minesupport")) {
-                    if (support.rc.dist(tile) <= 100) {
-                        inRange++;
-                    }
-                } else if (res.equals("gfx/terobjs/column")) {
-                    if (support.rc.dist(tile) <= 125) {
-                        inRange++;
-                    }
-                } else if (res.equals("gfx/terobjs/minebeam")) {
-                    if (support.rc.dist(tile) <= 150) {
-                        inRange++;
-                    }
-                }
-            }
-            if (inRange == 0) {
+            if (supportsCovering(gui, tile).isEmpty()) {
                 return false;
             }
         }
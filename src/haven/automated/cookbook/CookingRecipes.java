@@ -9,14 +9,13 @@ import haven.*;
 
 import java.awt.*;
 import java.sql.*;
-import java.sql.Connection;
 import java.util.List;
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class CookingRecipes extends Window {
-    private static final String DATABASE = "jdbc:sqlite:food_recipes.db";
+    private static final Database db = RecipeCollector.db;
     private boolean show;
     public FoodList foodList;
     private String query;
@@ -132,129 +131,118 @@ public class CookingRecipes extends Window {
     }
 
     public void getData() {
-        try (Connection conn = DriverManager.getConnection(DATABASE)) {
-            foodList.removeAllFoods();
-            String[] conditions = query.split(";");
-
-            StringBuilder sql = new StringBuilder("SELECT * from food");
-
-            boolean whereClauseAdded = false;
-            boolean sortAdded = false;
-            String orderBy = "";
-            for (String condition : conditions) {
-                if (Pattern.matches("^name:([a-zA-Z ]{1,50})$", condition)) {
-                    if (!whereClauseAdded) {
-                        sql.append(" WHERE ");
-                        whereClauseAdded = true;
-                    } else {
-                        sql.append(" AND ");
-                    }
-                    sql.append("food.name like '%");
-                    sql.append(condition.substring(5));
-                    sql.append("%'");
-                } else if (Pattern.matches("^(str1|str2|agi1|agi2|int1|int2|con1|con2|per1|per2|cha1|cha2|dex1|dex2|wil1|wil2|psy1|psy2)([<>]=?)(100%|[1-9][0-9]?%|[0-9]{1,3}|1000)$", condition)) {
-                    if (!whereClauseAdded) {
-                        sql.append(" WHERE ");
-                        whereClauseAdded = true;
-                    } else {
-                        sql.append(" AND ");
-                    }
-
-                    String stat = condition.substring(0, 4);
-                    String operator;
-                    String value;
-
-                    if (condition.substring(4, 6).equals("<=") || condition.substring(4, 6).equals(">=")) {
-                        operator = condition.substring(4, 6);
-                        value = condition.substring(6);
-                    } else {
-                        operator = condition.substring(4, 5);
-                        value = condition.substring(5);
-                    }
-
-                    if (value.endsWith("%")) {
-                        String valueNum = value.replace("%", "");
-                        Double totalFep = (Double.parseDouble(valueNum) / 10);
-                        sql.append("food.").append(stat).append(" * 10 ").append(operator).append(" food.totalFep * ").append(totalFep);
-                    } else {
-                        sql.append("food.").append(stat).append(" ").append(operator).append(" ").append(value);
-                    }
-                } else if (Pattern.matches("^sort:(str1|str2|agi1|agi2|int1|int2|con1|con2|per1|per2|cha1|cha2|dex1|dex2|wil1|wil2|psy1|psy2)$", condition)) {
-                    String stat = condition.split(":")[1];
-                    orderBy = " ORDER BY food." + stat + " DESC";
-                    sortAdded = true;
-                } else if (Pattern.matches("^from:[a-zA-Z ]{1,50}$", condition)) {
-                    if (!whereClauseAdded) {
-                        sql.append(" WHERE ");
-                        whereClauseAdded = true;
-                    } else {
-                        sql.append(" AND ");
-                    }
-                    String ingredientName = condition.split(":")[1];
-                    sql.append(" food.id IN (SELECT food_id from food_ingredient WHERE ingredient_id IN (SELECT id from ingredient WHERE name like '%").append(ingredientName).append("%'))");
-
-                } else if (Pattern.matches("^-from:[a-zA-Z ]{1,50}$", condition)) {
-                    if (!whereClauseAdded) {
-                        sql.append(" WHERE ");
-                        whereClauseAdded = true;
-                    } else {
-                        sql.append(" AND ");
-                    }
-                    String ingredientName = condition.split(":")[1];
-                    sql.append(" food.id NOT IN (SELECT food_id from food_ingredient WHERE ingredient_id IN (SELECT id from ingredient WHERE name like '%").append(ingredientName).append("%'))");
+        foodList.removeAllFoods();
+        String[] conditions = query.split(";");
+
+        StringBuilder sql = new StringBuilder("SELECT * from food");
+        List<Object> args = new ArrayList<>();
+
+        boolean whereClauseAdded = false;
+        boolean sortAdded = false;
+        String orderBy = "";
+        for (String condition : conditions) {
+            if (Pattern.matches("^name:([a-zA-Z ]{1,50})$", condition)) {
+                if (!whereClauseAdded) {
+                    sql.append(" WHERE ");
+                    whereClauseAdded = true;
+                } else {
+                    sql.append(" AND ");
+                }
+                sql.append("food.name like ?");
+                args.add("%" + condition.substring(5) + "%");
+            } else if (Pattern.matches("^(str1|str2|agi1|agi2|int1|int2|con1|con2|per1|per2|cha1|cha2|dex1|dex2|wil1|wil2|psy1|psy2)([<>]=?)(100%|[1-9][0-9]?%|[0-9]{1,3}|1000)$", condition)) {
+                if (!whereClauseAdded) {
+                    sql.append(" WHERE ");
+                    whereClauseAdded = true;
+                } else {
+                    sql.append(" AND ");
                 }
-            }
-
-            if (!sortAdded) {
-                sql.append(" ORDER BY food.id");
-            } else {
-                sql.append(orderBy);
-            }
-            sql.append(" LIMIT 10 OFFSET ");
-            sql.append(page * 10 - 10);
-
-            Statement stmt = conn.createStatement();
 
-            ResultSet rs = stmt.executeQuery(sql.toString());
+                // The stat and operator are taken from the pattern above, so only values need binding.
+                String stat = condition.substring(0, 4);
+                String operator;
+                String value;
+
+                if (condition.substring(4, 6).equals("<=") || condition.substring(4, 6).equals(">=")) {
+                    operator = condition.substring(4, 6);
+                    value = condition.substring(6);
+                } else {
+                    operator = condition.substring(4, 5);
+                    value = condition.substring(5);
+                }
 
-            List<ParsedFoodInfo> foods = new ArrayList<>();
-            List<Integer> foodIds = new ArrayList<>();
-            while (rs.next()) {
-                ParsedFoodInfo foodInfo = parseFood(rs);
-                foods.add(foodInfo);
-                foodIds.add(rs.getInt("id"));
+                if (value.endsWith("%")) {
+                    String valueNum = value.replace("%", "");
+                    Double totalFep = (Double.parseDouble(valueNum) / 10);
+                    sql.append("food.").append(stat).append(" * 10 ").append(operator).append(" food.totalFep * ?");
+                    args.add(totalFep);
+                } else {
+                    sql.append("food.").append(stat).append(" ").append(operator).append(" ?");
+                    args.add(Integer.parseInt(value));
+                }
+            } else if (Pattern.matches("^sort:(str1|str2|agi1|agi2|int1|int2|con1|con2|per1|per2|cha1|cha2|dex1|dex2|wil1|wil2|psy1|psy2)$", condition)) {
+                String stat = condition.split(":")[1];
+                orderBy = " ORDER BY food." + stat + " DESC";
+                sortAdded = true;
+            } else if (Pattern.matches("^-?from:[a-zA-Z ]{1,50}$", condition)) {
+                if (!whereClauseAdded) {
+                    sql.append(" WHERE ");
+                    whereClauseAdded = true;
+                } else {
+                    sql.append(" AND ");
+                }
+                String ingredientName = condition.split(":")[1];
+                sql.append(condition.startsWith("-") ? " food.id NOT IN" : " food.id IN");
+                sql.append(" (SELECT food_ingredient.food_id FROM ingredient JOIN food_ingredient ON food_ingredient.ingredient_id = ingredient.id WHERE ingredient.name like ?)");
+                args.add("%" + ingredientName + "%");
             }
+        }
 
-            StringBuilder ingredientSql = new StringBuilder("SELECT * FROM food_ingredient JOIN ingredient ON food_ingredient.ingredient_id = ingredient.id WHERE food_ingredient.food_id IN (");
-            for (int i = 0; i < foodIds.size(); i++) {
-                ingredientSql.append("?");
-                if (i < foodIds.size() - 1) {
-                    ingredientSql.append(", ");
+        if (!sortAdded) {
+            sql.append(" ORDER BY food.id");
+        } else {
+            sql.append(orderBy);
+        }
+        sql.append(" LIMIT 10 OFFSET ?");
+        args.add(page * 10 - 10);
+
+        List<ParsedFoodInfo> foods;
+        try {
+            foods = db.read(c -> {
+                List<ParsedFoodInfo> ret = new ArrayList<>();
+                try (ResultSet rs = c.query(sql.toString(), args.toArray())) {
+                    while (rs.next()) {
+                        ret.add(parseFood(rs));
+                    }
                 }
-            }
-            ingredientSql.append(")");
-            PreparedStatement pstmt = conn.prepareStatement(ingredientSql.toString());
-            for (int i = 0; i < foodIds.size(); i++) {
-                pstmt.setInt(i + 1, foodIds.get(i));
-            }
-            ResultSet ingredientRs = pstmt.executeQuery();
-
-            Map<Integer, ParsedFoodInfo> foodMap = foods.stream().collect(Collectors.toMap(food -> food.id, food -> food));
-            while (ingredientRs.next()) {
-                int foodId = ingredientRs.getInt("food_id");
-                ParsedFoodInfo food = foodMap.get(foodId);
-                String ingredientName = ingredientRs.getString("name");
-                int ingredientPercentage = ingredientRs.getInt("percentage");
-                food.ingredients.add(new ParsedFoodInfo.FoodIngredient(ingredientName, ingredientPercentage));
-            }
-            for (ParsedFoodInfo food : foods) {
-                try {
-                    addFood(new Food(food));
-                } catch (Exception ignored) {
+                if (ret.isEmpty()) {
+                    return ret;
                 }
-            }
+
+                StringBuilder ingredientSql = new StringBuilder("SELECT * FROM food_ingredient JOIN ingredient ON food_ingredient.ingredient_id = ingredient.id WHERE food_ingredient.food_id IN (");
+                ingredientSql.append(String.join(", ", Collections.nCopies(ret.size(), "?")));
+                ingredientSql.append(")");
+                Map<Integer, ParsedFoodInfo> foodMap = ret.stream().collect(Collectors.toMap(food -> food.id, food -> food));
+                try (ResultSet ingredientRs = c.query(ingredientSql.toString(), ret.stream().map(food -> food.id).toArray())) {
+                    while (ingredientRs.next()) {
+                        int foodId = ingredientRs.getInt("food_id");
+                        ParsedFoodInfo food = foodMap.get(foodId);
+                        String ingredientName = ingredientRs.getString("name");
+                        int ingredientPercentage = ingredientRs.getInt("percentage");
+                        food.ingredients.add(new ParsedFoodInfo.FoodIngredient(ingredientName, ingredientPercentage));
+                    }
+                }
+                return ret;
+            });
         } catch (SQLException e) {
             System.out.println("Error retrieving foods: " + e.getMessage());
+            return;
+        }
+        for (ParsedFoodInfo food : foods) {
+            try {
+                addFood(new Food(food));
+            } catch (Exception ignored) {
+            }
         }
     }
 
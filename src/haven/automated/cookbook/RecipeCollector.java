@@ -1,6 +1,7 @@
 package haven.automated.cookbook;
 
 import haven.Buff;
+import haven.Database;
 import haven.GameUI;
 import haven.ItemInfo;
 import haven.Widget;
@@ -24,7 +25,7 @@ import java.util.stream.Collectors;
 
 public class RecipeCollector implements Runnable {
     private final GameUI gui;
-    private static final String DATABASE = "jdbc:sqlite:food_recipes.db";
+    public static final Database db = Database.get("food_recipes.db");
     private static Set<ParsedFoodInfo> queuedFood = ConcurrentHashMap.newKeySet();
     private final boolean run;
 
@@ -151,7 +152,10 @@ public class RecipeCollector implements Runnable {
 //            sendToHttpServer(currentQueue);
 
             for(ParsedFoodInfo foodInfo : currentQueue){
-                insertIntoDatabase(foodInfo);
+                db.write(c -> {
+                    insertFood(c, foodInfo);
+                    return null;
+                });
             }
         }
     }
@@ -213,104 +217,37 @@ public class RecipeCollector implements Runnable {
 //        } catch (IOException ignored) {}
 //    }
 
-    private void insertIntoDatabase(ParsedFoodInfo foodInfo){
-        Connection connection = null;
-        try {
-            connection = DriverManager.getConnection(DATABASE);
-            connection.setAutoCommit(false);
-
-            String sql = "SELECT id FROM food WHERE hash = ?";
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setString(1, foodInfo.hash);
-                ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) {
-                    return;
-                }
-            }
+    private static final String INSERT_FOOD = "INSERT INTO food (hash, name, resource, energy, hunger, totalFep, " +
+            "str1, str2, agi1, agi2, int1, int2, con1, con2, per1, per2, cha1, cha2, dex1, dex2, wil1, wil2, psy1, psy2) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
-            List<Integer> ingredientIds = new ArrayList<>();
-            for (ParsedFoodInfo.FoodIngredient ingredient : foodInfo.ingredients) {
-                sql = "INSERT OR IGNORE INTO ingredient (name) VALUES (?)";
-                try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                    pstmt.setString(1, ingredient.name);
-                    pstmt.executeUpdate();
-                }
-
-                sql = "SELECT id FROM ingredient WHERE name = ?";
-                try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                    pstmt.setString(1, ingredient.name);
-                    ResultSet rs = pstmt.executeQuery();
-                    if (rs.next()) {
-                        ingredientIds.add(rs.getInt("id"));
-                    }
-                }
+    /* Inserts a food and its ingredients unless a food with the same
+     * hash is already stored. Returns whether it was inserted. */
+    public static boolean insertFood(Database.Conn c, ParsedFoodInfo foodInfo) throws SQLException {
+        try (ResultSet rs = c.query("SELECT id FROM food WHERE hash = ?", foodInfo.hash)) {
+            if (rs.next()) {
+                return false;
             }
+        }
 
-            int foodId = -1;
-            sql = "INSERT INTO food (hash, name, resource, energy, hunger, totalFep, " +
-                    "str1, str2, agi1, agi2, int1, int2, con1, con2, per1, per2, cha1, cha2, dex1, dex2, wil1, wil2, psy1, psy2) " +
-                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-
-            try (PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-                pstmt.setString(1, foodInfo.hash);
-                pstmt.setString(2, foodInfo.itemName);
-                pstmt.setString(3, foodInfo.resourceName);
-                pstmt.setInt(4, foodInfo.energy);
-                pstmt.setDouble(5, foodInfo.hunger);
-                pstmt.setDouble(6, foodInfo.totalFep);
-                pstmt.setDouble(7, foodInfo.str1);
-                pstmt.setDouble(8, foodInfo.str2);
-                pstmt.setDouble(9, foodInfo.agi1);
-                pstmt.setDouble(10, foodInfo.agi2);
-                pstmt.setDouble(11, foodInfo.int1);
-                pstmt.setDouble(12, foodInfo.int2);
-                pstmt.setDouble(13, foodInfo.con1);
-                pstmt.setDouble(14, foodInfo.con2);
-                pstmt.setDouble(15, foodInfo.per1);
-                pstmt.setDouble(16, foodInfo.per2);
-                pstmt.setDouble(17, foodInfo.cha1);
-                pstmt.setDouble(18, foodInfo.cha2);
-                pstmt.setDouble(19, foodInfo.dex1);
-                pstmt.setDouble(20, foodInfo.dex2);
-                pstmt.setDouble(21, foodInfo.wil1);
-                pstmt.setDouble(22, foodInfo.wil2);
-                pstmt.setDouble(23, foodInfo.psy1);
-                pstmt.setDouble(24, foodInfo.psy2);
-                pstmt.executeUpdate();
-                ResultSet rs = pstmt.getGeneratedKeys();
-                if (rs.next()) {
-                    foodId = rs.getInt(1);
-                }
-            }
-
-            for (int i = 0; i < foodInfo.ingredients.size(); i++) {
-                int ingredientId = ingredientIds.get(i);
-                double percentage = foodInfo.ingredients.get(i).percentage;
-
-                sql = "INSERT INTO food_ingredient (food_id, ingredient_id, percentage) VALUES (?, ?, ?)";
-                try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                    pstmt.setInt(1, foodId);
-                    pstmt.setInt(2, ingredientId);
-                    pstmt.setDouble(3, percentage);
-                    pstmt.executeUpdate();
-                }
-            }
-            connection.commit();
-        } catch (SQLException e) {
-            if (connection != null) {
-                try {
-                    connection.rollback();
-                } catch (SQLException ex) {
-                    ex.printStackTrace();
+        c.update(INSERT_FOOD, foodInfo.hash, foodInfo.itemName, foodInfo.resourceName, foodInfo.energy, foodInfo.hunger, foodInfo.totalFep,
+                foodInfo.str1, foodInfo.str2, foodInfo.agi1, foodInfo.agi2, foodInfo.int1, foodInfo.int2,
+                foodInfo.con1, foodInfo.con2, foodInfo.per1, foodInfo.per2, foodInfo.cha1, foodInfo.cha2,
+                foodInfo.dex1, foodInfo.dex2, foodInfo.wil1, foodInfo.wil2, foodInfo.psy1, foodInfo.psy2);
+        long foodId = c.lastid();
+
+        for (ParsedFoodInfo.FoodIngredient ingredient : foodInfo.ingredients) {
+            c.update("INSERT OR IGNORE INTO ingredient (name) VALUES (?)", ingredient.name);
+            long ingredientId;
+            try (ResultSet rs = c.query("SELECT id FROM ingredient WHERE name = ?", ingredient.name)) {
+                if (!rs.next()) {
+                    throw new SQLException("Ingredient missing after insert: " + ingredient.name);
                 }
+                ingredientId = rs.getLong("id");
             }
-        } finally {
-            if (connection != null) {
-                try {
-                    connection.close();
-                } catch (SQLException ignored) {}
-            }
+            c.update("INSERT INTO food_ingredient (food_id, ingredient_id, percentage) VALUES (?, ?, ?)", foodId, ingredientId, (double) ingredient.percentage);
         }
+        return true;
     }
 
     private static String createHash(ParsedFoodInfo foodInfo) throws NoSuchAlgorithmException {
@@ -328,72 +265,45 @@ public class RecipeCollector implements Runnable {
     }
 
     public static void createDatabaseIfNotExist() throws SQLException {
-        File dbFile = new File("food_recipes.db");
-        boolean dbExists = dbFile.exists();
-        try (Connection conn = DriverManager.getConnection(DATABASE)) {
-            if (!dbExists) {
-                System.out.println("A new database is being created.");
-            }
-
-            createSchemaElementIfNotExist(conn, dbExists, "food",
-                    "id INTEGER PRIMARY KEY, " +
-                            "hash VARCHAR(255) UNIQUE NOT NULL, " +
-                            "created DATETIME DEFAULT CURRENT_TIMESTAMP, " +
-                            "name VARCHAR(255) NOT NULL, " +
-                            "resource VARCHAR(255) NOT NULL, " +
-                            "energy INTEGER, " +
-                            "hunger REAL, " +
-                            "totalFep REAL, " +
-                            "str1 REAL, " +
-                            "str2 REAL, " +
-                            "agi1 REAL, " +
-                            "agi2 REAL, " +
-                            "int1 REAL, " +
-                            "int2 REAL, " +
-                            "con1 REAL, " +
-                            "con2 REAL, " +
-                            "per1 REAL, " +
-                            "per2 REAL, " +
-                            "cha1 REAL, " +
-                            "cha2 REAL, " +
-                            "dex1 REAL, " +
-                            "dex2 REAL, " +
-                            "wil1 REAL, " +
-                            "wil2 REAL, " +
-                            "psy1 REAL, " +
-                            "psy2 REAL", "table");
-
-            createSchemaElementIfNotExist(conn, dbExists, "ingredient",
-                    "id INTEGER PRIMARY KEY, " +
-                            "name VARCHAR(255) UNIQUE NOT NULL", "table");
-
-            createSchemaElementIfNotExist(conn, dbExists, "food_ingredient",
-                    "food_id INTEGER, " +
-                            "ingredient_id INTEGER, " +
-                            "percentage REAL, " +
-                            "FOREIGN KEY(food_id) REFERENCES food(id), " +
-                            "FOREIGN KEY(ingredient_id) REFERENCES ingredient(id)", "table");
-
-            createSchemaElementIfNotExist(conn, dbExists, "idx_ingredients_name", "ingredient(name)", "index");
-            createSchemaElementIfNotExist(conn, dbExists, "idx_food_ingredients_food_id_ingredient_id", "food_ingredient(food_id, ingredient_id)", "index");
-        }
-    }
-    private static void createSchemaElementIfNotExist(Connection conn, boolean dbExists, String name, String definitions, String type) throws SQLException {
-        if (!schemaElementExists(conn, name, type)) {
-            String sql = type.equals("table") ? "CREATE TABLE " + name + " (\n" + definitions + "\n);" : "CREATE INDEX " + name + " ON " + definitions + ";";
-            try (Statement stmt = conn.createStatement()) {
-                stmt.execute(sql);
-            }
-            if (dbExists) {
-                System.out.println("A new " + type + " (" + name + ") has been created in the existing database.");
-            }
-        }
-    }
-    private static boolean schemaElementExists(Connection conn, String name, String type) throws SQLException {
-        String checkExistsQuery = "SELECT name FROM sqlite_master WHERE type='" + type + "' AND name='" + name + "';";
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(checkExistsQuery)) {
-            return rs.next();
-        }
+        db.schema("CREATE TABLE IF NOT EXISTS food (" +
+                        "id INTEGER PRIMARY KEY, " +
+                        "hash VARCHAR(255) UNIQUE NOT NULL, " +
+                        "created DATETIME DEFAULT CURRENT_TIMESTAMP, " +
+                        "name VARCHAR(255) NOT NULL, " +
+                        "resource VARCHAR(255) NOT NULL, " +
+                        "energy INTEGER, " +
+                        "hunger REAL, " +
+                        "totalFep REAL, " +
+                        "str1 REAL, " +
+                        "str2 REAL, " +
+                        "agi1 REAL, " +
+                        "agi2 REAL, " +
+                        "int1 REAL, " +
+                        "int2 REAL, " +
+                        "con1 REAL, " +
+                        "con2 REAL, " +
+                        "per1 REAL, " +
+                        "per2 REAL, " +
+                        "cha1 REAL, " +
+                        "cha2 REAL, " +
+                        "dex1 REAL, " +
+                        "dex2 REAL, " +
+                        "wil1 REAL, " +
+                        "wil2 REAL, " +
+                        "psy1 REAL, " +
+                        "psy2 REAL)",
+                "CREATE TABLE IF NOT EXISTS ingredient (" +
+                        "id INTEGER PRIMARY KEY, " +
+                        "name VARCHAR(255) UNIQUE NOT NULL)",
+                "CREATE TABLE IF NOT EXISTS food_ingredient (" +
+                        "food_id INTEGER, " +
+                        "ingredient_id INTEGER, " +
+                        "percentage REAL, " +
+                        "FOREIGN KEY(food_id) REFERENCES food(id), " +
+                        "FOREIGN KEY(ingredient_id) REFERENCES ingredient(id))",
+                "CREATE INDEX IF NOT EXISTS idx_ingredients_name ON ingredient(name)",
+                "CREATE INDEX IF NOT EXISTS idx_food_ingredients_food_id_ingredient_id ON food_ingredient(food_id, ingredient_id)",
+                // The from:/-from: cookbook filters go from ingredients to foods.
+                "CREATE INDEX IF NOT EXISTS idx_food_ingredients_ingredient_id_food_id ON food_ingredient(ingredient_id, food_id)");
     }
 }
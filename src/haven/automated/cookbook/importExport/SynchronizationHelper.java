@@ -1,8 +1,10 @@
 package haven.automated.cookbook.importExport;
 
+import haven.Database;
 import haven.GameUI;
 import haven.HackThread;
 import haven.automated.cookbook.ParsedFoodInfo;
+import haven.automated.cookbook.RecipeCollector;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
@@ -14,22 +16,24 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SynchronizationHelper {
-    private static final String DATABASE = "jdbc:sqlite:food_recipes.db";
+    private static final Database db = RecipeCollector.db;
 
     public static List<ParsedFoodInfo> synchronizeFromServer() {
         List<ParsedFoodInfo> parsedFoodInfoList = new ArrayList<>();
         try {
-            Connection connectionDb = DriverManager.getConnection(DATABASE);
-            Statement statement = connectionDb.createStatement();
-
-            ResultSet rs = statement.executeQuery("SELECT hash FROM food");
             JSONArray localHashes = new JSONArray();
-            while (rs.next()) {
-                localHashes.put(rs.getString("hash"));
-            }
+            db.read(c -> {
+                try (ResultSet rs = c.query("SELECT hash FROM food")) {
+                    while (rs.next()) {
+                        localHashes.put(rs.getString("hash"));
+                    }
+                }
+                return null;
+            });
 
             JSONObject json = new JSONObject();
             json.put("hashes", localHashes);
@@ -124,105 +128,26 @@ public class SynchronizationHelper {
                 return;
             }
 
-            try (Connection conn = DriverManager.getConnection(DATABASE)) {
-                conn.setAutoCommit(false);
-
-                try (PreparedStatement insertIngredient = conn.prepareStatement("INSERT OR IGNORE INTO ingredient(name) VALUES(?)");
-                     PreparedStatement insertFood = conn.prepareStatement("INSERT INTO food(hash, name, resource, energy, hunger, totalFep, str1, str2, agi1, agi2, int1, int2, con1, con2, per1, per2, cha1, cha2, dex1, dex2, wil1, wil2, psy1, psy2) " +
-                             "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-                     PreparedStatement insertFoodIngredient = conn.prepareStatement("INSERT INTO food_ingredient(food_id, ingredient_id, percentage) VALUES(?, ?, ?)")) {
-
-                    // Insert Ingredients and fetch IDs.
-                    Map<String, Integer> ingredientIdMap = new HashMap<>();
-                    for (ParsedFoodInfo recipe : missingRecipes) {
-                        for (ParsedFoodInfo.FoodIngredient ingredient : recipe.ingredients) {
-                            insertIngredient.setString(1, ingredient.name);
-                            insertIngredient.addBatch();
-                        }
-                    }
-                    insertIngredient.executeBatch();
-                    conn.commit();
-
-                    try (ResultSet rs = conn.createStatement().executeQuery("SELECT id, name FROM ingredient")) {
-                        while (rs.next()) ingredientIdMap.put(rs.getString("name"), rs.getInt("id"));
-                    }
-
-                    // Insert Foods.
-                    for (ParsedFoodInfo recipe : missingRecipes) {
-                        if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
-                        insertFood.setString(1, recipe.hash);
-                        insertFood.setString(2, recipe.itemName);
-                        insertFood.setString(3, recipe.resourceName);
-                        insertFood.setInt(4, recipe.energy);
-                        insertFood.setDouble(5, recipe.hunger);
-                        insertFood.setDouble(6, recipe.totalFep);
-                        insertFood.setDouble(7, recipe.str1);
-                        insertFood.setDouble(8, recipe.str2);
-                        insertFood.setDouble(9, recipe.agi1);
-                        insertFood.setDouble(10, recipe.agi2);
-                        insertFood.setDouble(11, recipe.int1);
-                        insertFood.setDouble(12, recipe.int2);
-                        insertFood.setDouble(13, recipe.con1);
-                        insertFood.setDouble(14, recipe.con2);
-                        insertFood.setDouble(15, recipe.per1);
-                        insertFood.setDouble(16, recipe.per2);
-                        insertFood.setDouble(17, recipe.cha1);
-                        insertFood.setDouble(18, recipe.cha2);
-                        insertFood.setDouble(19, recipe.dex1);
-                        insertFood.setDouble(20, recipe.dex2);
-                        insertFood.setDouble(21, recipe.wil1);
-                        insertFood.setDouble(22, recipe.wil2);
-                        insertFood.setDouble(23, recipe.psy1);
-                        insertFood.setDouble(24, recipe.psy2);
-                        insertFood.addBatch();
-                    }
-                    prog.prog(String.format("Inserting %d foods...", missingRecipes.size()));
-                    insertFood.executeBatch();
-                    conn.commit();
-
-                    // Select IDs of inserted Foods.
-                    List<String> insertedHashes = missingRecipes.stream().map(r -> r.hash).collect(Collectors.toList());
-                    String inClause = String.join(",", Collections.nCopies(insertedHashes.size(), "?"));
-                    String selectSql = "SELECT id, hash FROM food WHERE hash IN (" + inClause + ")";
-
-                    Map<String, Integer> foodIdMap = new HashMap<>();
-                    try (PreparedStatement selectStatement = conn.prepareStatement(selectSql)) {
-                        for (int i = 0; i < insertedHashes.size(); i++) {
-                            selectStatement.setString(i + 1, insertedHashes.get(i));
-                        }
-                        try (ResultSet rs = selectStatement.executeQuery()) {
-                            while (rs.next()) {
-                                foodIdMap.put(rs.getString("hash"), rs.getInt("id"));
-                            }
-                        }
-                    }
-
-                    List<FoodIngredientMapping> foodIngredientMappings = new ArrayList<>();
+            AtomicBoolean cancelled = new AtomicBoolean(false);
+            try {
+                int added = db.write(c -> {
+                    int n = 0, i = 0;
                     for (ParsedFoodInfo recipe : missingRecipes) {
-                        int foodId = foodIdMap.get(recipe.hash);
-                        for (ParsedFoodInfo.FoodIngredient ingredient : recipe.ingredients) {
-                            foodIngredientMappings.add(new FoodIngredientMapping(foodId, ingredientIdMap.get(ingredient.name), ingredient.percentage));
-                        }
-                    }
-
-                    for (FoodIngredientMapping mapping : foodIngredientMappings) {
-                        insertFoodIngredient.setInt(1, mapping.foodId); // setting food_id
-                        insertFoodIngredient.setInt(2, mapping.ingredientId); // setting ingredient_id
-                        insertFoodIngredient.setDouble(3, mapping.percentage); // setting percentage
-                        insertFoodIngredient.addBatch();
+                        if (cancelled.get())
+                            throw new SQLException("Synchronization cancelled");
+                        if ((i++ % 100) == 0)
+                            prog.prog(String.format("Inserting foods... %d/%d", i, missingRecipes.size()));
+                        if (RecipeCollector.insertFood(c, recipe))
+                            n++;
                     }
-                    prog.prog(String.format("Inserting %d food-ingredient relations...", foodIngredientMappings.size()));
-                    insertFoodIngredient.executeBatch();
-                    conn.commit();
-                    gui.msg(String.format("Synchronization completed successfully! %d new recipes were added.", missingRecipes.size()));
-                } catch (SQLException | InterruptedException e) {
-                    try {
-                        if (!conn.isClosed()) conn.rollback();
-                    } catch (SQLException ignored) {}
-                    gui.error("Synchronization Failed");
-                }
-            } catch (SQLException e) {
-                gui.error("Connection Error.");
+                    return n;
+                }).get();
+                gui.msg(String.format("Synchronization completed successfully! %d new recipes were added.", added));
+            } catch (InterruptedException e) {
+                cancelled.set(true);
+                gui.error("Synchronization Failed");
+            } catch (ExecutionException e) {
+                gui.error("Synchronization Failed");
             }
             prog.destroy();
         }, "Recipe Synchronizer");
@@ -230,18 +155,4 @@ public class SynchronizationHelper {
         prog.run(th);
         gui.adda(prog, gui.sz.div(2), 0.5, 1.0);
     }
-
-
-
-    static class FoodIngredientMapping {
-        final int foodId;
-        final int ingredientId;
-        final double percentage;
-
-        FoodIngredientMapping(int foodId, int ingredientId, double percentage) {
-            this.foodId = foodId;
-            this.ingredientId = ingredientId;
-            this.percentage = percentage;
-        }
-    }
 }
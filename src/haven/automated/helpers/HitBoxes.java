@@ -4,11 +4,10 @@ import haven.*;
 
 import java.io.*;
 import java.sql.*;
-import java.sql.Connection;
 import java.util.*;
 
 public class HitBoxes {
-    private static final String DATABASE = "jdbc:sqlite:static_data.db";
+    private static final Database db = Database.get("static_data.db");
     public static Map<String, CollisionBox[]> collisionBoxMap = new HashMap<>();
 
     private static Set<String> passableGobs = new HashSet<>(Arrays.asList(
@@ -172,11 +171,9 @@ public class HitBoxes {
     }
 
     public static void loadCollisionBoxMap() {
-        try (Connection conn = DriverManager.getConnection(DATABASE)) {
-            if (conn != null) {
-                String sql = "SELECT key, value FROM collision_box_map;";
-                try (Statement stmt = conn.createStatement();
-                     ResultSet rs = stmt.executeQuery(sql)) {
+        try {
+            db.read(c -> {
+                try (ResultSet rs = c.query("SELECT key, value FROM collision_box_map")) {
                     while (rs.next()) {
                         String key = rs.getString("key");
                         String serialized = rs.getString("value");
@@ -185,12 +182,11 @@ public class HitBoxes {
                             collisionBoxMap.put(key, collisionBoxes);
                         }
                     }
-                } catch (SQLException e) {
-                    System.err.println("Error while executing SQL statement: " + e.getMessage());
                 }
-            }
+                return null;
+            });
         } catch (SQLException e) {
-            System.err.println("Error while connecting to database: " + e.getMessage());
+            System.err.println("Error while loading collision boxes: " + e.getMessage());
         }
     }
 
@@ -207,20 +203,11 @@ public class HitBoxes {
     public static void saveCollisionBoxMapEntry(String key, CollisionBox[] collisionBoxes) {
         String serialized = serialize(collisionBoxes);
         if (serialized != null) {
-            try (Connection conn = DriverManager.getConnection(DATABASE)) {
-                if (conn != null) {
-                    String sql = "INSERT OR REPLACE INTO collision_box_map (key, value) VALUES (?, ?);";
-                    try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                        pstmt.setString(1, key);
-                        pstmt.setString(2, serialized);
-                        pstmt.executeUpdate();
-                    } catch (SQLException e) {
-                        System.err.println("Error while executing SQL statement: " + e.getMessage());
-                    }
-                }
-            } catch (SQLException e) {
-                System.err.println("Error while connecting to database: " + e.getMessage());
-            }
+            db.write(c -> c.update("INSERT OR REPLACE INTO collision_box_map (key, value) VALUES (?, ?)", key, serialized))
+                    .exceptionally(e -> {
+                        System.err.println("Error while saving collision boxes: " + e.getMessage());
+                        return null;
+                    });
         }
     }
 
@@ -236,32 +223,9 @@ public class HitBoxes {
     }
 
     public static void createDatabaseIfNotExist() throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DATABASE)) {
-            if (conn != null) {
-                createSchemaElementIfNotExist(conn, "collision_box_map",
-                        "key VARCHAR(255) PRIMARY KEY NOT NULL, " +
-                                "value BLOB NOT NULL",
-                        "table");
-            }
-        }
-    }
-
-    private static void createSchemaElementIfNotExist(Connection conn, String name, String definitions, String type) throws SQLException {
-        if (!schemaElementExists(conn, name, type)) {
-            String sql = type.equals("table") ? "CREATE TABLE " + name + " (\n" + definitions + "\n);" : "CREATE INDEX " + name + " ON " + definitions + ";";
-            try (Statement stmt = conn.createStatement()) {
-                stmt.execute(sql);
-            }
-            System.out.println("A new " + type + " (" + name + ") has been created in the database.");
-        }
-    }
-
-    private static boolean schemaElementExists(Connection conn, String name, String type) throws SQLException {
-        String checkExistsQuery = "SELECT name FROM sqlite_master WHERE type='" + type + "' AND name='" + name + "';";
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(checkExistsQuery)) {
-            return rs.next();
-        }
+        db.schema("CREATE TABLE IF NOT EXISTS collision_box_map (" +
+                "key VARCHAR(255) PRIMARY KEY NOT NULL, " +
+                "value BLOB NOT NULL)");
     }
 
     public static class CollisionBox implements Serializable {
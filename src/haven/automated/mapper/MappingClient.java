@@ -5,13 +5,8 @@ import haven.MCache.LoadingMap;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.*;
 import java.lang.ref.WeakReference;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Predicate;
@@ -20,7 +15,7 @@ import java.util.stream.Collectors;
 
 /** @author Vendan **/
 public class MappingClient {
-    private ExecutorService gridsUploader = Executors.newSingleThreadExecutor();
+    private final UploadPipeline pipeline = new UploadPipeline(() -> OptWnd.mapClientEndpoint);
     private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(3);
     
     private static volatile MappingClient INSTANCE = null;
@@ -42,7 +37,7 @@ public class MappingClient {
     public static void destroy() {
 	synchronized (MappingClient.class) {
 	    if(INSTANCE != null) {
-	        INSTANCE.gridsUploader.shutdown();
+	        INSTANCE.pipeline.shutdown();
 	        INSTANCE.scheduler.shutdown();
 		INSTANCE = null;
 	    }
@@ -50,6 +45,15 @@ public class MappingClient {
     }
     
     public static boolean initialized() {return INSTANCE != null;}
+
+    static {
+	Console.setscmd("mapperstats", new Console.Command() {
+	    public void run(Console cons, String[] args) {
+		MappingClient mc = getInstance();
+		cons.out.println((mc == null) ? "Mapping client not running" : mc.pipeline.stats());
+	    }
+	});
+    }
     
     public static MappingClient getInstance() {
 	synchronized (MappingClient.class) {
@@ -147,77 +151,50 @@ public class MappingClient {
 	    this.markers = markers;
 	}
 
+	ArrayList<JSONObject> loadedMarkers = new ArrayList<>();
+
+	/* Markers whose grids are still loading are left for a later
+	 * run rather than spinning on them, so that this does not hold
+	 * on to a scheduler thread. */
 	@Override
 	public void run() {
-	    ArrayList<JSONObject> loadedMarkers = new ArrayList<>();
-	    while (!markers.isEmpty()) {
-		Iterator<MarkerData> iterator = markers.iterator();
-		while (iterator.hasNext()) {
-		    MarkerData md = iterator.next();
+	    Iterator<MarkerData> iterator = markers.iterator();
+	    while (iterator.hasNext()) {
+		MarkerData md = iterator.next();
+		try {
+		    Coord mgc = new Coord(Math.floorDiv(md.m.tc.x, 100), Math.floorDiv(md.m.tc.y, 100));
+		    long gridId;
 		    try {
-			Coord mgc = new Coord(Math.floorDiv(md.m.tc.x, 100), Math.floorDiv(md.m.tc.y, 100));
-			long gridId;
-			try {
-				gridId = md.indirGrid.get().id;
-			} catch (Exception e) {
-				iterator.remove();
-				continue;
-			}
-			JSONObject o = new JSONObject();
-			o.put("name", md.m.nm);
-			o.put("gridID", String.valueOf(gridId));
-			Coord gridOffset = md.m.tc.sub(mgc.mul(100));
-			o.put("x", gridOffset.x);
-			o.put("y", gridOffset.y);
-
-			if(md.m instanceof MapFile.SMarker) {
-			    o.put("type", "shared");
-			    o.put("id", ((MapFile.SMarker) md.m).oid);
-			    o.put("image", ((MapFile.SMarker) md.m).res.name);
-			} else if(md.m instanceof MapFile.PMarker) {
-			    o.put("type", "player");
-			    o.put("color", ((MapFile.PMarker) md.m).color);
-			}
-			loadedMarkers.add(o);
-			iterator.remove();
-		    } catch (Loading ex) {
+			    gridId = md.indirGrid.get().id;
+		    } catch (Exception e) {
+			    iterator.remove();
+			    continue;
+		    }
+		    JSONObject o = new JSONObject();
+		    o.put("name", md.m.nm);
+		    o.put("gridID", String.valueOf(gridId));
+		    Coord gridOffset = md.m.tc.sub(mgc.mul(100));
+		    o.put("x", gridOffset.x);
+		    o.put("y", gridOffset.y);
+    
+		    if(md.m instanceof MapFile.SMarker) {
+			o.put("type", "shared");
+			o.put("id", ((MapFile.SMarker) md.m).oid);
+			o.put("image", ((MapFile.SMarker) md.m).res.name);
+		    } else if(md.m instanceof MapFile.PMarker) {
+			o.put("type", "player");
+			o.put("color", ((MapFile.PMarker) md.m).color);
 		    }
+		    loadedMarkers.add(o);
+		    iterator.remove();
+		} catch (Loading ex) {
 		}
-		try {
-		    Thread.sleep(50);
-		} catch (InterruptedException ex) { }
-	    }
-	    try {
-		scheduler.execute(new MarkerUpdate(new JSONArray(loadedMarkers.toArray())));
-	    } catch (Exception ex) {
 	    }
-	}
-    }
-
-    private class MarkerUpdate implements Runnable {
-	JSONArray data;
-
-	MarkerUpdate(JSONArray data) {
-	    this.data = data;
-	}
-
-	@Override
-	public void run() {
-	    try {
-		HttpURLConnection connection =
-		    (HttpURLConnection) new URL(OptWnd.mapClientEndpoint + "/markerUpdate").openConnection();
-		connection.setRequestMethod("POST");
-		connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
-		connection.setDoOutput(true);
-		try (DataOutputStream out = new DataOutputStream(connection.getOutputStream())) {
-		    final String json = data.toString();
-		    out.write(json.getBytes(StandardCharsets.UTF_8));
-		}
-		int code = connection.getResponseCode();
-		connection.disconnect();
-	    } catch (Exception ex) {
-		System.out.println(ex);
+	    if(!markers.isEmpty()) {
+		scheduler.schedule(this, 250, TimeUnit.MILLISECONDS);
+		return;
 	    }
+	    pipeline.send("/markerUpdate", new JSONArray(loadedMarkers.toArray()).toString());
 	}
     }
     
@@ -290,18 +267,10 @@ public class MappingClient {
 			}
 		    }
 		    
+		    /* Not retried, since the next update will be along
+		     * shortly and supersedes this one anyway. */
 		    try {
-			final HttpURLConnection connection =
-			    (HttpURLConnection) new URL(OptWnd.mapClientEndpoint + "/positionUpdate").openConnection();
-			connection.setRequestMethod("POST");
-			connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
-			connection.setDoOutput(true);
-			try (DataOutputStream out = new DataOutputStream(connection.getOutputStream())) {
-			    final String json = upload.toString();
-			    out.write(json.getBytes(StandardCharsets.UTF_8));
-			} catch (Exception e) {
-			}
-			connection.getResponseCode();
+			pipeline.post("/positionUpdate", upload.toString());
 		    } catch (final Exception ex) {
 		    }
 		}
@@ -375,32 +344,15 @@ public class MappingClient {
 		
 		dataToSend.put("grids", this.gridUpdate.grids);
 		try {
-		    HttpURLConnection connection =
-			(HttpURLConnection) new URL(OptWnd.mapClientEndpoint + "/gridUpdate").openConnection();
-		    connection.setRequestMethod("POST");
-		    connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
-		    connection.setDoOutput(true);
-		    try (DataOutputStream out = new DataOutputStream(connection.getOutputStream())) {
-			String json = new JSONObject(dataToSend).toString();
-			out.write(json.getBytes(StandardCharsets.UTF_8));
-		    }
-		    if(connection.getResponseCode() == 200) {
-			DataInputStream dio = new DataInputStream(connection.getInputStream());
-			int nRead;
-			byte[] data = new byte[1024];
-			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-			while ((nRead = dio.read(data, 0, data.length)) != -1) {
-			    buffer.write(data, 0, nRead);
-			}
-			buffer.flush();
-			String response = buffer.toString(StandardCharsets.UTF_8.name());
-			JSONObject jo = new JSONObject(response);
+		    UploadPipeline.Response rsp = pipeline.post("/gridUpdate", new JSONObject(dataToSend).toString());
+		    if(rsp.code == 200) {
+			JSONObject jo = new JSONObject(rsp.text());
 			JSONArray reqs = jo.optJSONArray("gridRequests");
 			synchronized (cache) {
 			    cache.put(Long.valueOf(gridUpdate.grids[1][1]), new MapRef(jo.getLong("map"), new Coord(jo.getJSONObject("coords").getInt("x"), jo.getJSONObject("coords").getInt("y"))));
 			}
 			for (int i = 0; reqs != null && i < reqs.length(); i++) {
-			    gridsUploader.execute(new GridUploadTask(reqs.getString(i), gridUpdate.gridRefs.get(reqs.getString(i))));
+			    uploadGrid(reqs.getString(i), gridUpdate.gridRefs.get(reqs.getString(i)));
 			}
 		    }
 		    
@@ -409,42 +361,20 @@ public class MappingClient {
 	}
     }
     
-    private class GridUploadTask implements Runnable {
-	private final String gridID;
-	private final WeakReference<MCache.Grid> grid;
-	
-	GridUploadTask(String gridID, WeakReference<MCache.Grid> grid) {
-	    this.gridID = gridID;
-	    this.grid = grid;
-	}
-	
-	@Override
-	public void run() {
-	    try {
-		MCache.Grid g = grid.get();
-		if(g != null && glob != null) {
-			BufferedImage image = MinimapImageGenerator.drawmap(glob.map, g);
-		    if(image == null) {
-			throw new Loading();
-		    }
-		    try {
-			JSONObject extraData = new JSONObject();
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			ImageIO.write(image, "png", outputStream);
-			ByteArrayInputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
-			MultipartUtility multipart = new MultipartUtility(OptWnd.mapClientEndpoint + "/gridUpload", "utf-8");
-			multipart.addFormField("id", this.gridID);
-			multipart.addFilePart("file", inputStream, "minimap.png");
-			extraData.put("season", glob.ast.is);
-			multipart.addFormField("extraData", extraData.toString());
-			MultipartUtility.Response response = multipart.finish();
-		    } catch (IOException ignored) {}
-		}
-	    } catch (Loading ex) {
-		gridsUploader.submit(this);
-	    }
-	    
-	}
+    private void uploadGrid(String gridID, WeakReference<MCache.Grid> grid) {
+	if(grid == null)
+	    return;
+	JSONObject extraData = new JSONObject();
+	extraData.put("season", glob.ast.is);
+	pipeline.grid(gridID, () -> {
+	    MCache.Grid g = grid.get();
+	    if(g == null)
+		return null;
+	    BufferedImage image = MinimapImageGenerator.drawmap(glob.map, g);
+	    if(image == null)
+		throw new Loading();
+	    return image;
+	}, extraData.toString());
     }
     
     private static Coord toGC(Coord2d c) {
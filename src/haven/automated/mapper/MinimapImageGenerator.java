@@ -4,10 +4,7 @@ import haven.*;
 import haven.resutil.Ridges;
 import haven.resutil.TerrainTile;
 
-import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * @author APXEOLOG (Artyom Melnikov), at 28.01.2019
@@ -30,53 +27,55 @@ public class MinimapImageGenerator {
     }
 
     public static BufferedImage drawmap(MCache map, MCache.Grid grid) {
-        BufferedImage buf = null;
+        Coord sz = MCache.cmaps;
+        MapRaster buf = new MapRaster(sz);
         try {
             BufferedImage[] texes = new BufferedImage[256];
-            buf = TexI.mkbuf(MCache.cmaps);
+            MapRaster.Texels[] pal = new MapRaster.Texels[256];
+            boolean[] seen = new boolean[256];
+            int[] tiles = new int[sz.x * sz.y];
             Coord c = new Coord();
-            for (c.y = 0; c.y < MCache.cmaps.y; c.y++) {
-                for (c.x = 0; c.x < MCache.cmaps.x; c.x++) {
-                    BufferedImage tex = tileimg(grid.gettile(c), texes, map);
-                    int rgb = 0;
-                    if (tex != null)
-                        rgb = tex.getRGB(Utils.floormod(c.x, tex.getWidth()),
-                                Utils.floormod(c.y, tex.getHeight()));
-                    buf.setRGB(c.x, c.y, rgb);
-                }
-            }
-            for (c.y = 1; c.y < MCache.cmaps.y - 1; c.y++) {
-                for (c.x = 1; c.x < MCache.cmaps.x - 1; c.x++) {
+            for (c.y = 0; c.y < sz.y; c.y++) {
+                for (c.x = 0; c.x < sz.x; c.x++) {
                     int t = grid.gettile(c);
-                    Tiler tl = map.tiler(t);
-                    if (tl instanceof haven.resutil.TerrainTile.RidgeTile) {
-                        if (Ridges.brokenp(map, c, grid)) {
-                            for (int y = c.y - 1; y <= c.y + 1; y++) {
-                                for (int x = c.x - 1; x <= c.x + 1; x++) {
-                                    Color cc = new Color(buf.getRGB(x, y));
-                                    buf.setRGB(x, y, Utils.blendcol(cc, Color.BLACK, ((x == c.x) && (y == c.y)) ? 1 : 0.1).getRGB());
-                                }
-                            }
-                        }
+                    tiles[c.x + (c.y * sz.x)] = t;
+                    if (!seen[t]) {
+                        seen[t] = true;
+                        pal[t] = MapRaster.texels(tileimg(t, texes, map));
                     }
                 }
             }
-            for (c.y = 0; c.y < MCache.cmaps.y; c.y++) {
-                for (c.x = 0; c.x < MCache.cmaps.x; c.x++) {
-                    try {
-                        int t = grid.gettile(c);
-                        Coord r = c.add(grid.ul);
-                        if ((map.gettile(r.add(-1, 0)) > t) ||
-                                (map.gettile(r.add(1, 0)) > t) ||
-                                (map.gettile(r.add(0, -1)) > t) ||
-                                (map.gettile(r.add(0, 1)) > t)) {
-                            buf.setRGB(c.x, c.y, Color.BLACK.getRGB());
+            buf.fill(tiles, pal, Coord.z);
+            Boolean[] ridge = new Boolean[256];
+            for (c.y = 1; c.y < sz.y - 1; c.y++) {
+                for (c.x = 1; c.x < sz.x - 1; c.x++) {
+                    int t = tiles[c.x + (c.y * sz.x)];
+                    if (ridge[t] == null)
+                        ridge[t] = map.tiler(t) instanceof haven.resutil.TerrainTile.RidgeTile;
+                    if (ridge[t] && Ridges.brokenp(map, c, grid))
+                        buf.ridge(c.x, c.y);
+                }
+            }
+            /* Neighbours outside of this grid come from the map, and
+             * edges next to grids that are not loaded are left out. */
+            int kw = sz.x + 2;
+            int[] keys = new int[kw * (sz.y + 2)];
+            for (c.y = -1; c.y <= sz.y; c.y++) {
+                for (c.x = -1; c.x <= sz.x; c.x++) {
+                    int k = ((c.y + 1) * kw) + c.x + 1;
+                    if ((c.x >= 0) && (c.y >= 0) && (c.x < sz.x) && (c.y < sz.y)) {
+                        keys[k] = tiles[c.x + (c.y * sz.x)];
+                    } else {
+                        try {
+                            keys[k] = map.gettile(c.add(grid.ul));
+                        } catch (Exception e) {
+                            keys[k] = MapRaster.UNKNOWN;
                         }
-                    } catch (Exception ignored) {
                     }
                 }
             }
+            buf.edges(keys, 0, 0, sz.x, sz.y);
         } catch (Exception ignored) {}
-        return buf;
+        return buf.image();
     }
-}
\ No newline at end of file
+}
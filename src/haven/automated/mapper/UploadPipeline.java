@@ -0,0 +1,400 @@
+package haven.automated.mapper;
+
+import haven.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Moves grid images from the map cache to the mapping server.
+ *
+ * Grids go through two bounded stages: rendering and PNG encoding on
+ * a small pool of encoder threads, then the actual uploads on a pool
+ * of uploader threads. Encoders wait for room in the upload queue,
+ * which throttles them while the server is slow. Jobs never run on
+ * the thread submitting them: other submitters, which include the
+ * retrier and the mapping client's scheduler, must not block, so a
+ * job that finds its stage full is handed to the retrier and
+ * submitted again shortly after. Before encoding, the rendered
+ * pixels are hashed and compared to what this pipeline has already
+ * uploaded to the same endpoint, so that a grid requested again while
+ * unchanged is not sent twice in one session. That record is kept in
+ * memory only: grids are only uploaded when the server asks for them,
+ * and a server that asks has lost or never had the grid, e.g. after a
+ * wipe or a restore, so what was sent in an earlier session must not
+ * hold the grid back. A grid stays queued until its upload has
+ * finished, so it is not rendered again while the first upload is
+ * still being retried. Failed requests are retried with exponential
+ * backoff. All requests are made through {@link #post}, which reads
+ * every response to the end so that the JDK can keep the connection
+ * alive for the next one.
+ */
+public class UploadPipeline {
+    public static final Config.Variable<Integer> encoders = Config.Variable.propi("haven.mapper.encoders", Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+    public static final Config.Variable<Integer> uploaders = Config.Variable.propi("haven.mapper.uploaders", 2);
+    public static final Config.Variable<Integer> queuesz = Config.Variable.propi("haven.mapper.queue", 32);
+    public static final Config.Variable<Integer> retries = Config.Variable.propi("haven.mapper.retries", 6);
+    private static final long backoffbase = 1000, backoffmax = 60000;
+    private static final long requeuedelay = 250;
+    private static final int loadretries = 10;
+
+    private final Supplier<String> endpoint;
+    private final ThreadPoolExecutor encoder, uploader;
+    private final ScheduledExecutorService retrier;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final Map<String, Manifest> manifests = new HashMap<>();
+    public final AtomicInteger encoded = new AtomicInteger(), skipped = new AtomicInteger(), uploaded = new AtomicInteger(),
+	retried = new AtomicInteger(), failed = new AtomicInteger();
+
+    public UploadPipeline(Supplier<String> endpoint, int nencoders, int nuploaders, int queuesz) {
+	this.endpoint = endpoint;
+	this.encoder = pool("Map encoder", nencoders, queuesz);
+	this.uploader = pool("Map uploader", nuploaders, queuesz);
+	this.retrier = Executors.newSingleThreadScheduledExecutor(daemon("Map upload retrier"));
+    }
+
+    public UploadPipeline(Supplier<String> endpoint) {
+	this(endpoint, encoders.get(), uploaders.get(), queuesz.get());
+    }
+
+    private static ThreadFactory daemon(String name) {
+	AtomicInteger n = new AtomicInteger();
+	return r -> {
+	    Thread th = new HackThread(r, name + " " + n.incrementAndGet());
+	    th.setDaemon(true);
+	    return th;
+	};
+    }
+
+    private static ThreadPoolExecutor pool(String name, int n, int queuesz) {
+	ThreadPoolExecutor ret = new ThreadPoolExecutor(n, n, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queuesz), daemon(name));
+	/* So that jobs put straight into the queue are picked up. */
+	ret.prestartAllCoreThreads();
+	return ret;
+    }
+
+    /* Submits a job from a thread that may block, waiting for room if
+     * the stage is full. */
+    private static void put(ThreadPoolExecutor pool, Runnable job) throws InterruptedException {
+	if(pool.isShutdown())
+	    throw new RejectedExecutionException();
+	pool.getQueue().put(job);
+    }
+
+    /* Submits a job without blocking. If the stage is full, the job
+     * is submitted again by the retrier after a short delay. */
+    private void offer(ThreadPoolExecutor pool, Runnable job) {
+	try {
+	    pool.execute(job);
+	} catch (RejectedExecutionException e) {
+	    if(pool.isShutdown())
+		throw e;
+	    retrier.schedule(() -> offer(pool, job), requeuedelay, TimeUnit.MILLISECONDS);
+	}
+    }
+
+    public static class Response {
+	public final int code;
+	public final byte[] body;
+
+	public Response(int code, byte[] body) {
+	    this.code = code;
+	    this.body = body;
+	}
+
+	public boolean ok() {
+	    return (code >= 200) && (code < 300);
+	}
+
+	/* Worth trying again later, as opposed to the request itself
+	 * being rejected. */
+	public boolean retryable() {
+	    return (code >= 500) || (code == 429) || (code == 408);
+	}
+
+	public String text() {
+	    return new String(body, StandardCharsets.UTF_8);
+	}
+    }
+
+    public static Response post(String url, String ctype, byte[] body) throws IOException {
+	HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+	conn.setRequestMethod("POST");
+	conn.setUseCaches(false);
+	conn.setDoOutput(true);
+	conn.setConnectTimeout(10000);
+	conn.setReadTimeout(30000);
+	conn.setRequestProperty("Content-Type", ctype);
+	conn.setRequestProperty("User-Agent", Config.confid);
+	conn.setFixedLengthStreamingMode(body.length);
+	try (OutputStream out = conn.getOutputStream()) {
+	    out.write(body);
+	}
+	int code = conn.getResponseCode();
+	/* Not calling disconnect() and draining the stream instead is
+	 * what lets the connection go back into the keep-alive cache. */
+	InputStream in = (code >= 400) ? conn.getErrorStream() : conn.getInputStream();
+	byte[] rsp = new byte[0];
+	if(in != null) {
+	    try (InputStream i = in) {
+		rsp = i.readAllBytes();
+	    }
+	}
+	return new Response(code, rsp);
+    }
+
+    public Response post(String path, String json) throws IOException {
+	return post(endpoint.get() + path, "application/json;charset=UTF-8", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private long backoff(int attempt) {
+	long d = Math.min(backoffbase << Math.min(attempt, 16), backoffmax);
+	return d / 2 + ThreadLocalRandom.current().nextLong(d / 2 + 1);
+    }
+
+    private abstract class Request implements Runnable {
+	int attempt = 0;
+
+	abstract Response send() throws IOException;
+
+	void done(Response rsp) {}
+
+	public void run() {
+	    Response rsp;
+	    try {
+		rsp = send();
+	    } catch (IOException e) {
+		rsp = null;
+	    }
+	    if((rsp != null) && rsp.ok()) {
+		done(rsp);
+	    } else if(((rsp == null) || rsp.retryable()) && (attempt < retries.get())) {
+		retried.incrementAndGet();
+		try {
+		    retrier.schedule(() -> offer(uploader, this), backoff(attempt++), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+		    failed();
+		}
+	    } else {
+		failed();
+	    }
+	}
+
+	void failed() {
+	    failed.incrementAndGet();
+	}
+    }
+
+    /** Posts a JSON document in the background, retrying on failure. */
+    public void send(String path, String json) {
+	try {
+	    offer(uploader, new Request() {
+		    Response send() throws IOException {
+			return post(path, json);
+		    }
+		});
+	} catch (RejectedExecutionException e) {
+	}
+    }
+
+    private static MessageDigest digest() {
+	try {
+	    return MessageDigest.getInstance("SHA-1");
+	} catch (NoSuchAlgorithmException e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
+    private static String hash(BufferedImage img, String extra) {
+	MessageDigest dig = digest();
+	dig.update(extra.getBytes(StandardCharsets.UTF_8));
+	java.awt.image.DataBuffer buf = img.getRaster().getDataBuffer();
+	if(buf instanceof DataBufferByte) {
+	    dig.update(((DataBufferByte) buf).getData());
+	} else {
+	    int w = img.getWidth();
+	    int[] px = new int[w];
+	    byte[] bytes = new byte[w * 4];
+	    for (int y = 0; y < img.getHeight(); y++) {
+		img.getRGB(0, y, w, 1, px, 0, w);
+		for (int x = 0, o = 0; x < w; x++, o += 4) {
+		    bytes[o] = (byte) (px[x] >> 24); bytes[o + 1] = (byte) (px[x] >> 16);
+		    bytes[o + 2] = (byte) (px[x] >> 8); bytes[o + 3] = (byte) px[x];
+		}
+		dig.update(bytes);
+	    }
+	}
+	return Utils.byte2hex(dig.digest());
+    }
+
+    private static byte[] multipart(String boundary, String id, byte[] png, String extra) {
+	ByteArrayOutputStream buf = new ByteArrayOutputStream(png.length + 512);
+	PrintStream out = new PrintStream(buf, false, StandardCharsets.UTF_8);
+	out.print("--" + boundary + "\r\n");
+	out.print("Content-Disposition: form-data; name=\"id\"\r\n");
+	out.print("Content-Type: text/plain; charset=utf-8\r\n\r\n");
+	out.print(id + "\r\n");
+	out.print("--" + boundary + "\r\n");
+	out.print("Content-Disposition: form-data; name=\"file\"; filename=\"minimap.png\"\r\n");
+	out.print("Content-Type: image/png\r\n");
+	out.print("Content-Transfer-Encoding: binary\r\n\r\n");
+	out.write(png, 0, png.length);
+	out.print("\r\n");
+	out.print("--" + boundary + "\r\n");
+	out.print("Content-Disposition: form-data; name=\"extraData\"\r\n");
+	out.print("Content-Type: text/plain; charset=utf-8\r\n\r\n");
+	out.print(extra + "\r\n");
+	out.print("--" + boundary + "--\r\n");
+	out.flush();
+	return buf.toByteArray();
+    }
+
+    private class GridUpload extends Request {
+	final String id, url, hash;
+	final byte[] body;
+	final Manifest manifest;
+	final String boundary = "===" + System.currentTimeMillis() + "===";
+
+	GridUpload(String id, String url, String hash, byte[] png, String extra, Manifest manifest) {
+	    this.id = id;
+	    this.url = url;
+	    this.hash = hash;
+	    this.body = multipart(boundary, id, png, extra);
+	    this.manifest = manifest;
+	}
+
+	Response send() throws IOException {
+	    return post(url + "/gridUpload", "multipart/form-data; boundary=\"" + boundary + "\"", body);
+	}
+
+	void done(Response rsp) {
+	    uploaded.incrementAndGet();
+	    manifest.record(id, hash);
+	    pending.remove(id);
+	}
+
+	void failed() {
+	    super.failed();
+	    pending.remove(id);
+	}
+    }
+
+    private class GridJob implements Runnable {
+	final String id, extra;
+	final Supplier<BufferedImage> render;
+	int loads = 0;
+
+	GridJob(String id, Supplier<BufferedImage> render, String extra) {
+	    this.id = id;
+	    this.render = render;
+	    this.extra = extra;
+	}
+
+	public void run() {
+	    BufferedImage img;
+	    try {
+		img = render.get();
+	    } catch (Loading l) {
+		if(loads++ < loadretries) {
+		    try {
+			retrier.schedule(() -> offer(encoder, this), 1, TimeUnit.SECONDS);
+			return;
+		    } catch (RejectedExecutionException e) {
+		    }
+		}
+		pending.remove(id);
+		return;
+	    }
+	    if(img == null) {
+		pending.remove(id);
+		return;
+	    }
+	    String url = endpoint.get();
+	    Manifest manifest = manifest(url);
+	    String hash = hash(img, extra);
+	    if(manifest.has(id, hash)) {
+		skipped.incrementAndGet();
+		pending.remove(id);
+		return;
+	    }
+	    byte[] png;
+	    try {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		ImageIO.write(img, "png", buf);
+		png = buf.toByteArray();
+	    } catch (IOException e) {
+		failed.incrementAndGet();
+		pending.remove(id);
+		return;
+	    }
+	    encoded.incrementAndGet();
+	    try {
+		put(uploader, new GridUpload(id, url, hash, png, extra, manifest));
+	    } catch (InterruptedException e) {
+		pending.remove(id);
+		Thread.currentThread().interrupt();
+	    } catch (RejectedExecutionException e) {
+		pending.remove(id);
+	    }
+	}
+    }
+
+    /**
+     * Queues a grid for upload. The render function is called on an
+     * encoder thread, may throw Loading to be called again a bit
+     * later, and may return null if the grid is no longer
+     * available. Grids that are already queued, or still being
+     * uploaded, are not queued again.
+     */
+    public void grid(String id, Supplier<BufferedImage> render, String extra) {
+	if(!pending.add(id))
+	    return;
+	try {
+	    offer(encoder, new GridJob(id, render, extra));
+	} catch (RejectedExecutionException e) {
+	    pending.remove(id);
+	}
+    }
+
+    private Manifest manifest(String url) {
+	synchronized (manifests) {
+	    return manifests.computeIfAbsent(url, k -> new Manifest());
+	}
+    }
+
+    /** The hashes of the grids uploaded to one endpoint in this session. */
+    public static class Manifest {
+	private final Map<String, String> hashes = new HashMap<>();
+
+	public synchronized boolean has(String id, String hash) {
+	    return hash.equals(hashes.get(id));
+	}
+
+	public synchronized void record(String id, String hash) {
+	    hashes.put(id, hash);
+	}
+    }
+
+    public String stats() {
+	return String.format("%d queued, %d encoding, %d uploading, %d encoded, %d unchanged, %d uploaded, %d retried, %d failed",
+			     pending.size(), encoder.getQueue().size(), uploader.getQueue().size(),
+			     encoded.get(), skipped.get(), uploaded.get(), retried.get(), failed.get());
+    }
+
+    public void shutdown() {
+	retrier.shutdownNow();
+	encoder.shutdownNow();
+	uploader.shutdown();
+    }
+}
@@ -1,124 +1,82 @@
 package haven.automated.pathfinder;
 
-import java.util.Map;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class AStar {
-
-    public Iterable<Edge> route(Vertex start, Vertex end) {
-        Node dest = findShortestPath(new Path(start, end));
-        LinkedList<Edge> path = new LinkedList<Edge>();
-        if (dest != null) {
-            while (dest.edge != null) {
-                path.addFirst(dest.edge);
-                dest = dest.prev;
-            }
+    private static final AtomicInteger gens = new AtomicInteger();
+    private final IntHeap open = new IntHeap();
+    private Vertex[] verts = new Vertex[64];
+    private Edge[] via = new Edge[64];
+    private float[] g = new float[64];
+    private float[] h = new float[64];
+    private boolean[] closed = new boolean[64];
+    private int n, gen;
+
+    /* Vertices are numbered as the search reaches them. The numbering
+     * is stamped with a generation unique to the search, so stale IDs
+     * left on vertices by earlier searches are ignored, and none of
+     * the per-vertex state has to be cleared between searches. */
+    private int id(Vertex v, Vertex end) {
+        if (v.sgen == gen)
+            return v.sid;
+        if (n == verts.length) {
+            int nl = n * 2;
+            verts = Arrays.copyOf(verts, nl);
+            via = Arrays.copyOf(via, nl);
+            g = Arrays.copyOf(g, nl);
+            h = Arrays.copyOf(h, nl);
+            closed = Arrays.copyOf(closed, nl);
         }
-        return path;
+        int id = n++;
+        v.sgen = gen;
+        v.sid = id;
+        verts[id] = v;
+        via[id] = null;
+        g[id] = Float.POSITIVE_INFINITY;
+        h[id] = heuristic(v, end);
+        closed[id] = false;
+        return id;
     }
 
-    private Node findShortestPath(Path p) {
-        int order = 0;
-
-        Set<Node> closed = new HashSet<Node>();
-        PriorityQueue<Node> open = new PriorityQueue<Node>();
-
-        Node current = p.node(p.start);
-        current.reset(null, null, 0, order++);
-        open.add(current);
-
+    public Iterable<Edge> route(Vertex start, Vertex end) {
+        LinkedList<Edge> path = new LinkedList<Edge>();
+        gen = gens.incrementAndGet();
+        n = 0;
+        open.clear(verts.length);
+        int s = id(start, end);
+        g[s] = 0;
+        open.push(s, h[s]);
         while (!open.isEmpty()) {
-            current = open.remove();
-
-            if (current.vertex.equals(p.end))
-                return current;
-
-            closed.add(current);
-            for (Edge edge : current.vertex.edges) {
-                Node n = p.node(edge.dest);
-
-                double g = current.g + edge.weight;
-                double f = g + n.h;
-
-                if (closed.contains(n) && f >= n.f())
+            int cur = open.pop();
+            Vertex v = verts[cur];
+            if (v == end) {
+                for (Edge e = via[cur]; e != null; e = via[e.src.sid])
+                    path.addFirst(e);
+                break;
+            }
+            closed[cur] = true;
+            for (Edge edge : v.edges) {
+                int d = id(edge.dest, end);
+                if (closed[d])
                     continue;
-
-                if (!open.contains(n) || f < n.f()) {
-                    open.remove(n);
-                    n.reset(current, edge, g, order++);
-                    open.add(n);
+                float ng = g[cur] + (float) edge.weight;
+                if (ng < g[d]) {
+                    g[d] = ng;
+                    via[d] = edge;
+                    open.push(d, ng + h[d]);
                 }
             }
         }
-        return null;
-    }
-
-    private static class Path {
-        private final Vertex start;
-        private final Vertex end;
-        private final Map<Vertex, Node> nodes;
-
-        public Path(Vertex start, Vertex end) {
-            this.start = start;
-            this.end = end;
-            nodes = new HashMap<Vertex, Node>();
-        }
-
-        private Node node(Vertex vertex) {
-            Node n = nodes.get(vertex);
-            if (n == null) {
-                n = new Node(vertex, heuristic(vertex, end));
-                nodes.put(vertex, n);
-            }
-            return n;
-        }
-
-        private double heuristic(Vertex a, Vertex b) {
-            double dx = a.x - b.x;
-            double dy = a.y - b.y;
-            return Math.sqrt(dx * dx + dy * dy);
-        }
+        Arrays.fill(verts, 0, n, null);
+        Arrays.fill(via, 0, n, null);
+        return path;
     }
 
-    private static class Node implements Comparable<Node> {
-        private final Vertex vertex;
-        private final double h;
-        private Node prev;
-        private Edge edge;
-        private double g;
-        private int order;
-
-        public Node(Vertex vertex, double h) {
-            this.vertex = vertex;
-            this.h = h;
-        }
-
-        private void reset(Node prev, Edge edge, double g, int order) {
-            this.prev = prev;
-            this.edge = edge;
-            this.g = g;
-            this.order = order;
-        }
-
-        private double f() {
-            return g + h;
-        }
-
-        @Override
-        public int compareTo(Node n) {
-            if (this == n)
-                return 0;
-
-            int diff = (int) Math.signum(f() - n.f());
-
-            if (diff == 0)
-                diff = (int) Math.signum(h - n.h);
-
-            if (diff == 0)
-                diff = order = n.order;
-
-            return diff;
-        }
+    private static float heuristic(Vertex a, Vertex b) {
+        double dx = a.x - b.x;
+        double dy = a.y - b.y;
+        return (float) Math.sqrt(dx * dx + dy * dy);
     }
 }
@@ -0,0 +1,191 @@
+package haven.automated.pathfinder;
+
+import haven.Coord;
+
+import java.util.*;
+
+/**
+ * Jump point search over a {@link Map} cell grid. Cells are addressed
+ * by int IDs, the open set is an {@link IntHeap}, and per-cell state is
+ * kept in arrays that are reused across searches. A cell counts as
+ * seen or closed only if its stamp matches the current search, so none
+ * of it needs clearing between searches. Diagonal moves may not cut
+ * corners, matching what {@link Utils#isVisible} accepts.
+ */
+public class GridSearch {
+    private static final float DIAG = (float) Math.sqrt(2);
+    private final IntHeap open = new IntHeap();
+    private int[] stamp = {};
+    private float[] g = {};
+    private int[] parent = {};
+    private int gen = 0;
+
+    private byte[][] map;
+    private int w, h, start, goal;
+    private byte block;
+
+    private boolean free(int x, int y) {
+        if ((x < 0) || (y < 0) || (x >= w) || (y >= h))
+            return false;
+        int id = (x * h) + y;
+        return ((map[x][y] & block) == 0) || (id == goal) || (id == start);
+    }
+
+    /**
+     * Returns the jump points leading from (sx, sy) to (ex, ey), the
+     * latter included and the former not, or null if the destination
+     * cannot be reached. The end points are treated as free even if
+     * they are marked as blocked.
+     */
+    public synchronized List<Coord> route(byte[][] map, int sx, int sy, int ex, int ey, byte block) {
+        this.map = map;
+        this.block = block;
+        this.w = map.length;
+        this.h = map[0].length;
+        this.start = (sx * h) + sy;
+        this.goal = (ex * h) + ey;
+        try {
+            return search(ex, ey);
+        } finally {
+            this.map = null;
+        }
+    }
+
+    private List<Coord> search(int ex, int ey) {
+        int cells = w * h;
+        if (stamp.length < cells) {
+            stamp = new int[cells];
+            g = new float[cells];
+            parent = new int[cells];
+            gen = 0;
+        }
+        /* Open cells are stamped gen, closed ones gen + 1. */
+        gen += 2;
+        if (gen < 0) {
+            Arrays.fill(stamp, 0);
+            gen = 2;
+        }
+        open.clear(cells);
+        stamp[start] = gen;
+        g[start] = 0;
+        parent[start] = -1;
+        open.push(start, octile(start, ex, ey));
+        while (!open.isEmpty()) {
+            int cur = open.pop();
+            if (cur == goal) {
+                LinkedList<Coord> ret = new LinkedList<>();
+                for (int c = cur; c != start; c = parent[c])
+                    ret.addFirst(Coord.of(c / h, c % h));
+                return ret;
+            }
+            stamp[cur] = gen + 1;
+            int x = cur / h, y = cur % h;
+            int p = parent[cur];
+            if (p < 0) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        if (((dx != 0) || (dy != 0)) && step(x, y, dx, dy))
+                            expand(cur, x, y, dx, dy, ex, ey);
+                    }
+                }
+            } else {
+                int dx = Integer.signum(x - (p / h)), dy = Integer.signum(y - (p % h));
+                if ((dx != 0) && (dy != 0)) {
+                    if (free(x, y + dy))
+                        expand(cur, x, y, 0, dy, ex, ey);
+                    if (free(x + dx, y))
+                        expand(cur, x, y, dx, 0, ex, ey);
+                    if (step(x, y, dx, dy))
+                        expand(cur, x, y, dx, dy, ex, ey);
+                } else if (dx != 0) {
+                    boolean a = free(x, y + 1), b = free(x, y - 1);
+                    if (free(x + dx, y)) {
+                        expand(cur, x, y, dx, 0, ex, ey);
+                        if (a)
+                            expand(cur, x, y, dx, 1, ex, ey);
+                        if (b)
+                            expand(cur, x, y, dx, -1, ex, ey);
+                    }
+                    if (a)
+                        expand(cur, x, y, 0, 1, ex, ey);
+                    if (b)
+                        expand(cur, x, y, 0, -1, ex, ey);
+                } else {
+                    boolean a = free(x + 1, y), b = free(x - 1, y);
+                    if (free(x, y + dy)) {
+                        expand(cur, x, y, 0, dy, ex, ey);
+                        if (a)
+                            expand(cur, x, y, 1, dy, ex, ey);
+                        if (b)
+                            expand(cur, x, y, -1, dy, ex, ey);
+                    }
+                    if (a)
+                        expand(cur, x, y, 1, 0, ex, ey);
+                    if (b)
+                        expand(cur, x, y, -1, 0, ex, ey);
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean step(int x, int y, int dx, int dy) {
+        if ((dx != 0) && (dy != 0))
+            return free(x + dx, y) && free(x, y + dy) && free(x + dx, y + dy);
+        return free(x + dx, y + dy);
+    }
+
+    private void expand(int cur, int x, int y, int dx, int dy, int ex, int ey) {
+        int jp = ((dx != 0) && (dy != 0)) ? jumpdiag(x + dx, y + dy, dx, dy) : jump(x + dx, y + dy, dx, dy);
+        if ((jp < 0) || (stamp[jp] == gen + 1))
+            return;
+        int jx = jp / h, jy = jp % h;
+        float ng = g[cur] + octile(cur, jx, jy);
+        if ((stamp[jp] != gen) || (ng < g[jp])) {
+            stamp[jp] = gen;
+            g[jp] = ng;
+            parent[jp] = cur;
+            open.push(jp, ng + octile(jp, ex, ey));
+        }
+    }
+
+    private int jump(int x, int y, int dx, int dy) {
+        while (true) {
+            if (!free(x, y))
+                return -1;
+            int id = (x * h) + y;
+            if (id == goal)
+                return id;
+            if (dx != 0) {
+                if ((free(x, y - 1) && !free(x - dx, y - 1)) || (free(x, y + 1) && !free(x - dx, y + 1)))
+                    return id;
+            } else {
+                if ((free(x - 1, y) && !free(x - 1, y - dy)) || (free(x + 1, y) && !free(x + 1, y - dy)))
+                    return id;
+            }
+            x += dx;
+            y += dy;
+        }
+    }
+
+    private int jumpdiag(int x, int y, int dx, int dy) {
+        while (true) {
+            if (!free(x, y))
+                return -1;
+            int id = (x * h) + y;
+            if (id == goal)
+                return id;
+            if ((jump(x + dx, y, dx, 0) >= 0) || (jump(x, y + dy, 0, dy) >= 0))
+                return id;
+            if (!free(x + dx, y) || !free(x, y + dy))
+                return -1;
+            x += dx;
+            y += dy;
+        }
+    }
+
+    private float octile(int id, int x, int y) {
+        int dx = Math.abs((id / h) - x), dy = Math.abs((id % h) - y);
+        return Math.max(dx, dy) + ((DIAG - 1) * Math.min(dx, dy));
+    }
+}
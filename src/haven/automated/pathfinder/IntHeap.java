@@ -0,0 +1,90 @@
+package haven.automated.pathfinder;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of int IDs keyed by float priorities, supporting
+ * decrease-key. Its storage is kept across searches, and clearing it
+ * is O(1): the slot recorded for an ID is only trusted when the heap
+ * slot it points at still holds that ID.
+ */
+public class IntHeap {
+    private int[] ids = new int[64];
+    private float[] keys = new float[64];
+    private int[] pos = new int[64];
+    private int n = 0;
+
+    public void clear(int maxid) {
+        n = 0;
+        if (pos.length < maxid)
+            pos = new int[Math.max(maxid, pos.length * 2)];
+    }
+
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    public boolean contains(int id) {
+        int p = pos[id];
+        return (p < n) && (ids[p] == id);
+    }
+
+    /* Inserts an ID, or lowers its key if it is already queued with a
+     * higher one. */
+    public void push(int id, float key) {
+        if (id >= pos.length)
+            pos = Arrays.copyOf(pos, Math.max(id + 1, pos.length * 2));
+        int p;
+        if (contains(id)) {
+            p = pos[id];
+            if (key >= keys[p])
+                return;
+        } else {
+            if (n == ids.length) {
+                ids = Arrays.copyOf(ids, n * 2);
+                keys = Arrays.copyOf(keys, n * 2);
+            }
+            p = n++;
+        }
+        while (p > 0) {
+            int up = (p - 1) >> 1;
+            if (keys[up] <= key)
+                break;
+            place(p, ids[up], keys[up]);
+            p = up;
+        }
+        place(p, id, key);
+    }
+
+    public float peekkey() {
+        return keys[0];
+    }
+
+    public int pop() {
+        int ret = ids[0];
+        int id = ids[--n];
+        float key = keys[n];
+        int p = 0;
+        while (true) {
+            int c = (p << 1) + 1;
+            if (c >= n)
+                break;
+            if ((c + 1 < n) && (keys[c + 1] < keys[c]))
+                c++;
+            if (key <= keys[c])
+                break;
+            place(p, ids[c], keys[c]);
+            p = c;
+        }
+        if (n > 0)
+            place(p, id, key);
+        pos[ret] = Integer.MAX_VALUE;
+        return ret;
+    }
+
+    private void place(int p, int id, float key) {
+        ids[p] = id;
+        keys[p] = key;
+        pos[id] = p;
+    }
+}
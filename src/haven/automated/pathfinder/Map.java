@@ -39,10 +39,13 @@ public class Map {
     private final MCache mcache;
     private Vertex vxstart;
     private Vertex vxend;
+    private final AStar astar = new AStar();
+    private static final GridSearch gridsearch = new GridSearch();
 
     private final Dbg dbg;
     private final static boolean DEBUG = false;
     public final static boolean DEBUG_TIMINGS = false;
+    public static final Config.Variable<java.nio.file.Path> record = Config.Variable.propp("haven.pathfind.record", "");
 
     public Map(Coord plc, Coord endc, MCache mcache) {
         this.plc = plc;
@@ -66,11 +69,7 @@ public class Map {
                 if (res == null)
                     continue;
 
-                String name = res.name;
-                if (!name.equals("gfx/tiles/deep") &&
-                        !name.equals("gfx/tiles/cave") &&
-                        !name.equals("gfx/tiles/nil") &&
-                        !name.startsWith("gfx/tiles/rocks/"))
+                if (!NavGraph.impassable(res.name))
                     continue;
 
                 int gcx = origin - (x * 11) - dx;
@@ -431,7 +430,7 @@ public class Map {
     }
 
     private Iterable<Edge> findPath() {
-        Iterable<Edge> path = new AStar().route(vxstart, vxend);
+        Iterable<Edge> path = astar.route(vxstart, vxend);
 
         List<Vertex> vertices = recalcVertices(path);
         if (vertices == null)
@@ -444,7 +443,28 @@ public class Map {
 
         buildVisGraph(vertices, (byte) (CELL_BLK | CELL_TO));
 
-        return new AStar().route(vxstart, vxend);
+        return astar.route(vxstart, vxend);
+    }
+
+    // jump point search on the cell grid, pulled taut by skipping jump points in plain sight of each other
+    private Iterable<Edge> findGridPath() {
+        byte block = (byte) (CELL_BLK | CELL_TO);
+        List<Coord> jps = gridsearch.route(map, origin, origin, endc.x, endc.y, block);
+        if (jps == null)
+            return null;
+
+        List<Edge> path = new ArrayList<Edge>();
+        Vertex cur = new Vertex(origin, origin);
+        for (int i = 0; i < jps.size(); ) {
+            int k = i;
+            while (k + 1 < jps.size() && Utils.isVisible(map, dbg, cur.x, cur.y, jps.get(k + 1).x, jps.get(k + 1).y, block))
+                k++;
+            Vertex next = new Vertex(jps.get(k).x, jps.get(k).y);
+            path.add(new Edge(cur, next, Math.hypot(next.x - cur.x, next.y - cur.y)));
+            cur = next;
+            i = k + 1;
+        }
+        return path;
     }
 
     public Iterable<Edge> main() {
@@ -482,6 +502,9 @@ public class Map {
             map[origin + 1][origin + 1] = CELL_FREE;
 
 
+        if (record.get() != null)
+            record();
+
         // test if direct path is clear
         if (Utils.isVisible(map, dbg, origin, origin, endc.x, endc.y, (byte) (CELL_BLK | CELL_TO))) {
             List<Edge> clearpath = new ArrayList<>(1);
@@ -549,6 +572,19 @@ public class Map {
 
         //---------------------------------------------------------------------------------
         start = System.nanoTime();
+        Iterable<Edge> gridpath = findGridPath();
+        if (DEBUG_TIMINGS)
+            System.out.println("    Jump Point Search: " + (double) (System.nanoTime() - start) / 1000000.0 + " ms.");
+        if (gridpath != null) {
+            for (Edge e : gridpath) {
+                dbg.line(e.src.x, e.src.y, e.dest.x, e.dest.y, Color.ORANGE);
+                dbg.dot(e.dest.x, e.dest.y, Color.BLUE);
+            }
+            return gridpath;
+        }
+
+        // fall back to routing over the visibility graph
+        start = System.nanoTime();
         List<Vertex> vertices = getVertices();
         if (DEBUG_TIMINGS)
             System.out.println("   Vertices Retrieval: " + (double) (System.nanoTime() - start) / 1000000.0 + " ms.");
@@ -574,6 +610,18 @@ public class Map {
         return path;
     }
 
+    // saves the cells as routing sees them, for replaying in haven.test.PathfindCheck
+    private void record() {
+        Scene scene = new Scene(map);
+        scene.routes.add(new Coord[] {new Coord(origin, origin), endc});
+        java.nio.file.Path path = record.get().resolve(String.format("%d.pfscene", System.currentTimeMillis()));
+        try {
+            scene.save(path);
+        } catch (java.io.IOException e) {
+            new Warning(e, "could not record pathfinder scene to " + path).issue();
+        }
+    }
+
     public boolean isOriginBlocked() {
         return map[origin][origin] == CELL_BLK || map[origin][origin] == CELL_TO;
     }
@@ -0,0 +1,536 @@
+package haven.automated.pathfinder;
+
+import haven.*;
+import haven.automated.helpers.HitBoxes;
+
+import java.util.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Persistent, hierarchical navigation graph used to plan routes which are
+ * too long for the local planner in
+ * {@link haven.automated.pathfinder.Map}.
+ *
+ * The world is split into chunks of CHUNK x CHUNK tiles. For every chunk a
+ * coarse raster of blocked tiles is kept, built from the terrain and the
+ * hitboxes of static gobs. Entrances are placed along chunk borders where
+ * both sides are free, and the costs between the entrances of a chunk are
+ * precomputed, so searches only visit entrances. Chunks are rebuilt lazily
+ * when gobs in or near them come and go or when their map grid changes, and
+ * routes between recurring endpoints are reused for as long as none of the
+ * chunks they pass through have changed. Moving gobs and gates are left to
+ * the local planner.
+ */
+public class NavGraph implements OCache.ChangeCallback {
+    public static final int CHUNK = 10;
+    private static final int CACHESZ = 64;
+    private static final int MAXEXPAND = 100000;
+    private static final float DIAG = (float) Math.sqrt(2);
+    private static final float INF = Float.POSITIVE_INFINITY;
+    private static final int[] DX = {1, -1, 0, 0, 1, 1, -1, -1};
+    private static final int[] DY = {0, 0, 1, -1, 1, -1, 1, -1};
+
+    private final MCache map;
+    private final OCache oc;
+    private final Map<Coord, Chunk> chunks = new HashMap<>();
+    private final Map<Coord, Set<Gob>> gobs = new HashMap<>();
+    private final Map<Gob, Coord> tracked = new HashMap<>();
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final Map<List<Coord>, Cached> paths = new LinkedHashMap<List<Coord>, Cached>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<List<Coord>, Cached> e) {
+            return size() > CACHESZ;
+        }
+    };
+    private final IntHeap fheap = new IntHeap();
+    private int chseq = -1;
+
+    private static class Change {
+        final Gob gob;
+        final boolean added;
+
+        Change(Gob gob, boolean added) {
+            this.gob = gob;
+            this.added = added;
+        }
+    }
+
+    private static class Chunk {
+        final Coord cc, ul;
+        final List<Node> nodes = new ArrayList<>();
+        boolean[] blk;
+        MCache.Grid grid;
+        int gseq;
+        Border east, south;
+        boolean linked;
+        int version;
+
+        Chunk(Coord cc) {
+            this.cc = cc;
+            this.ul = cc.mul(CHUNK);
+        }
+
+        int idx(Coord tc) {
+            return (tc.x - ul.x) + ((tc.y - ul.y) * CHUNK);
+        }
+    }
+
+    private static class Border {
+        final List<Node> nodes = new ArrayList<>();
+        boolean ok;
+    }
+
+    private static class Node {
+        final Coord tc;
+        final Chunk ch;
+        Node peer;
+        Node[] adj = {};
+        float[] cost = {};
+        boolean dead;
+
+        Node(Coord tc, Chunk ch) {
+            this.tc = tc;
+            this.ch = ch;
+        }
+    }
+
+    private static class Cached {
+        final List<Coord> route;
+        final Chunk[] via;
+        final int[] versions;
+
+        Cached(List<Coord> route, Collection<Chunk> via) {
+            this.route = route;
+            this.via = via.toArray(new Chunk[0]);
+            this.versions = new int[this.via.length];
+            for (int i = 0; i < this.via.length; i++)
+                versions[i] = this.via[i].version;
+        }
+    }
+
+    public NavGraph(MCache map, OCache oc) {
+        this.map = map;
+        this.oc = oc;
+        synchronized (oc) {
+            for (Gob gob : oc)
+                changes.add(new Change(gob, true));
+            oc.callback(this);
+        }
+    }
+
+    public void dispose() {
+        oc.uncallback(this);
+    }
+
+    public void added(Gob gob) {
+        changes.add(new Change(gob, true));
+    }
+
+    public void removed(Gob gob) {
+        changes.add(new Change(gob, false));
+    }
+
+    public static boolean impassable(String tile) {
+        return tile.equals("gfx/tiles/deep") ||
+                tile.equals("gfx/tiles/cave") ||
+                tile.equals("gfx/tiles/nil") ||
+                tile.startsWith("gfx/tiles/rocks/");
+    }
+
+    /**
+     * Returns a list of waypoints leading from one world position to
+     * another, ending with the destination itself, or null if no route
+     * through the currently loaded map is known.
+     */
+    public synchronized List<Coord2d> route(Coord2d from, Coord2d to) {
+        sync();
+        Coord st = from.floor(MCache.tilesz), dt = to.floor(MCache.tilesz);
+        List<Coord> key = Arrays.asList(st, dt);
+        Cached c = paths.get(key);
+        if ((c == null) || !valid(c)) {
+            paths.remove(key);
+            List<Coord> route = search(st, dt);
+            if (route == null)
+                return null;
+            Set<Chunk> via = new LinkedHashSet<>();
+            via.add(chunk(st.div(CHUNK)));
+            for (Coord tc : route)
+                via.add(chunk(tc.div(CHUNK)));
+            paths.put(key, c = new Cached(route, via));
+        }
+        List<Coord2d> ret = new ArrayList<>(c.route.size());
+        for (int i = 0; i < c.route.size() - 1; i++)
+            ret.add(c.route.get(i).mul(MCache.tilesz).add(MCache.tilesz.div(2)));
+        ret.add(to);
+        return ret;
+    }
+
+    private boolean valid(Cached c) {
+        for (int i = 0; i < c.via.length; i++) {
+            if ((chunks.get(c.via[i].cc) != c.via[i]) || (c.via[i].version != c.versions[i]))
+                return false;
+        }
+        return true;
+    }
+
+    private void sync() {
+        for (Change c; (c = changes.poll()) != null; ) {
+            if (c.added)
+                track(c.gob);
+            else
+                untrack(c.gob);
+        }
+        int seq = map.chseq;
+        if (seq != chseq) {
+            chseq = seq;
+            for (Chunk ch : new ArrayList<>(chunks.values())) {
+                if (ch.blk == null)
+                    continue;
+                MCache.Grid g = map.findgrid(ch.ul.div(MCache.cmaps));
+                if (g == null) {
+                    if (ch.grid != null)
+                        drop(ch);
+                } else if ((g != ch.grid) || (g.seq != ch.gseq)) {
+                    invalidate(ch);
+                }
+            }
+        }
+    }
+
+    private void track(Gob gob) {
+        if (tracked.containsKey(gob))
+            return;
+        Coord cc = gob.rc.floor(MCache.tilesz).div(CHUNK);
+        tracked.put(gob, cc);
+        gobs.computeIfAbsent(cc, k -> new HashSet<>()).add(gob);
+        invalaround(cc);
+    }
+
+    private void untrack(Gob gob) {
+        Coord cc = tracked.remove(gob);
+        if (cc == null)
+            return;
+        Set<Gob> s = gobs.get(cc);
+        if (s != null) {
+            s.remove(gob);
+            if (s.isEmpty())
+                gobs.remove(cc);
+        }
+        invalaround(cc);
+    }
+
+    private void invalaround(Coord cc) {
+        for (int y = -1; y <= 1; y++) {
+            for (int x = -1; x <= 1; x++) {
+                Chunk ch = chunks.get(cc.add(x, y));
+                if ((ch != null) && (ch.blk != null))
+                    invalidate(ch);
+            }
+        }
+    }
+
+    private void invalidate(Chunk ch) {
+        ch.blk = null;
+        if (ch.east != null)
+            ch.east.ok = false;
+        if (ch.south != null)
+            ch.south.ok = false;
+        Chunk w = chunks.get(ch.cc.add(-1, 0)), n = chunks.get(ch.cc.add(0, -1));
+        if ((w != null) && (w.east != null))
+            w.east.ok = false;
+        if ((n != null) && (n.south != null))
+            n.south.ok = false;
+        unlink(ch);
+        unlink(w);
+        unlink(n);
+        unlink(chunks.get(ch.cc.add(1, 0)));
+        unlink(chunks.get(ch.cc.add(0, 1)));
+    }
+
+    private static void unlink(Chunk ch) {
+        if (ch != null) {
+            ch.linked = false;
+            ch.version++;
+        }
+    }
+
+    private void drop(Chunk ch) {
+        invalidate(ch);
+        clear(ch.east);
+        clear(ch.south);
+        for (Node nd : ch.nodes)
+            nd.dead = true;
+        chunks.remove(ch.cc);
+    }
+
+    private Chunk chunk(Coord cc) {
+        Chunk ch = chunks.get(cc);
+        if (ch == null)
+            chunks.put(cc, ch = new Chunk(cc));
+        return ch;
+    }
+
+    private boolean[] cells(Chunk ch) {
+        if (ch.blk == null)
+            ch.blk = raster(ch);
+        return ch.blk;
+    }
+
+    private boolean[] raster(Chunk ch) {
+        boolean[] blk = new boolean[CHUNK * CHUNK];
+        MCache.Grid g = map.findgrid(ch.ul.div(MCache.cmaps));
+        ch.grid = g;
+        ch.gseq = (g == null) ? -1 : g.seq;
+        if (g == null) {
+            Arrays.fill(blk, true);
+            return blk;
+        }
+        for (int y = 0; y < CHUNK; y++) {
+            for (int x = 0; x < CHUNK; x++) {
+                Resource.Spec tile = map.tilesetn(g.gettile(ch.ul.add(x, y).sub(g.ul)));
+                if ((tile != null) && impassable(tile.name))
+                    blk[x + (y * CHUNK)] = true;
+            }
+        }
+        for (int y = -1; y <= 1; y++) {
+            for (int x = -1; x <= 1; x++) {
+                Set<Gob> s = gobs.get(ch.cc.add(x, y));
+                if (s != null) {
+                    for (Gob gob : s)
+                        plot(ch, blk, gob);
+                }
+            }
+        }
+        return blk;
+    }
+
+    private static void plot(Chunk ch, boolean[] blk, Gob gob) {
+        if (gob.getattr(Moving.class) != null)
+            return;
+        Resource res = gob.getres();
+        if ((res == null) || res.name.startsWith("gfx/kritter/") || res.name.startsWith("gfx/borka/") || res.name.contains("gate"))
+            return;
+        HitBoxes.CollisionBox[] boxes = HitBoxes.collisionBoxMap.get(res.name);
+        if (boxes == null)
+            return;
+        double cos = Math.cos(gob.a), sin = Math.sin(gob.a);
+        for (HitBoxes.CollisionBox box : boxes) {
+            if (!box.hitAble || (box.coords == null) || (box.coords.length < 3))
+                continue;
+            double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE, x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+            for (Coord2d c : box.coords) {
+                double wx = gob.rc.x + (c.x * cos) - (c.y * sin);
+                double wy = gob.rc.y + (c.x * sin) + (c.y * cos);
+                x0 = Math.min(x0, wx);
+                y0 = Math.min(y0, wy);
+                x1 = Math.max(x1, wx);
+                y1 = Math.max(y1, wy);
+            }
+            /* Mark the tiles whose centers fall within the
+             * player-inflated bounding box. */
+            double r = haven.automated.pathfinder.Map.plbbox, tw = MCache.tilesz.x, th = MCache.tilesz.y;
+            int tx0 = Math.max((int) Math.ceil(((x0 - r) / tw) - 0.5), ch.ul.x);
+            int ty0 = Math.max((int) Math.ceil(((y0 - r) / th) - 0.5), ch.ul.y);
+            int tx1 = Math.min((int) Math.floor(((x1 + r) / tw) - 0.5), ch.ul.x + CHUNK - 1);
+            int ty1 = Math.min((int) Math.floor(((y1 + r) / th) - 0.5), ch.ul.y + CHUNK - 1);
+            for (int ty = ty0; ty <= ty1; ty++) {
+                for (int tx = tx0; tx <= tx1; tx++)
+                    blk[(tx - ch.ul.x) + ((ty - ch.ul.y) * CHUNK)] = true;
+            }
+        }
+    }
+
+    private static void clear(Border b) {
+        if (b == null)
+            return;
+        for (Node nd : b.nodes) {
+            nd.ch.nodes.remove(nd);
+            nd.dead = true;
+        }
+        b.nodes.clear();
+        b.ok = false;
+    }
+
+    /* Builds the border on the east (dir 0) or south (dir 1) side of a
+     * chunk, placing entrance pairs on each free span. */
+    private void border(Chunk a, int dir) {
+        Border b = (dir == 0) ? a.east : a.south;
+        if (b == null) {
+            b = new Border();
+            if (dir == 0)
+                a.east = b;
+            else
+                a.south = b;
+        }
+        if (b.ok)
+            return;
+        clear(b);
+        Chunk n = chunk(a.cc.add((dir == 0) ? 1 : 0, (dir == 0) ? 0 : 1));
+        boolean[] ca = cells(a), cn = cells(n);
+        for (int i = 0, s = -1; i <= CHUNK; i++) {
+            boolean free = (i < CHUNK) && !ca[(dir == 0) ? ((CHUNK - 1) + (i * CHUNK)) : (i + ((CHUNK - 1) * CHUNK))] &&
+                    !cn[(dir == 0) ? (i * CHUNK) : i];
+            if (free && (s < 0)) {
+                s = i;
+            } else if (!free && (s >= 0)) {
+                if (i - s > 6) {
+                    entrance(b, a, n, dir, s);
+                    entrance(b, a, n, dir, i - 1);
+                } else {
+                    entrance(b, a, n, dir, (s + i - 1) / 2);
+                }
+                s = -1;
+            }
+        }
+        b.ok = true;
+        a.linked = false;
+        n.linked = false;
+    }
+
+    private static void entrance(Border b, Chunk a, Chunk n, int dir, int i) {
+        Node na = new Node(a.ul.add((dir == 0) ? (CHUNK - 1) : i, (dir == 0) ? i : (CHUNK - 1)), a);
+        Node nb = new Node(n.ul.add((dir == 0) ? 0 : i, (dir == 0) ? i : 0), n);
+        na.peer = nb;
+        nb.peer = na;
+        a.nodes.add(na);
+        n.nodes.add(nb);
+        b.nodes.add(na);
+        b.nodes.add(nb);
+    }
+
+    private void link(Chunk ch) {
+        if (ch.linked)
+            return;
+        border(ch, 0);
+        border(ch, 1);
+        border(chunk(ch.cc.add(-1, 0)), 0);
+        border(chunk(ch.cc.add(0, -1)), 1);
+        boolean[] blk = cells(ch);
+        for (Node nd : ch.nodes) {
+            float[] dist = flood(blk, ch.idx(nd.tc));
+            int n = 0;
+            for (Node o : ch.nodes) {
+                if ((o != nd) && (dist[ch.idx(o.tc)] < INF))
+                    n++;
+            }
+            nd.adj = new Node[n];
+            nd.cost = new float[n];
+            n = 0;
+            for (Node o : ch.nodes) {
+                float d = dist[ch.idx(o.tc)];
+                if ((o != nd) && (d < INF)) {
+                    nd.adj[n] = o;
+                    nd.cost[n++] = d;
+                }
+            }
+        }
+        ch.linked = true;
+    }
+
+    /* Dijkstra over the cells of a single chunk, without cutting
+     * corners. The source cell itself may be blocked. */
+    private float[] flood(boolean[] blk, int src) {
+        float[] dist = new float[CHUNK * CHUNK];
+        Arrays.fill(dist, INF);
+        dist[src] = 0;
+        IntHeap q = fheap;
+        q.clear(CHUNK * CHUNK);
+        q.push(src, 0);
+        while (!q.isEmpty()) {
+            int i = q.pop();
+            float d = dist[i];
+            int x = i % CHUNK, y = i / CHUNK;
+            for (int k = 0; k < 8; k++) {
+                int nx = x + DX[k], ny = y + DY[k];
+                if ((nx < 0) || (ny < 0) || (nx >= CHUNK) || (ny >= CHUNK))
+                    continue;
+                int ni = nx + (ny * CHUNK);
+                if (blk[ni])
+                    continue;
+                if ((k >= 4) && (blk[nx + (y * CHUNK)] || blk[x + (ny * CHUNK)]))
+                    continue;
+                float nd = d + ((k >= 4) ? DIAG : 1);
+                if (nd < dist[ni]) {
+                    dist[ni] = nd;
+                    q.push(ni, nd);
+                }
+            }
+        }
+        return dist;
+    }
+
+    private static float octile(Coord a, Coord b) {
+        int dx = Math.abs(a.x - b.x), dy = Math.abs(a.y - b.y);
+        return Math.max(dx, dy) + ((DIAG - 1) * Math.min(dx, dy));
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final Node nd;
+        final float g, f;
+
+        Entry(Node nd, float g, float f) {
+            this.nd = nd;
+            this.g = g;
+            this.f = f;
+        }
+
+        public int compareTo(Entry o) {
+            return Float.compare(f, o.f);
+        }
+    }
+
+    private List<Coord> search(Coord st, Coord dt) {
+        Chunk sc = chunk(st.div(CHUNK)), dc = chunk(dt.div(CHUNK));
+        link(sc);
+        link(dc);
+        float[] sd = flood(cells(sc), sc.idx(st)), gd = flood(cells(dc), dc.idx(dt));
+        Node start = new Node(st, sc), goal = new Node(dt, dc);
+        Map<Node, Float> g = new HashMap<>();
+        Map<Node, Node> prev = new HashMap<>();
+        PriorityQueue<Entry> open = new PriorityQueue<>();
+        g.put(start, 0f);
+        if ((sc == dc) && (sd[sc.idx(dt)] < INF))
+            relax(open, g, prev, start, goal, sd[sc.idx(dt)], dt);
+        for (Node nd : sc.nodes) {
+            float d = sd[sc.idx(nd.tc)];
+            if (d < INF)
+                relax(open, g, prev, start, nd, d, dt);
+        }
+        for (int n = 0; !open.isEmpty() && (n < MAXEXPAND); n++) {
+            Entry e = open.poll();
+            Node cur = e.nd;
+            if (e.g > g.get(cur))
+                continue;
+            if (cur == goal) {
+                LinkedList<Coord> route = new LinkedList<>();
+                for (Node p = goal; p != start; p = prev.get(p)) {
+                    if (route.isEmpty() || (octile(route.getFirst(), p.tc) >= 2))
+                        route.addFirst(p.tc);
+                }
+                return new ArrayList<>(route);
+            }
+            link(cur.ch);
+            if (cur.dead)
+                continue;
+            for (int i = 0; i < cur.adj.length; i++)
+                relax(open, g, prev, cur, cur.adj[i], e.g + cur.cost[i], dt);
+            if ((cur.peer != null) && !cur.peer.dead)
+                relax(open, g, prev, cur, cur.peer, e.g + 1, dt);
+            if (cur.ch == dc) {
+                float d = gd[dc.idx(cur.tc)];
+                if (d < INF)
+                    relax(open, g, prev, cur, goal, e.g + d, dt);
+            }
+        }
+        return null;
+    }
+
+    private static void relax(PriorityQueue<Entry> open, Map<Node, Float> g, Map<Node, Node> prev, Node from, Node to, float ng, Coord dt) {
+        Float og = g.get(to);
+        if ((og != null) && (og <= ng))
+            return;
+        g.put(to, ng);
+        prev.put(to, from);
+        open.add(new Entry(to, ng, ng + octile(to.tc, dt)));
+    }
+}
@@ -5,6 +5,7 @@ import haven.*;
 import haven.automated.helpers.HitBoxes;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -24,7 +25,10 @@ public class Pathfinder implements Runnable {
     public Coord mc;
     private int modflags;
     private int interruptedRetries = 5;
+    private Coord2d goal;
+    private boolean leg = false;
     private static final int RESPONSE_TIMEOUT = 800;
+    private static final double LEGRANGE = 30 * 11;
 
     public Pathfinder(MapView mv, Coord dest, String action) {
         this.dest = dest;
@@ -46,6 +50,16 @@ public class Pathfinder implements Runnable {
         this.mv = mv;
     }
 
+    /* Routes to a far away destination through the navigation graph,
+     * walking it in legs short enough for the local planner. */
+    public Pathfinder(MapView mv, Coord2d goal, String action) {
+        this.goal = goal;
+        this.action = action;
+        this.oc = mv.glob.oc;
+        this.map = mv.glob.map;
+        this.mv = mv;
+    }
+
     private final Set<PFListener> listeners = new CopyOnWriteArraySet<PFListener>();
     public final void addListener(final PFListener listener) {
         listeners.add(listener);
@@ -63,13 +77,50 @@ public class Pathfinder implements Runnable {
 
     @Override
     public void run() {
-        do {
-            moveinterupted = false;
-            pathfind(mv.player().rc.floor());
-        } while (moveinterupted && !terminate);
+        if (goal != null) {
+            route();
+        } else {
+            do {
+                moveinterupted = false;
+                pathfind(mv.player().rc.floor());
+            } while (moveinterupted && !terminate);
+        }
         notifyListeners();
     }
 
+    private void route() {
+        List<Coord2d> wps = mv.navgraph().route(mv.player().rc, goal);
+        if (wps == null)
+            wps = java.util.Collections.singletonList(goal);
+        String fact = action;
+        int i = 0;
+        while (!terminate && (i < wps.size())) {
+            Coord src = mv.player().rc.floor();
+            Coord2d sc = new Coord2d(src);
+            // skip ahead to the furthest waypoint still within reach of the local planner
+            while ((i + 1 < wps.size()) && (wps.get(i + 1).dist(sc) < LEGRANGE))
+                i++;
+            Coord2d wp = wps.get(i);
+            boolean last = (i == wps.size() - 1);
+            if (wp.dist(sc) > LEGRANGE) {
+                wp = sc.add(wp.sub(sc).mul(LEGRANGE / wp.dist(sc)));
+                last = false;
+            } else {
+                i++;
+            }
+            dest = new Coord(Map.origin + (int) Math.round(wp.x - src.x), Map.origin + (int) Math.round(wp.y - src.y));
+            action = last ? fact : null;
+            leg = !last;
+            interruptedRetries = 5;
+            do {
+                moveinterupted = false;
+                pathfind(mv.player().rc.floor());
+            } while (moveinterupted && !terminate);
+            if (!last && src.equals(mv.player().rc.floor()))
+                terminate = true;
+        }
+    }
+
     public void pathfind(Coord src) {
         long starttotal = System.nanoTime();
         Map m = new Map(src, dest, map);
@@ -239,7 +290,8 @@ public class Pathfinder implements Runnable {
                 return;
             }
         }
-        terminate = true;
+        if (!leg)
+            terminate = true;
     }
 
 
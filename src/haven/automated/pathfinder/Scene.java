@@ -0,0 +1,57 @@
+package haven.automated.pathfinder;
+
+import haven.Coord;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * A {@link Map} cell grid together with the routes asked of it, as
+ * saved when haven.pathfind.record names a directory. The cells are
+ * stored as they are when routing starts, so the grid and visibility
+ * graph searches can be replayed on them outside the client.
+ */
+public class Scene {
+    private static final String MAGIC = "Haven pathfinder scene 1";
+    public final byte[][] map;
+    public final List<Coord[]> routes = new ArrayList<>();
+
+    public Scene(byte[][] map) {
+        this.map = map;
+    }
+
+    public void save(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(path))))) {
+            out.writeUTF(MAGIC);
+            out.writeInt(map.length);
+            out.writeInt(map[0].length);
+            out.writeInt(routes.size());
+            for (Coord[] r : routes) {
+                out.writeInt(r[0].x);
+                out.writeInt(r[0].y);
+                out.writeInt(r[1].x);
+                out.writeInt(r[1].y);
+            }
+            for (byte[] col : map)
+                out.write(col);
+        }
+    }
+
+    public static Scene load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new BufferedInputStream(Files.newInputStream(path))))) {
+            if (!in.readUTF().equals(MAGIC))
+                throw new IOException("not a pathfinder scene: " + path);
+            int w = in.readInt(), h = in.readInt(), n = in.readInt();
+            List<Coord[]> routes = new ArrayList<>(n);
+            for (int i = 0; i < n; i++)
+                routes.add(new Coord[] {Coord.of(in.readInt(), in.readInt()), Coord.of(in.readInt(), in.readInt())});
+            Scene ret = new Scene(new byte[w][h]);
+            for (byte[] col : ret.map)
+                in.readFully(col);
+            ret.routes.addAll(routes);
+            return ret;
+        }
+    }
+}
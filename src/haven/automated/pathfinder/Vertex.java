@@ -7,6 +7,7 @@ public class Vertex {
     public final int x;
     public final int y;
     public final Set<Edge> edges = new HashSet<Edge>();
+    int sgen, sid;
 
     public Vertex(int x, int y) {
         this.x = x;
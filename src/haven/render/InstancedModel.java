@@ -0,0 +1,131 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.render;
+
+import haven.render.VertexArray.Layout;
+
+/* Instanced drawing of a plain model, for decorations that are
+ * Rendereds in their own right rather than FastMeshes. A Rendered
+ * that shares one model between many gobs can implement
+ * Rendered.Instancable by returning that model as its instance ID and
+ * wrapping it in one of these, and is then drawn in one call for all
+ * the gobs that also share its state. */
+public class InstancedModel implements Rendered.Instanced {
+    public final Model base;
+    public final InstanceBatch bat;
+    private final InstanceBatch.AttributeData attr;
+    private final Layout fmt;
+    private VertexArray data;
+    private Model model;
+    private int ninst;
+
+    public InstancedModel(Model base, InstanceBatch bat) {
+	this.base = base;
+	this.bat = bat;
+	this.attr = new InstanceBatch.AttributeData(bat);
+	this.fmt = mkfmt(attr.fmt);
+	vertupdate();
+	modupdate(false);
+    }
+
+    private Layout mkfmt(Layout.Input[] ifmt) {
+	VertexArray sdat = base.va;
+	Layout.Input[] inputs = new Layout.Input[sdat.fmt.inputs.length + ifmt.length];
+	for(int i = 0; i < sdat.fmt.inputs.length; i++)
+	    inputs[i] = sdat.fmt.inputs[i];
+	for(int i = 0; i < ifmt.length; i++) {
+	    Layout.Input si = ifmt[i];
+	    inputs[i + sdat.fmt.inputs.length] = new Layout.Input(si.tgt, si.el, sdat.fmt.nbufs, si.offset, si.stride, true);
+	}
+	return(new Layout(inputs));
+    }
+
+    private VertexArray mkdata(VertexArray.Buffer ibuf) {
+	if(ibuf == null)
+	    return(null);
+	VertexArray sdat = base.va;
+	VertexArray.Buffer[] bufs = new VertexArray.Buffer[sdat.bufs.length + 1];
+	for(int i = 0; i < sdat.bufs.length; i++)
+	    bufs[i] = sdat.bufs[i];
+	bufs[sdat.bufs.length] = ibuf;
+	return(new VertexArray(this.fmt, bufs).shared());
+    }
+
+    public void draw(Pipe context, Render out) {
+	out.draw(context, model);
+    }
+
+    private void modupdate(boolean batupd) {
+	if(model != null)
+	    model.dispose();
+	model = new Model(base.mode, (data != null) ? data : base.va,
+			  base.ind, base.f, base.n, ninst).desc(this);
+	if(batupd)
+	    bat.instupdate();
+    }
+
+    private void vertupdate() {
+	if(data != null)
+	    data.dispose();
+	data = mkdata(attr.buf());
+    }
+
+    public void iupdate(int idx) {
+	boolean vu = attr.iupdate(idx);
+	ninst = Math.max(ninst, idx + 1);
+	if(vu)
+	    vertupdate();
+	if(vu || ((model != null) && (model.ninst != ninst)))
+	    modupdate(true);
+    }
+
+    public void itrim(int idx) {
+	boolean vu = attr.itrim(idx);
+	ninst = Math.min(ninst, idx);
+	if(vu)
+	    vertupdate();
+	if(vu || ((model != null) && (model.ninst != ninst)))
+	    modupdate(true);
+    }
+
+    public void commit(Render g) {
+	attr.commit(g);
+    }
+
+    public void dispose() {
+	if(model != null)
+	    model.dispose();
+	if(data != null)
+	    data.dispose();
+	attr.dispose();
+    }
+
+    public String toString() {
+	return(String.format("#<instmodel %s>", base));
+    }
+}
@@ -37,6 +37,7 @@ import static haven.render.DataBuffer.Usage.*;
 public abstract class GLEnvironment implements Environment {
     public static final boolean debuglog = false, labels = false;
     public final Caps caps;
+    public final ProgramCache progcache;
     public int nilfbo_id = 0, nilfbo_db = 0;
     final Object drawmon = new Object();
     final Object prepmon = new Object();
@@ -65,6 +66,7 @@ public abstract class GLEnvironment implements Environment {
 	public final int major, minor, glslver;
 	public final Collection<String> exts;
 	public final int maxtargets;
+	public final boolean progbin;
 	public final float anisotropy;
 	public final float linemin, linemax;
 
@@ -122,6 +124,8 @@ public abstract class GLEnvironment implements Environment {
 		this.exts = Arrays.asList(gl.glGetString(GL.GL_EXTENSIONS).split(" "));
 	    }
 	    this.maxtargets = glcondi(gl, GL.GL_MAX_COLOR_ATTACHMENTS, 1);
+	    this.progbin = (((major == 4) && (minor >= 1)) || (major > 4) || exts.contains("GL_ARB_get_program_binary")) &&
+		(glcondi(gl, GL.GL_NUM_PROGRAM_BINARY_FORMATS, 0) > 0);
 	    {
 		int glslver = 0;
 		String slv = glconds(gl, GL.GL_SHADING_LANGUAGE_VERSION);
@@ -177,6 +181,7 @@ public abstract class GLEnvironment implements Environment {
 	this.wnd = wnd;
 	this.caps = mkcaps(initgl);
 	this.caps.checkreq();
+	this.progcache = ProgramCache.forcaps(caps);
 	initialize(initgl);
     }
 
@@ -29,6 +29,7 @@ package haven.render.gl;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.io.*;
+import java.nio.ByteBuffer;
 import haven.Disposable;
 import haven.Utils;
 import haven.render.*;
@@ -119,6 +120,12 @@ public class GLProgram implements Disposable {
 			return(-1);
 		    if(!a.primary && b.primary)
 			return(1);
+		    /* Order by symbol name first, so that attribute
+		     * locations, and thus cached program binaries, are
+		     * the same between sessions. */
+		    int c = ctx.symtab.get(a.name).compareTo(ctx.symtab.get(b.name));
+		    if(c != 0)
+			return(c);
 		    return(Utils.idcmp.compare(a, b));
 		});
 	    Map<Attribute, AttrID> amap = new IdentityHashMap<>();
@@ -131,6 +138,23 @@ public class GLProgram implements Disposable {
 	}
     }
 
+    private String cachekey = null;
+    /* Identifies the program for the persistent program cache. */
+    public String cachekey() {
+	if(cachekey == null) {
+	    List<String> parts = new ArrayList<>();
+	    parts.add(vsrc);
+	    parts.add(fsrc);
+	    for(Attribute attr : attribs) {
+		AttrID id = amap.get(attr);
+		parts.add(id.name + "=" + id.id);
+	    }
+	    parts.addAll(Arrays.asList(fragnms));
+	    cachekey = ProgramCache.digest(parts.toArray(new String[0]));
+	}
+	return(cachekey);
+    }
+
     public static int attrsize(Attribute attr) {
 	if(attr.type == Type.MAT3)
 	    return(3);
@@ -162,12 +186,16 @@ public class GLProgram implements Disposable {
 	public final String text;
 	public final String info;
 	
-	public ShaderException(String msg, ShaderOb shader, String info) {
+	public ShaderException(String msg, int type, String text, String info) {
 	    super(msg);
-	    this.type = shader.type;
-	    this.text = shader.text;
+	    this.type = type;
+	    this.text = text;
 	    this.info = info;
 	}
+
+	public ShaderException(String msg, ShaderOb shader, String info) {
+	    this(msg, shader.type, shader.text, info);
+	}
 	
 	public String toString() {
 	    if(info == null)
@@ -198,19 +226,23 @@ public class GLProgram implements Disposable {
 	     * interesting to know, so to speak. */
 	    this.id = gl.glCreateShader(type);
 	    GLException.checkfor(gl, env);
-	    gl.glShaderSource(this.id, 1, new String[] {text}, new int[] {text.length()});
-	    gl.glCompileShader(this.id);
+	    compile(gl, this.id, type, text);
+	}
+
+	static void compile(GL gl, int id, int type, String text) {
+	    gl.glShaderSource(id, 1, new String[] {text}, new int[] {text.length()});
+	    gl.glCompileShader(id);
 	    int[] buf = {0};
-	    gl.glGetShaderiv(this.id, GL.GL_COMPILE_STATUS, buf);
+	    gl.glGetShaderiv(id, GL.GL_COMPILE_STATUS, buf);
 	    if(buf[0] != 1) {
 		String info = null;
-		gl.glGetShaderiv(this.id, GL.GL_INFO_LOG_LENGTH, buf);
+		gl.glGetShaderiv(id, GL.GL_INFO_LOG_LENGTH, buf);
 		if(buf[0] > 0) {
 		    byte[] logbuf = new byte[buf[0]];
-		    gl.glGetShaderInfoLog(this.id, logbuf.length, buf, logbuf);
+		    gl.glGetShaderInfoLog(id, logbuf.length, buf, logbuf);
 		    info = new String(logbuf, 0, buf[0]);
 		}
-		throw(new ShaderException("Failed to compile shader", this, info));
+		throw(new ShaderException("Failed to compile shader", type, text, info));
 	    }
 	}
 
@@ -289,10 +321,12 @@ public class GLProgram implements Disposable {
 
     public class ProgOb extends GLObject implements BGL.ID {
 	public final ShaderOb[] shaders;
+	private final ProgramCache.Binary bin;
 	private int id;
 
-	public ProgOb(GLEnvironment env, ShaderOb... shaders) {
+	private ProgOb(GLEnvironment env, ProgramCache.Binary bin, ShaderOb... shaders) {
 	    super(env);
+	    this.bin = bin;
 	    this.shaders = shaders;
 	    env.prepare(this);
 	    for(Map.Entry<Uniform, String> uni : GLProgram.this.unifnms.entrySet()) {
@@ -307,6 +341,16 @@ public class GLProgram implements Disposable {
 	    }
 	}
 
+	public ProgOb(GLEnvironment env, ShaderOb... shaders) {
+	    this(env, null, shaders);
+	}
+
+	/* Creates the program from a cached binary, falling back to
+	 * compiling it from source if the driver rejects it. */
+	public ProgOb(GLEnvironment env, ProgramCache.Binary bin) {
+	    this(env, bin, new ShaderOb[0]);
+	}
+
 	private UniformID uniresolve(Type type, String name) {
 	    UniformID ret = new UniformID(name);
 	    if(type instanceof Array) {
@@ -329,15 +373,62 @@ public class GLProgram implements Disposable {
 	    return(ret);
 	}
 
+	private boolean loadbin(GL gl) {
+	    ByteBuffer data = ByteBuffer.allocateDirect(bin.data.length);
+	    data.put(bin.data);
+	    data.flip();
+	    gl.glProgramBinary(this.id, bin.format, data, bin.data.length);
+	    int[] buf = {0};
+	    gl.glGetProgramiv(this.id, GL.GL_LINK_STATUS, buf);
+	    if((gl.glGetError() != 0) || (buf[0] != 1))
+		return(false);
+	    env.progcache.used(cachekey());
+	    return(true);
+	}
+
+	private void savebin(GL gl) {
+	    int[] len = {0}, fmt = {0};
+	    gl.glGetProgramiv(this.id, GL.GL_PROGRAM_BINARY_LENGTH, len);
+	    if(len[0] <= 0)
+		return;
+	    ByteBuffer data = ByteBuffer.allocateDirect(len[0]);
+	    gl.glGetProgramBinary(this.id, len[0], len, fmt, data);
+	    if((gl.glGetError() != 0) || (len[0] <= 0))
+		return;
+	    byte[] buf = new byte[len[0]];
+	    data.get(buf);
+	    env.progcache.put(cachekey(), fmt[0], buf);
+	}
+
 	public void create(GL gl) {
 	    this.id = gl.glCreateProgram();
-	    for(ShaderOb sh : shaders)
-		gl.glAttachShader(this.id, sh.glid());
-	    for(AttrID attr : amap.values())
-		gl.glBindAttribLocation(this.id, attr.id, attr.name);
-	    for(int i = 0; i < fragdata.length; i++)
-		gl.glBindFragDataLocation(this.id, i, fragnms[i]);
-	    gl.glLinkProgram(this.id);
+	    if((bin != null) && loadbin(gl))
+		return;
+	    int[] tmp = {};
+	    try {
+		if(bin != null) {
+		    /* The cached binary was rejected, most likely
+		     * because the driver has changed. */
+		    env.progcache.invalidate(cachekey());
+		    tmp = new int[] {gl.glCreateShader(GL.GL_VERTEX_SHADER), gl.glCreateShader(GL.GL_FRAGMENT_SHADER)};
+		    ShaderOb.compile(gl, tmp[0], GL.GL_VERTEX_SHADER, vsrc);
+		    ShaderOb.compile(gl, tmp[1], GL.GL_FRAGMENT_SHADER, fsrc);
+		    for(int sh : tmp)
+			gl.glAttachShader(this.id, sh);
+		}
+		for(ShaderOb sh : shaders)
+		    gl.glAttachShader(this.id, sh.glid());
+		for(AttrID attr : amap.values())
+		    gl.glBindAttribLocation(this.id, attr.id, attr.name);
+		for(int i = 0; i < fragdata.length; i++)
+		    gl.glBindFragDataLocation(this.id, i, fragnms[i]);
+		if(env.progcache != null)
+		    gl.glProgramParameteri(this.id, GL.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, 1);
+		gl.glLinkProgram(this.id);
+	    } finally {
+		for(int sh : tmp)
+		    gl.glDeleteShader(sh);
+	    }
 	    int[] buf = {0};
 	    gl.glGetProgramiv(this.id, GL.GL_LINK_STATUS, buf);
 	    if(buf[0] != 1) {
@@ -350,6 +441,8 @@ public class GLProgram implements Disposable {
 		}
 		throw(new LinkException("Failed to link GL program", GLProgram.this, info));
 	    }
+	    if(env.progcache != null)
+		savebin(gl);
 	}
 
 	protected void delete(GL gl) {
@@ -405,9 +498,13 @@ public class GLProgram implements Disposable {
 		if(disposed)
 		    throw(new RuntimeException("reusing disposed program"));
 		if((glp = this.glp) == null) {
-		    glp = new ProgOb(env,
-				     new ShaderOb(env, GL.GL_VERTEX_SHADER, vsrc),
-				     new ShaderOb(env, GL.GL_FRAGMENT_SHADER, fsrc));
+		    ProgramCache.Binary bin = (env.progcache == null) ? null : env.progcache.get(cachekey());
+		    if(bin != null)
+			glp = new ProgOb(env, bin);
+		    else
+			glp = new ProgOb(env,
+					 new ShaderOb(env, GL.GL_VERTEX_SHADER, vsrc),
+					 new ShaderOb(env, GL.GL_FRAGMENT_SHADER, fsrc));
 		    this.glp = glp;
 		}
 	    }
@@ -455,6 +455,26 @@ public class GLRender implements Render, Disposable {
 	    BGL gl = gl();
 	    gl.glBufferSubData(GL.GL_ARRAY_BUFFER, from, to - from, data.data());
 	    data.dispose();
+	} else if((buf instanceof Texture.Image) && (((Texture.Image<?>)buf).tex instanceof Texture2D)) {
+	    /* Partial texture updates are only supported as whole
+	     * rows, which is what is needed for updating atlas-style
+	     * textures piecemeal. */
+	    Texture.Image<?> img = (Texture.Image<?>)buf;
+	    int rowsz = img.w * img.tex.efmt.size();
+	    if(((from % rowsz) != 0) || ((to % rowsz) != 0))
+		throw(new IllegalArgumentException(String.format("partial texture update %d-%d not aligned to rows of %d bytes", from, to, rowsz)));
+	    FillBuffers.Array fbuf = (FillBuffers.Array)fill.fill(buf, env, from, to);
+	    GLTexture.Tex2D tex = env.prepare((Texture2D)img.tex);
+	    BGL gl = gl();
+	    state.apply(gl, Pipe.nil);
+	    gl.glActiveTexture(GL.GL_TEXTURE0);
+	    tex.bind(gl);
+	    gl.glTexSubImage2D(GL.GL_TEXTURE_2D, img.level, 0, from / rowsz, img.w, (to - from) / rowsz,
+			       GLTexture.texefmt1(img.tex.ifmt, img.tex.efmt, img.tex.eperm),
+			       GLTexture.texefmt2(img.tex.ifmt, img.tex.efmt),
+			       fbuf.data());
+	    tex.unbind(gl);
+	    fbuf.dispose();
 	} else {
 	    throw(new NotImplemented("updating buffer of type: " + buf.getClass().getName()));
 	}
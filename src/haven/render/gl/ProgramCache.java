@@ -0,0 +1,218 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.render.gl;
+
+import java.util.*;
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.nio.charset.StandardCharsets;
+import haven.*;
+
+/* Persistent cache of linked program binaries. Entries are keyed by
+ * a digest of a program's generated GLSL and its attribute and output
+ * bindings, and stored per driver identity, since binaries are only
+ * valid for the driver that produced them. The keys of the programs
+ * used in a session are recorded in a manifest, and the next session
+ * reads those binaries back in the background at startup, so that
+ * creating the programs only costs a glProgramBinary call instead of
+ * a compile and link. */
+public class ProgramCache {
+    public static final Config.Variable<Boolean> enabled = Config.Variable.propb("haven.glprogcache", true);
+    private static final int VERSION = 1;
+    public final ResCache store;
+    public final String dir;
+    private final Map<String, Binary> mem = new HashMap<>();
+    private final Set<String> missing = new HashSet<>();
+    private final Set<String> used = new LinkedHashSet<>();
+    private boolean manifestq = false;
+
+    public static class Binary {
+	public final int format;
+	public final byte[] data;
+
+	public Binary(int format, byte[] data) {
+	    this.format = format;
+	    this.data = data;
+	}
+    }
+
+    public ProgramCache(ResCache store, String driver) {
+	this.store = store;
+	this.dir = "glprog/" + digest(driver).substring(0, 16) + "/";
+	List<String> keys = manifest();
+	if(!keys.isEmpty()) {
+	    Thread warm = new HackThread(() -> warm(keys), "Program cache warmer");
+	    warm.setDaemon(true);
+	    warm.start();
+	}
+    }
+
+    public static ProgramCache forcaps(GLEnvironment.Caps caps) {
+	if(!caps.progbin || !enabled.get() || (ResCache.global == null))
+	    return(null);
+	return(new ProgramCache(ResCache.global, caps.vendor + "\0" + caps.renderer + "\0" + caps.version));
+    }
+
+    public static String digest(String... parts) {
+	try {
+	    MessageDigest dig = MessageDigest.getInstance("SHA-256");
+	    for(String part : parts) {
+		dig.update(part.getBytes(StandardCharsets.UTF_8));
+		dig.update((byte)0);
+	    }
+	    return(Utils.byte2hex(dig.digest()));
+	} catch(NoSuchAlgorithmException e) {
+	    throw(new AssertionError(e));
+	}
+    }
+
+    private Binary load(String key) throws IOException {
+	try(DataInputStream fp = new DataInputStream(store.fetch(dir + key))) {
+	    if(fp.readInt() != VERSION)
+		return(null);
+	    int format = fp.readInt();
+	    byte[] data = new byte[fp.readInt()];
+	    fp.readFully(data);
+	    return(new Binary(format, data));
+	}
+    }
+
+    private void save(String key, Binary bin) throws IOException {
+	try(DataOutputStream fp = new DataOutputStream(store.store(dir + key))) {
+	    fp.writeInt(VERSION);
+	    fp.writeInt(bin.format);
+	    fp.writeInt(bin.data.length);
+	    fp.write(bin.data);
+	}
+    }
+
+    private List<String> manifest() {
+	List<String> keys = new ArrayList<>();
+	try(BufferedReader fp = new BufferedReader(new InputStreamReader(store.fetch(dir + "manifest"), StandardCharsets.UTF_8))) {
+	    for(String ln = fp.readLine(); ln != null; ln = fp.readLine()) {
+		if(!ln.isEmpty())
+		    keys.add(ln);
+	    }
+	} catch(FileNotFoundException e) {
+	} catch(IOException e) {
+	    new Warning(e, "could not read program cache manifest").issue();
+	}
+	return(keys);
+    }
+
+    private void warm(List<String> keys) {
+	for(String key : keys) {
+	    synchronized(this) {
+		if(mem.containsKey(key) || missing.contains(key))
+		    continue;
+	    }
+	    Binary bin;
+	    try {
+		bin = load(key);
+	    } catch(IOException e) {
+		bin = null;
+	    }
+	    synchronized(this) {
+		if(bin != null)
+		    mem.putIfAbsent(key, bin);
+	    }
+	}
+    }
+
+    /* Returns the cached binary for a program, or null if there is
+     * none. Binaries not warmed at startup are read synchronously. */
+    public Binary get(String key) {
+	synchronized(this) {
+	    Binary ret = mem.get(key);
+	    if((ret != null) || missing.contains(key))
+		return(ret);
+	}
+	Binary ret;
+	try {
+	    ret = load(key);
+	} catch(IOException e) {
+	    ret = null;
+	}
+	synchronized(this) {
+	    if(ret == null)
+		missing.add(key);
+	    else
+		mem.put(key, ret);
+	}
+	return(ret);
+    }
+
+    public void put(String key, int format, byte[] data) {
+	Binary bin = new Binary(format, data);
+	synchronized(this) {
+	    mem.put(key, bin);
+	    missing.remove(key);
+	}
+	Defer.later(() -> {
+		try {
+		    save(key, bin);
+		} catch(IOException e) {
+		    new Warning(e, "could not store program binary").issue();
+		}
+		return(null);
+	    });
+	used(key);
+    }
+
+    /* Forgets a binary that the driver refused to load. */
+    public void invalidate(String key) {
+	synchronized(this) {
+	    mem.remove(key);
+	    missing.add(key);
+	}
+    }
+
+    /* Records a program as used in this session, for the manifest. */
+    public void used(String key) {
+	synchronized(this) {
+	    if(!used.add(key) || manifestq)
+		return;
+	    manifestq = true;
+	}
+	Defer.later(() -> {
+		List<String> keys;
+		synchronized(this) {
+		    manifestq = false;
+		    keys = new ArrayList<>(used);
+		}
+		try(Writer fp = new OutputStreamWriter(store.store(dir + "manifest"), StandardCharsets.UTF_8)) {
+		    for(String k : keys)
+			fp.write(k + "\n");
+		} catch(IOException e) {
+		    new Warning(e, "could not write program cache manifest").issue();
+		}
+		return(null);
+	    });
+    }
+}
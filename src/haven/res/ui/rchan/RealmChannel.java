@@ -93,6 +93,9 @@ public class RealmChannel extends ChatUI.MultiChat {
 	public boolean valid(Indir<Text> data) {
 	    return(((Rendered)data).nm.equals(nm()));
 	}
+	public String logtext() {
+	    return(String.format("[%s] %s: %s", timestamp, nm(), text));
+	}
 	/* Remove me */
 	private double lnmck = 0;
 	public Text text() {
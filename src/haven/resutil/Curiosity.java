@@ -90,7 +90,8 @@ public class Curiosity extends ItemInfo.Tip implements GItem.ColorInfo {
 			buf.append(String.format("Learning points: $col[192,192,255]{%s}\n", Utils.thformat(exp), Utils.thformat(Math.round(exp / (time / 3600.0)))));
 		if(time > 0)
 			buf.append(String.format("Study time: $col[192,255,192]{%s}\n", timefmt(time)));
-		String remaining = remainingLongTip();
+		TipCache.State st = TipCache.State.current();
+		String remaining = (st != null) ? st.study : remainingLongTip();
 		if(remaining != null) {
 			buf.append(String.format("Remaining: $col[255,224,192]{%s}\n", remaining));
 		}
@@ -81,24 +81,21 @@ public class FoodInfo extends ItemInfo.Tip {
 	String head = null;
 	boolean matchFound = false;
 	double efficiency = 100;
-	boolean calculateEfficiency = ui != null && ui.modshift;
-	ItemInfo.InfoTip tip = null;
-	if (ui != null)
-		if(ui.lasttip instanceof ItemInfo.InfoTip)
-			tip = (ItemInfo.InfoTip)ui.lasttip;
+	TipCache.State st = (ui == null) ? null : TipCache.State.get(ui);
+	boolean calculateEfficiency = st != null && st.modshift;
 		FoodInfo finf;
 		try {
-			finf = (tip == null)?null:ItemInfo.find(FoodInfo.class, tip.info());
+			finf = (st == null || st.lastinfo == null)?null:ItemInfo.find(FoodInfo.class, st.lastinfo);
 		} catch(Loading l) {
 			finf = null;
 		}
-		if(finf != null) {
-			for(int i = 0; i < ui.gui.chrwdg.cons.els.size(); i++) {
-				CharWnd.Constipations.El el = ui.gui.chrwdg.cons.els.get(i);
+		if(finf != null && st.cons != null) {
+			for(int i = 0; i < st.cons.length; i++) {
+				double a = st.cons[i];
 				for(int o = 0; o < finf.types.length; o++) {
 					if(finf.types[o] == i) {
-						Color c = (el.a > 1.0)? CharWnd.Constipations.buffed:Utils.blendcol(CharWnd.Constipations.none, CharWnd.Constipations.full, el.a);
-						efficiency = 100 * (1.0 - el.a);
+						Color c = (a > 1.0)? CharWnd.Constipations.buffed:Utils.blendcol(CharWnd.Constipations.none, CharWnd.Constipations.full, a);
+						efficiency = 100 * (1.0 - a);
 						head = String.format("\nFood Efficiency: $col["+ c.getRed() +","+ c.getGreen() +","+ c.getBlue() +"]{%s%%}", Utils.odformat2(calculateEfficiency ? efficiency : 100, 2));
 						matchFound = true;
 						break;
@@ -0,0 +1,198 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import java.util.*;
+import java.awt.Color;
+import java.awt.image.*;
+import haven.*;
+
+/* Renders randomly generated map areas both with the per-pixel
+ * BufferedImage code that MapSource.drawmap, MapFile.DataGrid.render
+ * and the minimap generator used to run, and with MapRaster, and
+ * checks that the resulting pixels are identical. Then times both
+ * ways on a few area sizes. Exits with status 1 on any mismatch.
+ *
+ * usage: MapRasterCheck [CASES [SEED]] */
+public class MapRasterCheck {
+    public static class Area {
+	public final Coord sz, ul;
+	public final BufferedImage[] tex;
+	/* Tile IDs with a one-tile border, at stride sz.x + 2. */
+	public final int[] keys, tiles;
+	public final boolean[] broken;
+
+	public Area(Random rnd, Coord sz, int ntex) {
+	    this.sz = sz;
+	    this.ul = Coord.of(rnd.nextInt(2000) - 1000, rnd.nextInt(2000) - 1000);
+	    this.tex = new BufferedImage[ntex];
+	    for(int t = 0; t < ntex; t++) {
+		/* Leave one tile without a texture, and mix the image
+		 * types that tile textures come in. */
+		if(t == ntex / 2)
+		    continue;
+		int w = 1 + rnd.nextInt(40), h = 1 + rnd.nextInt(40);
+		BufferedImage img = ((t % 2) == 0) ? new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB) : TexI.mkbuf(Coord.of(w, h));
+		for(int y = 0; y < h; y++) {
+		    for(int x = 0; x < w; x++)
+			img.setRGB(x, y, rnd.nextInt());
+		}
+		tex[t] = img;
+	    }
+	    int kw = sz.x + 2;
+	    this.keys = new int[kw * (sz.y + 2)];
+	    for(int i = 0; i < keys.length; i++)
+		keys[i] = rnd.nextInt(ntex + 1) - 1;
+	    this.tiles = new int[sz.x * sz.y];
+	    for(int y = 0; y < sz.y; y++) {
+		for(int x = 0; x < sz.x; x++)
+		    tiles[(y * sz.x) + x] = keys[((y + 1) * kw) + x + 1];
+	    }
+	    this.broken = new boolean[tiles.length];
+	    for(int i = 0; i < broken.length; i++)
+		broken[i] = rnd.nextInt(7) == 0;
+	}
+
+	public int gettile(int x, int y) {
+	    return(keys[((y + 1) * (sz.x + 2)) + x + 1]);
+	}
+    }
+
+    /* The drawing code as it was before MapRaster. */
+    public static BufferedImage reference(Area a) {
+	Coord sz = a.sz;
+	BufferedImage buf = TexI.mkbuf(sz);
+	for(int y = 0; y < sz.y; y++) {
+	    for(int x = 0; x < sz.x; x++) {
+		int t = a.gettile(x, y);
+		if(t < 0) {
+		    buf.setRGB(x, y, 0);
+		    continue;
+		}
+		BufferedImage tex = a.tex[t];
+		int rgb = 0;
+		if(tex != null)
+		    rgb = tex.getRGB(Utils.floormod(x + a.ul.x, tex.getWidth()),
+				     Utils.floormod(y + a.ul.y, tex.getHeight()));
+		buf.setRGB(x, y, rgb);
+	    }
+	}
+	for(int cy = 1; cy < sz.y - 1; cy++) {
+	    for(int cx = 1; cx < sz.x - 1; cx++) {
+		if((a.gettile(cx, cy) < 0) || !a.broken[(cy * sz.x) + cx])
+		    continue;
+		for(int y = cy - 1; y <= cy + 1; y++) {
+		    for(int x = cx - 1; x <= cx + 1; x++) {
+			Color cc = new Color(buf.getRGB(x, y));
+			buf.setRGB(x, y, Utils.blendcol(cc, Color.BLACK, ((x == cx) && (y == cy))?1:0.1).getRGB());
+		    }
+		}
+	    }
+	}
+	for(int y = 0; y < sz.y; y++) {
+	    for(int x = 0; x < sz.x; x++) {
+		int t = a.gettile(x, y);
+		if((a.gettile(x - 1, y) > t) ||
+		   (a.gettile(x + 1, y) > t) ||
+		   (a.gettile(x, y - 1) > t) ||
+		   (a.gettile(x, y + 1) > t))
+		    buf.setRGB(x, y, Color.BLACK.getRGB());
+	    }
+	}
+	return(buf);
+    }
+
+    public static BufferedImage raster(Area a) {
+	Coord sz = a.sz;
+	MapRaster.Texels[] pal = new MapRaster.Texels[a.tex.length];
+	for(int t = 0; t < pal.length; t++)
+	    pal[t] = MapRaster.texels(a.tex[t]);
+	MapRaster buf = new MapRaster(sz);
+	buf.fill(a.tiles, pal, a.ul);
+	for(int y = 1; y < sz.y - 1; y++) {
+	    for(int x = 1; x < sz.x - 1; x++) {
+		if((a.tiles[(y * sz.x) + x] >= 0) && a.broken[(y * sz.x) + x])
+		    buf.ridge(x, y);
+	    }
+	}
+	buf.edges(a.keys, 0, 0, sz.x, sz.y);
+	return(buf.image());
+    }
+
+    private static byte[] pixels(BufferedImage img) {
+	return(((DataBufferByte)img.getRaster().getDataBuffer()).getData());
+    }
+
+    /* Returns a description of the first differing pixel, or null. */
+    public static String compare(BufferedImage a, BufferedImage b) {
+	byte[] pa = pixels(a), pb = pixels(b);
+	if(pa.length != pb.length)
+	    return(String.format("sizes differ: %d vs %d bytes", pa.length, pb.length));
+	for(int i = 0; i < pa.length; i++) {
+	    if(pa[i] != pb[i]) {
+		int px = i / 4;
+		return(String.format("pixel (%d, %d): %08x vs %08x", px % a.getWidth(), px / a.getWidth(),
+				     a.getRGB(px % a.getWidth(), px / a.getWidth()), b.getRGB(px % b.getWidth(), px / b.getWidth())));
+	    }
+	}
+	return(null);
+    }
+
+    private static double time(Runnable r, int reps) {
+	r.run();
+	long st = System.nanoTime();
+	for(int i = 0; i < reps; i++)
+	    r.run();
+	return((System.nanoTime() - st) / (reps * 1e6));
+    }
+
+    public static void main(String[] args) {
+	int cases = (args.length > 0) ? Integer.parseInt(args[0]) : 40;
+	long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+	Random rnd = new Random(seed);
+	int bad = 0;
+	for(int i = 0; i < cases; i++) {
+	    /* One grid mostly, and now and then something large
+	     * enough to be drawn in parallel bands. */
+	    Coord sz = ((i % 4) == 0) ? Coord.of(300 + rnd.nextInt(100), 250 + rnd.nextInt(100)) : MCache.cmaps;
+	    Area a = new Area(rnd, sz, 6);
+	    String diff = compare(reference(a), raster(a));
+	    if(diff != null) {
+		System.out.printf("case %d (%s): %s%n", i, sz, diff);
+		bad++;
+	    }
+	}
+	System.out.printf("%d/%d cases identical%n", cases - bad, cases);
+	for(Coord sz : new Coord[] {MCache.cmaps, MCache.cmaps.mul(4), Coord.of(1000, 1000)}) {
+	    Area a = new Area(new Random(seed), sz, 6);
+	    int reps = Math.max(1, 2000000 / (sz.x * sz.y));
+	    double ot = time(() -> reference(a), reps), nt = time(() -> raster(a), reps);
+	    System.out.printf("%s: per-pixel %.2f ms, MapRaster %.2f ms (%.1fx)%n", sz, ot, nt, ot / nt);
+	}
+	System.exit((bad == 0) ? 0 : 1);
+    }
+}
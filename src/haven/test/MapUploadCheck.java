@@ -0,0 +1,151 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+import java.net.*;
+import java.awt.image.BufferedImage;
+import com.sun.net.httpserver.*;
+import haven.automated.mapper.UploadPipeline;
+
+/* Runs UploadPipeline against a stub mapping server on localhost and
+ * checks that grids are uploaded over kept-alive connections, that
+ * server errors are retried, that renders only ever run on encoder
+ * threads, and that grids requested again in the same session are
+ * only sent again if their pixels have changed, while a new session
+ * sends them all. Exits with status 1 if any check fails. */
+public class MapUploadCheck {
+    public static final int NGRIDS = 40, NFAIL = 3;
+    private final Set<Integer> ports = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger failing = new AtomicInteger(NFAIL), received = new AtomicInteger();
+    private final Set<String> renderers = ConcurrentHashMap.newKeySet();
+    private int errors = 0;
+
+    private void check(boolean ok, String fmt, Object... args) {
+	String msg = String.format(fmt, args);
+	System.out.println((ok ? "ok:   " : "FAIL: ") + msg);
+	if(!ok)
+	    errors++;
+    }
+
+    private HttpServer server() throws IOException {
+	HttpServer srv = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+	srv.createContext("/gridUpload", ex -> {
+		ports.add(ex.getRemoteAddress().getPort());
+		ex.getRequestBody().readAllBytes();
+		try {
+		    /* Slow enough for the queues to fill up. */
+		    Thread.sleep(20);
+		} catch(InterruptedException e) {
+		}
+		int code = (failing.getAndDecrement() > 0) ? 503 : 200;
+		if(code == 200)
+		    received.incrementAndGet();
+		byte[] rsp = "ok".getBytes();
+		ex.sendResponseHeaders(code, rsp.length);
+		try(OutputStream out = ex.getResponseBody()) {
+		    out.write(rsp);
+		}
+	    });
+	srv.setExecutor(Executors.newFixedThreadPool(4));
+	srv.start();
+	return(srv);
+    }
+
+    private BufferedImage grid(int n, int changed) {
+	renderers.add(Thread.currentThread().getName());
+	BufferedImage img = new BufferedImage(100, 100, BufferedImage.TYPE_4BYTE_ABGR);
+	img.setRGB(n, n, (n == changed) ? 0xffff0000 : 0xff00ff00);
+	return(img);
+    }
+
+    private void submit(UploadPipeline p, int changed) {
+	long start = System.nanoTime();
+	for(int i = 0; i < NGRIDS; i++) {
+	    int n = i;
+	    p.grid("g" + i, () -> grid(n, changed), "{}");
+	}
+	double t = (System.nanoTime() - start) / 1e9;
+	check(t < 1.0, "queueing %d grids did not block the caller (%.3f s)", NGRIDS, t);
+    }
+
+    private static void await(UploadPipeline p, int uploaded, int skipped) throws InterruptedException {
+	for(int i = 0; (i < 300) && ((p.uploaded.get() < uploaded) || (p.skipped.get() < skipped)); i++)
+	    Thread.sleep(100);
+	/* Let anything that should not be there show up. */
+	Thread.sleep(500);
+    }
+
+    public void run() throws Exception {
+	HttpServer srv = server();
+	try {
+	    String url = "http://" + srv.getAddress().getHostString() + ":" + srv.getAddress().getPort();
+
+	    UploadPipeline p = new UploadPipeline(() -> url, 2, 2, 4);
+	    submit(p, -1);
+	    await(p, NGRIDS, 0);
+	    System.out.println("first run: " + p.stats());
+	    check(p.uploaded.get() == NGRIDS, "all %d grids uploaded (%d)", NGRIDS, p.uploaded.get());
+	    check(p.retried.get() >= NFAIL, "%d server errors retried (%d)", NFAIL, p.retried.get());
+	    check(p.failed.get() == 0, "no uploads failed (%d)", p.failed.get());
+	    check(ports.size() < NGRIDS, "connections kept alive (%d for %d requests)", ports.size(), NGRIDS + NFAIL);
+	    boolean encoders = true;
+	    for(String nm : renderers)
+		encoders &= nm.startsWith("Map encoder");
+	    check(encoders, "grids only rendered on encoder threads %s", renderers);
+
+	    int before = received.get();
+	    submit(p, 7);
+	    await(p, NGRIDS + 1, NGRIDS - 1);
+	    System.out.println("same session: " + p.stats());
+	    p.shutdown();
+	    check(p.skipped.get() == NGRIDS - 1, "unchanged grids skipped (%d)", p.skipped.get());
+	    check(received.get() - before == 1, "only the changed grid sent again (%d)", received.get() - before);
+
+	    before = received.get();
+	    UploadPipeline p2 = new UploadPipeline(() -> url, 2, 2, 4);
+	    submit(p2, 7);
+	    await(p2, NGRIDS, 0);
+	    System.out.println("new session: " + p2.stats());
+	    p2.shutdown();
+	    check(p2.skipped.get() == 0, "nothing skipped in a new session (%d)", p2.skipped.get());
+	    check(received.get() - before == NGRIDS, "all grids sent again (%d)", received.get() - before);
+	} finally {
+	    srv.stop(0);
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	MapUploadCheck c = new MapUploadCheck();
+	c.run();
+	System.out.println((c.errors == 0) ? "all checks passed" : (c.errors + " checks failed"));
+	System.exit((c.errors == 0) ? 0 : 1);
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+import haven.Coord;
+import haven.automated.pathfinder.*;
+import haven.automated.pathfinder.Map;
+
+/* Replays the routes of saved pathfinder scenes (see
+ * haven.pathfind.record and etc/pathfind) and checks that the
+ * current engine finds routes as short as the A* it replaced:
+ *
+ *  - AStar against OldAStar on the visibility graph that Map builds
+ *    from the scene's waypoints, and
+ *  - GridSearch against OldAStar on the scene's cell grid, taken as
+ *    an 8-connected graph whose diagonals do not cut corners.
+ *
+ * Prints the timings of each, and exits with status 1 if any route
+ * cost differs.
+ *
+ * usage: PathfindCheck [DIR]
+ *        PathfindCheck -g DIR [SCENES [SEED]]
+ *
+ * The second form writes synthetic scenes to DIR, plotted with the
+ * same routines and clearances as Map uses for tiles and gobs. */
+public class PathfindCheck {
+    private static final byte BLOCK = (byte)(Map.CELL_BLK | Map.CELL_TO);
+    private int errors = 0;
+
+    /* AStar as it was before its search state was kept in arrays. */
+    public static class OldAStar {
+	public Iterable<Edge> route(Vertex start, Vertex end) {
+	    Node dest = findShortestPath(new Path(start, end));
+	    LinkedList<Edge> path = new LinkedList<Edge>();
+	    if(dest != null) {
+		while(dest.edge != null) {
+		    path.addFirst(dest.edge);
+		    dest = dest.prev;
+		}
+	    }
+	    return(path);
+	}
+
+	private Node findShortestPath(Path p) {
+	    int order = 0;
+	    Set<Node> closed = new HashSet<Node>();
+	    PriorityQueue<Node> open = new PriorityQueue<Node>();
+	    Node current = p.node(p.start);
+	    current.reset(null, null, 0, order++);
+	    open.add(current);
+	    while(!open.isEmpty()) {
+		current = open.remove();
+		if(current.vertex.equals(p.end))
+		    return(current);
+		closed.add(current);
+		for(Edge edge : current.vertex.edges) {
+		    Node n = p.node(edge.dest);
+		    double g = current.g + edge.weight;
+		    double f = g + n.h;
+		    if(closed.contains(n) && f >= n.f())
+			continue;
+		    if(!open.contains(n) || f < n.f()) {
+			open.remove(n);
+			n.reset(current, edge, g, order++);
+			open.add(n);
+		    }
+		}
+	    }
+	    return(null);
+	}
+
+	private static class Path {
+	    private final Vertex start, end;
+	    private final java.util.Map<Vertex, Node> nodes = new HashMap<Vertex, Node>();
+
+	    Path(Vertex start, Vertex end) {
+		this.start = start;
+		this.end = end;
+	    }
+
+	    private Node node(Vertex vertex) {
+		Node n = nodes.get(vertex);
+		if(n == null)
+		    nodes.put(vertex, n = new Node(vertex, Math.hypot(vertex.x - end.x, vertex.y - end.y)));
+		return(n);
+	    }
+	}
+
+	private static class Node implements Comparable<Node> {
+	    private final Vertex vertex;
+	    private final double h;
+	    private Node prev;
+	    private Edge edge;
+	    private double g;
+	    private int order;
+
+	    Node(Vertex vertex, double h) {
+		this.vertex = vertex;
+		this.h = h;
+	    }
+
+	    private void reset(Node prev, Edge edge, double g, int order) {
+		this.prev = prev;
+		this.edge = edge;
+		this.g = g;
+		this.order = order;
+	    }
+
+	    private double f() {
+		return(g + h);
+	    }
+
+	    public int compareTo(Node n) {
+		if(this == n)
+		    return(0);
+		int diff = (int)Math.signum(f() - n.f());
+		if(diff == 0)
+		    diff = (int)Math.signum(h - n.h);
+		if(diff == 0)
+		    diff = order = n.order;
+		return(diff);
+	    }
+	}
+    }
+
+    private static double cost(Iterable<Edge> path) {
+	double ret = 0;
+	boolean any = false;
+	for(Edge e : path) {
+	    ret += e.weight;
+	    any = true;
+	}
+	return(any ? ret : Double.NaN);
+    }
+
+    private static double cost(Coord start, List<Coord> jps) {
+	if(jps == null)
+	    return(Double.NaN);
+	double ret = 0;
+	Coord p = start;
+	for(Coord c : jps) {
+	    int dx = Math.abs(c.x - p.x), dy = Math.abs(c.y - p.y);
+	    ret += Math.max(dx, dy) + ((Math.sqrt(2) - 1) * Math.min(dx, dy));
+	    p = c;
+	}
+	return(ret);
+    }
+
+    /* The visibility graph over the scene's waypoints, built the way
+     * Map does when it falls back to it. */
+    private static Vertex[] visgraph(byte[][] map, Coord s, Coord e) {
+	List<Vertex> vs = new ArrayList<>();
+	vs.add(new Vertex(s.x, s.y));
+	vs.add(new Vertex(e.x, e.y));
+	for(int x = 0; x < map.length; x++) {
+	    for(int y = 0; y < map[x].length; y++) {
+		if(map[x][y] == Map.CELL_WP)
+		    vs.add(new Vertex(x, y));
+	    }
+	}
+	Dbg dbg = new Dbg(false);
+	for(int i = 0; i < vs.size(); i++) {
+	    for(int o = i + 1; o < vs.size(); o++) {
+		Vertex a = vs.get(i), b = vs.get(o);
+		if(haven.automated.pathfinder.Utils.isVisible(map, dbg, a.x, a.y, b.x, b.y, Map.CELL_BLK)) {
+		    double d = Math.hypot(a.x - b.x, a.y - b.y);
+		    a.edges.add(new Edge(a, b, d));
+		    b.edges.add(new Edge(b, a, d));
+		}
+	    }
+	}
+	return(vs.toArray(new Vertex[0]));
+    }
+
+    private static boolean free(byte[][] map, int x, int y, Coord s, Coord e) {
+	if((x < 0) || (y < 0) || (x >= map.length) || (y >= map[0].length))
+	    return(false);
+	return(((map[x][y] & BLOCK) == 0) || ((x == s.x) && (y == s.y)) || ((x == e.x) && (y == e.y)));
+    }
+
+    /* The cell grid as a graph, with the same moves as GridSearch
+     * allows. Returns the vertices of the two end points. */
+    private static Vertex[] gridgraph(byte[][] map, Coord s, Coord e) {
+	int w = map.length, h = map[0].length;
+	Vertex[][] vs = new Vertex[w][h];
+	for(int x = 0; x < w; x++) {
+	    for(int y = 0; y < h; y++) {
+		if(free(map, x, y, s, e))
+		    vs[x][y] = new Vertex(x, y);
+	    }
+	}
+	for(int x = 0; x < w; x++) {
+	    for(int y = 0; y < h; y++) {
+		Vertex v = vs[x][y];
+		if(v == null)
+		    continue;
+		for(int dx = -1; dx <= 1; dx++) {
+		    for(int dy = -1; dy <= 1; dy++) {
+			if(((dx == 0) && (dy == 0)) || !free(map, x + dx, y + dy, s, e))
+			    continue;
+			if((dx != 0) && (dy != 0) && (!free(map, x + dx, y, s, e) || !free(map, x, y + dy, s, e)))
+			    continue;
+			v.edges.add(new Edge(v, vs[x + dx][y + dy], ((dx != 0) && (dy != 0)) ? Math.sqrt(2) : 1));
+		    }
+		}
+	    }
+	}
+	return(new Vertex[] {vs[s.x][s.y], vs[e.x][e.y]});
+    }
+
+    private static double time(Runnable r, int reps) {
+	r.run();
+	long st = System.nanoTime();
+	for(int i = 0; i < reps; i++)
+	    r.run();
+	return((System.nanoTime() - st) / (reps * 1e6));
+    }
+
+    private void compare(String what, double a, double b) {
+	boolean ok = (Double.isNaN(a) && Double.isNaN(b)) || (Math.abs(a - b) <= 0.01 + (a * 1e-5));
+	if(!ok) {
+	    System.out.printf("  FAIL: %s: %.4f vs %.4f%n", what, a, b);
+	    errors++;
+	}
+    }
+
+    private void check(String name, Scene scene) {
+	for(Coord[] r : scene.routes) {
+	    Coord s = r[0], e = r[1];
+	    System.out.printf("%s: %s -> %s%n", name, s, e);
+
+	    long st = System.nanoTime();
+	    Vertex[] vis = visgraph(scene.map, s, e);
+	    double gt = (System.nanoTime() - st) / 1e6;
+	    Vertex vs = vis[0], ve = vis[1];
+	    OldAStar oas = new OldAStar();
+	    AStar nas = new AStar();
+	    double oc = cost(oas.route(vs, ve)), nc = cost(nas.route(vs, ve));
+	    compare("visibility graph, AStar", oc, nc);
+	    double ot = time(() -> oas.route(vs, ve), 1000), nt = time(() -> nas.route(vs, ve), 1000);
+	    System.out.printf("  visibility graph (%d vertices, built in %.1f ms): cost %.2f, old AStar %.3f ms, AStar %.3f ms (%.1fx)%n",
+			      vis.length, gt, nc, ot, nt, ot / nt);
+
+	    GridSearch gs = new GridSearch();
+	    List<Coord> jps = gs.route(scene.map, s.x, s.y, e.x, e.y, BLOCK);
+	    double jc = cost(s, jps);
+	    double jt = time(() -> gs.route(scene.map, s.x, s.y, e.x, e.y, BLOCK), 20);
+	    Vertex[] grid = gridgraph(scene.map, s, e);
+	    double gc = cost(oas.route(grid[0], grid[1]));
+	    compare("cell grid, GridSearch", gc, jc);
+	    double got = time(() -> oas.route(grid[0], grid[1]), 1);
+	    System.out.printf("  cell grid: cost %.2f, old AStar %.1f ms, GridSearch %.3f ms (%.0fx)%n",
+			      jc, got, jt, got / jt);
+	}
+    }
+
+    /* Plotting as Map.initGeography and Map.addGobToList do it. */
+    private static void gob(byte[][] map, int gcx, int gcy, Coord tl, Coord br, double a) {
+	int pb = Map.plbbox, way = pb + 2;
+	double cos = Math.cos(a), sin = Math.sin(a);
+	Coord ca = haven.automated.pathfinder.Utils.rotate(gcx + tl.x - pb, gcy + tl.y - pb, gcx, gcy, cos, sin);
+	Coord cb = haven.automated.pathfinder.Utils.rotate(gcx + br.x + pb, gcy + tl.y - pb, gcx, gcy, cos, sin);
+	Coord cc = haven.automated.pathfinder.Utils.rotate(gcx + br.x + pb, gcy + br.y + pb, gcx, gcy, cos, sin);
+	Coord cd = haven.automated.pathfinder.Utils.rotate(gcx + tl.x - pb, gcy + br.y + pb, gcx, gcy, cos, sin);
+	Coord[] wps = {
+	    haven.automated.pathfinder.Utils.rotate(gcx + tl.x - way, gcy + tl.y - way, gcx, gcy, cos, sin),
+	    haven.automated.pathfinder.Utils.rotate(gcx + br.x + way, gcy + tl.y - way, gcx, gcy, cos, sin),
+	    haven.automated.pathfinder.Utils.rotate(gcx + br.x + way, gcy + br.y + way, gcx, gcy, cos, sin),
+	    haven.automated.pathfinder.Utils.rotate(gcx + tl.x - way, gcy + br.y + way, gcx, gcy, cos, sin),
+	};
+	for(Coord c : wps) {
+	    if((c.x < 8) || (c.y < 8) || (c.x >= Map.sz - 8) || (c.y >= Map.sz - 8))
+		return;
+	}
+	for(Coord c : wps) {
+	    if(map[c.x][c.y] == Map.CELL_FREE)
+		map[c.x][c.y] = Map.CELL_WP;
+	}
+	haven.automated.pathfinder.Utils.plotRect(map, ca, cb, cc, cd, Map.CELL_BLK);
+    }
+
+    private static void tile(byte[][] map, int gcx, int gcy) {
+	int pb = Map.plbbox;
+	Coord ca = Coord.of(gcx - 2 - pb, gcy - 2 - pb), cb = Coord.of(gcx + 2 + pb, gcy - 2 - pb);
+	Coord cc = Coord.of(gcx + 2 + pb, gcy + 2 + pb), cd = Coord.of(gcx - 2 - pb, gcy + 2 + pb);
+	Coord[] wps = {ca.add(-1, -1), cb.add(1, -1), cc.add(1, 1), cd.add(-1, 1)};
+	for(Coord c : wps) {
+	    if((c.x < 8) || (c.y < 8) || (c.x >= Map.sz - 8) || (c.y >= Map.sz - 8))
+		return;
+	}
+	haven.automated.pathfinder.Utils.plotTile(map, ca, cb, cd);
+	for(Coord c : wps) {
+	    if(map[c.x][c.y] == Map.CELL_FREE)
+		map[c.x][c.y] = Map.CELL_WP;
+	}
+    }
+
+    public static Scene generate(Random rnd) {
+	int sz = Map.sz, o = Map.origin;
+	byte[][] map = new byte[sz][sz];
+	/* Impassable terrain in tile-aligned blobs, such as water and
+	 * cliffs. */
+	for(int i = 0, n = 10 + rnd.nextInt(20); i < n; i++) {
+	    int tx = rnd.nextInt(88), ty = rnd.nextInt(88);
+	    for(int t = 0, nt = 1 + rnd.nextInt(12); t < nt; t++) {
+		tile(map, (tx * 11) + 5, (ty * 11) + 5);
+		if(rnd.nextBoolean())
+		    tx += rnd.nextBoolean() ? 1 : -1;
+		else
+		    ty += rnd.nextBoolean() ? 1 : -1;
+	    }
+	}
+	/* Trees, boulders and buildings, some of them rotated. */
+	for(int i = 0, n = 40 + rnd.nextInt(80); i < n; i++) {
+	    int hw = 2 + rnd.nextInt((rnd.nextInt(5) == 0) ? 20 : 5), hh = (rnd.nextInt(3) == 0) ? 2 + rnd.nextInt(20) : hw;
+	    double a = (rnd.nextInt(4) == 0) ? rnd.nextDouble() * Math.PI : 0;
+	    gob(map, 16 + rnd.nextInt(sz - 32), 16 + rnd.nextInt(sz - 32), Coord.of(-hw, -hh), Coord.of(hw, hh), a);
+	}
+	/* A fence line with a gap. */
+	int fy = 100 + rnd.nextInt(sz - 200), gap = 100 + rnd.nextInt(sz - 200);
+	for(int x = 40; x < sz - 40; x += 11) {
+	    if(Math.abs(x - gap) > 20)
+		gob(map, x, fy, Coord.of(-5, -1), Coord.of(5, 1), 0);
+	}
+	for(int i = 0; i < sz; i++) {
+	    map[i][4] = Map.CELL_BLK;
+	    map[i][sz - 4] = Map.CELL_BLK;
+	    map[4][i] = Map.CELL_BLK;
+	    map[sz - 4][i] = Map.CELL_BLK;
+	}
+	/* As Map.sanitizeWaypoints. */
+	for(int x = 0; x < sz; x++) {
+	    for(int y = 0; y < sz; y++) {
+		if((map[x][y] == Map.CELL_WP) &&
+		   (((map[x + 2][y] & BLOCK) != 0) || ((map[x - 2][y] & BLOCK) != 0) ||
+		    ((map[x][y + 2] & BLOCK) != 0) || ((map[x][y - 2] & BLOCK) != 0)))
+		    map[x][y] = Map.CELL_FREE;
+	    }
+	}
+	for(int x = o - 1; x <= o + 1; x++) {
+	    for(int y = o - 1; y <= o + 1; y++)
+		map[x][y] = Map.CELL_FREE;
+	}
+	Scene ret = new Scene(map);
+	while(ret.routes.size() < 3) {
+	    int ex = 8 + rnd.nextInt(sz - 16), ey = 8 + rnd.nextInt(sz - 16);
+	    if((map[ex][ey] & BLOCK) == 0)
+		ret.routes.add(new Coord[] {Coord.of(o, o), Coord.of(ex, ey)});
+	}
+	return(ret);
+    }
+
+    public static void main(String[] args) throws IOException {
+	if((args.length > 0) && args[0].equals("-g")) {
+	    Path dir = Paths.get(args[1]);
+	    int n = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+	    Random rnd = new Random((args.length > 3) ? Long.parseLong(args[3]) : 1);
+	    Files.createDirectories(dir);
+	    for(int i = 0; i < n; i++)
+		generate(rnd).save(dir.resolve(String.format("synthetic-%d.pfscene", i)));
+	    return;
+	}
+	Path dir = Paths.get((args.length > 0) ? args[0] : "etc/pathfind");
+	List<Path> files = new ArrayList<>();
+	try(DirectoryStream<Path> ls = Files.newDirectoryStream(dir, "*.pfscene")) {
+	    for(Path p : ls)
+		files.add(p);
+	}
+	Collections.sort(files);
+	PathfindCheck check = new PathfindCheck();
+	for(Path p : files)
+	    check.check(p.getFileName().toString(), Scene.load(p));
+	System.out.printf("%d scenes, %d mismatches%n", files.size(), check.errors);
+	System.exit(((check.errors == 0) && !files.isEmpty()) ? 0 : 1);
+    }
+}